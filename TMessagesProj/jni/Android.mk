@@ -226,6 +226,7 @@ endif
 LOCAL_MODULE := sqlite
 LOCAL_CFLAGS 	:= -w -std=c11 -Os -DNULL=0 -DSOCKLEN_T=socklen_t -DLOCALE_NOT_USED -D_LARGEFILE_SOURCE=1 -D_FILE_OFFSET_BITS=64
 LOCAL_CFLAGS 	+= -DANDROID_NDK -DDISABLE_IMPORTGL -fno-strict-aliasing -fprefetch-loop-arrays -DAVOID_TABLES -DANDROID_TILE_BASED_DECODE -DANDROID_ARMV6_IDCT -DHAVE_STRCHRNUL=0
+LOCAL_CFLAGS 	+= -DSQLITE_ENABLE_FTS4
 
 LOCAL_SRC_FILES     := \
 ./sqlite/sqlite3.c
@@ -524,6 +525,7 @@ LOCAL_SRC_FILES     += \
 ./sqlite_cursor.c \
 ./sqlite_database.c \
 ./sqlite_statement.c \
+./sqlite_compression.c \
 ./sqlite.c \
 ./audio.c \
 ./utils.c \
@@ -99,6 +99,21 @@ void sendRequest(JNIEnv *env, jclass c, jint object, jobject onComplete, jobject
     }), flags, datacenterId, (ConnectionType) connetionType, immediate, token, onComplete, onQuickAck);
 }
 
+void sendRequests(JNIEnv *env, jclass c, jintArray objects, jobjectArray onComplete, jint flags, jint datacenterId, jint connetionType, jintArray tokens) {
+    jsize count = env->GetArrayLength(objects);
+    jint *objectsArr = env->GetIntArrayElements(objects, 0);
+    jint *tokensArr = env->GetIntArrayElements(tokens, 0);
+    for (jsize a = 0; a < count; a++) {
+        jobject delegate = env->GetObjectArrayElement(onComplete, a);
+        sendRequest(env, c, objectsArr[a], delegate, nullptr, flags, datacenterId, connetionType, (jboolean) (a == count - 1), tokensArr[a]);
+        if (delegate != nullptr) {
+            env->DeleteLocalRef(delegate);
+        }
+    }
+    env->ReleaseIntArrayElements(objects, objectsArr, JNI_ABORT);
+    env->ReleaseIntArrayElements(tokens, tokensArr, JNI_ABORT);
+}
+
 void cancelRequest(JNIEnv *env, jclass c, jint token, jboolean notifyServer) {
     return ConnectionsManager::getInstance().cancelRequest(token, notifyServer);
 }
@@ -235,6 +250,7 @@ static JNINativeMethod ConnectionsManagerMethods[] = {
         {"native_getCurrentTime", "()I", (void *) getCurrentTime},
         {"native_getTimeDifference", "()I", (void *) getTimeDifference},
         {"native_sendRequest", "(ILorg/telegram/tgnet/RequestDelegateInternal;Lorg/telegram/tgnet/QuickAckDelegate;IIIZI)V", (void *) sendRequest},
+        {"native_sendRequests", "([I[Lorg/telegram/tgnet/RequestDelegateInternal;III[I)V", (void *) sendRequests},
         {"native_cancelRequest", "(IZ)V", (void *) cancelRequest},
         {"native_cleanUp", "()V", (void *) cleanUp},
         {"native_cancelRequestsForGuid", "(I)V", (void *) cancelRequestsForGuid},
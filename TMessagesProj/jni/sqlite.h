@@ -7,4 +7,9 @@
 void throw_sqlite3_exception(JNIEnv* env, sqlite3 *handle, int errcode);
 jint sqliteOnJNILoad(JavaVM *vm, void *reserved, JNIEnv *env);
 
+int blob_is_compressed(const unsigned char *data, int length);
+int blob_uncompressed_length(const unsigned char *data, int length);
+int blob_decompress(const unsigned char *data, int length, unsigned char *out, int outLength);
+unsigned char *blob_compress(const unsigned char *data, int length, int *outLength);
+
 #endif
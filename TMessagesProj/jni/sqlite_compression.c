@@ -0,0 +1,119 @@
+#include <stdlib.h>
+#include <string.h>
+#include <zlib.h>
+#include "sqlite.h"
+
+// compressed blob layout: 4 zero bytes (never a valid TL constructor), codec byte, uncompressed length (int32 le), raw deflate stream
+
+#define BLOB_MARKER_SIZE 4
+#define BLOB_HEADER_SIZE 9
+#define BLOB_CODEC_DEFLATE_DICT_1 1
+#define BLOB_COMPRESS_MIN_SIZE 96
+
+// frozen: rows written with codec 1 depend on these exact bytes, add a new codec id instead of changing them
+static const unsigned char blobDictionary1[] = {
+    0x0a, 0x69, 0x6d, 0x61, 0x67, 0x65, 0x2f, 0x6a, 0x70, 0x65, 0x67, 0x00, 0x0a, 0x69, 0x6d, 0x61,
+    0x67, 0x65, 0x2f, 0x77, 0x65, 0x62, 0x70, 0x00, 0x09, 0x76, 0x69, 0x64, 0x65, 0x6f, 0x2f, 0x6d,
+    0x70, 0x34, 0x00, 0x00, 0x09, 0x61, 0x75, 0x64, 0x69, 0x6f, 0x2f, 0x6f, 0x67, 0x67, 0x00, 0x00,
+    0x0f, 0x61, 0x70, 0x70, 0x6c, 0x69, 0x63, 0x61, 0x74, 0x69, 0x6f, 0x6e, 0x2f, 0x70, 0x64, 0x66,
+    0x08, 0x68, 0x74, 0x74, 0x70, 0x73, 0x3a, 0x2f, 0x2f, 0x00, 0x00, 0x00, 0x07, 0x68, 0x74, 0x74,
+    0x70, 0x3a, 0x2f, 0x2f, 0x0c, 0x74, 0x65, 0x6c, 0x65, 0x67, 0x72, 0x61, 0x6d, 0x2e, 0x6d, 0x65,
+    0x2f, 0x00, 0x00, 0x00, 0x05, 0x74, 0x2e, 0x6d, 0x65, 0x2f, 0x00, 0x00, 0x0c, 0x79, 0x6f, 0x75,
+    0x74, 0x75, 0x62, 0x65, 0x2e, 0x63, 0x6f, 0x6d, 0x2f, 0x00, 0x00, 0x00, 0xd7, 0x0e, 0x82, 0xca,
+    0x00, 0xd6, 0x2d, 0xa3, 0x8c, 0x75, 0x02, 0x35, 0x00, 0x00, 0x00, 0x00, 0x15, 0xc4, 0xb5, 0x1c,
+    0x01, 0x00, 0x00, 0x00, 0x83, 0x8b, 0x60, 0x77, 0x15, 0xc4, 0xb5, 0x1c, 0x01, 0x00, 0x00, 0x00,
+    0x80, 0x48, 0xfa, 0xa2, 0x4f, 0x9f, 0xa3, 0xf9, 0xa8, 0x2e, 0xe0, 0xf3, 0x15, 0xc4, 0xb5, 0x1c,
+    0x02, 0x00, 0x00, 0x00, 0x5c, 0xc1, 0x37, 0x6c, 0x39, 0x89, 0xb5, 0x11, 0x68, 0x00, 0x59, 0x15,
+    0x02, 0x63, 0x55, 0x3a, 0x69, 0xa2, 0xe7, 0x9d, 0xcb, 0xcc, 0x10, 0x59, 0xc6, 0xf9, 0x52, 0x98,
+    0x37, 0x73, 0x8a, 0x48, 0xf6, 0xa1, 0x19, 0x9e, 0x54, 0xdd, 0x1c, 0xd9, 0x52, 0xca, 0x4d, 0xa1,
+    0x6a, 0x27, 0x53, 0x61, 0x9a, 0x97, 0x0d, 0xd1, 0xc8, 0xd8, 0x59, 0xd5, 0x3f, 0x70, 0x8c, 0x00,
+    0xf1, 0x42, 0x6f, 0xe2, 0xcb, 0xdd, 0x86, 0xc7, 0x38, 0x25, 0xd0, 0x6e, 0xc9, 0x0b, 0x61, 0xbd,
+    0x3c, 0xe2, 0x17, 0x0e, 0x01, 0x73, 0x00, 0x00, 0x46, 0x6b, 0x59, 0x7c, 0x3d, 0xe5, 0x8c, 0x3d,
+    0xfe, 0x42, 0xed, 0xcd, 0x00, 0x00, 0x00, 0x00, 0x15, 0xc4, 0xb5, 0x1c, 0x03, 0x00, 0x00, 0x00,
+    0x1b, 0xb6, 0xbf, 0x77, 0x01, 0x73, 0x00, 0x00, 0x76, 0x90, 0xd6, 0x53, 0x1b, 0xb6, 0xbf, 0x77,
+    0x01, 0x6d, 0x00, 0x00, 0x76, 0x90, 0xd6, 0x53, 0x1b, 0xb6, 0xbf, 0x77, 0x01, 0x78, 0x00, 0x00,
+    0x76, 0x90, 0xd6, 0x53, 0xfa, 0x34, 0xa7, 0xe9, 0x01, 0x73, 0x00, 0x00, 0x32, 0xe5, 0xdd, 0xbd,
+    0xbb, 0xe5, 0xd0, 0xba, 0x6d, 0xbc, 0xb1, 0x9d, 0x15, 0xc4, 0xb5, 0x1c, 0x00, 0x00, 0x00, 0x00,
+    0x20, 0x63, 0xed, 0x3d, 0x15, 0xc4, 0xb5, 0x1c, 0x00, 0x00, 0x00, 0x00, 0x5f, 0xe4, 0x9b, 0xc0,
+    0x6d, 0xbc, 0xb1, 0x9d, 0x00, 0x00, 0x00, 0x00, 0x20, 0x63, 0xed, 0x3d, 0x15, 0xc4, 0xb5, 0x1c,
+    0x00, 0x00, 0x00, 0x00,
+};
+
+static int readInt32(const unsigned char *data) {
+    return data[0] | (data[1] << 8) | (data[2] << 16) | (data[3] << 24);
+}
+
+static void writeInt32(unsigned char *data, int value) {
+    data[0] = (unsigned char) value;
+    data[1] = (unsigned char) (value >> 8);
+    data[2] = (unsigned char) (value >> 16);
+    data[3] = (unsigned char) (value >> 24);
+}
+
+int blob_is_compressed(const unsigned char *data, int length) {
+    return data != 0 && length > BLOB_HEADER_SIZE && readInt32(data) == 0 && data[BLOB_MARKER_SIZE] == BLOB_CODEC_DEFLATE_DICT_1;
+}
+
+int blob_uncompressed_length(const unsigned char *data, int length) {
+    if (!blob_is_compressed(data, length)) {
+        return length;
+    }
+    return readInt32(data + BLOB_MARKER_SIZE + 1);
+}
+
+int blob_decompress(const unsigned char *data, int length, unsigned char *out, int outLength) {
+    int size = readInt32(data + BLOB_MARKER_SIZE + 1);
+    if (size <= 0 || size > outLength) {
+        return 0;
+    }
+    z_stream stream;
+    memset(&stream, 0, sizeof(z_stream));
+    if (inflateInit2(&stream, -MAX_WBITS) != Z_OK) {
+        return 0;
+    }
+    int result = 0;
+    if (inflateSetDictionary(&stream, blobDictionary1, sizeof(blobDictionary1)) == Z_OK) {
+        stream.next_in = (Bytef *) (data + BLOB_HEADER_SIZE);
+        stream.avail_in = (uInt) (length - BLOB_HEADER_SIZE);
+        stream.next_out = out;
+        stream.avail_out = (uInt) size;
+        if (inflate(&stream, Z_FINISH) == Z_STREAM_END && stream.total_out == size) {
+            result = size;
+        }
+    }
+    inflateEnd(&stream);
+    return result;
+}
+
+unsigned char *blob_compress(const unsigned char *data, int length, int *outLength) {
+    if (data == 0 || length < BLOB_COMPRESS_MIN_SIZE) {
+        return 0;
+    }
+    z_stream stream;
+    memset(&stream, 0, sizeof(z_stream));
+    if (deflateInit2(&stream, Z_BEST_SPEED, Z_DEFLATED, -MAX_WBITS, 8, Z_DEFAULT_STRATEGY) != Z_OK) {
+        return 0;
+    }
+    unsigned char *out = 0;
+    if (deflateSetDictionary(&stream, blobDictionary1, sizeof(blobDictionary1)) == Z_OK) {
+        int capacity = length - 1;
+        out = malloc((size_t) capacity);
+        if (out != 0) {
+            stream.next_in = (Bytef *) data;
+            stream.avail_in = (uInt) length;
+            stream.next_out = out + BLOB_HEADER_SIZE;
+            stream.avail_out = (uInt) (capacity - BLOB_HEADER_SIZE);
+            if (deflate(&stream, Z_FINISH) == Z_STREAM_END) {
+                writeInt32(out, 0);
+                out[BLOB_MARKER_SIZE] = BLOB_CODEC_DEFLATE_DICT_1;
+                writeInt32(out + BLOB_MARKER_SIZE + 1, length);
+                *outLength = BLOB_HEADER_SIZE + (int) stream.total_out;
+            } else {
+                free(out);
+                out = 0;
+            }
+        }
+    }
+    deflateEnd(&stream);
+    return out;
+}
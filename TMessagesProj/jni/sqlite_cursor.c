@@ -60,7 +60,10 @@ jbyteArray Java_org_telegram_SQLite_SQLiteCursor_columnByteArrayValue(JNIEnv *en
 }
 
 int Java_org_telegram_SQLite_SQLiteCursor_columnByteArrayLength(JNIEnv *env, jobject object, int statementHandle, int columnIndex) {
-	return sqlite3_column_bytes((sqlite3_stmt *)statementHandle, columnIndex);
+	sqlite3_stmt *handle = (sqlite3_stmt *)statementHandle;
+	const void *buf = sqlite3_column_blob(handle, columnIndex);
+	int length = sqlite3_column_bytes(handle, columnIndex);
+	return blob_uncompressed_length(buf, length);
 }
 
 int Java_org_telegram_SQLite_SQLiteCursor_columnByteBufferValue(JNIEnv *env, jobject object, int statementHandle, int columnIndex, jobject buffer) {
@@ -68,12 +71,34 @@ int Java_org_telegram_SQLite_SQLiteCursor_columnByteBufferValue(JNIEnv *env, job
         return 0;
     }
 	sqlite3_stmt *handle = (sqlite3_stmt *)statementHandle;
-	void *buf = sqlite3_column_blob(handle, columnIndex);
+	const void *buf = sqlite3_column_blob(handle, columnIndex);
 	int length = sqlite3_column_bytes(handle, columnIndex);
 	if (buf != 0 && length > 0) {
         jbyte *byteBuff = (*env)->GetDirectBufferAddress(env, buffer);
+        if (blob_is_compressed(buf, length)) {
+            return blob_decompress(buf, length, (unsigned char *) byteBuff, (int) (*env)->GetDirectBufferCapacity(env, buffer));
+        }
         memcpy(byteBuff, buf, length);
         return length;
 	}
 	return 0;
 }
+
+int Java_org_telegram_SQLite_SQLiteCursor_columnRowBufferValue(JNIEnv *env, jobject object, int statementHandle, int columnIndex, jobject buffer) {
+	sqlite3_stmt *handle = (sqlite3_stmt *)statementHandle;
+	const void *buf = sqlite3_column_blob(handle, columnIndex);
+	int length = sqlite3_column_bytes(handle, columnIndex);
+	if (buf == 0 || length <= 0) {
+		return 0;
+	}
+	int valueLength = blob_uncompressed_length(buf, length);
+	if (valueLength > (int) (*env)->GetDirectBufferCapacity(env, buffer)) {
+		return -valueLength;
+	}
+	jbyte *byteBuff = (*env)->GetDirectBufferAddress(env, buffer);
+	if (blob_is_compressed(buf, length)) {
+		return blob_decompress(buf, length, (unsigned char *) byteBuff, valueLength);
+	}
+	memcpy(byteBuff, buf, length);
+	return length;
+}
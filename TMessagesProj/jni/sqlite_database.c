@@ -18,6 +18,11 @@ void Java_org_telegram_SQLite_SQLiteDatabase_commitTransaction(JNIEnv *env, jobj
     sqlite3_exec(handle, "COMMIT", 0, 0, 0);
 }
 
+void Java_org_telegram_SQLite_SQLiteDatabase_rollbackTransaction(JNIEnv *env, jobject object, int sqliteHandle) {
+    sqlite3 *handle = (sqlite3 *)sqliteHandle;
+    sqlite3_exec(handle, "ROLLBACK", 0, 0, 0);
+}
+
 int Java_org_telegram_SQLite_SQLiteDatabase_opendb(JNIEnv *env, jobject object, jstring fileName, jstring tempDir) {
     char const *fileNameStr = (*env)->GetStringUTFChars(env, fileName, 0);
     char const *tempDirStr = (*env)->GetStringUTFChars(env, tempDir, 0);
@@ -40,3 +45,19 @@ int Java_org_telegram_SQLite_SQLiteDatabase_opendb(JNIEnv *env, jobject object,
     }
     return (int)handle;
 }
+
+int Java_org_telegram_SQLite_SQLiteDatabase_opendbReadOnly(JNIEnv *env, jobject object, jstring fileName) {
+    char const *fileNameStr = (*env)->GetStringUTFChars(env, fileName, 0);
+
+    sqlite3 *handle = 0;
+    int err = sqlite3_open_v2(fileNameStr, &handle, SQLITE_OPEN_READONLY, 0);
+    if (SQLITE_OK != err) {
+        throw_sqlite3_exception(env, handle, err);
+    } else {
+        sqlite3_busy_timeout(handle, 2000);
+    }
+    if (fileNameStr != 0) {
+        (*env)->ReleaseStringUTFChars(env, fileName, fileNameStr);
+    }
+    return (int)handle;
+}
@@ -1,3 +1,4 @@
+#include <stdlib.h>
 #include "sqlite.h"
 
 jfieldID queryArgsCountField;
@@ -67,6 +68,23 @@ void Java_org_telegram_SQLite_SQLitePreparedStatement_bindByteBuffer(JNIEnv *env
     }
 }
 
+void Java_org_telegram_SQLite_SQLitePreparedStatement_bindCompressedByteBuffer(JNIEnv *env, jobject object, int statementHandle, int index, jobject value, int length) {
+	sqlite3_stmt *handle = (sqlite3_stmt *) statementHandle;
+    jbyte *buf = (*env)->GetDirectBufferAddress(env, value);
+
+    int compressedLength = 0;
+    unsigned char *compressed = blob_compress((const unsigned char *) buf, length, &compressedLength);
+    int errcode;
+    if (compressed != 0) {
+        errcode = sqlite3_bind_blob(handle, index, compressed, compressedLength, free);
+    } else {
+        errcode = sqlite3_bind_blob(handle, index, buf, length, SQLITE_STATIC);
+    }
+    if (SQLITE_OK != errcode) {
+    	throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+    }
+}
+
 void Java_org_telegram_SQLite_SQLitePreparedStatement_bindString(JNIEnv *env, jobject object, int statementHandle, int index, jstring value) {
 	sqlite3_stmt *handle = (sqlite3_stmt *) statementHandle;
 
@@ -118,3 +136,7 @@ void Java_org_telegram_SQLite_SQLitePreparedStatement_bindNull(JNIEnv *env, jobj
     }
 }
 
+
+void Java_org_telegram_SQLite_SQLitePreparedStatement_clearBindings(JNIEnv *env, jobject object, int statementHandle) {
+    sqlite3_clear_bindings((sqlite3_stmt *) statementHandle);
+}
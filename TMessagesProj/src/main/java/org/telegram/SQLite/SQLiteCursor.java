@@ -21,6 +21,10 @@ public class SQLiteCursor {
 	public static final int FIELD_TYPE_BYTEARRAY = 4;
 	public static final int FIELD_TYPE_NULL = 5;
 
+	public interface RowCallback {
+		void run(SQLiteCursor cursor, NativeByteBuffer data) throws Exception;
+	}
+
 	SQLitePreparedStatement preparedStatement;
 	boolean inRow = false;
 
@@ -50,12 +54,20 @@ public class SQLiteCursor {
 
 	public String stringValue(int columnIndex) throws SQLiteException {
 		checkRow();
-		return columnStringValue(preparedStatement.getStatementHandle(), columnIndex);
+		String value = columnStringValue(preparedStatement.getStatementHandle(), columnIndex);
+		if (value != null) {
+			preparedStatement.executionBytes += value.length();
+		}
+		return value;
 	}
 
 	public byte[] byteArrayValue(int columnIndex) throws SQLiteException {
 		checkRow();
-		return columnByteArrayValue(preparedStatement.getStatementHandle(), columnIndex);
+		byte[] value = columnByteArrayValue(preparedStatement.getStatementHandle(), columnIndex);
+		if (value != null) {
+			preparedStatement.executionBytes += value.length;
+		}
+		return value;
 	}
 
     public int byteArrayLength(int columnIndex) throws SQLiteException {
@@ -65,12 +77,46 @@ public class SQLiteCursor {
 
     public int byteBufferValue(int columnIndex, ByteBuffer buffer) throws SQLiteException {
         checkRow();
-        return columnByteBufferValue(preparedStatement.getStatementHandle(), columnIndex, buffer);
+        int length = columnByteBufferValue(preparedStatement.getStatementHandle(), columnIndex, buffer);
+        preparedStatement.executionBytes += length;
+        return length;
     }
 
 	public int byteBufferValue(int columnIndex, NativeByteBuffer buffer) throws SQLiteException {
 		checkRow();
-		return columnByteBufferValue(preparedStatement.getStatementHandle(), columnIndex, buffer.buffer);
+		int length = columnByteBufferValue(preparedStatement.getStatementHandle(), columnIndex, buffer.buffer);
+		preparedStatement.executionBytes += length;
+		return length;
+	}
+
+	public NativeByteBuffer rowBufferValue(int columnIndex) throws SQLiteException {
+		checkRow();
+		NativeByteBuffer data = NativeByteBuffer.getRowBuffer(0);
+		int length = columnRowBufferValue(preparedStatement.getStatementHandle(), columnIndex, data.buffer);
+		if (length < 0) {
+			data = NativeByteBuffer.getRowBuffer(-length);
+			length = columnRowBufferValue(preparedStatement.getStatementHandle(), columnIndex, data.buffer);
+		}
+		if (length <= 0) {
+			return null;
+		}
+		preparedStatement.executionBytes += length;
+		data.buffer.limit(length);
+		return data;
+	}
+
+	public void forEachRow(int columnIndex, RowCallback callback) throws SQLiteException {
+		while (next()) {
+			NativeByteBuffer data = rowBufferValue(columnIndex);
+			if (data == null) {
+				continue;
+			}
+			try {
+				callback.run(this, data);
+			} catch (Exception e) {
+				FileLog.e("tmessages", e);
+			}
+		}
 	}
 
 	public int getTypeOf(int columnIndex) throws SQLiteException {
@@ -79,7 +125,7 @@ public class SQLiteCursor {
 	}
 
 	public boolean next() throws SQLiteException {
-		int res = preparedStatement.step(preparedStatement.getStatementHandle());
+		int res = preparedStatement.step();
 		if(res == -1) {
             int repeatCount = 6;
             while (repeatCount-- != 0) {
@@ -125,4 +171,5 @@ public class SQLiteCursor {
 	native byte[] columnByteArrayValue(int statementHandle, int columnIndex);
     native int columnByteArrayLength(int statementHandle, int columnIndex);
     native int columnByteBufferValue(int statementHandle, int columnIndex, ByteBuffer buffer);
+    native int columnRowBufferValue(int statementHandle, int columnIndex, ByteBuffer buffer);
 }
@@ -11,8 +11,26 @@ package org.telegram.SQLite;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.ApplicationLoader;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class SQLiteDatabase {
+	private final static int STATEMENT_CACHE_SIZE = 48;
+
 	private final int sqliteHandle;
+	private final LinkedHashMap<String, SQLitePreparedStatement> statementCache = new LinkedHashMap<String, SQLitePreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SQLitePreparedStatement> eldest) {
+			if (size() > STATEMENT_CACHE_SIZE) {
+				evictStatement(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+	private int statementCacheHits;
+	private int statementCacheMisses;
 
 	private boolean isOpen = false;
     private boolean inTransaction = false;
@@ -26,6 +44,15 @@ public class SQLiteDatabase {
 		isOpen = true;
 	}
 
+	public SQLiteDatabase(String fileName, boolean readOnly) throws SQLiteException {
+		if (readOnly) {
+			sqliteHandle = opendbReadOnly(fileName);
+		} else {
+			sqliteHandle = opendb(fileName, ApplicationLoader.getFilesDirFixed().getPath());
+		}
+		isOpen = true;
+	}
+
 	public boolean tableExists(String tableName) throws SQLiteException {
 		checkOpened();
 		String s = "SELECT rowid FROM sqlite_master WHERE type='table' AND name=?;";
@@ -33,7 +60,77 @@ public class SQLiteDatabase {
 	}
 
     public SQLitePreparedStatement executeFast(String sql) throws SQLiteException {
-        return new SQLitePreparedStatement(this, sql, true);
+        return obtainStatement(sql);
+    }
+
+    private SQLitePreparedStatement obtainStatement(String sql) throws SQLiteException {
+        if (sql.indexOf('?') == -1) {
+            return new SQLitePreparedStatement(this, sql, true);
+        }
+        synchronized (statementCache) {
+            SQLitePreparedStatement statement = statementCache.get(sql);
+            if (statement != null) {
+                if (statement.inUse) {
+                    statementCacheMisses++;
+                    return new SQLitePreparedStatement(this, sql, true);
+                }
+                statementCacheHits++;
+                statement.inUse = true;
+                return statement;
+            }
+        }
+        SQLitePreparedStatement statement = new SQLitePreparedStatement(this, sql, true);
+        synchronized (statementCache) {
+            statementCacheMisses++;
+            if (!statementCache.containsKey(sql)) {
+                statement.cacheOwner = this;
+                statement.cacheKey = sql;
+                statement.inUse = true;
+                statementCache.put(sql, statement);
+            }
+        }
+        return statement;
+    }
+
+    void releaseStatement(SQLitePreparedStatement statement) {
+        boolean reusable = statement.resetForReuse();
+        synchronized (statementCache) {
+            statement.inUse = false;
+            if (reusable && !statement.evicted) {
+                return;
+            }
+            if (!statement.evicted) {
+                statementCache.remove(statement.cacheKey);
+            }
+            statement.cacheOwner = null;
+        }
+        statement.finalizeQuery();
+    }
+
+    private void evictStatement(SQLitePreparedStatement statement) {
+        statement.evicted = true;
+        if (!statement.inUse) {
+            statement.cacheOwner = null;
+            statement.finalizeQuery();
+        }
+    }
+
+    public void clearStatementCache() {
+        synchronized (statementCache) {
+            Iterator<SQLitePreparedStatement> iterator = statementCache.values().iterator();
+            while (iterator.hasNext()) {
+                evictStatement(iterator.next());
+                iterator.remove();
+            }
+        }
+    }
+
+    public int getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    public int getStatementCacheMisses() {
+        return statementCacheMisses;
     }
 
 	public Integer executeInt(String sql, Object... args) throws SQLiteException {
@@ -51,13 +148,20 @@ public class SQLiteDatabase {
 
 	public SQLiteCursor queryFinalized(String sql, Object... args) throws SQLiteException {
 		checkOpened();
-		return new SQLitePreparedStatement(this, sql, true).query(args);
+		SQLitePreparedStatement statement = obtainStatement(sql);
+		try {
+			return statement.query(args);
+		} catch (SQLiteException | RuntimeException e) {
+			statement.dispose();
+			throw e;
+		}
 	}
 
 	public void close() {
 		if (isOpen) {
 			try {
                 commitTransaction();
+				clearStatementCache();
 				closedb(sqliteHandle);
 			} catch (SQLiteException e) {
                 FileLog.e("tmessages", e.getMessage(), e);
@@ -94,8 +198,22 @@ public class SQLiteDatabase {
         commitTransaction(sqliteHandle);
     }
 
+    public void rollbackTransaction() {
+        if (!inTransaction) {
+            return;
+        }
+        inTransaction = false;
+        rollbackTransaction(sqliteHandle);
+    }
+
+    public boolean isInTransaction() {
+        return inTransaction;
+    }
+
 	native int opendb(String fileName, String tempDir) throws SQLiteException;
+	native int opendbReadOnly(String fileName) throws SQLiteException;
 	native void closedb(int sqliteHandle) throws SQLiteException;
     native void beginTransaction(int sqliteHandle);
     native void commitTransaction(int sqliteHandle);
+    native void rollbackTransaction(int sqliteHandle);
 }
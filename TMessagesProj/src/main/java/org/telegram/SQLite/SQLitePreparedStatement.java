@@ -21,6 +21,19 @@ public class SQLitePreparedStatement {
 	private int queryArgsCount;
 	private boolean finalizeAfterQuery = false;
 
+	SQLiteDatabase cacheOwner;
+	String cacheKey;
+	boolean inUse;
+	boolean evicted;
+
+	private SQLiteDatabase database;
+	private String sql;
+	boolean internal;
+	private long executionNanos;
+	private int executionRows;
+	private int executionSteps;
+	long executionBytes;
+
     private static HashMap<SQLitePreparedStatement, String> hashMap;
 
 	public int getStatementHandle() {
@@ -30,6 +43,8 @@ public class SQLitePreparedStatement {
 	public SQLitePreparedStatement(SQLiteDatabase db, String sql, boolean finalize) throws SQLiteException {
 		finalizeAfterQuery = finalize;
 		sqliteStatementHandle = prepare(db.getSQLiteHandle(), sql);
+		this.database = db;
+		this.sql = sql;
         /*if (BuildVars.DEBUG_VERSION) {
             if (hashMap == null) {
                 hashMap = new HashMap<>();
@@ -49,6 +64,7 @@ public class SQLitePreparedStatement {
 
         checkFinalized();
 
+        finishExecution();
         reset(sqliteStatementHandle);
 
         int i = 1;
@@ -57,6 +73,8 @@ public class SQLitePreparedStatement {
                 bindNull(sqliteStatementHandle, i);
             } else if (obj instanceof Integer) {
                 bindInt(sqliteStatementHandle, i, (Integer)obj);
+            } else if (obj instanceof Long) {
+                bindLong(sqliteStatementHandle, i, (Long)obj);
             } else if (obj instanceof Double) {
                 bindDouble(sqliteStatementHandle, i, (Double)obj);
             } else if (obj instanceof String) {
@@ -71,25 +89,68 @@ public class SQLitePreparedStatement {
     }
 
     public int step() throws SQLiteException {
-        return step(sqliteStatementHandle);
+        if (internal || !SQLiteStatistics.isEnabled()) {
+            return step(sqliteStatementHandle);
+        }
+        long start = System.nanoTime();
+        try {
+            int result = step(sqliteStatementHandle);
+            if (result == 0) {
+                executionRows++;
+            }
+            return result;
+        } finally {
+            executionNanos += System.nanoTime() - start;
+            executionSteps++;
+        }
     }
 
     public SQLitePreparedStatement stepThis() throws SQLiteException {
-        step(sqliteStatementHandle);
+        step();
         return this;
     }
 
 	public void requery() throws SQLiteException {
 		checkFinalized();
+		finishExecution();
 		reset(sqliteStatementHandle);
 	}
 
+	private void finishExecution() {
+		if (executionSteps == 0) {
+			executionBytes = 0;
+			return;
+		}
+		SQLiteStatistics.record(evicted ? null : database, sql, executionNanos, executionRows, executionBytes);
+		executionNanos = 0;
+		executionRows = 0;
+		executionSteps = 0;
+		executionBytes = 0;
+	}
+
 	public void dispose() {
-		if (finalizeAfterQuery) {
+		if (cacheOwner != null) {
+			cacheOwner.releaseStatement(this);
+		} else if (finalizeAfterQuery) {
 			finalizeQuery();
 		}
 	}
 
+	boolean resetForReuse() {
+		if (isFinalized) {
+			return false;
+		}
+		try {
+			finishExecution();
+			reset(sqliteStatementHandle);
+			clearBindings(sqliteStatementHandle);
+			return true;
+		} catch (SQLiteException e) {
+			FileLog.e("tmessages", e.getMessage(), e);
+		}
+		return false;
+	}
+
 	void checkFinalized() throws SQLiteException {
 		if (isFinalized) {
 			throw new SQLiteException("Prepared query finalized");
@@ -105,6 +166,7 @@ public class SQLitePreparedStatement {
                 hashMap.remove(this);
             }*/
 			isFinalized = true;
+			finishExecution();
 			finalize(sqliteStatementHandle);
 		} catch (SQLiteException e) {
             FileLog.e("tmessages", e.getMessage(), e);
@@ -127,6 +189,10 @@ public class SQLitePreparedStatement {
         bindByteBuffer(sqliteStatementHandle, index, value.buffer, value.limit());
     }
 
+    public void bindCompressedByteBuffer(int index, NativeByteBuffer value) throws SQLiteException {
+        bindCompressedByteBuffer(sqliteStatementHandle, index, value.buffer, value.limit());
+    }
+
     public void bindString(int index, String value) throws SQLiteException {
         bindString(sqliteStatementHandle, index, value);
     }
@@ -140,12 +206,14 @@ public class SQLitePreparedStatement {
     }
 
 	native void bindByteBuffer(int statementHandle, int index, ByteBuffer value, int length) throws SQLiteException;
+	native void bindCompressedByteBuffer(int statementHandle, int index, ByteBuffer value, int length) throws SQLiteException;
 	native void bindString(int statementHandle, int index, String value) throws SQLiteException;
 	native void bindInt(int statementHandle, int index, int value) throws SQLiteException;
     native void bindLong(int statementHandle, int index, long value) throws SQLiteException;
 	native void bindDouble(int statementHandle, int index, double value) throws SQLiteException;
 	native void bindNull(int statementHandle, int index) throws SQLiteException;
 	native void reset(int statementHandle) throws SQLiteException;
+	native void clearBindings(int statementHandle);
 	native int prepare(int sqliteHandle, String sql) throws SQLiteException;
 	native void finalize(int statementHandle) throws SQLiteException;
     native int step(int statementHandle) throws SQLiteException;
@@ -0,0 +1,274 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.SQLite;
+
+import org.telegram.messenger.BuildVars;
+import org.telegram.messenger.FileLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+
+public class SQLiteStatistics {
+
+    public static class QueryStats {
+        public final String sql;
+        public long count;
+        public long totalMicros;
+        public long maxMicros;
+        public long rows;
+        public long bytes;
+
+        private QueryStats(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    public static class SlowQuery {
+        public final long time;
+        public final String thread;
+        public final String sql;
+        public final long micros;
+        public final int rows;
+        public final long bytes;
+        public String plan;
+
+        private SlowQuery(String sql, long micros, int rows, long bytes) {
+            this.time = System.currentTimeMillis();
+            this.thread = Thread.currentThread().getName();
+            this.sql = sql;
+            this.micros = micros;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final int RING_SIZE = 128;
+    private static final int MAX_QUERIES = 512;
+    private static final int PLAN_SAMPLE_INTERVAL = 16;
+
+    private static volatile boolean enabled = BuildVars.DEBUG_VERSION;
+    private static volatile long slowThresholdMicros = 20000;
+
+    private static final Object sync = new Object();
+    private static final HashMap<String, QueryStats> queries = new HashMap<>();
+    private static final HashMap<String, Integer> slowCounts = new HashMap<>();
+    private static final SlowQuery[] ring = new SlowQuery[RING_SIZE];
+    private static int ringPosition;
+    private static long droppedQueries;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    public static void setSlowThreshold(long micros) {
+        slowThresholdMicros = micros;
+    }
+
+    static void record(SQLiteDatabase database, String sql, long nanos, int rows, long bytes) {
+        if (sql == null) {
+            return;
+        }
+        long micros = nanos / 1000;
+        String key = normalize(sql);
+        SlowQuery slowQuery = null;
+        boolean capturePlan = false;
+        synchronized (sync) {
+            QueryStats stats = queries.get(key);
+            if (stats == null) {
+                if (queries.size() >= MAX_QUERIES) {
+                    droppedQueries++;
+                } else {
+                    stats = new QueryStats(key);
+                    queries.put(key, stats);
+                }
+            }
+            if (stats != null) {
+                stats.count++;
+                stats.totalMicros += micros;
+                stats.rows += rows;
+                stats.bytes += bytes;
+                if (micros > stats.maxMicros) {
+                    stats.maxMicros = micros;
+                }
+            }
+            if (micros >= slowThresholdMicros) {
+                slowQuery = new SlowQuery(sql, micros, rows, bytes);
+                ring[ringPosition] = slowQuery;
+                ringPosition = (ringPosition + 1) % RING_SIZE;
+                Integer slowCount = slowCounts.get(key);
+                slowCount = slowCount == null ? 0 : slowCount + 1;
+                if (slowCounts.size() < MAX_QUERIES || slowCount > 0) {
+                    slowCounts.put(key, slowCount);
+                }
+                capturePlan = slowCount % PLAN_SAMPLE_INTERVAL == 0;
+            }
+        }
+        if (capturePlan && database != null) {
+            slowQuery.plan = explainQueryPlan(database, sql);
+        }
+    }
+
+    private static String explainQueryPlan(SQLiteDatabase database, String sql) {
+        String upper = sql.trim().toUpperCase(Locale.US);
+        if (!upper.startsWith("SELECT") && !upper.startsWith("UPDATE") && !upper.startsWith("DELETE") && !upper.startsWith("INSERT") && !upper.startsWith("REPLACE")) {
+            return null;
+        }
+        SQLitePreparedStatement statement = null;
+        try {
+            statement = new SQLitePreparedStatement(database, "EXPLAIN QUERY PLAN " + sql, true);
+            statement.internal = true;
+            SQLiteCursor cursor = new SQLiteCursor(statement);
+            StringBuilder builder = new StringBuilder();
+            while (cursor.next()) {
+                if (builder.length() != 0) {
+                    builder.append("; ");
+                }
+                builder.append(cursor.stringValue(3));
+            }
+            return builder.toString();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        } finally {
+            if (statement != null) {
+                statement.finalizeQuery();
+            }
+        }
+        return null;
+    }
+
+    //literals inlined with String.format would make every IN(...) lookup a separate entry
+    static String normalize(String sql) {
+        int length = sql.length();
+        StringBuilder builder = new StringBuilder(length);
+        boolean inString = false;
+        for (int a = 0; a < length; a++) {
+            char c = sql.charAt(a);
+            if (inString) {
+                if (c == '\'') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (c == '\'') {
+                inString = true;
+                appendPlaceholder(builder);
+            } else if (c >= '0' && c <= '9' && !isIdentifierEnd(builder)) {
+                while (a + 1 < length && Character.isDigit(sql.charAt(a + 1))) {
+                    a++;
+                }
+                if (builder.length() != 0 && builder.charAt(builder.length() - 1) == '-') {
+                    builder.setLength(builder.length() - 1);
+                }
+                appendPlaceholder(builder);
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isIdentifierEnd(StringBuilder builder) {
+        if (builder.length() == 0) {
+            return false;
+        }
+        char c = builder.charAt(builder.length() - 1);
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static void appendPlaceholder(StringBuilder builder) {
+        int length = builder.length();
+        int a = length - 1;
+        while (a >= 0 && builder.charAt(a) == ' ') {
+            a--;
+        }
+        if (a >= 1 && builder.charAt(a) == ',' && builder.charAt(a - 1) == '?') {
+            builder.setLength(a);
+            return;
+        }
+        builder.append('?');
+    }
+
+    public static ArrayList<QueryStats> snapshot() {
+        ArrayList<QueryStats> result;
+        synchronized (sync) {
+            result = new ArrayList<>(queries.values());
+        }
+        Collections.sort(result, new Comparator<QueryStats>() {
+            @Override
+            public int compare(QueryStats lhs, QueryStats rhs) {
+                if (lhs.totalMicros == rhs.totalMicros) {
+                    return 0;
+                }
+                return lhs.totalMicros > rhs.totalMicros ? -1 : 1;
+            }
+        });
+        return result;
+    }
+
+    public static ArrayList<SlowQuery> getSlowQueries() {
+        ArrayList<SlowQuery> result = new ArrayList<>();
+        synchronized (sync) {
+            for (int a = 0; a < RING_SIZE; a++) {
+                SlowQuery query = ring[(ringPosition + a) % RING_SIZE];
+                if (query != null) {
+                    result.add(query);
+                }
+            }
+        }
+        return result;
+    }
+
+    public static void reset() {
+        synchronized (sync) {
+            queries.clear();
+            slowCounts.clear();
+            for (int a = 0; a < RING_SIZE; a++) {
+                ring[a] = null;
+            }
+            ringPosition = 0;
+            droppedQueries = 0;
+        }
+    }
+
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("count total_us max_us rows bytes | sql\n");
+        ArrayList<QueryStats> stats = snapshot();
+        for (int a = 0; a < stats.size(); a++) {
+            QueryStats query = stats.get(a);
+            builder.append(String.format(Locale.US, "%d %d %d %d %d | %s\n", query.count, query.totalMicros, query.maxMicros, query.rows, query.bytes, query.sql));
+        }
+        synchronized (sync) {
+            if (droppedQueries != 0) {
+                builder.append("not tracked ").append(droppedQueries).append('\n');
+            }
+        }
+        builder.append("slow queries over ").append(slowThresholdMicros).append(" us\n");
+        ArrayList<SlowQuery> slowQueries = getSlowQueries();
+        for (int a = 0; a < slowQueries.size(); a++) {
+            SlowQuery query = slowQueries.get(a);
+            builder.append(String.format(Locale.US, "%d %s %d us %d rows %d bytes | %s\n", query.time, query.thread, query.micros, query.rows, query.bytes, query.sql));
+            if (query.plan != null) {
+                builder.append("    plan: ").append(query.plan).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    public static void dumpToLog() {
+        FileLog.e("tmessages", "sqlite statistics\n" + dump());
+    }
+}
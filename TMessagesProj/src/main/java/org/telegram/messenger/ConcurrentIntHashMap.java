@@ -0,0 +1,149 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+//lock striped IntHashMap, the boxed Map methods are kept for code that takes an AbstractMap<Integer, V>
+//values() and entrySet() are read-only snapshots, not live views, removing through them throws
+public class ConcurrentIntHashMap<V> extends AbstractMap<Integer, V> {
+
+    private static final int STRIPES_COUNT = 8;
+
+    private final ArrayList<IntHashMap<V>> stripes = new ArrayList<>(STRIPES_COUNT);
+
+    public ConcurrentIntHashMap() {
+        this(16);
+    }
+
+    public ConcurrentIntHashMap(int expectedSize) {
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            stripes.add(new IntHashMap<V>(expectedSize / STRIPES_COUNT));
+        }
+    }
+
+    private IntHashMap<V> stripeFor(int key) {
+        return stripes.get(IntHashMap.hash(key) >>> 29);
+    }
+
+    public V get(int key) {
+        IntHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    public boolean containsKey(int key) {
+        IntHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.containsKey(key);
+        }
+    }
+
+    public V put(int key, V value) {
+        IntHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.put(key, value);
+        }
+    }
+
+    public V putIfAbsent(int key, V value) {
+        IntHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            V old = stripe.get(key);
+            if (old == null) {
+                stripe.put(key, value);
+            }
+            return old;
+        }
+    }
+
+    public V remove(int key) {
+        IntHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.remove(key);
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+    @Override
+    public V put(Integer key, V value) {
+        return put(key.intValue(), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                size += stripes.get(a).size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                stripes.get(a).clear();
+            }
+        }
+    }
+
+    @Override
+    public List<V> values() {
+        ArrayList<V> result = new ArrayList<>();
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                stripes.get(a).collectValues(result);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        HashSet<Entry<Integer, V>> result = new HashSet<>();
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                IntHashMap<V> stripe = stripes.get(a);
+                int[] keys = stripe.keys();
+                for (int b = 0; b < keys.length; b++) {
+                    result.add(new SimpleImmutableEntry<>(keys[b], stripe.get(keys[b])));
+                }
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+}
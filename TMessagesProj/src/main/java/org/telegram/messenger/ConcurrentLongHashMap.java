@@ -0,0 +1,113 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//lock striped LongHashMap, keys() and values() are read-only snapshots, not live views
+public class ConcurrentLongHashMap<V> {
+
+    private static final int STRIPES_COUNT = 8;
+
+    private final ArrayList<LongHashMap<V>> stripes = new ArrayList<>(STRIPES_COUNT);
+
+    public ConcurrentLongHashMap() {
+        this(16);
+    }
+
+    public ConcurrentLongHashMap(int expectedSize) {
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            stripes.add(new LongHashMap<V>(expectedSize / STRIPES_COUNT));
+        }
+    }
+
+    private LongHashMap<V> stripeFor(long key) {
+        return stripes.get(LongHashMap.hash(key) >>> 29);
+    }
+
+    public V get(long key) {
+        LongHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        LongHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.containsKey(key);
+        }
+    }
+
+    public V put(long key, V value) {
+        LongHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.put(key, value);
+        }
+    }
+
+    public V remove(long key) {
+        LongHashMap<V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                size += stripes.get(a).size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                stripes.get(a).clear();
+            }
+        }
+    }
+
+    public long[] keys() {
+        long[][] parts = new long[STRIPES_COUNT][];
+        int count = 0;
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                parts[a] = stripes.get(a).keys();
+            }
+            count += parts[a].length;
+        }
+        long[] result = new long[count];
+        int offset = 0;
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            System.arraycopy(parts[a], 0, result, offset, parts[a].length);
+            offset += parts[a].length;
+        }
+        return result;
+    }
+
+    public List<V> values() {
+        ArrayList<V> result = new ArrayList<>();
+        for (int a = 0; a < STRIPES_COUNT; a++) {
+            synchronized (stripes.get(a)) {
+                stripes.get(a).collectValues(result);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
@@ -35,7 +35,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class ContactsController {
 
@@ -1350,7 +1349,7 @@ public class ContactsController {
         });
     }
 
-    private void applyContactsUpdates(ArrayList<Integer> ids, ConcurrentHashMap<Integer, TLRPC.User> userDict, ArrayList<TLRPC.TL_contact> newC, ArrayList<Integer> contactsTD) {
+    private void applyContactsUpdates(ArrayList<Integer> ids, ConcurrentIntHashMap<TLRPC.User> userDict, ArrayList<TLRPC.TL_contact> newC, ArrayList<Integer> contactsTD) {
         if (newC == null || contactsTD == null) {
             newC = new ArrayList<>();
             contactsTD = new ArrayList<>();
@@ -1477,7 +1476,7 @@ public class ContactsController {
         }
     }
 
-    public void processContactsUpdates(ArrayList<Integer> ids, ConcurrentHashMap<Integer, TLRPC.User> userDict) {
+    public void processContactsUpdates(ArrayList<Integer> ids, ConcurrentIntHashMap<TLRPC.User> userDict) {
         final ArrayList<TLRPC.TL_contact> newContacts = new ArrayList<>();
         final ArrayList<Integer> contactsToDelete = new ArrayList<>();
         for (Integer uid : ids) {
@@ -0,0 +1,199 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import org.telegram.tgnet.TLRPC;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+
+//keeps dialogs, dialogsServerOnly and dialogsGroupsOnly ordered by (last_message_date desc, id desc) without full resorting
+public class DialogsIndex {
+
+    public interface ChatProvider {
+        TLRPC.Chat getChat(int id);
+    }
+
+    private static class Entry {
+        TLRPC.Dialog dialog;
+        int date;
+    }
+
+    private static final Comparator<TLRPC.Dialog> comparator = new Comparator<TLRPC.Dialog>() {
+        @Override
+        public int compare(TLRPC.Dialog dialog, TLRPC.Dialog dialog2) {
+            return compareKeys(dialog.last_message_date, dialog.id, dialog2.last_message_date, dialog2.id);
+        }
+    };
+
+    private final ArrayList<TLRPC.Dialog> all;
+    private final ArrayList<TLRPC.Dialog> serverOnly;
+    private final ArrayList<TLRPC.Dialog> groupsOnly;
+    private final ChatProvider chatProvider;
+    private final LongHashMap<Entry> entries = new LongHashMap<>();
+
+    public DialogsIndex(ArrayList<TLRPC.Dialog> all, ArrayList<TLRPC.Dialog> serverOnly, ArrayList<TLRPC.Dialog> groupsOnly, ChatProvider chatProvider) {
+        this.all = all;
+        this.serverOnly = serverOnly;
+        this.groupsOnly = groupsOnly;
+        this.chatProvider = chatProvider;
+    }
+
+    private static int compareKeys(int date, long id, int date2, long id2) {
+        if (date != date2) {
+            return date < date2 ? 1 : -1;
+        }
+        if (id != id2) {
+            return id < id2 ? 1 : -1;
+        }
+        return 0;
+    }
+
+    public static boolean isServerDialog(TLRPC.Dialog dialog) {
+        int high_id = (int) (dialog.id >> 32);
+        return (int) dialog.id != 0 && high_id != 1;
+    }
+
+    public boolean isGroupDialog(TLRPC.Dialog dialog) {
+        if (!isServerDialog(dialog)) {
+            return false;
+        }
+        if (dialog instanceof TLRPC.TL_dialog) {
+            return dialog.id < 0;
+        } else if (dialog instanceof TLRPC.TL_dialogChannel) {
+            TLRPC.Chat chat = chatProvider.getChat(-(int) dialog.id);
+            return chat != null && (chat.megagroup && chat.editor || chat.creator);
+        }
+        return false;
+    }
+
+    public void clear() {
+        all.clear();
+        serverOnly.clear();
+        groupsOnly.clear();
+        entries.clear();
+    }
+
+    public void rebuild(Collection<TLRPC.Dialog> dialogs) {
+        clear();
+        all.addAll(dialogs);
+        Collections.sort(all, comparator);
+        for (int a = 0; a < all.size(); a++) {
+            TLRPC.Dialog dialog = all.get(a);
+            Entry entry = new Entry();
+            entry.dialog = dialog;
+            entry.date = dialog.last_message_date;
+            entries.put(dialog.id, entry);
+            if (isServerDialog(dialog)) {
+                serverOnly.add(dialog);
+                if (isGroupDialog(dialog)) {
+                    groupsOnly.add(dialog);
+                }
+            }
+        }
+    }
+
+    //adds the dialog or moves it to the position of its current last_message_date, replacing a previous object with the same id
+    public void update(TLRPC.Dialog dialog) {
+        Entry entry = entries.get(dialog.id);
+        if (entry != null) {
+            if (entry.dialog == dialog && entry.date == dialog.last_message_date) {
+                updateFilter(groupsOnly, dialog, isGroupDialog(dialog));
+                return;
+            }
+            removeFromList(all, entry);
+            removeFromList(serverOnly, entry);
+            removeFromList(groupsOnly, entry);
+        } else {
+            entry = new Entry();
+            entries.put(dialog.id, entry);
+        }
+        entry.dialog = dialog;
+        entry.date = dialog.last_message_date;
+        insertIntoList(all, dialog);
+        if (isServerDialog(dialog)) {
+            insertIntoList(serverOnly, dialog);
+            if (isGroupDialog(dialog)) {
+                insertIntoList(groupsOnly, dialog);
+            }
+        }
+    }
+
+    public boolean remove(TLRPC.Dialog dialog) {
+        Entry entry = entries.remove(dialog.id);
+        if (entry == null) {
+            return false;
+        }
+        removeFromList(all, entry);
+        removeFromList(groupsOnly, entry);
+        return removeFromList(serverOnly, entry);
+    }
+
+    private void updateFilter(ArrayList<TLRPC.Dialog> list, TLRPC.Dialog dialog, boolean include) {
+        int index = indexOf(list, dialog, dialog.last_message_date);
+        if (include && index < 0) {
+            insertIntoList(list, dialog);
+        } else if (!include && index >= 0) {
+            list.remove(index);
+        }
+    }
+
+    private void insertIntoList(ArrayList<TLRPC.Dialog> list, TLRPC.Dialog dialog) {
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            TLRPC.Dialog current = list.get(middle);
+            if (compareKeys(current.last_message_date, current.id, dialog.last_message_date, dialog.id) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        list.add(low, dialog);
+    }
+
+    private boolean removeFromList(ArrayList<TLRPC.Dialog> list, Entry entry) {
+        int index = indexOf(list, entry.dialog, entry.date);
+        if (index >= 0) {
+            list.remove(index);
+            return true;
+        }
+        return false;
+    }
+
+    //the dialog may already carry its new date, so it is searched by the date it was indexed with
+    private int indexOf(ArrayList<TLRPC.Dialog> list, TLRPC.Dialog dialog, int date) {
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            TLRPC.Dialog current = list.get(middle);
+            if (current == dialog) {
+                return middle;
+            }
+            int result = compareKeys(current.last_message_date, current.id, date, dialog.id);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                break;
+            }
+        }
+        for (int a = 0; a < list.size(); a++) {
+            if (list.get(a) == dialog) {
+                return a;
+            }
+        }
+        return -1;
+    }
+}
@@ -501,11 +501,17 @@ public class FileLoadOperation {
             count = Math.max(0, currentMaxDownloadRequests - requestInfos.size() - delayedRequestInfos.size());
         }
 
+        //chunks alternate between the two download connections, each connection gets its chunks in one batch
+        ArrayList<TLObject> requests = new ArrayList<>();
+        ArrayList<RequestDelegate> delegates = new ArrayList<>();
+        ArrayList<RequestInfo> infos = new ArrayList<>();
+        ArrayList<TLObject> requests2 = new ArrayList<>();
+        ArrayList<RequestDelegate> delegates2 = new ArrayList<>();
+        ArrayList<RequestInfo> infos2 = new ArrayList<>();
         for (int a = 0; a < count; a++) {
             if (totalBytesCount > 0 && nextDownloadOffset >= totalBytesCount) {
                 break;
             }
-            boolean isLast = totalBytesCount <= 0 || a == count - 1 || totalBytesCount > 0 && nextDownloadOffset + currentDownloadChunkSize >= totalBytesCount;
             TLRPC.TL_upload_getFile req = new TLRPC.TL_upload_getFile();
             req.location = location;
             req.offset = nextDownloadOffset;
@@ -515,15 +521,36 @@ public class FileLoadOperation {
             final RequestInfo requestInfo = new RequestInfo();
             requestInfos.add(requestInfo);
             requestInfo.offset = req.offset;
-            requestInfo.requestToken = ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+            RequestDelegate delegate = new RequestDelegate() {
                 @Override
                 public void run(TLObject response, TLRPC.TL_error error) {
                     requestInfo.response = (TLRPC.TL_upload_file) response;
                     processRequestResult(requestInfo, error);
                 }
-            }, null, (isForceRequest ? ConnectionsManager.RequestFlagForceDownload : 0) | ConnectionsManager.RequestFlagFailOnServerErrors, datacenter_id, requestsCount % 2 == 0 ? ConnectionsManager.ConnectionTypeDownload : ConnectionsManager.ConnectionTypeDownload2, isLast);
+            };
+            if (requestsCount % 2 == 0) {
+                requests.add(req);
+                delegates.add(delegate);
+                infos.add(requestInfo);
+            } else {
+                requests2.add(req);
+                delegates2.add(delegate);
+                infos2.add(requestInfo);
+            }
             requestsCount++;
         }
+        sendDownloadRequests(requests, delegates, infos, ConnectionsManager.ConnectionTypeDownload);
+        sendDownloadRequests(requests2, delegates2, infos2, ConnectionsManager.ConnectionTypeDownload2);
+    }
+
+    private void sendDownloadRequests(ArrayList<TLObject> requests, ArrayList<RequestDelegate> delegates, ArrayList<RequestInfo> infos, int connectionType) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        int[] tokens = ConnectionsManager.getInstance().sendRequests(requests, delegates, (isForceRequest ? ConnectionsManager.RequestFlagForceDownload : 0) | ConnectionsManager.RequestFlagFailOnServerErrors, datacenter_id, connectionType);
+        for (int a = 0; a < tokens.length; a++) {
+            infos.get(a).requestToken = tokens[a];
+        }
     }
 
     public void setDelegate(FileLoadOperationDelegate delegate) {
@@ -0,0 +1,177 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import java.util.ArrayList;
+
+//open addressing map with unboxed keys, null values are not allowed
+public class IntHashMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public IntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity * 3 / 4;
+    }
+
+    private int indexOf(int key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V old = (V) values[index];
+                values[index] = value;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > threshold) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        V old = (V) values[index];
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int ideal = hash(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+        size--;
+        return old;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int a = 0; a < oldValues.length; a++) {
+            if (oldValues[a] != null) {
+                int index = hash(oldKeys[a]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[a];
+                values[index] = oldValues[a];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        for (int a = 0; a < values.length; a++) {
+            values[a] = null;
+        }
+        size = 0;
+    }
+
+    public int[] keys() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int a = 0; a < values.length; a++) {
+            if (values[a] != null) {
+                result[count++] = keys[a];
+            }
+        }
+        return result;
+    }
+
+    public ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>(size);
+        collectValues(result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    void collectValues(ArrayList<V> result) {
+        for (int a = 0; a < values.length; a++) {
+            if (values[a] != null) {
+                result.add((V) values[a]);
+            }
+        }
+    }
+}
@@ -837,11 +837,10 @@ public class MessageObject {
         if (type != 0 || messageOwner.to_id == null || messageText == null || messageText.length() == 0) {
             return;
         }
-
         generateLinkDescription();
         textLayoutBlocks = new ArrayList<>();
 
-        boolean useManualParse = messageOwner.entities.isEmpty() && (
+        boolean useManualParse = messageOwner.getEntities().isEmpty() && (
                 messageOwner instanceof TLRPC.TL_message_old ||
                 messageOwner instanceof TLRPC.TL_message_old2 ||
                 messageOwner instanceof TLRPC.TL_message_old3 ||
@@ -866,10 +865,10 @@ public class MessageObject {
 
         if (messageText instanceof Spannable) {
             Spannable spannable = (Spannable) messageText;
-            int count = messageOwner.entities.size();
+            int count = messageOwner.getEntities().size();
             URLSpan[] spans = spannable.getSpans(0, messageText.length(), URLSpan.class);
             for (int a = 0; a < count; a++) {
-                TLRPC.MessageEntity entity = messageOwner.entities.get(a);
+                TLRPC.MessageEntity entity = messageOwner.getEntities().get(a);
                 if (entity.length <= 0 || entity.offset < 0 || entity.offset >= messageOwner.message.length()) {
                     continue;
                 } else if (entity.offset + entity.length > messageOwner.message.length()) {
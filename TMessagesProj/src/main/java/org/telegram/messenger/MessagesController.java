@@ -46,9 +46,9 @@ import java.util.concurrent.Semaphore;
 
 public class MessagesController implements NotificationCenter.NotificationCenterDelegate {
 
-    private ConcurrentHashMap<Integer, TLRPC.Chat> chats = new ConcurrentHashMap<>(100, 1.0f, 2);
+    private ConcurrentIntHashMap<TLRPC.Chat> chats = new ConcurrentIntHashMap<>(100);
     private ConcurrentHashMap<Integer, TLRPC.EncryptedChat> encryptedChats = new ConcurrentHashMap<>(10, 1.0f, 2);
-    private ConcurrentHashMap<Integer, TLRPC.User> users = new ConcurrentHashMap<>(100, 1.0f, 2);
+    private ConcurrentIntHashMap<TLRPC.User> users = new ConcurrentIntHashMap<>(100);
     private ConcurrentHashMap<String, TLRPC.User> usersByUsernames = new ConcurrentHashMap<>(100, 1.0f, 2);
 
     private ArrayList<Integer> joiningToChannels = new ArrayList<>();
@@ -58,13 +58,19 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     public ArrayList<TLRPC.Dialog> dialogs = new ArrayList<>();
     public ArrayList<TLRPC.Dialog> dialogsServerOnly = new ArrayList<>();
     public ArrayList<TLRPC.Dialog> dialogsGroupsOnly = new ArrayList<>();
+    public final DialogsIndex dialogsIndex = new DialogsIndex(dialogs, dialogsServerOnly, dialogsGroupsOnly, new DialogsIndex.ChatProvider() {
+        @Override
+        public TLRPC.Chat getChat(int id) {
+            return MessagesController.this.getChat(id);
+        }
+    });
     public int nextDialogsCacheOffset;
-    public ConcurrentHashMap<Long, Integer> dialogs_read_inbox_max = new ConcurrentHashMap<>(100, 1.0f, 2);
-    public ConcurrentHashMap<Long, TLRPC.Dialog> dialogs_dict = new ConcurrentHashMap<>(100, 1.0f, 2);
-    public HashMap<Long, MessageObject> dialogMessage = new HashMap<>();
-    public HashMap<Long, MessageObject> dialogMessagesByRandomIds = new HashMap<>();
-    public HashMap<Integer, MessageObject> dialogMessagesByIds = new HashMap<>();
-    public ConcurrentHashMap<Long, ArrayList<PrintingUser>> printingUsers = new ConcurrentHashMap<>(20, 1.0f, 2);
+    public ConcurrentLongHashMap<Integer> dialogs_read_inbox_max = new ConcurrentLongHashMap<>(100);
+    public ConcurrentLongHashMap<TLRPC.Dialog> dialogs_dict = new ConcurrentLongHashMap<>(100);
+    public LongHashMap<MessageObject> dialogMessage = new LongHashMap<>();
+    public LongHashMap<MessageObject> dialogMessagesByRandomIds = new LongHashMap<>();
+    public IntHashMap<MessageObject> dialogMessagesByIds = new IntHashMap<>();
+    public ConcurrentLongHashMap<ArrayList<PrintingUser>> printingUsers = new ConcurrentLongHashMap<>(20);
     public HashMap<Long, CharSequence> printingStrings = new HashMap<>();
     public HashMap<Long, Integer> printingStringsTypes = new HashMap<>();
     public HashMap<Integer, HashMap<Long, Boolean>> sendingTypings = new HashMap<>();
@@ -78,6 +84,21 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     private SparseIntArray shortPollChannels = new SparseIntArray();
     private SparseIntArray needShortPollChannels = new SparseIntArray();
 
+    private final Object coalescedUpdatesSync = new Object();
+    private IntHashMap<TLRPC.Update> coalescedStatusUpdates = new IntHashMap<>();
+    private LongHashMap<TLRPC.Update> coalescedTypingUpdates = new LongHashMap<>();
+    private boolean coalescedFlushScheduled;
+    private volatile int updatesCoalesceWindow = 250;
+    private long coalescedUpdatesReceived;
+    private long coalescedUpdatesFolded;
+    private long coalescedBatchesApplied;
+    private final Runnable flushCoalescedUpdatesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushCoalescedUpdates(false);
+        }
+    };
+
     public boolean loadingBlockedUsers = false;
     public ArrayList<Integer> blockedUsers = new ArrayList<>();
 
@@ -90,6 +111,29 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     private HashMap<Integer, Integer> channelsPts = new HashMap<>();
     private HashMap<Integer, Boolean> gettingDifferenceChannels = new HashMap<>();
 
+    private static class ChannelDifferenceTask {
+        int channelId;
+        int newDialogType;
+        int pts;
+        int limit;
+        long enqueueTime;
+        long startTime;
+    }
+
+    private static final int CHANNEL_DIFFERENCE_MAX_REQUESTS = 4;
+
+    private final Object channelDifferenceSync = new Object();
+    private ArrayList<ChannelDifferenceTask> pendingChannelDifferences = new ArrayList<>();
+    private SparseArray<ChannelDifferenceTask> runningChannelDifferences = new SparseArray<>();
+    private int channelDifferenceSyncTotal;
+    private int channelDifferenceSyncDone;
+    private long channelDifferencesQueued;
+    private long channelDifferencesCompleted;
+    private long channelDifferencesFailed;
+    private long channelDifferenceWaitTime;
+    private long channelDifferenceRequestTime;
+    private int channelDifferenceMaxPending;
+
     private ArrayList<TLRPC.Updates> updatesQueueSeq = new ArrayList<>();
     private ArrayList<TLRPC.Updates> updatesQueuePts = new ArrayList<>();
     private ArrayList<TLRPC.Updates> updatesQueueQts = new ArrayList<>();
@@ -165,6 +209,104 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     public static final int UPDATE_MASK_CHAT_ADMINS = 16384;
     public static final int UPDATE_MASK_ALL = UPDATE_MASK_AVATAR | UPDATE_MASK_STATUS | UPDATE_MASK_NAME | UPDATE_MASK_CHAT_AVATAR | UPDATE_MASK_CHAT_NAME | UPDATE_MASK_CHAT_MEMBERS | UPDATE_MASK_USER_PRINT | UPDATE_MASK_USER_PHONE | UPDATE_MASK_READ_DIALOG_MESSAGE | UPDATE_MASK_PHONE;
 
+    //update objects don't carry their constructor at runtime, so processUpdateArray dispatches on the deserialized class
+    private static final int UPDATE_TYPE_NEW_MESSAGE = 1;
+    private static final int UPDATE_TYPE_NEW_CHANNEL_MESSAGE = 2;
+    private static final int UPDATE_TYPE_READ_MESSAGES_CONTENTS = 3;
+    private static final int UPDATE_TYPE_READ_HISTORY_INBOX = 4;
+    private static final int UPDATE_TYPE_READ_HISTORY_OUTBOX = 5;
+    private static final int UPDATE_TYPE_DELETE_MESSAGES = 6;
+    private static final int UPDATE_TYPE_USER_TYPING = 7;
+    private static final int UPDATE_TYPE_CHAT_USER_TYPING = 8;
+    private static final int UPDATE_TYPE_CHAT_PARTICIPANTS = 9;
+    private static final int UPDATE_TYPE_USER_STATUS = 10;
+    private static final int UPDATE_TYPE_USER_NAME = 11;
+    private static final int UPDATE_TYPE_USER_PHOTO = 12;
+    private static final int UPDATE_TYPE_USER_PHONE = 13;
+    private static final int UPDATE_TYPE_CONTACT_REGISTERED = 14;
+    private static final int UPDATE_TYPE_CONTACT_LINK = 15;
+    private static final int UPDATE_TYPE_NEW_AUTHORIZATION = 16;
+    private static final int UPDATE_TYPE_NEW_GEO_CHAT_MESSAGE = 17;
+    private static final int UPDATE_TYPE_NEW_ENCRYPTED_MESSAGE = 18;
+    private static final int UPDATE_TYPE_ENCRYPTED_CHAT_TYPING = 19;
+    private static final int UPDATE_TYPE_ENCRYPTED_MESSAGES_READ = 20;
+    private static final int UPDATE_TYPE_CHAT_PARTICIPANT_ADD = 21;
+    private static final int UPDATE_TYPE_CHAT_PARTICIPANT_DELETE = 22;
+    private static final int UPDATE_TYPE_DC_OPTIONS = 23;
+    private static final int UPDATE_TYPE_ENCRYPTION = 24;
+    private static final int UPDATE_TYPE_USER_BLOCKED = 25;
+    private static final int UPDATE_TYPE_NOTIFY_SETTINGS = 26;
+    private static final int UPDATE_TYPE_SERVICE_NOTIFICATION = 27;
+    private static final int UPDATE_TYPE_PRIVACY = 28;
+    private static final int UPDATE_TYPE_WEB_PAGE = 29;
+    private static final int UPDATE_TYPE_CHANNEL_TOO_LONG = 30;
+    private static final int UPDATE_TYPE_CHANNEL_GROUP = 31;
+    private static final int UPDATE_TYPE_READ_CHANNEL_INBOX = 32;
+    private static final int UPDATE_TYPE_DELETE_CHANNEL_MESSAGES = 33;
+    private static final int UPDATE_TYPE_CHANNEL = 34;
+    private static final int UPDATE_TYPE_CHANNEL_MESSAGE_VIEWS = 35;
+    private static final int UPDATE_TYPE_CHAT_PARTICIPANT_ADMIN = 36;
+    private static final int UPDATE_TYPE_CHAT_ADMINS = 37;
+    private static final int UPDATE_TYPE_STICKER_SETS = 38;
+    private static final int UPDATE_TYPE_STICKER_SETS_ORDER = 39;
+    private static final int UPDATE_TYPE_NEW_STICKER_SET = 40;
+    private static final int UPDATE_TYPE_SAVED_GIFS = 41;
+    private static final int UPDATE_TYPE_EDIT_CHANNEL_MESSAGE = 42;
+    private static final int UPDATE_TYPE_CHANNEL_PINNED_MESSAGE = 43;
+
+    private static final HashMap<Class<?>, Integer> updateTypes = new HashMap<>();
+
+    static {
+        updateTypes.put(TLRPC.TL_updateNewMessage.class, UPDATE_TYPE_NEW_MESSAGE);
+        updateTypes.put(TLRPC.TL_updateNewChannelMessage.class, UPDATE_TYPE_NEW_CHANNEL_MESSAGE);
+        updateTypes.put(TLRPC.TL_updateReadMessagesContents.class, UPDATE_TYPE_READ_MESSAGES_CONTENTS);
+        updateTypes.put(TLRPC.TL_updateReadHistoryInbox.class, UPDATE_TYPE_READ_HISTORY_INBOX);
+        updateTypes.put(TLRPC.TL_updateReadHistoryOutbox.class, UPDATE_TYPE_READ_HISTORY_OUTBOX);
+        updateTypes.put(TLRPC.TL_updateDeleteMessages.class, UPDATE_TYPE_DELETE_MESSAGES);
+        updateTypes.put(TLRPC.TL_updateUserTyping.class, UPDATE_TYPE_USER_TYPING);
+        updateTypes.put(TLRPC.TL_updateChatUserTyping.class, UPDATE_TYPE_CHAT_USER_TYPING);
+        updateTypes.put(TLRPC.TL_updateChatParticipants.class, UPDATE_TYPE_CHAT_PARTICIPANTS);
+        updateTypes.put(TLRPC.TL_updateUserStatus.class, UPDATE_TYPE_USER_STATUS);
+        updateTypes.put(TLRPC.TL_updateUserName.class, UPDATE_TYPE_USER_NAME);
+        updateTypes.put(TLRPC.TL_updateUserPhoto.class, UPDATE_TYPE_USER_PHOTO);
+        updateTypes.put(TLRPC.TL_updateUserPhone.class, UPDATE_TYPE_USER_PHONE);
+        updateTypes.put(TLRPC.TL_updateContactRegistered.class, UPDATE_TYPE_CONTACT_REGISTERED);
+        updateTypes.put(TLRPC.TL_updateContactLink.class, UPDATE_TYPE_CONTACT_LINK);
+        updateTypes.put(TLRPC.TL_updateNewAuthorization.class, UPDATE_TYPE_NEW_AUTHORIZATION);
+        updateTypes.put(TLRPC.TL_updateNewGeoChatMessage.class, UPDATE_TYPE_NEW_GEO_CHAT_MESSAGE);
+        updateTypes.put(TLRPC.TL_updateNewEncryptedMessage.class, UPDATE_TYPE_NEW_ENCRYPTED_MESSAGE);
+        updateTypes.put(TLRPC.TL_updateEncryptedChatTyping.class, UPDATE_TYPE_ENCRYPTED_CHAT_TYPING);
+        updateTypes.put(TLRPC.TL_updateEncryptedMessagesRead.class, UPDATE_TYPE_ENCRYPTED_MESSAGES_READ);
+        updateTypes.put(TLRPC.TL_updateChatParticipantAdd.class, UPDATE_TYPE_CHAT_PARTICIPANT_ADD);
+        updateTypes.put(TLRPC.TL_updateChatParticipantDelete.class, UPDATE_TYPE_CHAT_PARTICIPANT_DELETE);
+        updateTypes.put(TLRPC.TL_updateDcOptions.class, UPDATE_TYPE_DC_OPTIONS);
+        updateTypes.put(TLRPC.TL_updateEncryption.class, UPDATE_TYPE_ENCRYPTION);
+        updateTypes.put(TLRPC.TL_updateUserBlocked.class, UPDATE_TYPE_USER_BLOCKED);
+        updateTypes.put(TLRPC.TL_updateNotifySettings.class, UPDATE_TYPE_NOTIFY_SETTINGS);
+        updateTypes.put(TLRPC.TL_updateServiceNotification.class, UPDATE_TYPE_SERVICE_NOTIFICATION);
+        updateTypes.put(TLRPC.TL_updatePrivacy.class, UPDATE_TYPE_PRIVACY);
+        updateTypes.put(TLRPC.TL_updateWebPage.class, UPDATE_TYPE_WEB_PAGE);
+        updateTypes.put(TLRPC.TL_updateChannelTooLong.class, UPDATE_TYPE_CHANNEL_TOO_LONG);
+        updateTypes.put(TLRPC.TL_updateChannelGroup.class, UPDATE_TYPE_CHANNEL_GROUP);
+        updateTypes.put(TLRPC.TL_updateReadChannelInbox.class, UPDATE_TYPE_READ_CHANNEL_INBOX);
+        updateTypes.put(TLRPC.TL_updateDeleteChannelMessages.class, UPDATE_TYPE_DELETE_CHANNEL_MESSAGES);
+        updateTypes.put(TLRPC.TL_updateChannel.class, UPDATE_TYPE_CHANNEL);
+        updateTypes.put(TLRPC.TL_updateChannelMessageViews.class, UPDATE_TYPE_CHANNEL_MESSAGE_VIEWS);
+        updateTypes.put(TLRPC.TL_updateChatParticipantAdmin.class, UPDATE_TYPE_CHAT_PARTICIPANT_ADMIN);
+        updateTypes.put(TLRPC.TL_updateChatAdmins.class, UPDATE_TYPE_CHAT_ADMINS);
+        updateTypes.put(TLRPC.TL_updateStickerSets.class, UPDATE_TYPE_STICKER_SETS);
+        updateTypes.put(TLRPC.TL_updateStickerSetsOrder.class, UPDATE_TYPE_STICKER_SETS_ORDER);
+        updateTypes.put(TLRPC.TL_updateNewStickerSet.class, UPDATE_TYPE_NEW_STICKER_SET);
+        updateTypes.put(TLRPC.TL_updateSavedGifs.class, UPDATE_TYPE_SAVED_GIFS);
+        updateTypes.put(TLRPC.TL_updateEditChannelMessage.class, UPDATE_TYPE_EDIT_CHANNEL_MESSAGE);
+        updateTypes.put(TLRPC.TL_updateChannelPinnedMessage.class, UPDATE_TYPE_CHANNEL_PINNED_MESSAGE);
+    }
+
+    private static int getUpdateDispatchType(TLRPC.Update update) {
+        Integer type = updateTypes.get(update.getClass());
+        return type != null ? type : 0;
+    }
+
     public static class PrintingUser {
         public long lastTime;
         public int userId;
@@ -475,12 +617,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         dialogs_read_inbox_max.clear();
         exportedChats.clear();
         fullUsersAbout.clear();
-        dialogs.clear();
+        dialogsIndex.clear();
         joiningToChannels.clear();
         channelViewsToSend.clear();
         channelViewsToReload.clear();
-        dialogsServerOnly.clear();
-        dialogsGroupsOnly.clear();
         dialogMessagesByIds.clear();
         dialogMessagesByRandomIds.clear();
         users.clear();
@@ -488,6 +628,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         chats.clear();
         dialogMessage.clear();
         printingUsers.clear();
+        synchronized (coalescedUpdatesSync) {
+            coalescedStatusUpdates.clear();
+            coalescedTypingUpdates.clear();
+        }
         printingStrings.clear();
         printingStringsTypes.clear();
         onlinePrivacy.clear();
@@ -542,6 +686,12 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 channelsPts.clear();
                 shortPollChannels.clear();
                 needShortPollChannels.clear();
+                synchronized (channelDifferenceSync) {
+                    pendingChannelDifferences.clear();
+                    runningChannelDifferences.clear();
+                    channelDifferenceSyncTotal = 0;
+                    channelDifferenceSyncDone = 0;
+                }
             }
         });
 
@@ -553,10 +703,14 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         addSupportUser();
     }
 
-    public TLRPC.User getUser(Integer id) {
+    public TLRPC.User getUser(int id) {
         return users.get(id);
     }
 
+    public TLRPC.User getUser(Integer id) {
+        return id == null ? null : users.get(id.intValue());
+    }
+
     public TLRPC.User getUser(String username) {
         if (username == null || username.length() == 0) {
             return null;
@@ -564,14 +718,18 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         return usersByUsernames.get(username.toLowerCase());
     }
 
-    public ConcurrentHashMap<Integer, TLRPC.User> getUsers() {
+    public ConcurrentIntHashMap<TLRPC.User> getUsers() {
         return users;
     }
 
-    public TLRPC.Chat getChat(Integer id) {
+    public TLRPC.Chat getChat(int id) {
         return chats.get(id);
     }
 
+    public TLRPC.Chat getChat(Integer id) {
+        return id == null ? null : chats.get(id.intValue());
+    }
+
     public TLRPC.EncryptedChat getEncryptedChat(Integer id) {
         return encryptedChats.get(id);
     }
@@ -851,7 +1009,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             req.chat_id = chat_id;
             request = req;
         }
-        int reqId = ConnectionsManager.getInstance().sendRequest(request, new RequestDelegate() {
+        int reqId = ConnectionsManager.getInstance().sendRequestCoalesced(request, new RequestDelegate() {
             @Override
             public void run(TLObject response, final TLRPC.TL_error error) {
                 if (error == null) {
@@ -905,7 +1063,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         loadingFullUsers.add(user.id);
         TLRPC.TL_users_getFullUser req = new TLRPC.TL_users_getFullUser();
         req.id = getInputUser(user);
-        int reqId = ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+        int reqId = ConnectionsManager.getInstance().sendRequestCoalesced(req, new RequestDelegate() {
             @Override
             public void run(final TLObject response, TLRPC.TL_error error) {
                 if (error == null) {
@@ -1134,7 +1292,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         } else if (currentChat != null) {
             req.peer = MessagesController.getInputPeer(-currentChat.id);
         }
-        ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+        ConnectionsManager.getInstance().sendRequestCoalesced(req, new RequestDelegate() {
             @Override
             public void run(final TLObject response, TLRPC.TL_error error) {
                 AndroidUtilities.runOnUIThread(new Runnable() {
@@ -1662,8 +1820,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     max_id_delete = Math.max(0, dialog.top_message);
                 }
                 if (onlyHistory == 0) {
-                    dialogs.remove(dialog);
-                    if (dialogsServerOnly.remove(dialog)) {
+                    if (dialogsIndex.remove(dialog)) {
                         if (dialog instanceof TLRPC.TL_dialogChannel) {
                             Utilities.stageQueue.postRunnable(new Runnable() {
                                 @Override
@@ -1675,7 +1832,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             });
                         }
                     }
-                    dialogsGroupsOnly.remove(dialog);
                     dialogs_dict.remove(did);
                     dialogs_read_inbox_max.remove(did);
                     nextDialogsCacheOffset--;
@@ -1889,6 +2045,8 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
         if ((channelViewsToSend.size() != 0 || channelViewsToReload.size() != 0) && Math.abs(System.currentTimeMillis() - lastViewsCheckTime) >= 5000) {
             lastViewsCheckTime = System.currentTimeMillis();
+            ArrayList<TLObject> requests = new ArrayList<>();
+            ArrayList<RequestDelegate> delegates = new ArrayList<>();
             for (int b = 0; b < 2; b++) {
                 SparseArray<ArrayList<Integer>> array = b == 0 ? channelViewsToSend : channelViewsToReload;
                 if (array.size() == 0) {
@@ -1900,7 +2058,8 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     req.peer = getInputPeer(key);
                     req.id = array.get(key);
                     req.increment = a == 0;
-                    ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+                    requests.add(req);
+                    delegates.add(new RequestDelegate() {
                         @Override
                         public void run(TLObject response, TLRPC.TL_error error) {
                             if (error == null) {
@@ -1930,6 +2089,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 }
                 array.clear();
             }
+            ConnectionsManager.getInstance().sendRequests(requests, delegates, 0);
         }
         if (!onlinePrivacy.isEmpty()) {
             ArrayList<Integer> toRemove = null;
@@ -1968,10 +2128,13 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
         if (!printingUsers.isEmpty() || lastPrintingStringCount != printingUsers.size()) {
             boolean updated = false;
-            ArrayList<Long> keys = new ArrayList<>(printingUsers.keySet());
-            for (int b = 0; b < keys.size(); b++) {
-                Long key = keys.get(b);
+            long[] keys = printingUsers.keys();
+            for (int b = 0; b < keys.length; b++) {
+                long key = keys[b];
                 ArrayList<PrintingUser> arr = printingUsers.get(key);
+                if (arr == null) {
+                    continue;
+                }
                 for (int a = 0; a < arr.size(); a++) {
                     PrintingUser user = arr.get(a);
                     if (user.lastTime + 5900 < currentTime) {
@@ -1982,8 +2145,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 }
                 if (arr.isEmpty()) {
                     printingUsers.remove(key);
-                    keys.remove(b);
-                    b--;
                 }
             }
 
@@ -2016,10 +2177,13 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         final HashMap<Long, CharSequence> newPrintingStrings = new HashMap<>();
         final HashMap<Long, Integer> newPrintingStringsTypes = new HashMap<>();
 
-        ArrayList<Long> keys = new ArrayList<>(printingUsers.keySet());
-        for (HashMap.Entry<Long, ArrayList<PrintingUser>> entry : printingUsers.entrySet()) {
-            long key = entry.getKey();
-            ArrayList<PrintingUser> arr = entry.getValue();
+        long[] keys = printingUsers.keys();
+        for (int b = 0; b < keys.length; b++) {
+            long key = keys[b];
+            ArrayList<PrintingUser> arr = printingUsers.get(key);
+            if (arr == null || arr.isEmpty()) {
+                continue;
+            }
 
             int lower_id = (int) key;
 
@@ -2212,6 +2376,11 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         loadMessages(dialog_id, count, max_id, fromCache, midDate, classGuid, load_type, last_message_id, important, loadIndex, 0, 0, 0, false);
     }
 
+    //the storage queue rewrote the dialog right before, the cache read has to wait for that write
+    public void reloadMessagesFromCache(final long dialog_id, final int count, final int classGuid, final int load_type, final int important, final int loadIndex) {
+        MessagesStorage.getInstance().getMessages(dialog_id, count, 0, 0, classGuid, load_type, important, loadIndex, true);
+    }
+
     public void loadMessages(final long dialog_id, final int count, final int max_id, boolean fromCache, int midDate, final int classGuid, final int load_type, final int last_message_id, final int important, final int loadIndex, final int first_unread, final int unread_count, final int last_date, final boolean queryFromServer) {
         int lower_part = (int) dialog_id;
         if (fromCache || lower_part == 0) {
@@ -2896,48 +3065,20 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             }
                         }
 
-                        dialogs.clear();
-                        dialogsServerOnly.clear();
-                        dialogsGroupsOnly.clear();
-                        dialogs.addAll(dialogs_dict.values());
-                        Collections.sort(dialogs, new Comparator<TLRPC.Dialog>() {
-                            @Override
-                            public int compare(TLRPC.Dialog tl_dialog, TLRPC.Dialog tl_dialog2) {
-                                if (tl_dialog.last_message_date == tl_dialog2.last_message_date) {
-                                    return 0;
-                                } else if (tl_dialog.last_message_date < tl_dialog2.last_message_date) {
-                                    return 1;
-                                } else {
-                                    return -1;
-                                }
-                            }
-                        });
-                        for (int a = 0; a < dialogs.size(); a++) {
-                            TLRPC.Dialog d = dialogs.get(a);
-
-                            int high_id = (int) (d.id >> 32);
-                            if ((int) d.id != 0 && high_id != 1) {
-                                if (d instanceof TLRPC.TL_dialog) {
-                                    if (d.id < 0) {
-                                        if (migrate) {
-                                            TLRPC.Chat chat = chatsDict.get(-(int) d.id);
-                                            if (chat != null && chat.migrated_to != null) {
-                                                dialogs.remove(a);
-                                                a--;
-                                                continue;
-                                            }
-                                        }
-                                        dialogsGroupsOnly.add(d);
-                                    }
-                                } else if (d instanceof TLRPC.TL_dialogChannel) {
-                                    int lower_id = (int) d.id;
-                                    TLRPC.Chat chat = getChat(-lower_id);
-                                    if (chat != null && (chat.megagroup && chat.editor || chat.creator)) {
-                                        dialogsGroupsOnly.add(d);
+                        if (migrate) {
+                            ArrayList<TLRPC.Dialog> dialogsToIndex = new ArrayList<>(dialogs_dict.size());
+                            for (TLRPC.Dialog d : dialogs_dict.values()) {
+                                if (d instanceof TLRPC.TL_dialog && d.id < 0 && DialogsIndex.isServerDialog(d)) {
+                                    TLRPC.Chat chat = chatsDict.get(-(int) d.id);
+                                    if (chat != null && chat.migrated_to != null) {
+                                        continue;
                                     }
                                 }
-                                dialogsServerOnly.add(d);
+                                dialogsToIndex.add(d);
                             }
+                            dialogsIndex.rebuild(dialogsToIndex);
+                        } else {
+                            dialogsIndex.rebuild(dialogs_dict.values());
                         }
 
                         if (!migrate) {
@@ -3200,38 +3341,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             }
                         }
 
-                        dialogs.clear();
-                        dialogsServerOnly.clear();
-                        dialogsGroupsOnly.clear();
-                        dialogs.addAll(dialogs_dict.values());
-                        Collections.sort(dialogs, new Comparator<TLRPC.Dialog>() {
-                            @Override
-                            public int compare(TLRPC.Dialog dialog, TLRPC.Dialog dialog2) {
-                                if (dialog.last_message_date == dialog2.last_message_date) {
-                                    return 0;
-                                } else if (dialog.last_message_date < dialog2.last_message_date) {
-                                    return 1;
-                                } else {
-                                    return -1;
-                                }
-                            }
-                        });
-                        for (int a = 0; a < dialogs.size(); a++) {
-                            TLRPC.Dialog d = dialogs.get(a);
-                            int high_id = (int) (d.id >> 32);
-                            if ((int) d.id != 0 && high_id != 1) {
-                                dialogsServerOnly.add(d);
-                                if (d instanceof TLRPC.TL_dialog) {
-                                    if (d.id < 0) {
-                                        dialogsGroupsOnly.add(d);
-                                    }
-                                } else if (d instanceof TLRPC.TL_dialogChannel) {
-                                    int lower_id = (int) d.id;
-                                    TLRPC.Chat chat = getChat(-lower_id);
-                                    if (chat != null && (chat.megagroup && chat.editor || chat.creator)) {
-                                        dialogsGroupsOnly.add(d);
-                                    }
-                                }
+                        for (Long key : new_dialogs_dict.keySet()) {
+                            TLRPC.Dialog dialog = dialogs_dict.get(key);
+                            if (dialog != null) {
+                                dialogsIndex.update(dialog);
                             }
                         }
                         NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -4544,92 +4657,158 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             }
         }
         gettingDifferenceChannels.put(channelId, true);
+        ChannelDifferenceTask task = new ChannelDifferenceTask();
+        task.channelId = channelId;
+        task.newDialogType = newDialogType;
+        task.pts = channelPts;
+        task.limit = limit;
+        task.enqueueTime = System.currentTimeMillis();
+        synchronized (channelDifferenceSync) {
+            if (pendingChannelDifferences.isEmpty() && runningChannelDifferences.size() == 0) {
+                channelDifferenceSyncTotal = 0;
+                channelDifferenceSyncDone = 0;
+            }
+            pendingChannelDifferences.add(task);
+            channelDifferenceSyncTotal++;
+            channelDifferencesQueued++;
+            if (pendingChannelDifferences.size() > channelDifferenceMaxPending) {
+                channelDifferenceMaxPending = pendingChannelDifferences.size();
+            }
+        }
+        startChannelDifferences();
+    }
+
+    //after a reconnect hundreds of channels may need a difference, so only a few requests are in flight at once
+    private void startChannelDifferences() {
+        while (true) {
+            ChannelDifferenceTask task;
+            synchronized (channelDifferenceSync) {
+                if (pendingChannelDifferences.isEmpty() || runningChannelDifferences.size() >= CHANNEL_DIFFERENCE_MAX_REQUESTS) {
+                    return;
+                }
+                task = pollChannelDifference();
+                task.startTime = System.currentTimeMillis();
+                channelDifferenceWaitTime += task.startTime - task.enqueueTime;
+                runningChannelDifferences.put(task.channelId, task);
+            }
+            sendChannelDifference(task);
+        }
+    }
+
+    //the open channel goes first, then channels from the top of the dialogs list, then in the order they were queued
+    private ChannelDifferenceTask pollChannelDifference() {
+        int bestIndex = 0;
+        boolean bestOpen = false;
+        int bestDate = 0;
+        for (int a = 0; a < pendingChannelDifferences.size(); a++) {
+            ChannelDifferenceTask task = pendingChannelDifferences.get(a);
+            boolean open = needShortPollChannels.indexOfKey(task.channelId) >= 0;
+            TLRPC.Dialog dialog = dialogs_dict.get(-task.channelId);
+            int date = dialog != null ? dialog.last_message_date : 0;
+            if (a == 0 || open && !bestOpen || open == bestOpen && date > bestDate) {
+                bestIndex = a;
+                bestOpen = open;
+                bestDate = date;
+            }
+        }
+        return pendingChannelDifferences.remove(bestIndex);
+    }
+
+    private void finishChannelDifference(ChannelDifferenceTask task, boolean success) {
+        synchronized (channelDifferenceSync) {
+            if (runningChannelDifferences.get(task.channelId) != task) {
+                return;
+            }
+            runningChannelDifferences.remove(task.channelId);
+            channelDifferenceRequestTime += System.currentTimeMillis() - task.startTime;
+            channelDifferenceSyncDone++;
+            if (success) {
+                channelDifferencesCompleted++;
+            } else {
+                channelDifferencesFailed++;
+            }
+        }
+    }
+
+    public void dumpChannelDifferencesToLog() {
+        synchronized (channelDifferenceSync) {
+            long finished = channelDifferencesCompleted + channelDifferencesFailed;
+            long started = finished + runningChannelDifferences.size();
+            FileLog.e("tmessages", "channel differences synced " + channelDifferenceSyncDone + " of " + channelDifferenceSyncTotal + " pending " + pendingChannelDifferences.size() + " running " + runningChannelDifferences.size() + " queued " + channelDifferencesQueued + " completed " + channelDifferencesCompleted + " failed " + channelDifferencesFailed + " max pending " + channelDifferenceMaxPending + " avg wait " + (started != 0 ? channelDifferenceWaitTime / started : 0) + " ms avg request " + (finished != 0 ? channelDifferenceRequestTime / finished : 0) + " ms");
+        }
+    }
+
+    private void sendChannelDifference(final ChannelDifferenceTask task) {
+        final int channelId = task.channelId;
+        final int newDialogType = task.newDialogType;
+        int channelPts = task.pts;
+        if (newDialogType != 1) {
+            Integer pts = channelsPts.get(channelId);
+            if (pts != null) {
+                channelPts = pts;
+            }
+        }
         TLRPC.TL_updates_getChannelDifference req = new TLRPC.TL_updates_getChannelDifference();
         req.channel = getInputChannel(channelId);
         req.filter = new TLRPC.TL_channelMessagesFilterEmpty();
         req.pts = channelPts;
-        req.limit = limit;
+        req.limit = task.limit;
         FileLog.e("tmessages", "start getChannelDifference with pts = " + channelPts + " channelId = " + channelId);
         ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
             @Override
             public void run(TLObject response, final TLRPC.TL_error error) {
 
                 if (error == null) {
-                    final TLRPC.updates_ChannelDifference res = (TLRPC.updates_ChannelDifference) response;
-
-                    final HashMap<Integer, TLRPC.User> usersDict = new HashMap<>();
-                    for (int a = 0; a < res.users.size(); a++) {
-                        TLRPC.User user = res.users.get(a);
-                        usersDict.put(user.id, user);
-                    }
-                    TLRPC.Chat channel = null;
-                    for (int a = 0; a < res.chats.size(); a++) {
-                        TLRPC.Chat chat = res.chats.get(a);
-                        if (chat.id == channelId) {
-                            channel = chat;
-                            break;
-                        }
-                    }
-                    final TLRPC.Chat channelFinal = channel;
-
-                    final ArrayList<TLRPC.TL_updateMessageID> msgUpdates = new ArrayList<>();
-                    if (!res.other_updates.isEmpty()) {
-                        for (int a = 0; a < res.other_updates.size(); a++) {
-                            TLRPC.Update upd = res.other_updates.get(a);
-                            if (upd instanceof TLRPC.TL_updateMessageID) {
-                                msgUpdates.add((TLRPC.TL_updateMessageID) upd);
-                                res.other_updates.remove(a);
-                                a--;
+                    try {
+                        final TLRPC.updates_ChannelDifference res = (TLRPC.updates_ChannelDifference) response;
+
+                        final HashMap<Integer, TLRPC.User> usersDict = new HashMap<>();
+                        for (int a = 0; a < res.users.size(); a++) {
+                            TLRPC.User user = res.users.get(a);
+                            usersDict.put(user.id, user);
+                        }
+                        TLRPC.Chat channel = null;
+                        for (int a = 0; a < res.chats.size(); a++) {
+                            TLRPC.Chat chat = res.chats.get(a);
+                            if (chat.id == channelId) {
+                                channel = chat;
+                                break;
                             }
                         }
-                    }
-
-                    MessagesStorage.getInstance().putUsersAndChats(res.users, res.chats, true, true);
-                    AndroidUtilities.runOnUIThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            putUsers(res.users, false);
-                            putChats(res.chats, false);
-                        }
-                    });
+                        final TLRPC.Chat channelFinal = channel;
 
-                    MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (!msgUpdates.isEmpty()) {
-                                final HashMap<Integer, long[]> corrected = new HashMap<>();
-                                for (TLRPC.TL_updateMessageID update : msgUpdates) {
-                                    long[] ids = MessagesStorage.getInstance().updateMessageStateAndId(update.random_id, null, update.id, 0, false, channelId);
-                                    if (ids != null) {
-                                        corrected.put(update.id, ids);
-                                    }
+                        final ArrayList<TLRPC.TL_updateMessageID> msgUpdates = new ArrayList<>();
+                        if (!res.other_updates.isEmpty()) {
+                            for (int a = 0; a < res.other_updates.size(); a++) {
+                                TLRPC.Update upd = res.other_updates.get(a);
+                                if (upd instanceof TLRPC.TL_updateMessageID) {
+                                    msgUpdates.add((TLRPC.TL_updateMessageID) upd);
+                                    res.other_updates.remove(a);
+                                    a--;
                                 }
+                            }
+                        }
 
-                                if (!corrected.isEmpty()) {
-                                    AndroidUtilities.runOnUIThread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            for (HashMap.Entry<Integer, long[]> entry : corrected.entrySet()) {
-                                                Integer newId = entry.getKey();
-                                                long[] ids = entry.getValue();
-                                                Integer oldId = (int) ids[1];
-                                                SendMessagesHelper.getInstance().processSentMessage(oldId);
-                                                NotificationCenter.getInstance().postNotificationName(NotificationCenter.messageReceivedByServer, oldId, newId, null, ids[0]);
-                                            }
-                                        }
-                                    });
-                                }
+                        MessagesStorage.getInstance().putUsersAndChats(res.users, res.chats, true, true);
+                        AndroidUtilities.runOnUIThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                putUsers(res.users, false);
+                                putChats(res.chats, false);
                             }
+                        });
 
-                            Utilities.stageQueue.postRunnable(new Runnable() {
-                                @Override
-                                public void run() {
+                        final Runnable applyDifference = new Runnable() {
+                            @Override
+                            public void run() {
+                                boolean success = false;
+                                try {
                                     if (res instanceof TLRPC.TL_updates_channelDifference || res instanceof TLRPC.TL_updates_channelDifferenceEmpty) {
+                                        final ArrayList<MessageObject> pushMessages = new ArrayList<>();
                                         if (!res.new_messages.isEmpty()) {
                                             final HashMap<Long, ArrayList<MessageObject>> messages = new HashMap<>();
                                             ImageLoader.saveMessagesThumbs(res.new_messages);
 
-                                            final ArrayList<MessageObject> pushMessages = new ArrayList<>();
                                             for (int a = 0; a < res.new_messages.size(); a++) {
                                                 TLRPC.Message message = res.new_messages.get(a);
                                                 if (!message.out) {
@@ -4682,20 +4861,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                                     NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
                                                 }
                                             });
-                                            MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    if (!pushMessages.isEmpty()) {
-                                                        AndroidUtilities.runOnUIThread(new Runnable() {
-                                                            @Override
-                                                            public void run() {
-                                                                NotificationsController.getInstance().processNewMessages(pushMessages, true);
-                                                            }
-                                                        });
-                                                    }
-                                                    MessagesStorage.getInstance().putMessages(res.new_messages, true, false, false, MediaController.getInstance().getAutodownloadMask());
-                                                }
-                                            });
+                                            MessagesStorage.getInstance().putMessages(res.new_messages, false, true, false, MediaController.getInstance().getAutodownloadMask());
                                         }
 
                                         if (!res.other_updates.isEmpty()) {
@@ -4703,6 +4869,20 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                         }
                                         processChannelsUpdatesQueue(channelId, 1);
                                         MessagesStorage.getInstance().saveChannelPts(channelId, res.pts);
+                                        //the push is shown only after the messages and pts it refers to are committed
+                                        if (!pushMessages.isEmpty()) {
+                                            MessagesStorage.getInstance().runAfterPendingWrites(new Runnable() {
+                                                @Override
+                                                public void run() {
+                                                    AndroidUtilities.runOnUIThread(new Runnable() {
+                                                        @Override
+                                                        public void run() {
+                                                            NotificationsController.getInstance().processNewMessages(pushMessages, true);
+                                                        }
+                                                    });
+                                                }
+                                            });
+                                        }
                                     } else if (res instanceof TLRPC.TL_updates_channelDifferenceTooLong) {
                                         for (int a = 0; a < res.messages.size(); a++) {
                                             TLRPC.Message message = res.messages.get(a);
@@ -4735,21 +4915,68 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                         }
                                         MessagesStorage.getInstance().overwriteChannel(channelId, (TLRPC.TL_updates_channelDifferenceTooLong) res, newDialogType);
                                     }
-                                    gettingDifferenceChannels.remove(channelId);
                                     channelsPts.put(channelId, res.pts);
 
                                     if ((res.flags & 2) != 0) {
                                         shortPollChannels.put(channelId, (int) (System.currentTimeMillis() / 1000) + res.timeout);
                                     }
-                                    if (!res.isFinal) {
-                                        getChannelDifference(channelId);
-                                    }
+                                    success = true;
                                     FileLog.e("tmessages", "received channel difference with pts = " + res.pts + " channelId = " + channelId);
                                     FileLog.e("tmessages", "messages = " + res.new_messages.size() + " users = " + res.users.size() + " chats = " + res.chats.size() + " other updates = " + res.other_updates.size());
+                                } catch (Exception e) {
+                                    FileLog.e("tmessages", e);
+                                } finally {
+                                    gettingDifferenceChannels.remove(channelId);
+                                    finishChannelDifference(task, success);
+                                    if (success && !res.isFinal) {
+                                        getChannelDifference(channelId);
+                                    }
+                                    startChannelDifferences();
+                                }
+                            }
+                        };
+                        //posting to the storage queue flushes its pending write batch, so it is only done for message id fixups
+                        if (msgUpdates.isEmpty()) {
+                            Utilities.stageQueue.postRunnable(applyDifference);
+                        } else {
+                            MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+                                @Override
+                                public void run() {
+                                    final HashMap<Integer, long[]> corrected = new HashMap<>();
+                                    try {
+                                        for (TLRPC.TL_updateMessageID update : msgUpdates) {
+                                            long[] ids = MessagesStorage.getInstance().updateMessageStateAndId(update.random_id, null, update.id, 0, false, channelId);
+                                            if (ids != null) {
+                                                corrected.put(update.id, ids);
+                                            }
+                                        }
+                                    } catch (Exception e) {
+                                        FileLog.e("tmessages", e);
+                                    }
+
+                                    if (!corrected.isEmpty()) {
+                                        AndroidUtilities.runOnUIThread(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                for (HashMap.Entry<Integer, long[]> entry : corrected.entrySet()) {
+                                                    Integer newId = entry.getKey();
+                                                    long[] ids = entry.getValue();
+                                                    Integer oldId = (int) ids[1];
+                                                    SendMessagesHelper.getInstance().processSentMessage(oldId);
+                                                    NotificationCenter.getInstance().postNotificationName(NotificationCenter.messageReceivedByServer, oldId, newId, null, ids[0]);
+                                                }
+                                            }
+                                        });
+                                    }
+
+                                    Utilities.stageQueue.postRunnable(applyDifference);
                                 }
                             });
                         }
-                    });
+                    } catch (Exception e) {
+                        FileLog.e("tmessages", e);
+                        releaseChannelDifference(task);
+                    }
                 } else {
                     AndroidUtilities.runOnUIThread(new Runnable() {
                         @Override
@@ -4757,9 +4984,20 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             checkChannelError(error.text, channelId);
                         }
                     });
-                    gettingDifferenceChannels.remove(channelId);
+                    releaseChannelDifference(task);
                 }
             }
+        }, ConnectionsManager.RequestFlagPriorityBackground);
+    }
+
+    private void releaseChannelDifference(final ChannelDifferenceTask task) {
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                gettingDifferenceChannels.remove(task.channelId);
+                finishChannelDifference(task, false);
+                startChannelDifferences();
+            }
         });
     }
 
@@ -5108,7 +5346,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             final ArrayList<MessageObject> pushMessages = new ArrayList<>();
                             final ArrayList<TLRPC.Message> messagesArr = new ArrayList<>();
 
-                            ConcurrentHashMap<Integer, TLRPC.User> usersDict = new ConcurrentHashMap<>();
+                            ConcurrentIntHashMap<TLRPC.User> usersDict = new ConcurrentIntHashMap<>(res.users.size());
                             for (int a = 0; a < res.users.size(); a++) {
                                 TLRPC.User user = res.users.get(a);
                                 usersDict.put(user.id, user);
@@ -5621,6 +5859,15 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             }
             return true;
         }
+        if (usersArr == null && chatsArr == null && isLightUpdatesBatch(updates)) {
+            if (updatesCoalesceWindow > 0) {
+                coalesceLightUpdates(updates);
+            } else {
+                processLightUpdates(updates);
+            }
+            return true;
+        }
+        flushCoalescedUpdates(true);
         long currentTime = System.currentTimeMillis();
 
         final HashMap<Long, ArrayList<MessageObject>> messages = new HashMap<>();
@@ -5642,10 +5889,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         final ArrayList<Integer> contactsIds = new ArrayList<>();
 
         boolean checkForUsers = true;
-        ConcurrentHashMap<Integer, TLRPC.User> usersDict;
-        ConcurrentHashMap<Integer, TLRPC.Chat> chatsDict;
+        ConcurrentIntHashMap<TLRPC.User> usersDict;
+        ConcurrentIntHashMap<TLRPC.Chat> chatsDict;
         if (usersArr != null) {
-            usersDict = new ConcurrentHashMap<>();
+            usersDict = new ConcurrentIntHashMap<>(usersArr.size());
             for (TLRPC.User user : usersArr) {
                 usersDict.put(user.id, user);
             }
@@ -5654,7 +5901,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             usersDict = users;
         }
         if (chatsArr != null) {
-            chatsDict = new ConcurrentHashMap<>();
+            chatsDict = new ConcurrentIntHashMap<>(chatsArr.size());
             for (TLRPC.Chat chat : chatsArr) {
                 chatsDict.put(chat.id, chat);
             }
@@ -5677,152 +5924,283 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 
         for (int c = 0; c < updates.size(); c++) {
             TLRPC.Update update = updates.get(c);
-            if (update instanceof TLRPC.TL_updateNewMessage || update instanceof TLRPC.TL_updateNewChannelMessage) {
-                TLRPC.Message message;
-                if (update instanceof TLRPC.TL_updateNewMessage) {
-                    message = ((TLRPC.TL_updateNewMessage) update).message;
-                } else {
-                    message = ((TLRPC.TL_updateNewChannelMessage) update).message;
-                }
-                TLRPC.Chat chat = null;
-                if (checkForUsers) {
-                    int chat_id = 0;
-                    if (message.to_id.channel_id != 0) {
-                        chat_id = message.to_id.channel_id;
-                    } else if (message.to_id.chat_id != 0) {
-                        chat_id = message.to_id.chat_id;
+            switch (getUpdateDispatchType(update)) {
+                case UPDATE_TYPE_NEW_MESSAGE:
+                case UPDATE_TYPE_NEW_CHANNEL_MESSAGE: {
+                    TLRPC.Message message;
+                    if (update instanceof TLRPC.TL_updateNewMessage) {
+                        message = ((TLRPC.TL_updateNewMessage) update).message;
+                    } else {
+                        message = ((TLRPC.TL_updateNewChannelMessage) update).message;
+                    }
+                    TLRPC.Chat chat = null;
+                    if (checkForUsers) {
+                        int chat_id = 0;
+                        if (message.to_id.channel_id != 0) {
+                            chat_id = message.to_id.channel_id;
+                        } else if (message.to_id.chat_id != 0) {
+                            chat_id = message.to_id.chat_id;
+                        }
+                        if (chat_id != 0) {
+                            chat = chatsDict.get(chat_id);
+                            if (chat == null) {
+                                chat = getChat(chat_id);
+                            }
+                            if (chat == null) {
+                                chat = MessagesStorage.getInstance().getChatSync(chat_id);
+                                putChat(chat, true);
+                            }
+                            if (chat == null) {
+                                return false;
+                            }
+                            if (chat.megagroup) {
+                                message.flags |= TLRPC.MESSAGE_FLAG_MEGAGROUP;
+                            }
+                        }
+                        if (message.from_id > 0) {
+                            TLRPC.User user = getUser(message.from_id);
+                            if (usersDict.get(message.from_id) == null && user == null) {
+                                return false;
+                            }
+                            if (user != null && user.status != null && user.status.expires <= 0) {
+                                onlinePrivacy.put(message.from_id, ConnectionsManager.getInstance().getCurrentTime());
+                                interfaceUpdateMask |= UPDATE_MASK_STATUS;
+                            }
+                        }
                     }
-                    if (chat_id != 0) {
-                        chat = chatsDict.get(chat_id);
-                        if (chat == null) {
-                            chat = getChat(chat_id);
+                    if (message.action instanceof TLRPC.TL_messageActionChatDeleteUser) {
+                        TLRPC.User user = usersDict.get(message.action.user_id);
+                        if (user != null && user.bot) {
+                            message.reply_markup = new TLRPC.TL_replyKeyboardHide();
+                        } else if (message.from_id == UserConfig.getClientUserId() && message.action.user_id == UserConfig.getClientUserId()) {
+                            continue;
                         }
-                        if (chat == null) {
-                            chat = MessagesStorage.getInstance().getChatSync(chat_id);
-                            putChat(chat, true);
+                    } else if (message.action instanceof TLRPC.TL_messageActionChatMigrateTo || message.action instanceof TLRPC.TL_messageActionChannelCreate) {
+                        message.unread = false;
+                        message.media_unread = false;
+                    }
+                    if (update instanceof TLRPC.TL_updateNewChannelMessage) {
+                        if (message.to_id.channel_id != 0 && !message.out) {
+                            message.unread = true;
+                            if (message.post || (message.flags & TLRPC.MESSAGE_FLAG_MEGAGROUP) != 0) {
+                                message.media_unread = true;
+                            }
                         }
-                        if (chat == null) {
-                            return false;
+
+                        long dialog_id = -update.channel_id;
+                        Integer value = dialogs_read_inbox_max.get(dialog_id);
+                        if (value == null) {
+                            value = MessagesStorage.getInstance().getChannelReadInboxMax(update.channel_id);
                         }
-                        if (chat.megagroup) {
-                            message.flags |= TLRPC.MESSAGE_FLAG_MEGAGROUP;
+                        if (value >= message.id || ChatObject.isNotInChat(chat)) {
+                            message.unread = false;
+                            message.media_unread = false;
                         }
                     }
-                    if (message.from_id > 0) {
-                        TLRPC.User user = getUser(message.from_id);
-                        if (usersDict.get(message.from_id) == null && user == null) {
-                            return false;
-                        }
-                        if (user != null && user.status != null && user.status.expires <= 0) {
-                            onlinePrivacy.put(message.from_id, ConnectionsManager.getInstance().getCurrentTime());
-                            interfaceUpdateMask |= UPDATE_MASK_STATUS;
+                    messagesArr.add(message);
+                    ImageLoader.saveMessageThumbs(message);
+                    if (message.to_id.chat_id != 0) {
+                        message.dialog_id = -message.to_id.chat_id;
+                    } else if (message.to_id.channel_id != 0) {
+                        message.dialog_id = -message.to_id.channel_id;
+                    } else {
+                        if (message.to_id.user_id == UserConfig.getClientUserId()) {
+                            message.to_id.user_id = message.from_id;
                         }
+                        message.dialog_id = message.to_id.user_id;
+                    }
+                    MessageObject obj = new MessageObject(message, usersDict, chatsDict, createdDialogIds.contains(message.dialog_id));
+                    if (obj.type == 11) {
+                        interfaceUpdateMask |= UPDATE_MASK_CHAT_AVATAR;
+                    } else if (obj.type == 10) {
+                        interfaceUpdateMask |= UPDATE_MASK_CHAT_NAME;
+                    }
+                    ArrayList<MessageObject> arr = messages.get(message.dialog_id);
+                    if (arr == null) {
+                        arr = new ArrayList<>();
+                        messages.put(message.dialog_id, arr);
+                    }
+                    arr.add(obj);
+                    if (!obj.isOut() && (obj.isUnread() && message.to_id.channel_id == 0 || obj.isContentUnread())) {
+                        pushMessages.add(obj);
                     }
+                    break;
                 }
-                if (message.action instanceof TLRPC.TL_messageActionChatDeleteUser) {
-                    TLRPC.User user = usersDict.get(message.action.user_id);
-                    if (user != null && user.bot) {
-                        message.reply_markup = new TLRPC.TL_replyKeyboardHide();
-                    } else if (message.from_id == UserConfig.getClientUserId() && message.action.user_id == UserConfig.getClientUserId()) {
-                        continue;
+                case UPDATE_TYPE_READ_MESSAGES_CONTENTS: {
+                    for (int a = 0; a < update.messages.size(); a++) {
+                        long id = update.messages.get(a);
+                        markAsReadMessages.add(id);
                     }
-                } else if (message.action instanceof TLRPC.TL_messageActionChatMigrateTo || message.action instanceof TLRPC.TL_messageActionChannelCreate) {
-                    message.unread = false;
-                    message.media_unread = false;
+                    break;
                 }
-                if (update instanceof TLRPC.TL_updateNewChannelMessage) {
-                    if (message.to_id.channel_id != 0 && !message.out) {
-                        message.unread = true;
-                        if (message.post || (message.flags & TLRPC.MESSAGE_FLAG_MEGAGROUP) != 0) {
-                            message.media_unread = true;
-                        }
+                case UPDATE_TYPE_READ_HISTORY_INBOX: {
+                    TLRPC.Peer peer = ((TLRPC.TL_updateReadHistoryInbox) update).peer;
+                    if (peer.chat_id != 0) {
+                        markAsReadMessagesInbox.put(-peer.chat_id, (long) update.max_id);
+                    } else {
+                        markAsReadMessagesInbox.put(peer.user_id, (long) update.max_id);
                     }
-
-                    long dialog_id = -update.channel_id;
-                    Integer value = dialogs_read_inbox_max.get(dialog_id);
-                    if (value == null) {
-                        value = MessagesStorage.getInstance().getChannelReadInboxMax(update.channel_id);
+                    break;
+                }
+                case UPDATE_TYPE_READ_HISTORY_OUTBOX: {
+                    TLRPC.Peer peer = ((TLRPC.TL_updateReadHistoryOutbox) update).peer;
+                    if (peer.chat_id != 0) {
+                        markAsReadMessagesOutbox.put(-peer.chat_id, update.max_id);
+                    } else {
+                        markAsReadMessagesOutbox.put(peer.user_id, update.max_id);
                     }
-                    if (value >= message.id || ChatObject.isNotInChat(chat)) {
-                        message.unread = false;
-                        message.media_unread = false;
+                    break;
+                }
+                case UPDATE_TYPE_DELETE_MESSAGES: {
+                    ArrayList<Integer> arrayList = deletedMessages.get(0);
+                    if (arrayList == null) {
+                        arrayList = new ArrayList<>();
+                        deletedMessages.put(0, arrayList);
                     }
+                    arrayList.addAll(update.messages);
+                    break;
                 }
-                messagesArr.add(message);
-                ImageLoader.saveMessageThumbs(message);
-                if (message.to_id.chat_id != 0) {
-                    message.dialog_id = -message.to_id.chat_id;
-                } else if (message.to_id.channel_id != 0) {
-                    message.dialog_id = -message.to_id.channel_id;
-                } else {
-                    if (message.to_id.user_id == UserConfig.getClientUserId()) {
-                        message.to_id.user_id = message.from_id;
+                case UPDATE_TYPE_USER_TYPING:
+                case UPDATE_TYPE_CHAT_USER_TYPING: {
+                    if (processUserTyping(update, currentTime)) {
+                        printChanged = true;
                     }
-                    message.dialog_id = message.to_id.user_id;
+                    break;
                 }
-                MessageObject obj = new MessageObject(message, usersDict, chatsDict, createdDialogIds.contains(message.dialog_id));
-                if (obj.type == 11) {
-                    interfaceUpdateMask |= UPDATE_MASK_CHAT_AVATAR;
-                } else if (obj.type == 10) {
-                    interfaceUpdateMask |= UPDATE_MASK_CHAT_NAME;
+                case UPDATE_TYPE_CHAT_PARTICIPANTS: {
+                    interfaceUpdateMask |= UPDATE_MASK_CHAT_MEMBERS;
+                    chatInfoToUpdate.add(update.participants);
+                    break;
                 }
-                ArrayList<MessageObject> arr = messages.get(message.dialog_id);
-                if (arr == null) {
-                    arr = new ArrayList<>();
-                    messages.put(message.dialog_id, arr);
+                case UPDATE_TYPE_USER_STATUS: {
+                    interfaceUpdateMask |= UPDATE_MASK_STATUS;
+                    updatesOnMainThread.add(update);
+                    break;
                 }
-                arr.add(obj);
-                if (!obj.isOut() && (obj.isUnread() && message.to_id.channel_id == 0 || obj.isContentUnread())) {
-                    pushMessages.add(obj);
+                case UPDATE_TYPE_USER_NAME: {
+                    interfaceUpdateMask |= UPDATE_MASK_NAME;
+                    updatesOnMainThread.add(update);
+                    break;
                 }
-            } else if (update instanceof TLRPC.TL_updateReadMessagesContents) {
-                for (int a = 0; a < update.messages.size(); a++) {
-                    long id = update.messages.get(a);
-                    markAsReadMessages.add(id);
+                case UPDATE_TYPE_USER_PHOTO: {
+                    interfaceUpdateMask |= UPDATE_MASK_AVATAR;
+                    MessagesStorage.getInstance().clearUserPhotos(update.user_id);
+                    updatesOnMainThread.add(update);
+                    break;
                 }
-            } else if (update instanceof TLRPC.TL_updateReadHistoryInbox) {
-                TLRPC.Peer peer = ((TLRPC.TL_updateReadHistoryInbox) update).peer;
-                if (peer.chat_id != 0) {
-                    markAsReadMessagesInbox.put(-peer.chat_id, (long) update.max_id);
-                } else {
-                    markAsReadMessagesInbox.put(peer.user_id, (long) update.max_id);
+                case UPDATE_TYPE_USER_PHONE: {
+                    interfaceUpdateMask |= UPDATE_MASK_PHONE;
+                    updatesOnMainThread.add(update);
+                    break;
                 }
-            } else if (update instanceof TLRPC.TL_updateReadHistoryOutbox) {
-                TLRPC.Peer peer = ((TLRPC.TL_updateReadHistoryOutbox) update).peer;
-                if (peer.chat_id != 0) {
-                    markAsReadMessagesOutbox.put(-peer.chat_id, update.max_id);
-                } else {
-                    markAsReadMessagesOutbox.put(peer.user_id, update.max_id);
-                }
-            } else if (update instanceof TLRPC.TL_updateDeleteMessages) {
-                ArrayList<Integer> arrayList = deletedMessages.get(0);
-                if (arrayList == null) {
-                    arrayList = new ArrayList<>();
-                    deletedMessages.put(0, arrayList);
-                }
-                arrayList.addAll(update.messages);
-            } else if (update instanceof TLRPC.TL_updateUserTyping || update instanceof TLRPC.TL_updateChatUserTyping) {
-                if (update.user_id != UserConfig.getClientUserId()) {
-                    long uid = -update.chat_id;
-                    if (uid == 0) {
-                        uid = update.user_id;
-                    }
-                    ArrayList<PrintingUser> arr = printingUsers.get(uid);
-                    if (update.action instanceof TLRPC.TL_sendMessageCancelAction) {
-                        if (arr != null) {
-                            for (int a = 0; a < arr.size(); a++) {
-                                PrintingUser pu = arr.get(a);
-                                if (pu.userId == update.user_id) {
-                                    arr.remove(a);
-                                    printChanged = true;
-                                    break;
-                                }
-                            }
-                            if (arr.isEmpty()) {
-                                printingUsers.remove(uid);
-                            }
+                case UPDATE_TYPE_CONTACT_REGISTERED: {
+                    if (enableJoined && usersDict.containsKey(update.user_id) && !MessagesStorage.getInstance().isDialogHasMessages(update.user_id)) {
+                        TLRPC.TL_messageService newMessage = new TLRPC.TL_messageService();
+                        newMessage.action = new TLRPC.TL_messageActionUserJoined();
+                        newMessage.local_id = newMessage.id = UserConfig.getNewMessageId();
+                        UserConfig.saveConfig(false);
+                        newMessage.unread = false;
+                        newMessage.flags = TLRPC.MESSAGE_FLAG_HAS_FROM_ID;
+                        newMessage.date = update.date;
+                        newMessage.from_id = update.user_id;
+                        newMessage.to_id = new TLRPC.TL_peerUser();
+                        newMessage.to_id.user_id = UserConfig.getClientUserId();
+                        newMessage.dialog_id = update.user_id;
+
+                        messagesArr.add(newMessage);
+                        MessageObject obj = new MessageObject(newMessage, usersDict, chatsDict, createdDialogIds.contains(newMessage.dialog_id));
+                        ArrayList<MessageObject> arr = messages.get(newMessage.dialog_id);
+                        if (arr == null) {
+                            arr = new ArrayList<>();
+                            messages.put(newMessage.dialog_id, arr);
+                        }
+                        arr.add(obj);
+                    }
+                    break;
+                }
+                case UPDATE_TYPE_CONTACT_LINK: {
+                    if (update.my_link instanceof TLRPC.TL_contactLinkContact) {
+                        int idx = contactsIds.indexOf(-update.user_id);
+                        if (idx != -1) {
+                            contactsIds.remove(idx);
+                        }
+                        if (!contactsIds.contains(update.user_id)) {
+                            contactsIds.add(update.user_id);
                         }
                     } else {
+                        int idx = contactsIds.indexOf(update.user_id);
+                        if (idx != -1) {
+                            contactsIds.remove(idx);
+                        }
+                        if (!contactsIds.contains(update.user_id)) {
+                            contactsIds.add(-update.user_id);
+                        }
+                    }
+                    break;
+                }
+                case UPDATE_TYPE_NEW_AUTHORIZATION: {
+                    AndroidUtilities.runOnUIThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.newSessionReceived);
+                        }
+                    });
+                    TLRPC.TL_messageService newMessage = new TLRPC.TL_messageService();
+                    newMessage.action = new TLRPC.TL_messageActionLoginUnknownLocation();
+                    newMessage.action.title = update.device;
+                    newMessage.action.address = update.location;
+                    newMessage.local_id = newMessage.id = UserConfig.getNewMessageId();
+                    UserConfig.saveConfig(false);
+                    newMessage.unread = true;
+                    newMessage.flags = TLRPC.MESSAGE_FLAG_HAS_FROM_ID;
+                    newMessage.date = update.date;
+                    newMessage.from_id = 777000;
+                    newMessage.to_id = new TLRPC.TL_peerUser();
+                    newMessage.to_id.user_id = UserConfig.getClientUserId();
+                    newMessage.dialog_id = 777000;
+
+                    messagesArr.add(newMessage);
+                    MessageObject obj = new MessageObject(newMessage, usersDict, chatsDict, createdDialogIds.contains(newMessage.dialog_id));
+                    ArrayList<MessageObject> arr = messages.get(newMessage.dialog_id);
+                    if (arr == null) {
+                        arr = new ArrayList<>();
+                        messages.put(newMessage.dialog_id, arr);
+                    }
+                    arr.add(obj);
+                    pushMessages.add(obj);
+                    break;
+                }
+                case UPDATE_TYPE_NEW_GEO_CHAT_MESSAGE: {
+                    //DEPRECATED
+                    break;
+                }
+                case UPDATE_TYPE_NEW_ENCRYPTED_MESSAGE: {
+                    ArrayList<TLRPC.Message> decryptedMessages = SecretChatHelper.getInstance().decryptMessage(((TLRPC.TL_updateNewEncryptedMessage) update).message);
+                    if (decryptedMessages != null && !decryptedMessages.isEmpty()) {
+                        int cid = ((TLRPC.TL_updateNewEncryptedMessage) update).message.chat_id;
+                        long uid = ((long) cid) << 32;
+                        ArrayList<MessageObject> arr = messages.get(uid);
+                        if (arr == null) {
+                            arr = new ArrayList<>();
+                            messages.put(uid, arr);
+                        }
+                        for (int a = 0; a < decryptedMessages.size(); a++) {
+                            TLRPC.Message message = decryptedMessages.get(a);
+                            ImageLoader.saveMessageThumbs(message);
+                            messagesArr.add(message);
+                            MessageObject obj = new MessageObject(message, usersDict, chatsDict, createdDialogIds.contains(uid));
+                            arr.add(obj);
+                            pushMessages.add(obj);
+                        }
+                    }
+                    break;
+                }
+                case UPDATE_TYPE_ENCRYPTED_CHAT_TYPING: {
+                    TLRPC.EncryptedChat encryptedChat = getEncryptedChatDB(update.chat_id);
+                    if (encryptedChat != null) {
+                        update.user_id = encryptedChat.user_id;
+                        long uid = ((long) update.chat_id) << 32;
+                        ArrayList<PrintingUser> arr = printingUsers.get(uid);
                         if (arr == null) {
                             arr = new ArrayList<>();
                             printingUsers.put(uid, arr);
@@ -5832,10 +6210,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             if (u.userId == update.user_id) {
                                 exist = true;
                                 u.lastTime = currentTime;
-                                if (u.action.getClass() != update.action.getClass()) {
-                                    printChanged = true;
-                                }
-                                u.action = update.action;
+                                u.action = new TLRPC.TL_sendMessageTypingAction();
                                 break;
                             }
                         }
@@ -5843,42 +6218,86 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             PrintingUser newUser = new PrintingUser();
                             newUser.userId = update.user_id;
                             newUser.lastTime = currentTime;
-                            newUser.action = update.action;
+                            newUser.action = new TLRPC.TL_sendMessageTypingAction();
                             arr.add(newUser);
                             printChanged = true;
                         }
+                        onlinePrivacy.put(update.user_id, ConnectionsManager.getInstance().getCurrentTime());
                     }
-                    onlinePrivacy.put(update.user_id, ConnectionsManager.getInstance().getCurrentTime());
-                }
-            } else if (update instanceof TLRPC.TL_updateChatParticipants) {
-                interfaceUpdateMask |= UPDATE_MASK_CHAT_MEMBERS;
-                chatInfoToUpdate.add(update.participants);
-            } else if (update instanceof TLRPC.TL_updateUserStatus) {
-                interfaceUpdateMask |= UPDATE_MASK_STATUS;
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateUserName) {
-                interfaceUpdateMask |= UPDATE_MASK_NAME;
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateUserPhoto) {
-                interfaceUpdateMask |= UPDATE_MASK_AVATAR;
-                MessagesStorage.getInstance().clearUserPhotos(update.user_id);
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateUserPhone) {
-                interfaceUpdateMask |= UPDATE_MASK_PHONE;
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateContactRegistered) {
-                if (enableJoined && usersDict.containsKey(update.user_id) && !MessagesStorage.getInstance().isDialogHasMessages(update.user_id)) {
-                    TLRPC.TL_messageService newMessage = new TLRPC.TL_messageService();
-                    newMessage.action = new TLRPC.TL_messageActionUserJoined();
+                    break;
+                }
+                case UPDATE_TYPE_ENCRYPTED_MESSAGES_READ: {
+                    markAsReadEncrypted.put(update.chat_id, Math.max(update.max_date, update.date));
+                    tasks.add((TLRPC.TL_updateEncryptedMessagesRead) update);
+                    break;
+                }
+                case UPDATE_TYPE_CHAT_PARTICIPANT_ADD: {
+                    MessagesStorage.getInstance().updateChatInfo(update.chat_id, update.user_id, 0, update.inviter_id, update.version);
+                    break;
+                }
+                case UPDATE_TYPE_CHAT_PARTICIPANT_DELETE: {
+                    MessagesStorage.getInstance().updateChatInfo(update.chat_id, update.user_id, 1, 0, update.version);
+                    break;
+                }
+                case UPDATE_TYPE_DC_OPTIONS: {
+                    ConnectionsManager.getInstance().updateDcSettings();
+                    break;
+                }
+                case UPDATE_TYPE_ENCRYPTION: {
+                    SecretChatHelper.getInstance().processUpdateEncryption((TLRPC.TL_updateEncryption) update, usersDict);
+                    break;
+                }
+                case UPDATE_TYPE_USER_BLOCKED: {
+                    final TLRPC.TL_updateUserBlocked finalUpdate = (TLRPC.TL_updateUserBlocked) update;
+                    if (finalUpdate.blocked) {
+                        ArrayList<Integer> ids = new ArrayList<>();
+                        ids.add(finalUpdate.user_id);
+                        MessagesStorage.getInstance().putBlockedUsers(ids, false);
+                    } else {
+                        MessagesStorage.getInstance().deleteBlockedUser(finalUpdate.user_id);
+                    }
+                    MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            AndroidUtilities.runOnUIThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (finalUpdate.blocked) {
+                                        if (!blockedUsers.contains(finalUpdate.user_id)) {
+                                            blockedUsers.add(finalUpdate.user_id);
+                                        }
+                                    } else {
+                                        blockedUsers.remove((Integer) finalUpdate.user_id);
+                                    }
+                                    NotificationCenter.getInstance().postNotificationName(NotificationCenter.blockedUsersDidLoaded);
+                                }
+                            });
+                        }
+                    });
+                    break;
+                }
+                case UPDATE_TYPE_NOTIFY_SETTINGS: {
+                    updatesOnMainThread.add(update);
+                    break;
+                }
+                case UPDATE_TYPE_SERVICE_NOTIFICATION: {
+                    TLRPC.TL_updateServiceNotification notification = (TLRPC.TL_updateServiceNotification) update;
+                    if (notification.popup && notification.message != null && notification.message.length() > 0) {
+                        NotificationCenter.getInstance().postNotificationName(NotificationCenter.needShowAlert, 2, notification.message);
+                    }
+                    TLRPC.TL_message newMessage = new TLRPC.TL_message();
                     newMessage.local_id = newMessage.id = UserConfig.getNewMessageId();
                     UserConfig.saveConfig(false);
-                    newMessage.unread = false;
+                    newMessage.unread = true;
                     newMessage.flags = TLRPC.MESSAGE_FLAG_HAS_FROM_ID;
-                    newMessage.date = update.date;
-                    newMessage.from_id = update.user_id;
+                    newMessage.date = ConnectionsManager.getInstance().getCurrentTime();
+                    newMessage.from_id = 777000;
                     newMessage.to_id = new TLRPC.TL_peerUser();
                     newMessage.to_id.user_id = UserConfig.getClientUserId();
-                    newMessage.dialog_id = update.user_id;
+                    newMessage.dialog_id = 777000;
+                    newMessage.media = update.media;
+                    newMessage.flags |= TLRPC.MESSAGE_FLAG_HAS_MEDIA;
+                    newMessage.message = notification.message;
 
                     messagesArr.add(newMessage);
                     MessageObject obj = new MessageObject(newMessage, usersDict, chatsDict, createdDialogIds.contains(newMessage.dialog_id));
@@ -5888,280 +6307,148 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         messages.put(newMessage.dialog_id, arr);
                     }
                     arr.add(obj);
+                    pushMessages.add(obj);
+                    break;
                 }
-            } else if (update instanceof TLRPC.TL_updateContactLink) {
-                if (update.my_link instanceof TLRPC.TL_contactLinkContact) {
-                    int idx = contactsIds.indexOf(-update.user_id);
-                    if (idx != -1) {
-                        contactsIds.remove(idx);
-                    }
-                    if (!contactsIds.contains(update.user_id)) {
-                        contactsIds.add(update.user_id);
-                    }
-                } else {
-                    int idx = contactsIds.indexOf(update.user_id);
-                    if (idx != -1) {
-                        contactsIds.remove(idx);
-                    }
-                    if (!contactsIds.contains(update.user_id)) {
-                        contactsIds.add(-update.user_id);
-                    }
+                case UPDATE_TYPE_PRIVACY: {
+                    updatesOnMainThread.add(update);
+                    break;
                 }
-            } else if (update instanceof TLRPC.TL_updateNewAuthorization) {
-                AndroidUtilities.runOnUIThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        NotificationCenter.getInstance().postNotificationName(NotificationCenter.newSessionReceived);
-                    }
-                });
-                TLRPC.TL_messageService newMessage = new TLRPC.TL_messageService();
-                newMessage.action = new TLRPC.TL_messageActionLoginUnknownLocation();
-                newMessage.action.title = update.device;
-                newMessage.action.address = update.location;
-                newMessage.local_id = newMessage.id = UserConfig.getNewMessageId();
-                UserConfig.saveConfig(false);
-                newMessage.unread = true;
-                newMessage.flags = TLRPC.MESSAGE_FLAG_HAS_FROM_ID;
-                newMessage.date = update.date;
-                newMessage.from_id = 777000;
-                newMessage.to_id = new TLRPC.TL_peerUser();
-                newMessage.to_id.user_id = UserConfig.getClientUserId();
-                newMessage.dialog_id = 777000;
-
-                messagesArr.add(newMessage);
-                MessageObject obj = new MessageObject(newMessage, usersDict, chatsDict, createdDialogIds.contains(newMessage.dialog_id));
-                ArrayList<MessageObject> arr = messages.get(newMessage.dialog_id);
-                if (arr == null) {
-                    arr = new ArrayList<>();
-                    messages.put(newMessage.dialog_id, arr);
-                }
-                arr.add(obj);
-                pushMessages.add(obj);
-            } else if (update instanceof TLRPC.TL_updateNewGeoChatMessage) {
-                //DEPRECATED
-            } else if (update instanceof TLRPC.TL_updateNewEncryptedMessage) {
-                ArrayList<TLRPC.Message> decryptedMessages = SecretChatHelper.getInstance().decryptMessage(((TLRPC.TL_updateNewEncryptedMessage) update).message);
-                if (decryptedMessages != null && !decryptedMessages.isEmpty()) {
-                    int cid = ((TLRPC.TL_updateNewEncryptedMessage) update).message.chat_id;
-                    long uid = ((long) cid) << 32;
-                    ArrayList<MessageObject> arr = messages.get(uid);
-                    if (arr == null) {
-                        arr = new ArrayList<>();
-                        messages.put(uid, arr);
+                case UPDATE_TYPE_WEB_PAGE: {
+                    webPages.put(update.webpage.id, update.webpage);
+                    break;
+                }
+                case UPDATE_TYPE_CHANNEL_TOO_LONG: {
+                    if ((update.flags & 1) != 0) {
+                        Integer channelPts = channelsPts.get(update.channel_id);
+                        if (channelPts == null) {
+                            channelPts = MessagesStorage.getInstance().getChannelPtsSync(update.channel_id);
+                            if (channelPts == 0) {
+                                channelPts = 1;
+                            }
+                            channelsPts.put(update.channel_id, channelPts);
+                        }
+                        if (update.pts > channelPts) {
+                            getChannelDifference(update.channel_id);
+                        }
+                    } else {
+                        getChannelDifference(update.channel_id);
                     }
-                    for (int a = 0; a < decryptedMessages.size(); a++) {
-                        TLRPC.Message message = decryptedMessages.get(a);
-                        ImageLoader.saveMessageThumbs(message);
-                        messagesArr.add(message);
-                        MessageObject obj = new MessageObject(message, usersDict, chatsDict, createdDialogIds.contains(uid));
-                        arr.add(obj);
-                        pushMessages.add(obj);
+                    break;
+                }
+                case UPDATE_TYPE_CHANNEL_GROUP: {
+                    ArrayList<TLRPC.TL_messageGroup> arrayList = channelsGroups.get(update.channel_id);
+                    if (arrayList == null) {
+                        arrayList = new ArrayList<>();
+                        channelsGroups.put(update.channel_id, arrayList);
                     }
+                    arrayList.add(update.group);
+                    break;
                 }
-            } else if (update instanceof TLRPC.TL_updateEncryptedChatTyping) {
-                TLRPC.EncryptedChat encryptedChat = getEncryptedChatDB(update.chat_id);
-                if (encryptedChat != null) {
-                    update.user_id = encryptedChat.user_id;
-                    long uid = ((long) update.chat_id) << 32;
-                    ArrayList<PrintingUser> arr = printingUsers.get(uid);
-                    if (arr == null) {
-                        arr = new ArrayList<>();
-                        printingUsers.put(uid, arr);
-                    }
-                    boolean exist = false;
-                    for (PrintingUser u : arr) {
-                        if (u.userId == update.user_id) {
-                            exist = true;
-                            u.lastTime = currentTime;
-                            u.action = new TLRPC.TL_sendMessageTypingAction();
-                            break;
-                        }
+                case UPDATE_TYPE_READ_CHANNEL_INBOX: {
+                    long message_id = update.max_id;
+                    message_id |= ((long) update.channel_id) << 32;
+                    markAsReadMessagesInbox.put(-update.channel_id, message_id);
+
+                    long dialog_id = -update.channel_id;
+                    Integer value = dialogs_read_inbox_max.get(dialog_id);
+                    if (value == null) {
+                        value = MessagesStorage.getInstance().getChannelReadInboxMax(update.channel_id);
                     }
-                    if (!exist) {
-                        PrintingUser newUser = new PrintingUser();
-                        newUser.userId = update.user_id;
-                        newUser.lastTime = currentTime;
-                        newUser.action = new TLRPC.TL_sendMessageTypingAction();
-                        arr.add(newUser);
-                        printChanged = true;
+                    dialogs_read_inbox_max.put(dialog_id, Math.max(value, update.max_id));
+                    break;
+                }
+                case UPDATE_TYPE_DELETE_CHANNEL_MESSAGES: {
+                    ArrayList<Integer> arrayList = deletedMessages.get(update.channel_id);
+                    if (arrayList == null) {
+                        arrayList = new ArrayList<>();
+                        deletedMessages.put(update.channel_id, arrayList);
                     }
-                    onlinePrivacy.put(update.user_id, ConnectionsManager.getInstance().getCurrentTime());
-                }
-            } else if (update instanceof TLRPC.TL_updateEncryptedMessagesRead) {
-                markAsReadEncrypted.put(update.chat_id, Math.max(update.max_date, update.date));
-                tasks.add((TLRPC.TL_updateEncryptedMessagesRead) update);
-            } else if (update instanceof TLRPC.TL_updateChatParticipantAdd) {
-                MessagesStorage.getInstance().updateChatInfo(update.chat_id, update.user_id, 0, update.inviter_id, update.version);
-            } else if (update instanceof TLRPC.TL_updateChatParticipantDelete) {
-                MessagesStorage.getInstance().updateChatInfo(update.chat_id, update.user_id, 1, 0, update.version);
-            } else if (update instanceof TLRPC.TL_updateDcOptions) {
-                ConnectionsManager.getInstance().updateDcSettings();
-            } else if (update instanceof TLRPC.TL_updateEncryption) {
-                SecretChatHelper.getInstance().processUpdateEncryption((TLRPC.TL_updateEncryption) update, usersDict);
-            } else if (update instanceof TLRPC.TL_updateUserBlocked) {
-                final TLRPC.TL_updateUserBlocked finalUpdate = (TLRPC.TL_updateUserBlocked) update;
-                if (finalUpdate.blocked) {
-                    ArrayList<Integer> ids = new ArrayList<>();
-                    ids.add(finalUpdate.user_id);
-                    MessagesStorage.getInstance().putBlockedUsers(ids, false);
-                } else {
-                    MessagesStorage.getInstance().deleteBlockedUser(finalUpdate.user_id);
+                    arrayList.addAll(update.messages);
+                    break;
                 }
-                MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
-                    @Override
-                    public void run() {
-                        AndroidUtilities.runOnUIThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (finalUpdate.blocked) {
-                                    if (!blockedUsers.contains(finalUpdate.user_id)) {
-                                        blockedUsers.add(finalUpdate.user_id);
-                                    }
-                                } else {
-                                    blockedUsers.remove((Integer) finalUpdate.user_id);
-                                }
-                                NotificationCenter.getInstance().postNotificationName(NotificationCenter.blockedUsersDidLoaded);
-                            }
-                        });
+                case UPDATE_TYPE_CHANNEL: {
+                    updatesOnMainThread.add(update);
+                    break;
+                }
+                case UPDATE_TYPE_CHANNEL_MESSAGE_VIEWS: {
+                    SparseIntArray array = channelViews.get(update.channel_id);
+                    if (array == null) {
+                        array = new SparseIntArray();
+                        channelViews.put(update.channel_id, array);
                     }
-                });
-            } else if (update instanceof TLRPC.TL_updateNotifySettings) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateServiceNotification) {
-                TLRPC.TL_updateServiceNotification notification = (TLRPC.TL_updateServiceNotification) update;
-                if (notification.popup && notification.message != null && notification.message.length() > 0) {
-                    NotificationCenter.getInstance().postNotificationName(NotificationCenter.needShowAlert, 2, notification.message);
-                }
-                TLRPC.TL_message newMessage = new TLRPC.TL_message();
-                newMessage.local_id = newMessage.id = UserConfig.getNewMessageId();
-                UserConfig.saveConfig(false);
-                newMessage.unread = true;
-                newMessage.flags = TLRPC.MESSAGE_FLAG_HAS_FROM_ID;
-                newMessage.date = ConnectionsManager.getInstance().getCurrentTime();
-                newMessage.from_id = 777000;
-                newMessage.to_id = new TLRPC.TL_peerUser();
-                newMessage.to_id.user_id = UserConfig.getClientUserId();
-                newMessage.dialog_id = 777000;
-                newMessage.media = update.media;
-                newMessage.flags |= TLRPC.MESSAGE_FLAG_HAS_MEDIA;
-                newMessage.message = notification.message;
-
-                messagesArr.add(newMessage);
-                MessageObject obj = new MessageObject(newMessage, usersDict, chatsDict, createdDialogIds.contains(newMessage.dialog_id));
-                ArrayList<MessageObject> arr = messages.get(newMessage.dialog_id);
-                if (arr == null) {
-                    arr = new ArrayList<>();
-                    messages.put(newMessage.dialog_id, arr);
-                }
-                arr.add(obj);
-                pushMessages.add(obj);
-            } else if (update instanceof TLRPC.TL_updatePrivacy) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateWebPage) {
-                webPages.put(update.webpage.id, update.webpage);
-            } else if (update instanceof TLRPC.TL_updateChannelTooLong) {
-                if ((update.flags & 1) != 0) {
-                    Integer channelPts = channelsPts.get(update.channel_id);
-                    if (channelPts == null) {
-                        channelPts = MessagesStorage.getInstance().getChannelPtsSync(update.channel_id);
-                        if (channelPts == 0) {
-                            channelPts = 1;
+                    array.put(update.id, update.views);
+                    break;
+                }
+                case UPDATE_TYPE_CHAT_PARTICIPANT_ADMIN: {
+                    MessagesStorage.getInstance().updateChatInfo(update.chat_id, update.user_id, 2, update.is_admin ? 1 : 0, update.version);
+                    break;
+                }
+                case UPDATE_TYPE_CHAT_ADMINS: {
+                    updatesOnMainThread.add(update);
+                    break;
+                }
+                case UPDATE_TYPE_STICKER_SETS: {
+                    updatesOnMainThread.add(update);
+                    break;
+                }
+                case UPDATE_TYPE_STICKER_SETS_ORDER: {
+                    updatesOnMainThread.add(update);
+                    break;
+                }
+                case UPDATE_TYPE_NEW_STICKER_SET: {
+                    updatesOnMainThread.add(update);
+                    break;
+                }
+                case UPDATE_TYPE_SAVED_GIFS: {
+                    updatesOnMainThread.add(update);
+                    break;
+                }
+                case UPDATE_TYPE_EDIT_CHANNEL_MESSAGE: {
+                    TLRPC.Message message = ((TLRPC.TL_updateEditChannelMessage) update).message;
+                    if (message.to_id.channel_id != 0 && !message.out) {
+                        message.unread = true;
+                        if (message.post || (message.flags & TLRPC.MESSAGE_FLAG_MEGAGROUP) != 0) {
+                            message.media_unread = true;
                         }
-                        channelsPts.put(update.channel_id, channelPts);
                     }
-                    if (update.pts > channelPts) {
-                        getChannelDifference(update.channel_id);
+
+                    long dialog_id = -update.channel_id;
+                    Integer value = dialogs_read_inbox_max.get(dialog_id);
+                    if (value == null) {
+                        value = MessagesStorage.getInstance().getChannelReadInboxMax(update.channel_id);
                     }
-                } else {
-                    getChannelDifference(update.channel_id);
-                }
-            } else if (update instanceof TLRPC.TL_updateChannelGroup) {
-                ArrayList<TLRPC.TL_messageGroup> arrayList = channelsGroups.get(update.channel_id);
-                if (arrayList == null) {
-                    arrayList = new ArrayList<>();
-                    channelsGroups.put(update.channel_id, arrayList);
-                }
-                arrayList.add(update.group);
-            } else if (update instanceof TLRPC.TL_updateReadChannelInbox) {
-                long message_id = update.max_id;
-                message_id |= ((long) update.channel_id) << 32;
-                markAsReadMessagesInbox.put(-update.channel_id, message_id);
-
-                long dialog_id = -update.channel_id;
-                Integer value = dialogs_read_inbox_max.get(dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance().getChannelReadInboxMax(update.channel_id);
-                }
-                dialogs_read_inbox_max.put(dialog_id, Math.max(value, update.max_id));
-            } else if (update instanceof TLRPC.TL_updateDeleteChannelMessages) {
-                ArrayList<Integer> arrayList = deletedMessages.get(update.channel_id);
-                if (arrayList == null) {
-                    arrayList = new ArrayList<>();
-                    deletedMessages.put(update.channel_id, arrayList);
-                }
-                arrayList.addAll(update.messages);
-            } else if (update instanceof TLRPC.TL_updateChannel) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateChannelMessageViews) {
-                SparseIntArray array = channelViews.get(update.channel_id);
-                if (array == null) {
-                    array = new SparseIntArray();
-                    channelViews.put(update.channel_id, array);
-                }
-                array.put(update.id, update.views);
-            } else if (update instanceof TLRPC.TL_updateChatParticipantAdmin) {
-                MessagesStorage.getInstance().updateChatInfo(update.chat_id, update.user_id, 2, update.is_admin ? 1 : 0, update.version);
-            } else if (update instanceof TLRPC.TL_updateChatAdmins) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateStickerSets) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateStickerSetsOrder) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateNewStickerSet) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateSavedGifs) {
-                updatesOnMainThread.add(update);
-            } else if (update instanceof TLRPC.TL_updateEditChannelMessage) {
-                TLRPC.Message message = ((TLRPC.TL_updateEditChannelMessage) update).message;
-                if (message.to_id.channel_id != 0 && !message.out) {
-                    message.unread = true;
-                    if (message.post || (message.flags & TLRPC.MESSAGE_FLAG_MEGAGROUP) != 0) {
-                        message.media_unread = true;
+                    if (value >= message.id) {
+                        message.unread = false;
+                        message.media_unread = false;
                     }
-                }
 
-                long dialog_id = -update.channel_id;
-                Integer value = dialogs_read_inbox_max.get(dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance().getChannelReadInboxMax(update.channel_id);
-                }
-                if (value >= message.id) {
-                    message.unread = false;
-                    message.media_unread = false;
-                }
+                    ImageLoader.saveMessageThumbs(message);
 
-                ImageLoader.saveMessageThumbs(message);
+                    if (message.to_id.chat_id != 0) {
+                        message.dialog_id = -message.to_id.chat_id;
+                    } else if (message.to_id.channel_id != 0) {
+                        message.dialog_id = -message.to_id.channel_id;
+                    } else {
+                        if (message.to_id.user_id == UserConfig.getClientUserId()) {
+                            message.to_id.user_id = message.from_id;
+                        }
+                        message.dialog_id = message.to_id.user_id;
+                    }
+                    MessageObject obj = new MessageObject(message, usersDict, chatsDict, createdDialogIds.contains(message.dialog_id));
 
-                if (message.to_id.chat_id != 0) {
-                    message.dialog_id = -message.to_id.chat_id;
-                } else if (message.to_id.channel_id != 0) {
-                    message.dialog_id = -message.to_id.channel_id;
-                } else {
-                    if (message.to_id.user_id == UserConfig.getClientUserId()) {
-                        message.to_id.user_id = message.from_id;
+                    ArrayList<MessageObject> arr = editingMessages.get(message.dialog_id);
+                    if (arr == null) {
+                        arr = new ArrayList<>();
+                        editingMessages.put(message.dialog_id, arr);
                     }
-                    message.dialog_id = message.to_id.user_id;
+                    arr.add(obj);
+                    break;
                 }
-                MessageObject obj = new MessageObject(message, usersDict, chatsDict, createdDialogIds.contains(message.dialog_id));
-
-                ArrayList<MessageObject> arr = editingMessages.get(message.dialog_id);
-                if (arr == null) {
-                    arr = new ArrayList<>();
-                    editingMessages.put(message.dialog_id, arr);
+                case UPDATE_TYPE_CHANNEL_PINNED_MESSAGE: {
+                    MessagesStorage.getInstance().updateChannelPinnedMessage(update.channel_id, update.id);
+                    break;
                 }
-                arr.add(obj);
-            } else if (update instanceof TLRPC.TL_updateChannelPinnedMessage) {
-                MessagesStorage.getInstance().updateChannelPinnedMessage(update.channel_id, update.id);
             }
         }
         if (!messages.isEmpty()) {
@@ -6234,137 +6521,148 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         final TLRPC.User toDbUser = new TLRPC.User();
                         toDbUser.id = update.user_id;
                         final TLRPC.User currentUser = getUser(update.user_id);
-                        if (update instanceof TLRPC.TL_updatePrivacy) {
-                            if (update.key instanceof TLRPC.TL_privacyKeyStatusTimestamp) {
-                                ContactsController.getInstance().setPrivacyRules(update.rules, false);
-                            } else if (update.key instanceof TLRPC.TL_privacyKeyChatInvite) {
-                                ContactsController.getInstance().setPrivacyRules(update.rules, true);
-                            }
-                        } else if (update instanceof TLRPC.TL_updateUserStatus) {
-                            if (update.status instanceof TLRPC.TL_userStatusRecently) {
-                                update.status.expires = -100;
-                            } else if (update.status instanceof TLRPC.TL_userStatusLastWeek) {
-                                update.status.expires = -101;
-                            } else if (update.status instanceof TLRPC.TL_userStatusLastMonth) {
-                                update.status.expires = -102;
-                            }
-                            if (currentUser != null) {
-                                currentUser.id = update.user_id;
-                                currentUser.status = update.status;
-                            }
-                            toDbUser.status = update.status;
-                            dbUsersStatus.add(toDbUser);
-                            if (update.user_id == UserConfig.getClientUserId()) {
-                                NotificationsController.getInstance().setLastOnlineFromOtherDevice(update.status.expires);
-                            }
-                        } else if (update instanceof TLRPC.TL_updateUserName) {
-                            if (currentUser != null) {
-                                if (!UserObject.isContact(currentUser)) {
-                                    currentUser.first_name = update.first_name;
-                                    currentUser.last_name = update.last_name;
-                                }
-                                if (currentUser.username != null && currentUser.username.length() > 0) {
-                                    usersByUsernames.remove(currentUser.username);
-                                }
-                                if (update.username != null && update.username.length() > 0) {
-                                    usersByUsernames.put(update.username, currentUser);
+                        switch (getUpdateDispatchType(update)) {
+                            case UPDATE_TYPE_PRIVACY: {
+                                if (update.key instanceof TLRPC.TL_privacyKeyStatusTimestamp) {
+                                    ContactsController.getInstance().setPrivacyRules(update.rules, false);
+                                } else if (update.key instanceof TLRPC.TL_privacyKeyChatInvite) {
+                                    ContactsController.getInstance().setPrivacyRules(update.rules, true);
                                 }
-                                currentUser.username = update.username;
+                                break;
                             }
-                            toDbUser.first_name = update.first_name;
-                            toDbUser.last_name = update.last_name;
-                            toDbUser.username = update.username;
-                            dbUsers.add(toDbUser);
-                        } else if (update instanceof TLRPC.TL_updateUserPhoto) {
-                            if (currentUser != null) {
-                                currentUser.photo = update.photo;
+                            case UPDATE_TYPE_USER_STATUS: {
+                                applyUserStatus(update, currentUser, toDbUser);
+                                dbUsersStatus.add(toDbUser);
+                                break;
                             }
-                            toDbUser.photo = update.photo;
-                            dbUsers.add(toDbUser);
-                        } else if (update instanceof TLRPC.TL_updateUserPhone) {
-                            if (currentUser != null) {
-                                currentUser.phone = update.phone;
-                                Utilities.phoneBookQueue.postRunnable(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        ContactsController.getInstance().addContactToPhoneBook(currentUser, true);
+                            case UPDATE_TYPE_USER_NAME: {
+                                if (currentUser != null) {
+                                    if (!UserObject.isContact(currentUser)) {
+                                        currentUser.first_name = update.first_name;
+                                        currentUser.last_name = update.last_name;
                                     }
-                                });
+                                    if (currentUser.username != null && currentUser.username.length() > 0) {
+                                        usersByUsernames.remove(currentUser.username);
+                                    }
+                                    if (update.username != null && update.username.length() > 0) {
+                                        usersByUsernames.put(update.username, currentUser);
+                                    }
+                                    currentUser.username = update.username;
+                                }
+                                toDbUser.first_name = update.first_name;
+                                toDbUser.last_name = update.last_name;
+                                toDbUser.username = update.username;
+                                dbUsers.add(toDbUser);
+                                break;
                             }
-                            toDbUser.phone = update.phone;
-                            dbUsers.add(toDbUser);
-                        } else if (update instanceof TLRPC.TL_updateNotifySettings) {
-                            TLRPC.TL_updateNotifySettings updateNotifySettings = (TLRPC.TL_updateNotifySettings) update;
-                            if (update.notify_settings instanceof TLRPC.TL_peerNotifySettings && updateNotifySettings.peer instanceof TLRPC.TL_notifyPeer) {
-                                if (editor == null) {
-                                    SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Activity.MODE_PRIVATE);
-                                    editor = preferences.edit();
+                            case UPDATE_TYPE_USER_PHOTO: {
+                                if (currentUser != null) {
+                                    currentUser.photo = update.photo;
                                 }
-                                long dialog_id;
-                                if (updateNotifySettings.peer.peer.user_id != 0) {
-                                    dialog_id = updateNotifySettings.peer.peer.user_id;
-                                } else if (updateNotifySettings.peer.peer.chat_id != 0) {
-                                    dialog_id = -updateNotifySettings.peer.peer.chat_id;
-                                } else {
-                                    dialog_id = -updateNotifySettings.peer.peer.channel_id;
+                                toDbUser.photo = update.photo;
+                                dbUsers.add(toDbUser);
+                                break;
+                            }
+                            case UPDATE_TYPE_USER_PHONE: {
+                                if (currentUser != null) {
+                                    currentUser.phone = update.phone;
+                                    Utilities.phoneBookQueue.postRunnable(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            ContactsController.getInstance().addContactToPhoneBook(currentUser, true);
+                                        }
+                                    });
                                 }
+                                toDbUser.phone = update.phone;
+                                dbUsers.add(toDbUser);
+                                break;
+                            }
+                            case UPDATE_TYPE_NOTIFY_SETTINGS: {
+                                TLRPC.TL_updateNotifySettings updateNotifySettings = (TLRPC.TL_updateNotifySettings) update;
+                                if (update.notify_settings instanceof TLRPC.TL_peerNotifySettings && updateNotifySettings.peer instanceof TLRPC.TL_notifyPeer) {
+                                    if (editor == null) {
+                                        SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Activity.MODE_PRIVATE);
+                                        editor = preferences.edit();
+                                    }
+                                    long dialog_id;
+                                    if (updateNotifySettings.peer.peer.user_id != 0) {
+                                        dialog_id = updateNotifySettings.peer.peer.user_id;
+                                    } else if (updateNotifySettings.peer.peer.chat_id != 0) {
+                                        dialog_id = -updateNotifySettings.peer.peer.chat_id;
+                                    } else {
+                                        dialog_id = -updateNotifySettings.peer.peer.channel_id;
+                                    }
 
-                                TLRPC.Dialog dialog = dialogs_dict.get(dialog_id);
-                                if (dialog != null) {
-                                    dialog.notify_settings = update.notify_settings;
-                                }
-                                editor.putBoolean("silent_" + dialog_id, update.notify_settings.silent);
-                                if (update.notify_settings.mute_until > ConnectionsManager.getInstance().getCurrentTime()) {
-                                    int until = 0;
-                                    if (update.notify_settings.mute_until > ConnectionsManager.getInstance().getCurrentTime() + 60 * 60 * 24 * 365) {
-                                        editor.putInt("notify2_" + dialog_id, 2);
-                                        if (dialog != null) {
-                                            dialog.notify_settings.mute_until = Integer.MAX_VALUE;
+                                    TLRPC.Dialog dialog = dialogs_dict.get(dialog_id);
+                                    if (dialog != null) {
+                                        dialog.notify_settings = update.notify_settings;
+                                    }
+                                    editor.putBoolean("silent_" + dialog_id, update.notify_settings.silent);
+                                    if (update.notify_settings.mute_until > ConnectionsManager.getInstance().getCurrentTime()) {
+                                        int until = 0;
+                                        if (update.notify_settings.mute_until > ConnectionsManager.getInstance().getCurrentTime() + 60 * 60 * 24 * 365) {
+                                            editor.putInt("notify2_" + dialog_id, 2);
+                                            if (dialog != null) {
+                                                dialog.notify_settings.mute_until = Integer.MAX_VALUE;
+                                            }
+                                        } else {
+                                            until = update.notify_settings.mute_until;
+                                            editor.putInt("notify2_" + dialog_id, 3);
+                                            editor.putInt("notifyuntil_" + dialog_id, update.notify_settings.mute_until);
+                                            if (dialog != null) {
+                                                dialog.notify_settings.mute_until = until;
+                                            }
                                         }
+                                        MessagesStorage.getInstance().setDialogFlags(dialog_id, ((long) until << 32) | 1);
+                                        NotificationsController.getInstance().removeNotificationsForDialog(dialog_id);
                                     } else {
-                                        until = update.notify_settings.mute_until;
-                                        editor.putInt("notify2_" + dialog_id, 3);
-                                        editor.putInt("notifyuntil_" + dialog_id, update.notify_settings.mute_until);
                                         if (dialog != null) {
-                                            dialog.notify_settings.mute_until = until;
+                                            dialog.notify_settings.mute_until = 0;
                                         }
+                                        editor.remove("notify2_" + dialog_id);
+                                        MessagesStorage.getInstance().setDialogFlags(dialog_id, 0);
                                     }
-                                    MessagesStorage.getInstance().setDialogFlags(dialog_id, ((long) until << 32) | 1);
-                                    NotificationsController.getInstance().removeNotificationsForDialog(dialog_id);
-                                } else {
-                                    if (dialog != null) {
-                                        dialog.notify_settings.mute_until = 0;
-                                    }
-                                    editor.remove("notify2_" + dialog_id);
-                                    MessagesStorage.getInstance().setDialogFlags(dialog_id, 0);
                                 }
+                                break;
                             }
-                        } else if (update instanceof TLRPC.TL_updateChannel) {
-                            TLRPC.Dialog dialog = dialogs_dict.get(-(long) update.channel_id);
-                            TLRPC.Chat chat = getChat(update.channel_id);
-                            if (dialog == null && chat instanceof TLRPC.TL_channel && !chat.left) {
-                                Utilities.stageQueue.postRunnable(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        getChannelDifference(update.channel_id, 1);
-                                    }
-                                });
-                            } else if (chat.left && dialog != null) {
-                                deleteDialog(dialog.id, 0);
+                            case UPDATE_TYPE_CHANNEL: {
+                                TLRPC.Dialog dialog = dialogs_dict.get(-(long) update.channel_id);
+                                TLRPC.Chat chat = getChat(update.channel_id);
+                                if (dialog == null && chat instanceof TLRPC.TL_channel && !chat.left) {
+                                    Utilities.stageQueue.postRunnable(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            getChannelDifference(update.channel_id, 1);
+                                        }
+                                    });
+                                } else if (chat.left && dialog != null) {
+                                    deleteDialog(dialog.id, 0);
+                                }
+                                updateMask |= UPDATE_MASK_CHANNEL;
+                                loadFullChat(update.channel_id, 0, true);
+                                break;
+                            }
+                            case UPDATE_TYPE_CHAT_ADMINS: {
+                                updateMask |= UPDATE_MASK_CHAT_ADMINS;
+                                break;
+                            }
+                            case UPDATE_TYPE_STICKER_SETS: {
+                                StickersQuery.loadStickers(false, true);
+                                break;
+                            }
+                            case UPDATE_TYPE_STICKER_SETS_ORDER: {
+                                StickersQuery.reorderStickers(update.order);
+                                break;
+                            }
+                            case UPDATE_TYPE_NEW_STICKER_SET: {
+                                StickersQuery.addNewStickerSet(update.stickerset);
+                                break;
+                            }
+                            case UPDATE_TYPE_SAVED_GIFS: {
+                                SharedPreferences.Editor editor2 = ApplicationLoader.applicationContext.getSharedPreferences("emoji", Activity.MODE_PRIVATE).edit();
+                                editor2.putLong("lastGifLoadTime", 0).commit();
+                                break;
                             }
-                            updateMask |= UPDATE_MASK_CHANNEL;
-                            loadFullChat(update.channel_id, 0, true);
-                        } else if (update instanceof TLRPC.TL_updateChatAdmins) {
-                            updateMask |= UPDATE_MASK_CHAT_ADMINS;
-                        } else if (update instanceof TLRPC.TL_updateStickerSets) {
-                            StickersQuery.loadStickers(false, true);
-                        } else if (update instanceof TLRPC.TL_updateStickerSetsOrder) {
-                            StickersQuery.reorderStickers(update.order);
-                        } else if (update instanceof TLRPC.TL_updateNewStickerSet) {
-                            StickersQuery.addNewStickerSet(update.stickerset);
-                        } else if (update instanceof TLRPC.TL_updateSavedGifs) {
-                            SharedPreferences.Editor editor2 = ApplicationLoader.applicationContext.getSharedPreferences("emoji", Activity.MODE_PRIVATE).edit();
-                            editor2.putLong("lastGifLoadTime", 0).commit();
                         }
                     }
                     if (editor != null) {
@@ -6576,6 +6874,192 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         return true;
     }
 
+    private boolean isLightUpdatesBatch(ArrayList<TLRPC.Update> updates) {
+        for (int a = 0; a < updates.size(); a++) {
+            int type = getUpdateDispatchType(updates.get(a));
+            if (type != UPDATE_TYPE_USER_TYPING && type != UPDATE_TYPE_CHAT_USER_TYPING && type != UPDATE_TYPE_USER_STATUS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setUpdatesCoalesceWindow(int window) {
+        updatesCoalesceWindow = window;
+        if (window <= 0) {
+            flushCoalescedUpdates(true);
+        }
+    }
+
+    //only the latest status per user and typing action per user and chat survive the window
+    private void coalesceLightUpdates(ArrayList<TLRPC.Update> updates) {
+        synchronized (coalescedUpdatesSync) {
+            for (int a = 0; a < updates.size(); a++) {
+                TLRPC.Update update = updates.get(a);
+                TLRPC.Update old;
+                if (getUpdateDispatchType(update) == UPDATE_TYPE_USER_STATUS) {
+                    old = coalescedStatusUpdates.put(update.user_id, update);
+                } else {
+                    old = coalescedTypingUpdates.put(((long) update.chat_id << 32) | (update.user_id & 0xffffffffL), update);
+                }
+                coalescedUpdatesReceived++;
+                if (old != null) {
+                    coalescedUpdatesFolded++;
+                }
+            }
+            if (coalescedFlushScheduled) {
+                return;
+            }
+            coalescedFlushScheduled = true;
+        }
+        Utilities.stageQueue.postRunnable(flushCoalescedUpdatesRunnable, updatesCoalesceWindow);
+    }
+
+    //other updates may clear typing state, so pending light updates are applied before them to keep the order
+    private void flushCoalescedUpdates(boolean cancelScheduled) {
+        ArrayList<TLRPC.Update> updates;
+        synchronized (coalescedUpdatesSync) {
+            if (cancelScheduled && coalescedFlushScheduled) {
+                Utilities.stageQueue.cancelRunnable(flushCoalescedUpdatesRunnable);
+            }
+            coalescedFlushScheduled = false;
+            if (coalescedStatusUpdates.isEmpty() && coalescedTypingUpdates.isEmpty()) {
+                return;
+            }
+            updates = coalescedTypingUpdates.values();
+            updates.addAll(coalescedStatusUpdates.values());
+            coalescedTypingUpdates.clear();
+            coalescedStatusUpdates.clear();
+            coalescedBatchesApplied++;
+        }
+        processLightUpdates(updates);
+    }
+
+    public void dumpUpdatesCoalescingToLog() {
+        synchronized (coalescedUpdatesSync) {
+            FileLog.e("tmessages", "light updates received " + coalescedUpdatesReceived + " folded " + coalescedUpdatesFolded + " batches " + coalescedBatchesApplied + " window " + updatesCoalesceWindow + " ms");
+        }
+    }
+
+    //typing and status bursts touch neither messages nor storage queues, so they skip the per-batch collections
+    private void processLightUpdates(ArrayList<TLRPC.Update> updates) {
+        long currentTime = System.currentTimeMillis();
+        boolean printChanged = false;
+        ArrayList<TLRPC.Update> statusUpdates = null;
+        for (int a = 0; a < updates.size(); a++) {
+            TLRPC.Update update = updates.get(a);
+            if (getUpdateDispatchType(update) == UPDATE_TYPE_USER_STATUS) {
+                if (statusUpdates == null) {
+                    statusUpdates = new ArrayList<>();
+                }
+                statusUpdates.add(update);
+            } else if (processUserTyping(update, currentTime)) {
+                printChanged = true;
+            }
+        }
+        if (printChanged) {
+            updatePrintingStrings();
+        }
+        if (!printChanged && statusUpdates == null) {
+            return;
+        }
+        final ArrayList<TLRPC.Update> statusUpdatesFinal = statusUpdates;
+        final boolean printChangedFinal = printChanged;
+        AndroidUtilities.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                int updateMask = 0;
+                if (statusUpdatesFinal != null) {
+                    ArrayList<TLRPC.User> dbUsersStatus = new ArrayList<>();
+                    for (int a = 0; a < statusUpdatesFinal.size(); a++) {
+                        TLRPC.Update update = statusUpdatesFinal.get(a);
+                        TLRPC.User toDbUser = new TLRPC.User();
+                        toDbUser.id = update.user_id;
+                        applyUserStatus(update, getUser(update.user_id), toDbUser);
+                        dbUsersStatus.add(toDbUser);
+                    }
+                    MessagesStorage.getInstance().updateUsers(dbUsersStatus, true, true, true);
+                    updateMask |= UPDATE_MASK_STATUS;
+                }
+                if (printChangedFinal) {
+                    updateMask |= UPDATE_MASK_USER_PRINT;
+                }
+                NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, updateMask);
+            }
+        });
+    }
+
+    private boolean processUserTyping(TLRPC.Update update, long currentTime) {
+        boolean changed = false;
+        if (update.user_id != UserConfig.getClientUserId()) {
+            long uid = -update.chat_id;
+            if (uid == 0) {
+                uid = update.user_id;
+            }
+            ArrayList<PrintingUser> arr = printingUsers.get(uid);
+            if (update.action instanceof TLRPC.TL_sendMessageCancelAction) {
+                if (arr != null) {
+                    for (int a = 0; a < arr.size(); a++) {
+                        PrintingUser pu = arr.get(a);
+                        if (pu.userId == update.user_id) {
+                            arr.remove(a);
+                            changed = true;
+                            break;
+                        }
+                    }
+                    if (arr.isEmpty()) {
+                        printingUsers.remove(uid);
+                    }
+                }
+            } else {
+                if (arr == null) {
+                    arr = new ArrayList<>();
+                    printingUsers.put(uid, arr);
+                }
+                boolean exist = false;
+                for (PrintingUser u : arr) {
+                    if (u.userId == update.user_id) {
+                        exist = true;
+                        u.lastTime = currentTime;
+                        if (u.action.getClass() != update.action.getClass()) {
+                            changed = true;
+                        }
+                        u.action = update.action;
+                        break;
+                    }
+                }
+                if (!exist) {
+                    PrintingUser newUser = new PrintingUser();
+                    newUser.userId = update.user_id;
+                    newUser.lastTime = currentTime;
+                    newUser.action = update.action;
+                    arr.add(newUser);
+                    changed = true;
+                }
+            }
+            onlinePrivacy.put(update.user_id, ConnectionsManager.getInstance().getCurrentTime());
+        }
+        return changed;
+    }
+
+    private void applyUserStatus(TLRPC.Update update, TLRPC.User currentUser, TLRPC.User toDbUser) {
+        if (update.status instanceof TLRPC.TL_userStatusRecently) {
+            update.status.expires = -100;
+        } else if (update.status instanceof TLRPC.TL_userStatusLastWeek) {
+            update.status.expires = -101;
+        } else if (update.status instanceof TLRPC.TL_userStatusLastMonth) {
+            update.status.expires = -102;
+        }
+        if (currentUser != null) {
+            currentUser.id = update.user_id;
+            currentUser.status = update.status;
+        }
+        toDbUser.status = update.status;
+        if (update.user_id == UserConfig.getClientUserId()) {
+            NotificationsController.getInstance().setLastOnlineFromOtherDevice(update.status.expires);
+        }
+    }
+
     private boolean isNotifySettingsMuted(TLRPC.PeerNotifySettings settings) {
         return settings instanceof TLRPC.TL_peerNotifySettings && settings.mute_until > ConnectionsManager.getInstance().getCurrentTime();
     }
@@ -6677,9 +7161,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         TLRPC.Dialog dialog = dialogs_dict.get(uid);
         if (lastMessage.messageOwner.action instanceof TLRPC.TL_messageActionChatMigrateTo) {
             if (dialog != null) {
-                dialogs.remove(dialog);
-                dialogsServerOnly.remove(dialog);
-                dialogsGroupsOnly.remove(dialog);
+                dialogsIndex.remove(dialog);
                 dialogs_dict.remove(dialog.id);
                 dialogs_read_inbox_max.remove(dialog.id);
                 nextDialogsCacheOffset--;
@@ -6713,7 +7195,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 dialog.top_message = lastMessage.getId();
                 dialog.last_message_date = lastMessage.messageOwner.date;
                 dialogs_dict.put(uid, dialog);
-                dialogs.add(dialog);
                 dialogMessage.put(uid, lastMessage);
                 if (lastMessage.messageOwner.to_id.channel_id == 0) {
                     dialogMessagesByIds.put(lastMessage.getId(), lastMessage);
@@ -6748,38 +7229,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
 
         if (changed) {
-            dialogsServerOnly.clear();
-            dialogsGroupsOnly.clear();
-            Collections.sort(dialogs, new Comparator<TLRPC.Dialog>() {
-                @Override
-                public int compare(TLRPC.Dialog tl_dialog, TLRPC.Dialog tl_dialog2) {
-                    if (tl_dialog.last_message_date == tl_dialog2.last_message_date) {
-                        return 0;
-                    } else if (tl_dialog.last_message_date < tl_dialog2.last_message_date) {
-                        return 1;
-                    } else {
-                        return -1;
-                    }
-                }
-            });
-            for (int a = 0; a < dialogs.size(); a++) {
-                TLRPC.Dialog d = dialogs.get(a);
-                int high_id = (int) (d.id >> 32);
-                if ((int) d.id != 0 && high_id != 1) {
-                    dialogsServerOnly.add(d);
-                    if (d instanceof TLRPC.TL_dialog) {
-                        if (d.id < 0) {
-                            dialogsGroupsOnly.add(d);
-                        }
-                    } else if (d instanceof TLRPC.TL_dialogChannel) {
-                        int lower_id = (int) d.id;
-                        TLRPC.Chat chat = getChat(-lower_id);
-                        if (chat != null && (chat.megagroup && chat.editor || chat.creator)) {
-                            dialogsGroupsOnly.add(d);
-                        }
-                    }
-                }
-            }
+            dialogsIndex.update(dialog);
         }
     }
 
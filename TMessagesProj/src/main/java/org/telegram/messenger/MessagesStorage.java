@@ -9,7 +9,10 @@
 package org.telegram.messenger;
 
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.os.BatteryManager;
 import android.text.TextUtils;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
@@ -33,12 +36,277 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
 
 public class MessagesStorage {
-    private DispatchQueue storageQueue = new DispatchQueue("storageQueue");
+
+    public final static int CHECKPOINT_MODE_NONE = 0;
+    public final static int CHECKPOINT_MODE_PASSIVE = 1;
+    public final static int CHECKPOINT_MODE_TRUNCATE = 2;
+
+    public final static int SEARCH_NAME_KIND_NAME = 0;
+    public final static int SEARCH_NAME_KIND_USERNAME = 1;
+
+    private final static int READ_DATABASES_COUNT = 2;
+    private final static int WRITE_BATCH_DELAY = 50;
+    private final static int WRITE_BATCH_MAX_OPERATIONS = 64;
+    private final static int VACUUM_PAGES_PER_STEP = 128;
+    private final static int VACUUM_MIN_FREE_PAGES = 64;
+    private final static int VACUUM_STEP_DELAY = 200;
+    private final static int VACUUM_FORCED_STEP_DELAY = 10;
+    private final static int VACUUM_START_DELAY = 60 * 1000;
+    private final static int VACUUM_IDLE_CHECK_DELAY = 5 * 60 * 1000;
+    private final static int MESSAGES_SPLIT_BATCH = 2000;
+    private final static int SEARCH_INDEX_BACKFILL_BATCH = 200;
+    private final static int SEARCH_INDEX_BACKFILL_DELAY = 100;
+    private final static int SEARCH_INDEX_BACKFILL_START_DELAY = 5 * 1000;
+
+    private class WriteBatch implements Runnable {
+        private ArrayList<Runnable> operations = new ArrayList<>();
+        private SparseArray<TLRPC.User> userStatuses = new SparseArray<>();
+        private SparseArray<Long> readInbox = new SparseArray<>();
+        private SparseIntArray readOutbox = new SparseIntArray();
+        private HashMap<Integer, Integer> readEncrypted = new HashMap<>();
+        private SparseArray<Long> dialogsReadInbox = new SparseArray<>();
+        private ArrayList<Runnable> afterCommit = new ArrayList<>();
+        private int mergedCount;
+
+        private void removeUserStatuses(ArrayList<TLRPC.User> users) {
+            if (users == null) {
+                return;
+            }
+            for (int a = 0; a < users.size(); a++) {
+                userStatuses.remove(users.get(a).id);
+            }
+        }
+
+        //every operation gets its own catch, one failing write must not drop the rest of the batch
+        @Override
+        public void run() {
+            boolean withTransaction = !database.isInTransaction();
+            try {
+                if (withTransaction) {
+                    database.beginTransaction();
+                }
+            } catch (Exception e) {
+                FileLog.e("tmessages", e);
+                withTransaction = false;
+            }
+            for (int a = 0; a < operations.size(); a++) {
+                try {
+                    operations.get(a).run();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+            if (userStatuses.size() != 0) {
+                try {
+                    ArrayList<TLRPC.User> users = new ArrayList<>(userStatuses.size());
+                    for (int a = 0; a < userStatuses.size(); a++) {
+                        users.add(userStatuses.valueAt(a));
+                    }
+                    updateUsersInternal(users, true, false);
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+            if (dialogsReadInbox.size() != 0) {
+                try {
+                    updateDialogsWithReadMessagesInternal(null, dialogsReadInbox);
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+            if (readInbox.size() != 0 || readOutbox.size() != 0 || !readEncrypted.isEmpty()) {
+                try {
+                    markMessagesAsReadInternal(readInbox, readOutbox, readEncrypted);
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+            if (withTransaction) {
+                try {
+                    database.commitTransaction();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+            for (int a = 0; a < afterCommit.size(); a++) {
+                try {
+                    afterCommit.get(a).run();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        }
+    }
+
+    private class StorageQueue extends DispatchQueue {
+
+        private final Object sync = new Object();
+        private WriteBatch pendingBatch;
+
+        private final Runnable flushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                WriteBatch batch;
+                synchronized (sync) {
+                    batch = pendingBatch;
+                    pendingBatch = null;
+                }
+                if (batch != null) {
+                    batch.run();
+                }
+            }
+        };
+
+        public StorageQueue(String threadName) {
+            super(threadName);
+        }
+
+        //any other storage task flushes the pending batch first, so batched writes keep their order relative to it
+        @Override
+        public void postRunnable(Runnable runnable, long delay) {
+            if (delay <= 0) {
+                synchronized (sync) {
+                    postPendingBatch();
+                    super.postRunnable(runnable, 0);
+                }
+            } else {
+                super.postRunnable(runnable, delay);
+            }
+        }
+
+        private void postPendingBatch() {
+            if (pendingBatch != null) {
+                super.postRunnable(pendingBatch, 0);
+                pendingBatch = null;
+            }
+        }
+
+        private WriteBatch obtainBatch() {
+            if (pendingBatch == null) {
+                pendingBatch = new WriteBatch();
+                super.postRunnable(flushRunnable, WRITE_BATCH_DELAY);
+            }
+            pendingBatch.mergedCount++;
+            return pendingBatch;
+        }
+
+        private void onBatchChanged() {
+            if (pendingBatch.mergedCount >= WRITE_BATCH_MAX_OPERATIONS) {
+                postPendingBatch();
+            }
+        }
+
+        public void enqueueWrite(Runnable operation) {
+            synchronized (sync) {
+                obtainBatch().operations.add(operation);
+                onBatchChanged();
+            }
+        }
+
+        public void enqueueUsers(ArrayList<TLRPC.User> users, Runnable operation) {
+            synchronized (sync) {
+                WriteBatch batch = obtainBatch();
+                batch.removeUserStatuses(users);
+                batch.operations.add(operation);
+                onBatchChanged();
+            }
+        }
+
+        public void enqueueUserStatuses(ArrayList<TLRPC.User> users) {
+            synchronized (sync) {
+                WriteBatch batch = obtainBatch();
+                for (int a = 0; a < users.size(); a++) {
+                    TLRPC.User user = users.get(a);
+                    batch.userStatuses.put(user.id, user);
+                }
+                onBatchChanged();
+            }
+        }
+
+        public void enqueueRead(SparseArray<Long> inbox, SparseIntArray outbox, HashMap<Integer, Integer> encryptedMessages) {
+            synchronized (sync) {
+                WriteBatch batch = obtainBatch();
+                if (inbox != null) {
+                    for (int a = 0; a < inbox.size(); a++) {
+                        int key = inbox.keyAt(a);
+                        Long value = batch.readInbox.get(key);
+                        if (value == null || value < inbox.valueAt(a)) {
+                            batch.readInbox.put(key, inbox.valueAt(a));
+                        }
+                    }
+                }
+                if (outbox != null) {
+                    for (int a = 0; a < outbox.size(); a++) {
+                        int key = outbox.keyAt(a);
+                        batch.readOutbox.put(key, Math.max(batch.readOutbox.get(key), outbox.valueAt(a)));
+                    }
+                }
+                if (encryptedMessages != null) {
+                    for (HashMap.Entry<Integer, Integer> entry : encryptedMessages.entrySet()) {
+                        Integer value = batch.readEncrypted.get(entry.getKey());
+                        if (value == null || value < entry.getValue()) {
+                            batch.readEncrypted.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                onBatchChanged();
+            }
+        }
+
+        public void enqueueDialogsRead(SparseArray<Long> inbox) {
+            synchronized (sync) {
+                WriteBatch batch = obtainBatch();
+                for (int a = 0; a < inbox.size(); a++) {
+                    int key = inbox.keyAt(a);
+                    Long value = batch.dialogsReadInbox.get(key);
+                    if (value == null || value < inbox.valueAt(a)) {
+                        batch.dialogsReadInbox.put(key, inbox.valueAt(a));
+                    }
+                }
+                onBatchChanged();
+            }
+        }
+
+        public void enqueueAfterCommit(Runnable callback) {
+            synchronized (sync) {
+                obtainBatch().afterCommit.add(callback);
+            }
+        }
+
+        public void flush() {
+            synchronized (sync) {
+                postPendingBatch();
+            }
+        }
+
+        public void flushOnCurrentThread() {
+            flushRunnable.run();
+        }
+    }
+
+    private StorageQueue storageQueue = new StorageQueue("storageQueue");
+    private DispatchQueue readQueue = new DispatchQueue("storageReadQueue");
+    private DispatchQueue searchQueue = new DispatchQueue("storageSearchQueue");
     private SQLiteDatabase database;
     private File cacheFile;
+    private boolean walEnabled;
+    private int walAutoCheckpointPages = 1000;
+    private int pauseCheckpointMode = CHECKPOINT_MODE_TRUNCATE;
+    private boolean incrementalVacuumEnabled;
+    private boolean vacuumForced;
+    private long vacuumReclaimedBytes;
+    private volatile boolean searchIndexReady = true;
+    private long searchIndexBackfillMid;
+    private int searchIndexBackfillFailures;
+    private volatile boolean readDatabasesEnabled;
+    private final Object readDatabasesSync = new Object();
+    private final ArrayBlockingQueue<SQLiteDatabase> freeReadDatabases = new ArrayBlockingQueue<>(READ_DATABASES_COUNT);
+    private final ArrayList<SQLiteDatabase> readDatabases = new ArrayList<>();
+    private final ThreadLocal<SQLiteDatabase> currentReadDatabase = new ThreadLocal<>();
     public static int lastDateValue = 0;
     public static int lastPtsValue = 0;
     public static int lastQtsValue = 0;
@@ -79,10 +347,375 @@ public class MessagesStorage {
         return storageQueue;
     }
 
+    public DispatchQueue getSearchQueue() {
+        return searchQueue;
+    }
+
+    public SQLiteDatabase getReadDatabase() {
+        SQLiteDatabase db = currentReadDatabase.get();
+        return db != null ? db : database;
+    }
+
+    public void postReadRunnable(Runnable runnable) {
+        postReadRunnable(readQueue, runnable);
+    }
+
+    public void postSearchRunnable(Runnable runnable) {
+        postReadRunnable(searchQueue, runnable);
+    }
+
+    //for reads that must see writes posted before them, waits until the storage queue committed them
+    public void postReadRunnableAfterWrites(final Runnable runnable) {
+        if (!readDatabasesEnabled) {
+            storageQueue.postRunnable(runnable);
+            return;
+        }
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                postReadRunnable(readQueue, runnable);
+            }
+        });
+    }
+
+    //pooled connections read a wal snapshot, so reads never wait for queued storage work
+    private void postReadRunnable(final DispatchQueue queue, final Runnable runnable) {
+        if (!readDatabasesEnabled) {
+            storageQueue.postRunnable(runnable);
+            return;
+        }
+        queue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = acquireReadDatabase();
+                if (db == null) {
+                    storageQueue.postRunnable(runnable);
+                    return;
+                }
+                currentReadDatabase.set(db);
+                try {
+                    runnable.run();
+                } finally {
+                    currentReadDatabase.remove();
+                    releaseReadDatabase(db);
+                }
+            }
+        });
+    }
+
+    private SQLiteDatabase acquireReadDatabase() {
+        if (!readDatabasesEnabled) {
+            return null;
+        }
+        SQLiteDatabase db = freeReadDatabases.poll();
+        if (db != null) {
+            return db;
+        }
+        synchronized (readDatabasesSync) {
+            if (readDatabases.size() < READ_DATABASES_COUNT && cacheFile != null) {
+                try {
+                    db = new SQLiteDatabase(cacheFile.getPath(), true);
+                    db.executeFast("PRAGMA temp_store = 1").stepThis().dispose();
+                    readDatabases.add(db);
+                    return db;
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                    if (db != null) {
+                        db.close();
+                    }
+                    return null;
+                }
+            }
+        }
+        try {
+            return freeReadDatabases.take();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+        return null;
+    }
+
+    private void releaseReadDatabase(SQLiteDatabase db) {
+        synchronized (readDatabasesSync) {
+            if (readDatabases.contains(db)) {
+                freeReadDatabases.offer(db);
+                return;
+            }
+        }
+        db.close();
+    }
+
+    private void closeReadDatabases() {
+        readDatabasesEnabled = false;
+        synchronized (readDatabasesSync) {
+            SQLiteDatabase db;
+            while ((db = freeReadDatabases.poll()) != null) {
+                db.close();
+            }
+            readDatabases.clear();
+        }
+    }
+
+    public void setCheckpointPolicy(final int autoCheckpointPages, final int pauseMode) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                walAutoCheckpointPages = autoCheckpointPages;
+                pauseCheckpointMode = pauseMode;
+                if (walEnabled && database != null) {
+                    try {
+                        database.executeFast("PRAGMA wal_autocheckpoint = " + walAutoCheckpointPages).stepThis().dispose();
+                    } catch (Exception e) {
+                        FileLog.e("tmessages", e);
+                    }
+                }
+            }
+        });
+    }
+
+    public void checkpoint() {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (!walEnabled || database == null || pauseCheckpointMode == CHECKPOINT_MODE_NONE) {
+                    return;
+                }
+                try {
+                    if (pauseCheckpointMode == CHECKPOINT_MODE_TRUNCATE) {
+                        database.executeFast("PRAGMA wal_checkpoint(TRUNCATE)").stepThis().dispose();
+                    } else {
+                        database.executeFast("PRAGMA wal_checkpoint(PASSIVE)").stepThis().dispose();
+                    }
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        });
+    }
+
+    private final Runnable vacuumRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (database == null) {
+                return;
+            }
+            try {
+                if (database.isInTransaction()) {
+                    storageQueue.postRunnable(vacuumRunnable, VACUUM_STEP_DELAY);
+                    return;
+                }
+                if (!incrementalVacuumEnabled) {
+                    //switching auto_vacuum mode needs one full rewrite, do it only when nobody waits for the queue or the user asked for it
+                    if (!vacuumForced && (!isDeviceIdle() || !isDeviceCharging())) {
+                        storageQueue.postRunnable(vacuumRunnable, VACUUM_IDLE_CHECK_DELAY);
+                        return;
+                    }
+                    long pageSize = database.executeInt("PRAGMA page_size");
+                    int pageCount = database.executeInt("PRAGMA page_count");
+                    database.executeFast("PRAGMA auto_vacuum = INCREMENTAL").stepThis().dispose();
+                    database.executeFast("VACUUM").stepThis().dispose();
+                    Integer autoVacuum = database.executeInt("PRAGMA auto_vacuum");
+                    incrementalVacuumEnabled = autoVacuum != null && autoVacuum == 2;
+                    vacuumReclaimedBytes += (pageCount - database.executeInt("PRAGMA page_count")) * pageSize;
+                    FileLog.e("tmessages", "cache db migrated to incremental vacuum = " + incrementalVacuumEnabled);
+                    if (!incrementalVacuumEnabled) {
+                        finishIncrementalVacuum();
+                        return;
+                    }
+                }
+                int freePages = database.executeInt("PRAGMA freelist_count");
+                if (freePages < (vacuumForced ? 1 : VACUUM_MIN_FREE_PAGES)) {
+                    finishIncrementalVacuum();
+                    return;
+                }
+                if (!vacuumForced && !isDeviceIdle() && !isDeviceCharging()) {
+                    storageQueue.postRunnable(vacuumRunnable, VACUUM_IDLE_CHECK_DELAY);
+                    return;
+                }
+                long pageSize = database.executeInt("PRAGMA page_size");
+                SQLiteCursor cursor = database.queryFinalized("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")");
+                while (cursor.next()) {
+                    //each step frees one page
+                }
+                cursor.dispose();
+                int leftPages = database.executeInt("PRAGMA freelist_count");
+                vacuumReclaimedBytes += (freePages - leftPages) * pageSize;
+                if (leftPages > 0 && leftPages < freePages) {
+                    storageQueue.postRunnable(vacuumRunnable, vacuumForced ? VACUUM_FORCED_STEP_DELAY : VACUUM_STEP_DELAY);
+                } else {
+                    finishIncrementalVacuum();
+                }
+            } catch (Exception e) {
+                FileLog.e("tmessages", e);
+                finishIncrementalVacuum();
+            }
+        }
+    };
+
+    private void finishIncrementalVacuum() {
+        vacuumForced = false;
+        final long reclaimed = vacuumReclaimedBytes;
+        vacuumReclaimedBytes = 0;
+        if (reclaimed <= 0) {
+            return;
+        }
+        if (walEnabled) {
+            try {
+                database.executeFast("PRAGMA wal_checkpoint(TRUNCATE)").stepThis().dispose();
+            } catch (Exception e) {
+                FileLog.e("tmessages", e);
+            }
+        }
+        FileLog.e("tmessages", "cache db vacuum reclaimed " + reclaimed + " bytes");
+        AndroidUtilities.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                NotificationCenter.getInstance().postNotificationName(NotificationCenter.databaseCompacted, reclaimed);
+            }
+        });
+    }
+
+    private boolean isDeviceIdle() {
+        return ApplicationLoader.mainInterfacePaused || !ApplicationLoader.isScreenOn;
+    }
+
+    private boolean isDeviceCharging() {
+        try {
+            Intent intent = ApplicationLoader.applicationContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            return intent != null && intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+        return false;
+    }
+
+    public void scheduleIncrementalVacuum(final boolean force) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                storageQueue.cancelRunnable(vacuumRunnable);
+                if (force) {
+                    vacuumForced = true;
+                    vacuumRunnable.run();
+                } else {
+                    storageQueue.postRunnable(vacuumRunnable, VACUUM_START_DELAY);
+                }
+            }
+        };
+        //a forced vacuum requested from a storage task runs right away, inside the task that asked for it
+        if (force && Thread.currentThread() == storageQueue) {
+            runnable.run();
+        } else {
+            storageQueue.postRunnable(runnable);
+        }
+    }
+
+    //messages stored before schema 32 are indexed a batch at a time, the progress survives restarts in keyvalue
+    private final Runnable searchIndexBackfillRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (database == null || searchIndexReady) {
+                return;
+            }
+            if (database.isInTransaction()) {
+                storageQueue.postRunnable(searchIndexBackfillRunnable, SEARCH_INDEX_BACKFILL_DELAY);
+                return;
+            }
+            long batchStartMid = searchIndexBackfillMid;
+            SQLiteCursor cursor = null;
+            try {
+                database.beginTransaction();
+                int count = 0;
+                cursor = database.queryFinalized("SELECT mid, data FROM messages WHERE mid > ? ORDER BY mid ASC LIMIT ?", searchIndexBackfillMid, SEARCH_INDEX_BACKFILL_BATCH);
+                while (cursor.next()) {
+                    long mid = cursor.longValue(0);
+                    //a row that can't be read or indexed is skipped, otherwise it would stop the backfill on every start
+                    try {
+                        NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(1));
+                        if (data != null && cursor.byteBufferValue(1, data) != 0) {
+                            TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                            if (message != null) {
+                                putMessageSearchText(mid, message);
+                            }
+                        }
+                        data.reuse();
+                    } catch (Exception e) {
+                        FileLog.e("tmessages", e);
+                    }
+                    searchIndexBackfillMid = mid;
+                    count++;
+                }
+                cursor.dispose();
+                cursor = null;
+                SQLitePreparedStatement state;
+                if (count < SEARCH_INDEX_BACKFILL_BATCH) {
+                    state = database.executeFast("DELETE FROM keyvalue WHERE id = ?");
+                    state.bindString(1, "search_index_backfill");
+                } else {
+                    state = database.executeFast("REPLACE INTO keyvalue VALUES(?, ?)");
+                    state.bindString(1, "search_index_backfill");
+                    state.bindString(2, String.valueOf(searchIndexBackfillMid));
+                }
+                state.step();
+                state.dispose();
+                database.commitTransaction();
+                searchIndexBackfillFailures = 0;
+                if (count < SEARCH_INDEX_BACKFILL_BATCH) {
+                    searchIndexReady = true;
+                    FileLog.e("tmessages", "search index backfill done");
+                } else {
+                    storageQueue.postRunnable(searchIndexBackfillRunnable, SEARCH_INDEX_BACKFILL_DELAY);
+                }
+            } catch (Exception e) {
+                FileLog.e("tmessages", e);
+                if (cursor != null) {
+                    cursor.dispose();
+                }
+                database.rollbackTransaction();
+                searchIndexBackfillMid = batchStartMid;
+                searchIndexBackfillFailures++;
+                storageQueue.postRunnable(searchIndexBackfillRunnable, SEARCH_INDEX_BACKFILL_DELAY * (1 << Math.min(searchIndexBackfillFailures, 10)));
+            }
+        }
+    };
+
+    public boolean isSearchIndexReady() {
+        return searchIndexReady;
+    }
+
+    //runs on the storage thread once every write queued so far is committed
+    public void runAfterPendingWrites(Runnable callback) {
+        storageQueue.enqueueAfterCommit(callback);
+    }
+
+    public void flushWrites(boolean wait) {
+        if (Thread.currentThread() == storageQueue) {
+            storageQueue.flushOnCurrentThread();
+            return;
+        }
+        if (!wait) {
+            storageQueue.flush();
+            return;
+        }
+        final Semaphore semaphore = new Semaphore(0);
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                semaphore.release();
+            }
+        });
+        try {
+            semaphore.acquire();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+    }
+
     public void openDatabase() {
         cacheFile = new File(ApplicationLoader.getFilesDirFixed(), "cache4.db");
 
         boolean createTable = false;
+        searchIndexReady = true;
         //cacheFile.delete();
         if (!cacheFile.exists()) {
             createTable = true;
@@ -91,6 +724,16 @@ public class MessagesStorage {
             database = new SQLiteDatabase(cacheFile.getPath());
             database.executeFast("PRAGMA secure_delete = ON").stepThis().dispose();
             database.executeFast("PRAGMA temp_store = 1").stepThis().dispose();
+            if (createTable) {
+                database.executeFast("PRAGMA auto_vacuum = INCREMENTAL").stepThis().dispose();
+            }
+            SQLiteCursor journalCursor = database.queryFinalized("PRAGMA journal_mode = WAL");
+            walEnabled = journalCursor.next() && "wal".equalsIgnoreCase(journalCursor.stringValue(0));
+            journalCursor.dispose();
+            if (walEnabled) {
+                database.executeFast("PRAGMA synchronous = NORMAL").stepThis().dispose();
+                database.executeFast("PRAGMA wal_autocheckpoint = " + walAutoCheckpointPages).stepThis().dispose();
+            }
             if (createTable) {
                 database.executeFast("CREATE TABLE channel_group(uid INTEGER, start INTEGER, end INTEGER, count INTEGER, PRIMARY KEY(uid, start));").stepThis().dispose();
 
@@ -102,14 +745,10 @@ public class MessagesStorage {
                 database.executeFast("CREATE TABLE media_holes_v2(uid INTEGER, type INTEGER, start INTEGER, end INTEGER, PRIMARY KEY(uid, type, start));").stepThis().dispose();
                 database.executeFast("CREATE INDEX IF NOT EXISTS uid_end_media_holes_v2 ON media_holes_v2(uid, type, end);").stepThis().dispose();
 
-                database.executeFast("CREATE TABLE messages(mid INTEGER PRIMARY KEY, uid INTEGER, read_state INTEGER, send_state INTEGER, date INTEGER, data BLOB, out INTEGER, ttl INTEGER, media INTEGER, replydata BLOB, imp INTEGER)").stepThis().dispose();
-                database.executeFast("CREATE INDEX IF NOT EXISTS uid_mid_idx_messages ON messages(uid, mid);").stepThis().dispose();
-                database.executeFast("CREATE INDEX IF NOT EXISTS uid_date_mid_idx_messages ON messages(uid, date, mid);").stepThis().dispose();
-                database.executeFast("CREATE INDEX IF NOT EXISTS uid_mid_idx_imp_messages ON messages(uid, mid, imp) WHERE imp = 1;").stepThis().dispose();
-                database.executeFast("CREATE INDEX IF NOT EXISTS uid_date_mid_imp_idx_messages ON messages(uid, date, mid, imp) WHERE imp = 1;").stepThis().dispose();
-                database.executeFast("CREATE INDEX IF NOT EXISTS mid_out_idx_messages ON messages(mid, out);").stepThis().dispose();
-                database.executeFast("CREATE INDEX IF NOT EXISTS task_idx_messages ON messages(uid, out, read_state, ttl, date, send_state);").stepThis().dispose();
-                database.executeFast("CREATE INDEX IF NOT EXISTS send_state_idx_messages ON messages(mid, send_state, date) WHERE mid < 0 AND send_state = 1;").stepThis().dispose();
+                database.executeFast("CREATE TABLE messages_meta(mid INTEGER PRIMARY KEY, uid INTEGER, read_state INTEGER, send_state INTEGER, date INTEGER, out INTEGER, ttl INTEGER, media INTEGER, imp INTEGER)").stepThis().dispose();
+                database.executeFast("CREATE TABLE messages_payload(mid INTEGER PRIMARY KEY, data BLOB, replydata BLOB)").stepThis().dispose();
+                database.executeFast("CREATE VIRTUAL TABLE messages_fts USING fts4(text, tokenize=unicode61)").stepThis().dispose();
+                createMessagesMetaIndexes();
 
                 database.executeFast("CREATE TABLE download_queue(uid INTEGER, type INTEGER, date INTEGER, data BLOB, PRIMARY KEY (uid, type));").stepThis().dispose();
                 database.executeFast("CREATE INDEX IF NOT EXISTS type_date_idx_download_queue ON download_queue(type, date);").stepThis().dispose();
@@ -152,6 +791,9 @@ public class MessagesStorage {
                 database.executeFast("CREATE TABLE users(uid INTEGER PRIMARY KEY, name TEXT, status INTEGER, data BLOB)").stepThis().dispose();
                 database.executeFast("CREATE TABLE chats(uid INTEGER PRIMARY KEY, name TEXT, data BLOB)").stepThis().dispose();
                 database.executeFast("CREATE TABLE enc_chats(uid INTEGER PRIMARY KEY, user INTEGER, name TEXT, data BLOB, g BLOB, authkey BLOB, ttl INTEGER, layer INTEGER, seq_in INTEGER, seq_out INTEGER, use_count INTEGER, exchange_id INTEGER, key_date INTEGER, fprint INTEGER, fauthkey BLOB, khash BLOB)").stepThis().dispose();
+                database.executeFast("CREATE INDEX IF NOT EXISTS user_idx_enc_chats ON enc_chats(user);").stepThis().dispose();
+                database.executeFast("CREATE TABLE search_names(token TEXT, did INTEGER, kind INTEGER, PRIMARY KEY(token, did, kind)) WITHOUT ROWID").stepThis().dispose();
+                database.executeFast("CREATE INDEX IF NOT EXISTS did_idx_search_names ON search_names(did);").stepThis().dispose();
                 database.executeFast("CREATE TABLE channel_users_v2(did INTEGER, uid INTEGER, date INTEGER, data BLOB, PRIMARY KEY(did, uid))").stepThis().dispose();
                 database.executeFast("CREATE TABLE contacts(uid INTEGER PRIMARY KEY, mutual INTEGER)").stepThis().dispose();
                 database.executeFast("CREATE TABLE pending_read(uid INTEGER PRIMARY KEY, max_id INTEGER)").stepThis().dispose();
@@ -172,7 +814,7 @@ public class MessagesStorage {
                 database.executeFast("CREATE TABLE bot_info(uid INTEGER PRIMARY KEY, info BLOB)").stepThis().dispose();
 
                 //version
-                database.executeFast("PRAGMA user_version = 31").stepThis().dispose();
+                database.executeFast("PRAGMA user_version = 34").stepThis().dispose();
 
                 //database.executeFast("CREATE TABLE secret_holes(uid INTEGER, seq_in INTEGER, seq_out INTEGER, data BLOB, PRIMARY KEY (uid, seq_in, seq_out));").stepThis().dispose();
                 //database.executeFast("CREATE TABLE attach_data(uid INTEGER, id INTEGER, data BLOB, PRIMARY KEY (uid, id))").stepThis().dispose();
@@ -206,13 +848,35 @@ public class MessagesStorage {
                     }
                 }
                 int version = database.executeInt("PRAGMA user_version");
-                if (version < 31) {
+                if (version < 32) {
+                    searchIndexReady = false;
+                } else if (database.tableExists("keyvalue")) {
+                    SQLiteCursor cursor = database.queryFinalized("SELECT value FROM keyvalue WHERE id = ?", "search_index_backfill");
+                    if (cursor.next()) {
+                        searchIndexBackfillMid = Long.parseLong(cursor.stringValue(0));
+                        searchIndexReady = false;
+                        storageQueue.postRunnable(searchIndexBackfillRunnable, SEARCH_INDEX_BACKFILL_START_DELAY);
+                    }
+                    cursor.dispose();
+                }
+                if (version < 34) {
                     updateDbToLastVersion(version);
                 }
             }
+            Integer autoVacuum = database.executeInt("PRAGMA auto_vacuum");
+            incrementalVacuumEnabled = autoVacuum != null && autoVacuum == 2;
         } catch (Exception e) {
             FileLog.e("tmessages", e);
         }
+        scheduleIncrementalVacuum(false);
+        if (walEnabled) {
+            storageQueue.postRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    readDatabasesEnabled = database != null;
+                }
+            });
+        }
         loadUnreadMessages();
     }
 
@@ -503,7 +1167,93 @@ public class MessagesStorage {
                         database.executeFast("CREATE INDEX IF NOT EXISTS chat_pinned_mid_idx ON chat_pinned(uid, pinned) WHERE pinned != 0;").stepThis().dispose();
                         database.executeFast("CREATE TABLE IF NOT EXISTS users_data(uid INTEGER PRIMARY KEY, about TEXT)").stepThis().dispose();
                         database.executeFast("PRAGMA user_version = 31").stepThis().dispose();
-                        //version = 31;
+                        version = 31;
+                    }
+                    if (version == 31) {
+                        database.executeFast("CREATE VIRTUAL TABLE IF NOT EXISTS messages_fts USING fts4(text, tokenize=unicode61)").stepThis().dispose();
+                        database.executeFast("CREATE TRIGGER IF NOT EXISTS messages_fts_delete AFTER DELETE ON messages BEGIN DELETE FROM messages_fts WHERE docid = old.mid; END;").stepThis().dispose();
+                        database.executeFast("CREATE TRIGGER IF NOT EXISTS messages_fts_update_mid AFTER UPDATE OF mid ON messages BEGIN UPDATE messages_fts SET docid = new.mid WHERE docid = old.mid; END;").stepThis().dispose();
+
+                        //existing messages are indexed in the background, search stays server-only until that is done
+                        database.executeFast("CREATE TABLE IF NOT EXISTS keyvalue(id TEXT PRIMARY KEY, value TEXT)").stepThis().dispose();
+                        SQLitePreparedStatement state = database.executeFast("REPLACE INTO keyvalue VALUES(?, ?)");
+                        state.bindString(1, "search_index_backfill");
+                        state.bindString(2, String.valueOf(Long.MIN_VALUE));
+                        state.step();
+                        state.dispose();
+                        searchIndexBackfillMid = Long.MIN_VALUE;
+                        searchIndexReady = false;
+                        storageQueue.postRunnable(searchIndexBackfillRunnable, SEARCH_INDEX_BACKFILL_START_DELAY);
+                        database.executeFast("PRAGMA user_version = 32").stepThis().dispose();
+                        version = 32;
+                    }
+                    if (version == 32) {
+                        database.executeFast("CREATE INDEX IF NOT EXISTS user_idx_enc_chats ON enc_chats(user);").stepThis().dispose();
+                        database.executeFast("CREATE TABLE IF NOT EXISTS search_names(token TEXT, did INTEGER, kind INTEGER, PRIMARY KEY(token, did, kind)) WITHOUT ROWID").stepThis().dispose();
+                        database.executeFast("CREATE INDEX IF NOT EXISTS did_idx_search_names ON search_names(did);").stepThis().dispose();
+
+                        database.beginTransaction();
+                        SQLiteCursor cursor = database.queryFinalized("SELECT uid, name FROM users");
+                        while (cursor.next()) {
+                            putSearchNames(cursor.intValue(0), cursor.stringValue(1));
+                        }
+                        cursor.dispose();
+                        cursor = database.queryFinalized("SELECT uid, name FROM chats");
+                        while (cursor.next()) {
+                            putSearchNames(getChatSearchDialogId(cursor.intValue(0)), cursor.stringValue(1));
+                        }
+                        cursor.dispose();
+                        database.commitTransaction();
+                        database.executeFast("PRAGMA user_version = 33").stepThis().dispose();
+                        version = 33;
+                    }
+                    if (version == 33) {
+                        //every read and write path already addresses messages_meta and messages_payload, so a half-split table
+                        //cannot be served and the split has to finish before other storage tasks run, it is a plain SQL copy
+                        //on the storage thread, committed in bounded batches that resume after the last copied mid when interrupted
+                        //the old table stays in place until the copy is complete
+                        database.executeFast("CREATE TABLE IF NOT EXISTS messages_meta(mid INTEGER PRIMARY KEY, uid INTEGER, read_state INTEGER, send_state INTEGER, date INTEGER, out INTEGER, ttl INTEGER, media INTEGER, imp INTEGER)").stepThis().dispose();
+                        database.executeFast("CREATE TABLE IF NOT EXISTS messages_payload(mid INTEGER PRIMARY KEY, data BLOB, replydata BLOB)").stepThis().dispose();
+                        long lastMid = Long.MIN_VALUE;
+                        SQLiteCursor cursor = database.queryFinalized("SELECT MAX(mid) FROM messages_meta");
+                        if (cursor.next() && !cursor.isNull(0)) {
+                            lastMid = cursor.longValue(0);
+                        }
+                        cursor.dispose();
+                        SQLitePreparedStatement metaState = database.executeFast("INSERT OR REPLACE INTO messages_meta SELECT mid, uid, read_state, send_state, date, out, ttl, media, imp FROM messages WHERE mid > ? AND mid <= ?");
+                        SQLitePreparedStatement payloadState = database.executeFast("INSERT OR REPLACE INTO messages_payload SELECT mid, data, replydata FROM messages WHERE mid > ? AND mid <= ?");
+                        while (true) {
+                            cursor = database.queryFinalized("SELECT MAX(mid), COUNT(*) FROM (SELECT mid FROM messages WHERE mid > ? ORDER BY mid ASC LIMIT ?)", lastMid, MESSAGES_SPLIT_BATCH);
+                            long batchMid = 0;
+                            int count = 0;
+                            if (cursor.next()) {
+                                count = cursor.intValue(1);
+                                batchMid = cursor.longValue(0);
+                            }
+                            cursor.dispose();
+                            if (count == 0) {
+                                break;
+                            }
+                            database.beginTransaction();
+                            metaState.requery();
+                            metaState.bindLong(1, lastMid);
+                            metaState.bindLong(2, batchMid);
+                            metaState.step();
+                            payloadState.requery();
+                            payloadState.bindLong(1, lastMid);
+                            payloadState.bindLong(2, batchMid);
+                            payloadState.step();
+                            database.commitTransaction();
+                            lastMid = batchMid;
+                        }
+                        metaState.dispose();
+                        payloadState.dispose();
+                        database.beginTransaction();
+                        database.executeFast("DROP TABLE messages").stepThis().dispose();
+                        createMessagesMetaIndexes();
+                        database.commitTransaction();
+                        database.executeFast("PRAGMA user_version = 34").stepThis().dispose();
+                        //version = 34;
                     }
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
@@ -512,8 +1262,24 @@ public class MessagesStorage {
         });
     }
 
+    private void createMessagesMetaIndexes() throws Exception {
+        database.executeFast("CREATE INDEX IF NOT EXISTS uid_mid_idx_messages ON messages_meta(uid, mid);").stepThis().dispose();
+        database.executeFast("CREATE INDEX IF NOT EXISTS uid_date_mid_idx_messages ON messages_meta(uid, date, mid);").stepThis().dispose();
+        database.executeFast("CREATE INDEX IF NOT EXISTS uid_mid_idx_imp_messages ON messages_meta(uid, mid, imp) WHERE imp = 1;").stepThis().dispose();
+        database.executeFast("CREATE INDEX IF NOT EXISTS uid_date_mid_imp_idx_messages ON messages_meta(uid, date, mid, imp) WHERE imp = 1;").stepThis().dispose();
+        database.executeFast("CREATE INDEX IF NOT EXISTS mid_out_idx_messages ON messages_meta(mid, out);").stepThis().dispose();
+        database.executeFast("CREATE INDEX IF NOT EXISTS task_idx_messages ON messages_meta(uid, out, read_state, ttl, date, send_state);").stepThis().dispose();
+        database.executeFast("CREATE INDEX IF NOT EXISTS send_state_idx_messages ON messages_meta(mid, send_state, date) WHERE mid < 0 AND send_state = 1;").stepThis().dispose();
+        //read-only view for queries that need the blobs, all writes go to messages_meta and messages_payload
+        database.executeFast("CREATE VIEW IF NOT EXISTS messages AS SELECT m.mid AS mid, m.uid AS uid, m.read_state AS read_state, m.send_state AS send_state, m.date AS date, p.data AS data, m.out AS out, m.ttl AS ttl, m.media AS media, p.replydata AS replydata, m.imp AS imp FROM messages_meta AS m LEFT JOIN messages_payload AS p ON p.mid = m.mid").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS messages_meta_delete AFTER DELETE ON messages_meta BEGIN DELETE FROM messages_payload WHERE mid = old.mid; DELETE FROM messages_fts WHERE docid = old.mid; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS messages_meta_update_mid AFTER UPDATE OF mid ON messages_meta BEGIN UPDATE messages_payload SET mid = new.mid WHERE mid = old.mid; UPDATE messages_fts SET docid = new.mid WHERE docid = old.mid; END;").stepThis().dispose();
+    }
+
     public void cleanUp(final boolean isLogin) {
         storageQueue.cleanupQueue();
+        readQueue.cleanupQueue();
+        searchQueue.cleanupQueue();
         storageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
@@ -530,12 +1296,16 @@ public class MessagesStorage {
 
                 secretPBytes = null;
                 secretG = 0;
+                flushWrites(false);
+                closeReadDatabases();
                 if (database != null) {
                     database.close();
                     database = null;
                 }
                 if (cacheFile != null) {
                     cacheFile.delete();
+                    new File(cacheFile.getPath() + "-wal").delete();
+                    new File(cacheFile.getPath() + "-shm").delete();
                     cacheFile = null;
                 }
                 openDatabase();
@@ -575,7 +1345,7 @@ public class MessagesStorage {
     }
 
     public void saveChannelPts(final int channelId, final int pts) {
-        storageQueue.postRunnable(new Runnable() {
+        storageQueue.enqueueWrite(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -716,8 +1486,14 @@ public class MessagesStorage {
                                 TLRPC.Chat chat = chats.get(a);
                                 if (chat != null && (chat.left || chat.migrated_to != null)) {
                                     long did = -chat.id;
-                                    database.executeFast("UPDATE dialogs SET unread_count = 0, unread_count_i = 0 WHERE did = " + did).stepThis().dispose();
-                                    database.executeFast(String.format(Locale.US, "UPDATE messages SET read_state = 3 WHERE uid = %d AND mid > 0 AND read_state IN(0,2) AND out = 0", did)).stepThis().dispose();
+                                    SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET unread_count = 0, unread_count_i = 0 WHERE did = ?");
+                                    state.bindLong(1, did);
+                                    state.step();
+                                    state.dispose();
+                                    state = database.executeFast("UPDATE messages_meta SET read_state = 3 WHERE uid = ? AND mid > 0 AND read_state IN(0,2) AND out = 0");
+                                    state.bindLong(1, did);
+                                    state.step();
+                                    state.dispose();
                                     chats.remove(a);
                                     a--;
                                     pushDialogs.remove((long) -chat.id);
@@ -916,9 +1692,13 @@ public class MessagesStorage {
                     database.commitTransaction();
                     if (arrayList.size() >= 200) {
                         database.beginTransaction();
+                        SQLitePreparedStatement deleteState = database.executeFast("DELETE FROM web_recent_v3 WHERE id = ?");
                         for (int a = 200; a < arrayList.size(); a++) {
-                            database.executeFast("DELETE FROM web_recent_v3 WHERE id = '" + arrayList.get(a).id + "'").stepThis().dispose();
+                            deleteState.requery();
+                            deleteState.bindString(1, arrayList.get(a).id);
+                            deleteState.step();
                         }
+                        deleteState.dispose();
                         database.commitTransaction();
                     }
                 } catch (Exception e) {
@@ -1146,6 +1926,10 @@ public class MessagesStorage {
                         if (lower_id != 0) {
                             if (high_id == 1) {
                                 database.executeFast("DELETE FROM chats WHERE uid = " + lower_id).stepThis().dispose();
+                                SQLitePreparedStatement state = database.executeFast("DELETE FROM search_names WHERE did = ?");
+                                state.bindLong(1, did);
+                                state.step();
+                                state.dispose();
                             } else if (lower_id < 0) {
                                 //database.executeFast("DELETE FROM chats WHERE uid = " + (-lower_id)).stepThis().dispose();
                             }
@@ -1176,7 +1960,7 @@ public class MessagesStorage {
                             }
                             cursor2.dispose();
 
-                            database.executeFast("DELETE FROM messages WHERE uid = " + did + " AND mid != " + last_mid_i + " AND mid != " + last_mid).stepThis().dispose();
+                            database.executeFast("DELETE FROM messages_meta WHERE uid = " + did + " AND mid != " + last_mid_i + " AND mid != " + last_mid).stepThis().dispose();
                             database.executeFast("DELETE FROM channel_group WHERE uid = " + did).stepThis().dispose();
                             database.executeFast("DELETE FROM messages_holes WHERE uid = " + did).stepThis().dispose();
                             database.executeFast("DELETE FROM messages_imp_holes WHERE uid = " + did).stepThis().dispose();
@@ -1201,7 +1985,7 @@ public class MessagesStorage {
                     }
 
                     database.executeFast("UPDATE dialogs SET unread_count = 0, unread_count_i = 0 WHERE did = " + did).stepThis().dispose();
-                    database.executeFast("DELETE FROM messages WHERE uid = " + did).stepThis().dispose();
+                    database.executeFast("DELETE FROM messages_meta WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM channel_group WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM media_counts_v2 WHERE uid = " + did).stepThis().dispose();
@@ -1357,10 +2141,10 @@ public class MessagesStorage {
                     StringBuilder mids = new StringBuilder();
                     SQLiteCursor cursor;
                     if (random_ids == null) {
-                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid, ttl FROM messages WHERE uid = %d AND out = %d AND read_state != 0 AND ttl > 0 AND date <= %d AND send_state = 0 AND media != 1", ((long) chat_id) << 32, isOut, time));
+                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid, ttl FROM messages_meta WHERE uid = %d AND out = %d AND read_state != 0 AND ttl > 0 AND date <= %d AND send_state = 0 AND media != 1", ((long) chat_id) << 32, isOut, time));
                     } else {
                         String ids = TextUtils.join(",", random_ids);
-                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.mid, m.ttl FROM messages as m INNER JOIN randoms as r ON m.mid = r.mid WHERE r.random_id IN (%s)", ids));
+                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.mid, m.ttl FROM messages_meta as m INNER JOIN randoms as r ON m.mid = r.mid WHERE r.random_id IN (%s)", ids));
                     }
                     while (cursor.next()) {
                         int ttl = cursor.intValue(1);
@@ -1411,7 +2195,7 @@ public class MessagesStorage {
                         }
                         state.dispose();
                         database.commitTransaction();
-                        database.executeFast(String.format(Locale.US, "UPDATE messages SET ttl = 0 WHERE mid IN(%s)", mids.toString())).stepThis().dispose();
+                        database.executeFast(String.format(Locale.US, "UPDATE messages_meta SET ttl = 0 WHERE mid IN(%s)", mids.toString())).stepThis().dispose();
                         MessagesController.getInstance().didAddedNewTask(minDate, messages);
                     }
                 } catch (Exception e) {
@@ -1427,7 +2211,7 @@ public class MessagesStorage {
 
             if (messages != null && !messages.isEmpty()) {
                 String ids = TextUtils.join(",", messages);
-                SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT uid, read_state, out FROM messages WHERE mid IN(%s)", ids));
+                SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT uid, read_state, out FROM messages_meta WHERE mid IN(%s)", ids));
                 while (cursor.next()) {
                     int out = cursor.intValue(2);
                     if (out != 0) {
@@ -1450,7 +2234,7 @@ public class MessagesStorage {
                 for (int b = 0; b < inbox.size(); b++) {
                     int key = inbox.keyAt(b);
                     long messageId = inbox.get(key);
-                    SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(mid) FROM messages WHERE uid = %d AND mid > %d AND read_state IN(0,2) AND out = 0", key, messageId));
+                    SQLiteCursor cursor = database.queryFinalized("SELECT COUNT(mid) FROM messages_meta WHERE uid = ? AND mid > ? AND read_state IN(0,2) AND out = 0", key, messageId);
                     if (cursor.next()) {
                         int count = cursor.intValue(0);
                         dialogsToUpdate.put((long) key, count);
@@ -1468,7 +2252,10 @@ public class MessagesStorage {
             }
 
             if (!dialogsToUpdate.isEmpty()) {
-                database.beginTransaction();
+                boolean withTransaction = !database.isInTransaction();
+                if (withTransaction) {
+                    database.beginTransaction();
+                }
                 SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET unread_count = ? WHERE did = ?");
                 for (HashMap.Entry<Long, Integer> entry : dialogsToUpdate.entrySet()) {
                     state.requery();
@@ -1477,7 +2264,9 @@ public class MessagesStorage {
                     state.step();
                 }
                 state.dispose();
-                database.commitTransaction();
+                if (withTransaction) {
+                    database.commitTransaction();
+                }
             }
 
             if (!dialogsToUpdate.isEmpty()) {
@@ -1493,12 +2282,7 @@ public class MessagesStorage {
             return;
         }
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    updateDialogsWithReadMessagesInternal(null, inbox);
-                }
-            });
+            storageQueue.enqueueDialogsRead(inbox);
         } else {
             updateDialogsWithReadMessagesInternal(null, inbox);
         }
@@ -1922,14 +2706,14 @@ public class MessagesStorage {
                         int lower_id = (int) dialog_id;
 
                         if (lower_id != 0) {
-                            state = database.executeFast("UPDATE messages SET read_state = read_state | 1 WHERE uid = ? AND mid <= ? AND read_state IN(0,2) AND out = 0");
+                            state = database.executeFast("UPDATE messages_meta SET read_state = read_state | 1 WHERE uid = ? AND mid <= ? AND read_state IN(0,2) AND out = 0");
                             state.requery();
                             state.bindLong(1, dialog_id);
                             state.bindLong(2, max_id);
                             state.step();
                             state.dispose();
                         } else {
-                            state = database.executeFast("UPDATE messages SET read_state = read_state | 1 WHERE uid = ? AND date <= ? AND read_state IN(0,2) AND out = 0");
+                            state = database.executeFast("UPDATE messages_meta SET read_state = read_state | 1 WHERE uid = ? AND date <= ? AND read_state IN(0,2) AND out = 0");
                             state.requery();
                             state.bindLong(1, dialog_id);
                             state.bindInteger(2, max_date);
@@ -2262,7 +3046,7 @@ public class MessagesStorage {
             public void run() {
                 SQLiteCursor cursor = null;
                 try {
-                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid FROM messages WHERE uid = %d AND mid = %d", dialog_id, mid));
+                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid FROM messages_meta WHERE uid = %d AND mid = %d", dialog_id, mid));
                     if (cursor.next()) {
                         result[0] = true;
                     }
@@ -2285,9 +3069,14 @@ public class MessagesStorage {
     }
 
     public void getMessages(final long dialog_id, final int count, final int max_id, final int minDate, final int classGuid, final int load_type, final int important, final int loadIndex) {
-        storageQueue.postRunnable(new Runnable() {
+        getMessages(dialog_id, count, max_id, minDate, classGuid, load_type, important, loadIndex, false);
+    }
+
+    public void getMessages(final long dialog_id, final int count, final int max_id, final int minDate, final int classGuid, final int load_type, final int important, final int loadIndex, boolean afterWrites) {
+        Runnable runnable = new Runnable() {
             @Override
             public void run() {
+                SQLiteDatabase db = getReadDatabase();
                 TLRPC.TL_messages_messages res = new TLRPC.TL_messages_messages();
                 int count_unread = 0;
                 int count_query = count;
@@ -2321,7 +3110,7 @@ public class MessagesStorage {
 
                         if (load_type != 1 && load_type != 3 && minDate == 0) {
                             if (load_type == 2) {
-                                cursor = database.queryFinalized("SELECT inbox_max, unread_count, date FROM dialogs WHERE did = " + dialog_id);
+                                cursor = db.queryFinalized("SELECT inbox_max, unread_count, date FROM dialogs WHERE did = " + dialog_id);
                                 if (cursor.next()) {
                                     messageMaxId = max_id_query = min_unread_id = cursor.intValue(0);
                                     count_unread = cursor.intValue(1);
@@ -2333,14 +3122,14 @@ public class MessagesStorage {
                                 }
                                 cursor.dispose();
                                 if (!queryFromServer) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > 0" + imp, dialog_id));
+                                    cursor = db.queryFinalized(String.format(Locale.US, "SELECT min(mid), max(date) FROM messages_meta WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > 0" + imp, dialog_id));
                                     if (cursor.next()) {
                                         min_unread_id = cursor.intValue(0);
                                         max_unread_date = cursor.intValue(1);
                                     }
                                     cursor.dispose();
                                     if (min_unread_id != 0) {
-                                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid >= %d " + imp + "AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
+                                        cursor = db.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages_meta WHERE uid = %d AND mid >= %d " + imp + "AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
                                         if (cursor.next()) {
                                             count_unread = cursor.intValue(0);
                                         }
@@ -2364,37 +3153,31 @@ public class MessagesStorage {
                             }
                         }
 
-                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM " + holesTable + " WHERE uid = %d AND start IN (0, 1)", dialog_id));
+                        cursor = db.queryFinalized(String.format(Locale.US, "SELECT start FROM " + holesTable + " WHERE uid = %d AND start IN (0, 1)", dialog_id));
                         if (cursor.next()) {
                             isEnd = cursor.intValue(0) == 1;
                             cursor.dispose();
                         } else {
                             cursor.dispose();
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages_meta WHERE uid = %d AND mid > 0", dialog_id));
                             if (cursor.next()) {
                                 int mid = cursor.intValue(0);
                                 if (mid != 0) {
-                                    SQLitePreparedStatement state = database.executeFast("REPLACE INTO " + holesTable + " VALUES(?, ?, ?)");
-                                    state.requery();
-                                    state.bindLong(1, dialog_id);
-                                    state.bindInteger(2, 0);
-                                    state.bindInteger(3, mid);
-                                    state.step();
-                                    state.dispose();
+                                    putFirstHole(holesTable, dialog_id, mid);
                                 }
                             }
                             cursor.dispose();
                         }
 
                         if (load_type == 3 || queryFromServer && load_type == 2) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages_meta WHERE uid = %d AND mid > 0", dialog_id));
                             if (cursor.next()) {
                                 last_message_id = cursor.intValue(0);
                             }
                             cursor.dispose();
 
                             boolean containMessage = true;
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM " + holesTable + " WHERE uid = %d AND start < %d AND end > %d", dialog_id, max_id_query, max_id_query));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT start FROM " + holesTable + " WHERE uid = %d AND start < %d AND end > %d", dialog_id, max_id_query, max_id_query));
                             if (cursor.next()) {
                                 containMessage = false;
                             }
@@ -2403,7 +3186,7 @@ public class MessagesStorage {
                             if (containMessage) {
                                 long holeMessageMaxId = 0;
                                 long holeMessageMinId = 1;
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM " + holesTable + " WHERE uid = %d AND start >= %d ORDER BY start ASC LIMIT 1", dialog_id, max_id_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT start FROM " + holesTable + " WHERE uid = %d AND start >= %d ORDER BY start ASC LIMIT 1", dialog_id, max_id_query));
                                 if (cursor.next()) {
                                     holeMessageMaxId = cursor.intValue(0);
                                     if (channelId != 0) {
@@ -2411,7 +3194,7 @@ public class MessagesStorage {
                                     }
                                 }
                                 cursor.dispose();
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT end FROM " + holesTable + " WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT end FROM " + holesTable + " WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id_query));
                                 if (cursor.next()) {
                                     holeMessageMinId = cursor.intValue(0);
                                     if (channelId != 0) {
@@ -2430,10 +3213,10 @@ public class MessagesStorage {
                                             holeMessageMaxId |= ((long) channelId) << 32;
                                         }
                                     }
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d AND m.mid >= %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
+                                    cursor = db.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d AND m.mid >= %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
                                             "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d AND m.mid <= %d " + imp + "ORDER BY m.date ASC, m.mid ASC LIMIT %d)", dialog_id, messageMaxId, holeMessageMinId, count_query / 2, dialog_id, messageMaxId, holeMessageMaxId, count_query / 2));
                                 } else {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
+                                    cursor = db.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
                                             "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d " + imp + "ORDER BY m.date ASC, m.mid ASC LIMIT %d)", dialog_id, messageMaxId, count_query / 2, dialog_id, messageMaxId, count_query / 2));
                                 }
                             } else {
@@ -2441,7 +3224,7 @@ public class MessagesStorage {
                             }
                         } else if (load_type == 1) {
                             long holeMessageId = 0;
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT start, end FROM " + holesTable + " WHERE uid = %d AND start >= %d AND start != 1 AND end != 1 ORDER BY start ASC LIMIT 1", dialog_id, max_id));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT start, end FROM " + holesTable + " WHERE uid = %d AND start >= %d AND start != 1 AND end != 1 ORDER BY start ASC LIMIT 1", dialog_id, max_id));
                             if (cursor.next()) {
                                 holeMessageId = cursor.intValue(0);
                                 if (channelId != 0) {
@@ -2450,14 +3233,14 @@ public class MessagesStorage {
                             }
                             cursor.dispose();
                             if (holeMessageId != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d AND m.mid <= %d " + imp + "ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d AND m.mid <= %d " + imp + "ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d " + imp + "ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d " + imp + "ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
                             }
                         } else if (minDate != 0) {
                             if (messageMaxId != 0) {
                                 long holeMessageId = 0;
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT end FROM " + holesTable + " WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT end FROM " + holesTable + " WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id));
                                 if (cursor.next()) {
                                     holeMessageId = cursor.intValue(0);
                                     if (channelId != 0) {
@@ -2466,22 +3249,22 @@ public class MessagesStorage {
                                 }
                                 cursor.dispose();
                                 if (holeMessageId != 0) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d AND (m.mid >= %d OR m.mid < 0) " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
+                                    cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d AND (m.mid >= %d OR m.mid < 0) " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
                                 } else {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
+                                    cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
                                 }
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
                             }
                         } else {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages_meta WHERE uid = %d AND mid > 0", dialog_id));
                             if (cursor.next()) {
                                 last_message_id = cursor.intValue(0);
                             }
                             cursor.dispose();
 
                             long holeMessageId = 0;
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(end) FROM " + holesTable + " WHERE uid = %d", dialog_id));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT max(end) FROM " + holesTable + " WHERE uid = %d", dialog_id));
                             if (cursor.next()) {
                                 holeMessageId = cursor.intValue(0);
                                 if (channelId != 0) {
@@ -2490,37 +3273,37 @@ public class MessagesStorage {
                             }
                             cursor.dispose();
                             if (holeMessageId != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND (m.mid >= %d OR m.mid < 0) " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, holeMessageId, offset_query, count_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND (m.mid >= %d OR m.mid < 0) " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, holeMessageId, offset_query, count_query));
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, offset_query, count_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d " + imp + "ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, offset_query, count_query));
                             }
                         }
                     } else {
                         isEnd = true;
                         if (load_type == 1) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid < %d ORDER BY m.mid DESC LIMIT %d", dialog_id, max_id, count_query));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid < %d ORDER BY m.mid DESC LIMIT %d", dialog_id, max_id, count_query));
                         } else if (minDate != 0) {
                             if (max_id != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.mid ASC LIMIT %d", dialog_id, max_id, count_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.mid ASC LIMIT %d", dialog_id, max_id, count_query));
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
                             }
                         } else {
                             if (load_type == 2) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages_meta WHERE uid = %d AND mid < 0", dialog_id));
                                 if (cursor.next()) {
                                     last_message_id = cursor.intValue(0);
                                 }
                                 cursor.dispose();
 
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid < 0", dialog_id));
+                                cursor = db.queryFinalized(String.format(Locale.US, "SELECT max(mid), max(date) FROM messages_meta WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid < 0", dialog_id));
                                 if (cursor.next()) {
                                     min_unread_id = cursor.intValue(0);
                                     max_unread_date = cursor.intValue(1);
                                 }
                                 cursor.dispose();
                                 if (min_unread_id != 0) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid <= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
+                                    cursor = db.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages_meta WHERE uid = %d AND mid <= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
                                     if (cursor.next()) {
                                         count_unread = cursor.intValue(0);
                                     }
@@ -2539,13 +3322,13 @@ public class MessagesStorage {
                                 offset_query = count_unread - count_query;
                                 count_query += 10;
                             }
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, offset_query, count_query));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, offset_query, count_query));
                         }
                     }
                     if (cursor != null) {
                         while (cursor.next()) {
-                            NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(1));
-                            if (data != null && cursor.byteBufferValue(1, data) != 0) {
+                            NativeByteBuffer data = cursor.rowBufferValue(1);
+                            if (data != null) {
                                 TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
                                 MessageObject.setUnreadFlags(message, cursor.intValue(0));
                                 message.id = cursor.intValue(3);
@@ -2560,14 +3343,13 @@ public class MessagesStorage {
 
                                 if (message.reply_to_msg_id != 0 || message.reply_to_random_id != 0) {
                                     if (!cursor.isNull(6)) {
-                                        NativeByteBuffer data2 = new NativeByteBuffer(cursor.byteArrayLength(6));
-                                        if (data2 != null && cursor.byteBufferValue(6, data2) != 0) {
+                                        NativeByteBuffer data2 = cursor.rowBufferValue(6);
+                                        if (data2 != null) {
                                             message.replyMessage = TLRPC.Message.TLdeserialize(data2, data2.readInt32(false), false);
                                             if (message.replyMessage != null) {
                                                 addUsersAndChatsFromMessage(message.replyMessage, usersToLoad, chatsToLoad);
                                             }
                                         }
-                                        data2.reuse();
                                     }
                                     if (message.replyMessage == null) {
                                         if (message.reply_to_msg_id != 0) {
@@ -2606,7 +3388,7 @@ public class MessagesStorage {
                                 }
                                 if ((int) dialog_id == 0 && message.media != null && message.media.photo != null) {
                                     try {
-                                        SQLiteCursor cursor2 = database.queryFinalized(String.format(Locale.US, "SELECT date FROM enc_tasks_v2 WHERE mid = %d", message.id));
+                                        SQLiteCursor cursor2 = db.queryFinalized("SELECT date FROM enc_tasks_v2 WHERE mid = ?", message.id);
                                         if (cursor2.next()) {
                                             message.destroyTime = cursor2.intValue(0);
                                         }
@@ -2616,7 +3398,6 @@ public class MessagesStorage {
                                     }
                                 }
                             }
-                            data.reuse();
                         }
                         cursor.dispose();
                     }
@@ -2663,9 +3444,9 @@ public class MessagesStorage {
 
                     if (important == 2 && !res.messages.isEmpty()) {
                         if (max_id != 0) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT start, end, count FROM channel_group WHERE uid = %d AND ((start >= %d AND end <= %d) OR (start = %d))", dialog_id, res.messages.get(res.messages.size() - 1).id, res.messages.get(0).id, res.messages.get(0).id));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT start, end, count FROM channel_group WHERE uid = %d AND ((start >= %d AND end <= %d) OR (start = %d))", dialog_id, res.messages.get(res.messages.size() - 1).id, res.messages.get(0).id, res.messages.get(0).id));
                         } else {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT start, end, count FROM channel_group WHERE uid = %d AND start >= %d", dialog_id, res.messages.get(res.messages.size() - 1).id));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT start, end, count FROM channel_group WHERE uid = %d AND start >= %d", dialog_id, res.messages.get(res.messages.size() - 1).id));
                         }
                         while (cursor.next()) {
                             TLRPC.TL_messageGroup group = new TLRPC.TL_messageGroup();
@@ -2679,13 +3460,13 @@ public class MessagesStorage {
 
                     if (!replyMessages.isEmpty()) {
                         if (!replyMessageOwners.isEmpty()) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, mid, date FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT data, mid, date FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
                         } else {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.data, m.mid, m.date, r.random_id FROM randoms as r INNER JOIN messages as m ON r.mid = m.mid WHERE r.random_id IN(%s)", TextUtils.join(",", replyMessages)));
+                            cursor = db.queryFinalized(String.format(Locale.US, "SELECT m.data, m.mid, m.date, r.random_id FROM randoms as r INNER JOIN messages as m ON r.mid = m.mid WHERE r.random_id IN(%s)", TextUtils.join(",", replyMessages)));
                         }
                         while (cursor.next()) {
-                            NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                            if (data != null && cursor.byteBufferValue(0, data) != 0) {
+                            NativeByteBuffer data = cursor.rowBufferValue(0);
+                            if (data != null) {
                                 TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
                                 message.id = cursor.intValue(1);
                                 message.date = cursor.intValue(2);
@@ -2711,7 +3492,6 @@ public class MessagesStorage {
                                     }
                                 }
                             }
-                            data.reuse();
                         }
                         cursor.dispose();
                         if (!replyMessageRandomOwners.isEmpty()) {
@@ -2740,6 +3520,30 @@ public class MessagesStorage {
                     MessagesController.getInstance().processLoadedMessages(res, dialog_id, count_query, max_id, true, classGuid, min_unread_id, last_message_id, count_unread, max_unread_date, load_type, important, isEnd, loadIndex, queryFromServer);
                 }
             }
+        };
+        if (afterWrites) {
+            postReadRunnableAfterWrites(runnable);
+        } else {
+            postReadRunnable(runnable);
+        }
+    }
+
+    private void putFirstHole(final String holesTable, final long dialog_id, final int mid) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLitePreparedStatement state = database.executeFast("REPLACE INTO " + holesTable + " VALUES(?, ?, ?)");
+                    state.requery();
+                    state.bindLong(1, dialog_id);
+                    state.bindInteger(2, 0);
+                    state.bindInteger(3, mid);
+                    state.step();
+                    state.dispose();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
         });
     }
 
@@ -3017,7 +3821,7 @@ public class MessagesStorage {
             @Override
             public void run() {
                 try {
-                    SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid FROM messages WHERE uid = %d LIMIT 1", did));
+                    SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid FROM messages_meta WHERE uid = %d LIMIT 1", did));
                     result[0] = cursor.next();
                     cursor.dispose();
                 } catch (Exception e) {
@@ -3158,6 +3962,69 @@ public class MessagesStorage {
         return str.toString().toLowerCase();
     }
 
+    private static long getChatSearchDialogId(int chat_id) {
+        return chat_id > 0 ? -chat_id : AndroidUtilities.makeBroadcastId(chat_id);
+    }
+
+    private void putSearchNames(long did, String searchName) throws Exception {
+        SQLitePreparedStatement state = database.executeFast("DELETE FROM search_names WHERE did = ?");
+        state.bindLong(1, did);
+        state.step();
+        state.dispose();
+        if (searchName == null || searchName.length() == 0) {
+            return;
+        }
+        String name = searchName;
+        String username = null;
+        int usernamePos = searchName.lastIndexOf(";;;");
+        if (usernamePos != -1) {
+            name = searchName.substring(0, usernamePos);
+            username = SearchNormalizer.normalize(searchName.substring(usernamePos + 3));
+        }
+        ArrayList<String> tokens = new ArrayList<>();
+        SearchNormalizer.addNameTokens(name, tokens);
+        state = database.executeFast("REPLACE INTO search_names VALUES(?, ?, ?)");
+        for (int a = 0; a < tokens.size(); a++) {
+            state.requery();
+            state.bindString(1, tokens.get(a));
+            state.bindLong(2, did);
+            state.bindInteger(3, SEARCH_NAME_KIND_NAME);
+            state.step();
+        }
+        if (username != null && username.length() != 0) {
+            state.requery();
+            state.bindString(1, username);
+            state.bindLong(2, did);
+            state.bindInteger(3, SEARCH_NAME_KIND_USERNAME);
+            state.step();
+        }
+        state.dispose();
+    }
+
+    public HashMap<Long, Integer> searchNamesInternal(String query) throws Exception {
+        ArrayList<String> tokens = new ArrayList<>();
+        SearchNormalizer.splitTokens(SearchNormalizer.normalize(query), tokens);
+        HashMap<Long, Integer> result = null;
+        SQLiteDatabase db = getReadDatabase();
+        for (int a = 0; a < tokens.size(); a++) {
+            String token = tokens.get(a);
+            HashMap<Long, Integer> found = new HashMap<>();
+            SQLiteCursor cursor = db.queryFinalized("SELECT did, MIN(kind) FROM search_names WHERE token >= ? AND token < ? GROUP BY did", token, SearchNormalizer.getPrefixUpperBound(token));
+            while (cursor.next()) {
+                long did = cursor.longValue(0);
+                if (result == null || result.containsKey(did)) {
+                    found.put(did, cursor.intValue(1));
+                }
+            }
+            cursor.dispose();
+            result = found;
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : new HashMap<Long, Integer>();
+    }
+
     private void putUsersInternal(ArrayList<TLRPC.User> users) throws Exception {
         if (users == null || users.isEmpty()) {
             return;
@@ -3166,7 +4033,7 @@ public class MessagesStorage {
         for (int a = 0; a < users.size(); a++) {
             TLRPC.User user = users.get(a);
             if (user.min) {
-                SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data FROM users WHERE uid = %d", user.id));
+                SQLiteCursor cursor = database.queryFinalized("SELECT data FROM users WHERE uid = ?", user.id);
                 if (cursor.next()) {
                     try {
                         NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
@@ -3210,11 +4077,17 @@ public class MessagesStorage {
                     }
                 }
             }
+            String searchName = formatUserSearchName(user);
+            SQLiteCursor cursor = database.queryFinalized("SELECT name FROM users WHERE uid = ?", user.id);
+            if (!cursor.next() || !searchName.equals(cursor.stringValue(0))) {
+                putSearchNames(user.id, searchName);
+            }
+            cursor.dispose();
             state.requery();
             NativeByteBuffer data = new NativeByteBuffer(user.getObjectSize());
             user.serializeToStream(data);
             state.bindInteger(1, user.id);
-            state.bindString(2, formatUserSearchName(user));
+            state.bindString(2, searchName);
             if (user.status != null) {
                 if (user.status instanceof TLRPC.TL_userStatusRecently) {
                     user.status.expires = -100;
@@ -3227,7 +4100,7 @@ public class MessagesStorage {
             } else {
                 state.bindInteger(3, 0);
             }
-            state.bindByteBuffer(4, data);
+            state.bindCompressedByteBuffer(4, data);
             state.step();
             data.reuse();
         }
@@ -3242,7 +4115,7 @@ public class MessagesStorage {
         for (int a = 0; a < chats.size(); a++) {
             TLRPC.Chat chat = chats.get(a);
             if (chat.min) {
-                SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid = %d", chat.id));
+                SQLiteCursor cursor = database.queryFinalized("SELECT data FROM chats WHERE uid = ?", chat.id);
                 if (cursor.next()) {
                     try {
                         NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
@@ -3271,67 +4144,106 @@ public class MessagesStorage {
                     }
                 }
             }
+            String searchName = chat.title != null ? chat.title.toLowerCase() : "";
+            SQLiteCursor cursor = database.queryFinalized("SELECT name FROM chats WHERE uid = ?", chat.id);
+            if (!cursor.next() || !searchName.equals(cursor.stringValue(0))) {
+                putSearchNames(getChatSearchDialogId(chat.id), searchName);
+            }
+            cursor.dispose();
             state.requery();
             NativeByteBuffer data = new NativeByteBuffer(chat.getObjectSize());
             chat.serializeToStream(data);
             state.bindInteger(1, chat.id);
-            if (chat.title != null) {
-                String name = chat.title.toLowerCase();
-                state.bindString(2, name);
-            } else {
-                state.bindString(2, "");
-            }
-            state.bindByteBuffer(3, data);
+            state.bindString(2, searchName);
+            state.bindCompressedByteBuffer(3, data);
             state.step();
             data.reuse();
         }
         state.dispose();
     }
 
-    public void getUsersInternal(String usersToLoad, ArrayList<TLRPC.User> result) throws Exception {
-        if (usersToLoad == null || usersToLoad.length() == 0 || result == null) {
-            return;
+    public TLRPC.TL_messages_messages searchMessagesInternal(long dialog_id, String query, int limit) throws Exception {
+        TLRPC.TL_messages_messages res = new TLRPC.TL_messages_messages();
+        String match = SearchNormalizer.buildMatchQuery(query);
+        if (match == null) {
+            return res;
+        }
+        SQLiteDatabase db = getReadDatabase();
+        SQLiteCursor cursor;
+        if (dialog_id != 0) {
+            cursor = db.queryFinalized("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, m.uid FROM messages_fts as f INNER JOIN messages as m ON m.mid = f.docid WHERE f.text MATCH ? AND m.uid = ? ORDER BY m.date DESC, m.mid DESC LIMIT ?", match, dialog_id, limit);
+        } else {
+            cursor = db.queryFinalized("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, m.uid FROM messages_fts as f INNER JOIN messages as m ON m.mid = f.docid WHERE f.text MATCH ? AND (m.uid & 4294967295) != 0 ORDER BY m.date DESC, m.mid DESC LIMIT ?", match, limit);
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, status FROM users WHERE uid IN(%s)", usersToLoad));
+        ArrayList<Integer> usersToLoad = new ArrayList<>();
+        ArrayList<Integer> chatsToLoad = new ArrayList<>();
         while (cursor.next()) {
-            try {
-                NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                if (data != null && cursor.byteBufferValue(0, data) != 0) {
-                    TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                    if (user != null) {
-                        if (user.status != null) {
-                            user.status.expires = cursor.intValue(1);
-                        }
-                        result.add(user);
-                    }
+            NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(1));
+            if (data != null && cursor.byteBufferValue(1, data) != 0) {
+                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                if (message != null) {
+                    MessageObject.setUnreadFlags(message, cursor.intValue(0));
+                    message.send_state = cursor.intValue(2);
+                    message.id = cursor.intValue(3);
+                    message.date = cursor.intValue(4);
+                    message.dialog_id = cursor.longValue(5);
+                    res.messages.add(message);
+                    addUsersAndChatsFromMessage(message, usersToLoad, chatsToLoad);
                 }
-                data.reuse();
-            } catch (Exception e) {
-                FileLog.e("tmessages", e);
             }
+            data.reuse();
+        }
+        cursor.dispose();
+        if (!usersToLoad.isEmpty()) {
+            getUsersInternal(TextUtils.join(",", usersToLoad), res.users);
         }
+        if (!chatsToLoad.isEmpty()) {
+            getChatsInternal(TextUtils.join(",", chatsToLoad), res.chats);
+        }
+        return res;
+    }
+
+    public boolean hasMessagesHoleAbove(long dialog_id, int max_id) throws Exception {
+        SQLiteCursor cursor = getReadDatabase().queryFinalized("SELECT start FROM messages_holes WHERE uid = ? AND end > ? LIMIT 1", dialog_id, max_id);
+        boolean result = cursor.next();
         cursor.dispose();
+        return result;
     }
 
-    public void getChatsInternal(String chatsToLoad, ArrayList<TLRPC.Chat> result) throws Exception {
-        if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
+    public void getUsersInternal(String usersToLoad, final ArrayList<TLRPC.User> result) throws Exception {
+        if (usersToLoad == null || usersToLoad.length() == 0 || result == null) {
             return;
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid IN(%s)", chatsToLoad));
-        while (cursor.next()) {
-            try {
-                NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                if (data != null && cursor.byteBufferValue(0, data) != 0) {
-                    TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
-                    if (chat != null) {
-                        result.add(chat);
+        SQLiteCursor cursor = getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status FROM users WHERE uid IN(%s)", usersToLoad));
+        cursor.forEachRow(0, new SQLiteCursor.RowCallback() {
+            @Override
+            public void run(SQLiteCursor cursor, NativeByteBuffer data) throws Exception {
+                TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                if (user != null) {
+                    if (user.status != null) {
+                        user.status.expires = cursor.intValue(1);
                     }
+                    result.add(user);
                 }
-                data.reuse();
-            } catch (Exception e) {
-                FileLog.e("tmessages", e);
             }
+        });
+        cursor.dispose();
+    }
+
+    public void getChatsInternal(String chatsToLoad, final ArrayList<TLRPC.Chat> result) throws Exception {
+        if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
+            return;
         }
+        SQLiteCursor cursor = getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid IN(%s)", chatsToLoad));
+        cursor.forEachRow(0, new SQLiteCursor.RowCallback() {
+            @Override
+            public void run(SQLiteCursor cursor, NativeByteBuffer data) throws Exception {
+                TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
+                if (chat != null) {
+                    result.add(chat);
+                }
+            }
+        });
         cursor.dispose();
     }
 
@@ -3339,7 +4251,7 @@ public class MessagesStorage {
         if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
             return;
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, user, g, authkey, ttl, layer, seq_in, seq_out, use_count, exchange_id, key_date, fprint, fauthkey, khash FROM enc_chats WHERE uid IN(%s)", chatsToLoad));
+        SQLiteCursor cursor = getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT data, user, g, authkey, ttl, layer, seq_in, seq_out, use_count, exchange_id, key_date, fprint, fauthkey, khash FROM enc_chats WHERE uid IN(%s)", chatsToLoad));
         while (cursor.next()) {
             try {
                 NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
@@ -3395,10 +4307,10 @@ public class MessagesStorage {
             return;
         }
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
+            storageQueue.enqueueUsers(users, new Runnable() {
                 @Override
                 public void run() {
-                    putUsersAndChatsInternal(users, chats, withTransaction);
+                    putUsersAndChatsInternal(users, chats, false);
                 }
             });
         } else {
@@ -3542,7 +4454,7 @@ public class MessagesStorage {
 
                     database.beginTransaction();
 
-                    SQLitePreparedStatement state = database.executeFast("UPDATE messages SET data = ? WHERE mid = ?");
+                    SQLitePreparedStatement state = database.executeFast("UPDATE messages_payload SET data = ? WHERE mid = ?");
                     SQLitePreparedStatement state2 = database.executeFast("UPDATE media_v2 SET data = ? WHERE mid = ?");
                     for (TLRPC.Message message : messages) {
                         NativeByteBuffer data = new NativeByteBuffer(message.getObjectSize());
@@ -3554,12 +4466,12 @@ public class MessagesStorage {
                         }
 
                         state.requery();
-                        state.bindByteBuffer(1, data);
+                        state.bindCompressedByteBuffer(1, data);
                         state.bindLong(2, messageId);
                         state.step();
 
                         state2.requery();
-                        state2.bindByteBuffer(1, data);
+                        state2.bindCompressedByteBuffer(1, data);
                         state2.bindLong(2, messageId);
                         state2.step();
 
@@ -3583,8 +4495,9 @@ public class MessagesStorage {
         });
     }
 
+    //channel differences arrive in bursts after a reconnect, their rewrites share the pending write batch transaction
     public void overwriteChannel(final int channel_id, final TLRPC.TL_updates_channelDifferenceTooLong difference, final int newDialogType) {
-        storageQueue.postRunnable(new Runnable() {
+        storageQueue.enqueueWrite(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3598,7 +4511,7 @@ public class MessagesStorage {
                         cursor.dispose();
                     }
 
-                    database.executeFast("DELETE FROM messages WHERE uid = " + did).stepThis().dispose();
+                    database.executeFast("DELETE FROM messages_meta WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM channel_group WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM media_counts_v2 WHERE uid = " + did).stepThis().dispose();
@@ -3653,7 +4566,7 @@ public class MessagesStorage {
             public void run() {
                 try {
                     database.beginTransaction();
-                    SQLitePreparedStatement state = database.executeFast("UPDATE messages SET media = max((SELECT media FROM messages WHERE mid = ?), ?) WHERE mid = ?");
+                    SQLitePreparedStatement state = database.executeFast("UPDATE messages_meta SET media = max((SELECT media FROM messages_meta WHERE mid = ?), ?) WHERE mid = ?");
                     for (int a = 0; a < channelViews.size(); a++) {
                         int peer = channelViews.keyAt(a);
                         SparseIntArray messages = channelViews.get(peer);
@@ -3699,7 +4612,7 @@ public class MessagesStorage {
             HashMap<Long, Long> messagesIdsMap = new HashMap<>();
             HashMap<Long, Long> messagesIdsMapNotImportant = new HashMap<>();
 
-            SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL, ?)");
+            SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_meta VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)");
             SQLitePreparedStatement state2 = null;
             SQLitePreparedStatement state3 = database.executeFast("REPLACE INTO randoms VALUES(?, ?)");
             SQLitePreparedStatement state4 = database.executeFast("REPLACE INTO download_queue VALUES(?, ?, ?, ?)");
@@ -3725,7 +4638,7 @@ public class MessagesStorage {
                 if ((message.to_id.channel_id == 0 && MessageObject.isUnread(message) || MessageObject.isContentUnread(message)) && !MessageObject.isOut(message)) {
                     Integer currentMaxId = dialogsReadMax.get(message.dialog_id);
                     if (currentMaxId == null) {
-                        SQLiteCursor cursor = database.queryFinalized("SELECT inbox_max FROM dialogs WHERE did = " + message.dialog_id);
+                        SQLiteCursor cursor = database.queryFinalized("SELECT inbox_max FROM dialogs WHERE did = ?", message.dialog_id);
                         if (cursor.next()) {
                             currentMaxId = cursor.intValue(0);
                         } else {
@@ -3759,7 +4672,7 @@ public class MessagesStorage {
                     messagesMediaIdsMap.put(messageId, message.dialog_id);
                     mediaTypes.put(messageId, SharedMediaQuery.getMediaType(message));
                 }
-                if (message.reply_markup != null && (!message.reply_markup.selective || message.mentioned)) {
+                if (message.getReplyMarkup() != null && (!message.getReplyMarkup().selective || message.mentioned)) {
                     TLRPC.Message oldMessage = botKeyboards.get(message.dialog_id);
                     if (oldMessage == null || oldMessage.id < message.id) {
                         botKeyboards.put(message.dialog_id, message);
@@ -3799,7 +4712,7 @@ public class MessagesStorage {
             }
 
             if (messageIds.length() > 0) {
-                SQLiteCursor cursor = database.queryFinalized("SELECT mid FROM messages WHERE mid IN(" + messageIds.toString() + ")");
+                SQLiteCursor cursor = database.queryFinalized("SELECT mid FROM messages_meta WHERE mid IN(" + messageIds.toString() + ")");
                 while (cursor.next()) {
                     messagesIdsMap.remove(cursor.longValue(0));
                     messagesIdsMapNotImportant.remove(cursor.longValue(0));
@@ -3865,16 +4778,17 @@ public class MessagesStorage {
                 state.bindInteger(3, MessageObject.getUnreadFlags(message));
                 state.bindInteger(4, message.send_state);
                 state.bindInteger(5, message.date);
-                state.bindByteBuffer(6, data);
-                state.bindInteger(7, (MessageObject.isOut(message) ? 1 : 0));
-                state.bindInteger(8, message.ttl);
+                state.bindInteger(6, (MessageObject.isOut(message) ? 1 : 0));
+                state.bindInteger(7, message.ttl);
                 if ((message.flags & TLRPC.MESSAGE_FLAG_HAS_VIEWS) != 0) {
-                    state.bindInteger(9, message.views);
+                    state.bindInteger(8, message.views);
                 } else {
-                    state.bindInteger(9, getMessageMediaType(message));
+                    state.bindInteger(8, getMessageMediaType(message));
                 }
-                state.bindInteger(10, MessageObject.isImportant(message) ? 1 : 0);
+                state.bindInteger(9, MessageObject.isImportant(message) ? 1 : 0);
                 state.step();
+                putMessagePayload(messageId, data);
+                putMessageSearchText(messageId, message);
 
                 if (message.random_id != 0) {
                     state3.requery();
@@ -3892,7 +4806,7 @@ public class MessagesStorage {
                     state2.bindLong(2, message.dialog_id);
                     state2.bindInteger(3, message.date);
                     state2.bindInteger(4, SharedMediaQuery.getMediaType(message));
-                    state2.bindByteBuffer(5, data);
+                    state2.bindCompressedByteBuffer(5, data);
                     state2.step();
                 }
 
@@ -3990,7 +4904,7 @@ public class MessagesStorage {
                     channelId = messageNotImportant.to_id.channel_id;
                 }
 
-                SQLiteCursor cursor = database.queryFinalized("SELECT date, unread_count, last_mid_i, unread_count_i, pts, date_i, last_mid, inbox_max FROM dialogs WHERE did = " + key);
+                SQLiteCursor cursor = database.queryFinalized("SELECT date, unread_count, last_mid_i, unread_count_i, pts, date_i, last_mid, inbox_max FROM dialogs WHERE did = ?", key);
                 int dialog_date = 0;
                 int last_mid = 0;
                 int old_unread_count = 0;
@@ -4074,7 +4988,7 @@ public class MessagesStorage {
                         long uid = pair.getKey();
                         int lower_part = (int) uid;
                         int count = -1;
-                        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT count FROM media_counts_v2 WHERE uid = %d AND type = %d LIMIT 1", uid, type));
+                        SQLiteCursor cursor = database.queryFinalized("SELECT count FROM media_counts_v2 WHERE uid = ? AND type = ? LIMIT 1", uid, type);
                         if (cursor.next()) {
                             count = cursor.intValue(0);
                         }
@@ -4115,10 +5029,10 @@ public class MessagesStorage {
             return;
         }
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
+            storageQueue.enqueueWrite(new Runnable() {
                 @Override
                 public void run() {
-                    putMessagesInternal(messages, withTransaction, doNotUpdateDialogDate, downloadMask);
+                    putMessagesInternal(messages, false, doNotUpdateDialogDate, downloadMask);
                 }
             });
         } else {
@@ -4135,7 +5049,7 @@ public class MessagesStorage {
                     if (message.to_id.channel_id != 0) {
                         messageId |= ((long) message.to_id.channel_id) << 32;
                     }
-                    database.executeFast("UPDATE messages SET send_state = 2 WHERE mid = " + messageId).stepThis().dispose();
+                    database.executeFast("UPDATE messages_meta SET send_state = 2 WHERE mid = " + messageId).stepThis().dispose();
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
                 }
@@ -4246,7 +5160,7 @@ public class MessagesStorage {
 
         long did = 0;
         try {
-            cursor = database.queryFinalized(String.format(Locale.US, "SELECT uid FROM messages WHERE mid = %d LIMIT 1", oldMessageId));
+            cursor = database.queryFinalized(String.format(Locale.US, "SELECT uid FROM messages_meta WHERE mid = %d LIMIT 1", oldMessageId));
             if (cursor.next()) {
                 did = cursor.longValue(0);
             }
@@ -4264,7 +5178,7 @@ public class MessagesStorage {
         if (oldMessageId == newMessageId && date != 0) {
             SQLitePreparedStatement state = null;
             try {
-                state = database.executeFast("UPDATE messages SET send_state = 0, date = ? WHERE mid = ?");
+                state = database.executeFast("UPDATE messages_meta SET send_state = 0, date = ? WHERE mid = ?");
                 state.bindInteger(1, date);
                 state.bindLong(2, newMessageId);
                 state.step();
@@ -4280,13 +5194,13 @@ public class MessagesStorage {
         } else {
             SQLitePreparedStatement state = null;
             try {
-                state = database.executeFast("UPDATE messages SET mid = ?, send_state = 0 WHERE mid = ?");
+                state = database.executeFast("UPDATE messages_meta SET mid = ?, send_state = 0 WHERE mid = ?");
                 state.bindLong(1, newMessageId);
                 state.bindLong(2, oldMessageId);
                 state.step();
             } catch (Exception e) {
                 try {
-                    database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE mid = %d", oldMessageId)).stepThis().dispose();
+                    database.executeFast(String.format(Locale.US, "DELETE FROM messages_meta WHERE mid = %d", oldMessageId)).stepThis().dispose();
                     database.executeFast(String.format(Locale.US, "DELETE FROM messages_seq WHERE mid = %d", oldMessageId)).stepThis().dispose();
                 } catch (Exception e2) {
                     FileLog.e("tmessages", e2);
@@ -4420,12 +5334,16 @@ public class MessagesStorage {
             return;
         }
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    updateUsersInternal(users, onlyStatus, withTransaction);
-                }
-            });
+            if (onlyStatus) {
+                storageQueue.enqueueUserStatuses(users);
+            } else {
+                storageQueue.enqueueUsers(users, new Runnable() {
+                    @Override
+                    public void run() {
+                        updateUsersInternal(users, false, false);
+                    }
+                });
+            }
         } else {
             updateUsersInternal(users, onlyStatus, withTransaction);
         }
@@ -4433,25 +5351,35 @@ public class MessagesStorage {
 
     private void markMessagesAsReadInternal(SparseArray<Long> inbox, SparseIntArray outbox, HashMap<Integer, Integer> encryptedMessages) {
         try {
-            if (inbox != null) {
+            if (inbox != null && inbox.size() != 0) {
+                SQLitePreparedStatement state = database.executeFast("UPDATE messages_meta SET read_state = read_state | 1 WHERE uid = ? AND mid > 0 AND mid <= ? AND read_state IN(0,2) AND out = 0");
                 for (int b = 0; b < inbox.size(); b++) {
                     int key = inbox.keyAt(b);
                     long messageId = inbox.get(key);
-                    database.executeFast(String.format(Locale.US, "UPDATE messages SET read_state = read_state | 1 WHERE uid = %d AND mid > 0 AND mid <= %d AND read_state IN(0,2) AND out = 0", key, messageId)).stepThis().dispose();
+                    state.requery();
+                    state.bindInteger(1, key);
+                    state.bindLong(2, messageId);
+                    state.step();
                 }
+                state.dispose();
             }
-            if (outbox != null) {
+            if (outbox != null && outbox.size() != 0) {
+                SQLitePreparedStatement state = database.executeFast("UPDATE messages_meta SET read_state = read_state | 1 WHERE uid = ? AND mid > 0 AND mid <= ? AND read_state IN(0,2) AND out = 1");
                 for (int b = 0; b < outbox.size(); b++) {
                     int key = outbox.keyAt(b);
                     int messageId = outbox.get(key);
-                    database.executeFast(String.format(Locale.US, "UPDATE messages SET read_state = read_state | 1 WHERE uid = %d AND mid > 0 AND mid <= %d AND read_state IN(0,2) AND out = 1", key, messageId)).stepThis().dispose();
+                    state.requery();
+                    state.bindInteger(1, key);
+                    state.bindInteger(2, messageId);
+                    state.step();
                 }
+                state.dispose();
             }
             if (encryptedMessages != null && !encryptedMessages.isEmpty()) {
                 for (HashMap.Entry<Integer, Integer> entry : encryptedMessages.entrySet()) {
                     long dialog_id = ((long)entry.getKey()) << 32;
                     int max_date = entry.getValue();
-                    SQLitePreparedStatement state = database.executeFast("UPDATE messages SET read_state = read_state | 1 WHERE uid = ? AND date <= ? AND read_state IN(0,2) AND out = 1");
+                    SQLitePreparedStatement state = database.executeFast("UPDATE messages_meta SET read_state = read_state | 1 WHERE uid = ? AND date <= ? AND read_state IN(0,2) AND out = 1");
                     state.requery();
                     state.bindLong(1, dialog_id);
                     state.bindInteger(2, max_date);
@@ -4472,7 +5400,7 @@ public class MessagesStorage {
             @Override
             public void run() {
                 try {
-                    database.executeFast(String.format(Locale.US, "UPDATE messages SET read_state = read_state | 2 WHERE mid IN (%s)", TextUtils.join(",", mids))).stepThis().dispose();
+                    database.executeFast(String.format(Locale.US, "UPDATE messages_meta SET read_state = read_state | 2 WHERE mid IN (%s)", TextUtils.join(",", mids))).stepThis().dispose();
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
                 }
@@ -4482,12 +5410,7 @@ public class MessagesStorage {
 
     public void markMessagesAsRead(final SparseArray<Long> inbox, final SparseIntArray outbox, final HashMap<Integer, Integer> encryptedMessages, boolean useQueue) {
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    markMessagesAsReadInternal(inbox, outbox, encryptedMessages);
-                }
-            });
+            storageQueue.enqueueRead(inbox, outbox, encryptedMessages);
         } else {
             markMessagesAsReadInternal(inbox, outbox, encryptedMessages);
         }
@@ -4597,7 +5520,7 @@ public class MessagesStorage {
                 state.dispose();
             }
 
-            database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE mid IN(%s)", ids)).stepThis().dispose();
+            database.executeFast(String.format(Locale.US, "DELETE FROM messages_meta WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM bot_keyboard WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM messages_seq WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM media_v2 WHERE mid IN(%s)", ids)).stepThis().dispose();
@@ -4619,7 +5542,7 @@ public class MessagesStorage {
                 ArrayList<Long> dialogsToUpdate = new ArrayList<>();
                 if (channelId != 0) {
                     dialogsToUpdate.add((long) -channelId);
-                    state = database.executeFast("UPDATE dialogs SET last_mid = (SELECT mid FROM messages WHERE uid = ? AND date = (SELECT MAX(date) FROM messages WHERE uid = ? )) WHERE did = ?");
+                    state = database.executeFast("UPDATE dialogs SET last_mid = (SELECT mid FROM messages_meta WHERE uid = ? AND date = (SELECT MAX(date) FROM messages_meta WHERE uid = ? )) WHERE did = ?");
                 } else {
                     ids = TextUtils.join(",", messages);
                     SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT did FROM dialogs WHERE last_mid IN(%s)", ids));
@@ -4627,7 +5550,7 @@ public class MessagesStorage {
                         dialogsToUpdate.add(cursor.longValue(0));
                     }
                     cursor.dispose();
-                    state = database.executeFast("UPDATE dialogs SET unread_count = 0, unread_count_i = 0, last_mid = (SELECT mid FROM messages WHERE uid = ? AND date = (SELECT MAX(date) FROM messages WHERE uid = ? AND date != 0)) WHERE did = ?");
+                    state = database.executeFast("UPDATE dialogs SET unread_count = 0, unread_count_i = 0, last_mid = (SELECT mid FROM messages_meta WHERE uid = ? AND date = (SELECT MAX(date) FROM messages_meta WHERE uid = ? AND date != 0)) WHERE did = ?");
                 }
                 database.beginTransaction();
                 for (int a = 0; a < dialogsToUpdate.size(); a++) {
@@ -4765,6 +5688,40 @@ public class MessagesStorage {
         }
     }
 
+    private void putMessagePayload(long messageId, NativeByteBuffer data) throws Exception {
+        SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_payload VALUES(?, ?, NULL)");
+        state.bindLong(1, messageId);
+        state.bindCompressedByteBuffer(2, data);
+        state.step();
+        state.dispose();
+    }
+
+    private void putMessageSearchText(long messageId, TLRPC.Message message) throws Exception {
+        String text = getMessageSearchText(message);
+        SQLitePreparedStatement state;
+        if (text == null) {
+            state = database.executeFast("DELETE FROM messages_fts WHERE docid = ?");
+            state.bindLong(1, messageId);
+        } else {
+            state = database.executeFast("REPLACE INTO messages_fts(docid, text) VALUES(?, ?)");
+            state.bindLong(1, messageId);
+            state.bindString(2, text);
+        }
+        state.step();
+        state.dispose();
+    }
+
+    private String getMessageSearchText(TLRPC.Message message) {
+        String text = message.message;
+        if (message.media != null && message.media.caption != null && message.media.caption.length() != 0) {
+            text = text == null || text.length() == 0 ? message.media.caption : text + "\n" + message.media.caption;
+        }
+        if (text == null || text.length() == 0) {
+            return null;
+        }
+        return SearchNormalizer.normalize(text);
+    }
+
     private void fixUnsupportedMedia(TLRPC.Message message) {
         if (message == null) {
             return;
@@ -4877,11 +5834,24 @@ public class MessagesStorage {
                 for (int a = 0; a < holes.size(); a++) {
                     Hole hole = holes.get(a);
                     if (maxId >= hole.end - 1 && minId <= hole.start + 1) {
-                        database.executeFast(String.format(Locale.US, "DELETE FROM media_holes_v2 WHERE uid = %d AND type = %d AND start = %d AND end = %d", did, hole.type, hole.start, hole.end)).stepThis().dispose();
+                        SQLitePreparedStatement deleteState = database.executeFast("DELETE FROM media_holes_v2 WHERE uid = ? AND type = ? AND start = ? AND end = ?");
+                        deleteState.bindLong(1, did);
+                        deleteState.bindInteger(2, hole.type);
+                        deleteState.bindInteger(3, hole.start);
+                        deleteState.bindInteger(4, hole.end);
+                        deleteState.step();
+                        deleteState.dispose();
                     } else if (maxId >= hole.end - 1) {
                         if (hole.end != minId) {
                             try {
-                                database.executeFast(String.format(Locale.US, "UPDATE media_holes_v2 SET end = %d WHERE uid = %d AND type = %d AND start = %d AND end = %d", minId, did, hole.type, hole.start, hole.end)).stepThis().dispose();
+                                SQLitePreparedStatement updateState = database.executeFast("UPDATE media_holes_v2 SET end = ? WHERE uid = ? AND type = ? AND start = ? AND end = ?");
+                                updateState.bindInteger(1, minId);
+                                updateState.bindLong(2, did);
+                                updateState.bindInteger(3, hole.type);
+                                updateState.bindInteger(4, hole.start);
+                                updateState.bindInteger(5, hole.end);
+                                updateState.step();
+                                updateState.dispose();
                             } catch (Exception e) {
                                 FileLog.e("tmessages", e);
                             }
@@ -4889,13 +5859,26 @@ public class MessagesStorage {
                     } else if (minId <= hole.start + 1) {
                         if (hole.start != maxId) {
                             try {
-                                database.executeFast(String.format(Locale.US, "UPDATE media_holes_v2 SET start = %d WHERE uid = %d AND type = %d AND start = %d AND end = %d", maxId, did, hole.type, hole.start, hole.end)).stepThis().dispose();
+                                SQLitePreparedStatement updateState = database.executeFast("UPDATE media_holes_v2 SET start = ? WHERE uid = ? AND type = ? AND start = ? AND end = ?");
+                                updateState.bindInteger(1, maxId);
+                                updateState.bindLong(2, did);
+                                updateState.bindInteger(3, hole.type);
+                                updateState.bindInteger(4, hole.start);
+                                updateState.bindInteger(5, hole.end);
+                                updateState.step();
+                                updateState.dispose();
                             } catch (Exception e) {
                                 FileLog.e("tmessages", e);
                             }
                         }
                     } else {
-                        database.executeFast(String.format(Locale.US, "DELETE FROM media_holes_v2 WHERE uid = %d AND type = %d AND start = %d AND end = %d", did, hole.type, hole.start, hole.end)).stepThis().dispose();
+                        SQLitePreparedStatement deleteState = database.executeFast("DELETE FROM media_holes_v2 WHERE uid = ? AND type = ? AND start = ? AND end = ?");
+                        deleteState.bindLong(1, did);
+                        deleteState.bindInteger(2, hole.type);
+                        deleteState.bindInteger(3, hole.start);
+                        deleteState.bindInteger(4, hole.end);
+                        deleteState.step();
+                        deleteState.dispose();
                         SQLitePreparedStatement state = database.executeFast("REPLACE INTO media_holes_v2 VALUES(?, ?, ?, ?)");
                         state.requery();
                         state.bindLong(1, did);
@@ -4939,11 +5922,22 @@ public class MessagesStorage {
                 for (int a = 0; a < holes.size(); a++) {
                     Hole hole = holes.get(a);
                     if (maxId >= hole.end - 1 && minId <= hole.start + 1) {
-                        database.executeFast(String.format(Locale.US, "DELETE FROM " + table + " WHERE uid = %d AND start = %d AND end = %d", did, hole.start, hole.end)).stepThis().dispose();
+                        SQLitePreparedStatement deleteState = database.executeFast("DELETE FROM " + table + " WHERE uid = ? AND start = ? AND end = ?");
+                        deleteState.bindLong(1, did);
+                        deleteState.bindInteger(2, hole.start);
+                        deleteState.bindInteger(3, hole.end);
+                        deleteState.step();
+                        deleteState.dispose();
                     } else if (maxId >= hole.end - 1) {
                         if (hole.end != minId) {
                             try {
-                                database.executeFast(String.format(Locale.US, "UPDATE " + table + " SET end = %d WHERE uid = %d AND start = %d AND end = %d", minId, did, hole.start, hole.end)).stepThis().dispose();
+                                SQLitePreparedStatement updateState = database.executeFast("UPDATE " + table + " SET end = ? WHERE uid = ? AND start = ? AND end = ?");
+                                updateState.bindInteger(1, minId);
+                                updateState.bindLong(2, did);
+                                updateState.bindInteger(3, hole.start);
+                                updateState.bindInteger(4, hole.end);
+                                updateState.step();
+                                updateState.dispose();
                             } catch (Exception e) {
                                 FileLog.e("tmessages", e);
                             }
@@ -4951,13 +5945,24 @@ public class MessagesStorage {
                     } else if (minId <= hole.start + 1) {
                         if (hole.start != maxId) {
                             try {
-                                database.executeFast(String.format(Locale.US, "UPDATE " + table + " SET start = %d WHERE uid = %d AND start = %d AND end = %d", maxId, did, hole.start, hole.end)).stepThis().dispose();
+                                SQLitePreparedStatement updateState = database.executeFast("UPDATE " + table + " SET start = ? WHERE uid = ? AND start = ? AND end = ?");
+                                updateState.bindInteger(1, maxId);
+                                updateState.bindLong(2, did);
+                                updateState.bindInteger(3, hole.start);
+                                updateState.bindInteger(4, hole.end);
+                                updateState.step();
+                                updateState.dispose();
                             } catch (Exception e) {
                                 FileLog.e("tmessages", e);
                             }
                         }
                     } else {
-                        database.executeFast(String.format(Locale.US, "DELETE FROM " + table + " WHERE uid = %d AND start = %d AND end = %d", did, hole.start, hole.end)).stepThis().dispose();
+                        SQLitePreparedStatement deleteState = database.executeFast("DELETE FROM " + table + " WHERE uid = ? AND start = ? AND end = ?");
+                        deleteState.bindLong(1, did);
+                        deleteState.bindInteger(2, hole.start);
+                        deleteState.bindInteger(3, hole.end);
+                        deleteState.step();
+                        deleteState.dispose();
                         SQLitePreparedStatement state = database.executeFast("REPLACE INTO " + table + " VALUES(?, ?, ?)");
                         state.requery();
                         state.bindLong(1, did);
@@ -5058,7 +6063,7 @@ public class MessagesStorage {
                     //load_type == 2 ? load from first unread
                     //load_type == 3 ? load around message
 
-                    SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL, ?)");
+                    SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_meta VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)");
                     SQLitePreparedStatement state2 = database.executeFast("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
                     TLRPC.Message botKeyboard = null;
                     int countBeforeImportant = 0;
@@ -5079,7 +6084,7 @@ public class MessagesStorage {
                         }
 
                         if (load_type == -2) {
-                            SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid FROM messages WHERE mid = %d", messageId));
+                            SQLiteCursor cursor = database.queryFinalized("SELECT mid FROM messages_meta WHERE mid = ?", messageId);
                             boolean exist = cursor.next();
                             cursor.dispose();
                             if (!exist) {
@@ -5135,16 +6140,17 @@ public class MessagesStorage {
                         state.bindInteger(3, MessageObject.getUnreadFlags(message));
                         state.bindInteger(4, message.send_state);
                         state.bindInteger(5, message.date);
-                        state.bindByteBuffer(6, data);
-                        state.bindInteger(7, (MessageObject.isOut(message) ? 1 : 0));
-                        state.bindInteger(8, 0);
+                        state.bindInteger(6, (MessageObject.isOut(message) ? 1 : 0));
+                        state.bindInteger(7, 0);
                         if ((message.flags & TLRPC.MESSAGE_FLAG_HAS_VIEWS) != 0) {
-                            state.bindInteger(9, message.views);
+                            state.bindInteger(8, message.views);
                         } else {
-                            state.bindInteger(9, 0);
+                            state.bindInteger(8, 0);
                         }
-                        state.bindInteger(10, isImportant ? 1 : 0);
+                        state.bindInteger(9, isImportant ? 1 : 0);
                         state.step();
+                        putMessagePayload(messageId, data);
+                        putMessageSearchText(messageId, message);
 
                         if (SharedMediaQuery.canAddMessageToMedia(message)) {
                             state2.requery();
@@ -5152,12 +6158,12 @@ public class MessagesStorage {
                             state2.bindLong(2, dialog_id);
                             state2.bindInteger(3, message.date);
                             state2.bindInteger(4, SharedMediaQuery.getMediaType(message));
-                            state2.bindByteBuffer(5, data);
+                            state2.bindCompressedByteBuffer(5, data);
                             state2.step();
                         }
                         data.reuse();
 
-                        if (load_type == 0 && message.reply_markup != null && (!message.reply_markup.selective || message.mentioned)) {
+                        if (load_type == 0 && message.getReplyMarkup() != null && (!message.getReplyMarkup().selective || message.mentioned)) {
                             if (botKeyboard == null || botKeyboard.id < message.id) {
                                 botKeyboard = message;
                             }
@@ -5295,9 +6301,10 @@ public class MessagesStorage {
     }
 
     public void getDialogs(final int offset, final int count) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadRunnable(new Runnable() {
             @Override
             public void run() {
+                SQLiteDatabase db = getReadDatabase();
                 TLRPC.messages_Dialogs dialogs = new TLRPC.messages_Dialogs();
                 ArrayList<TLRPC.EncryptedChat> encryptedChats = new ArrayList<>();
                 try {
@@ -5307,7 +6314,7 @@ public class MessagesStorage {
                     ArrayList<Integer> encryptedToLoad = new ArrayList<>();
                     ArrayList<Long> replyMessages = new ArrayList<>();
                     HashMap<Long, TLRPC.Message> replyMessageOwners = new HashMap<>();
-                    SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT d.did, d.last_mid, d.unread_count, d.date, m.data, m.read_state, m.mid, m.send_state, s.flags, m.date, d.last_mid_i, d.unread_count_i, d.pts, d.inbox_max, d.date_i, m.replydata FROM dialogs as d LEFT JOIN messages as m ON d.last_mid = m.mid LEFT JOIN dialog_settings as s ON d.did = s.did ORDER BY d.date DESC LIMIT %d,%d", offset, count));
+                    SQLiteCursor cursor = db.queryFinalized(String.format(Locale.US, "SELECT d.did, d.last_mid, d.unread_count, d.date, m.data, m.read_state, m.mid, m.send_state, s.flags, m.date, d.last_mid_i, d.unread_count_i, d.pts, d.inbox_max, d.date_i, m.replydata FROM dialogs as d LEFT JOIN messages as m ON d.last_mid = m.mid LEFT JOIN dialog_settings as s ON d.did = s.did ORDER BY d.date DESC LIMIT %d,%d", offset, count));
                     while (cursor.next()) {
                         TLRPC.Dialog dialog;
                         int pts = cursor.intValue(12);
@@ -5337,9 +6344,9 @@ public class MessagesStorage {
                         }
                         dialogs.dialogs.add(dialog);
 
-                        NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(4));
-                        if (data != null && cursor.byteBufferValue(4, data) != 0) {
-                            TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                        NativeByteBuffer data = cursor.rowBufferValue(4);
+                        if (data != null) {
+                            TLRPC.Message message = TLRPC.Message.TLdeserializeLazy(data, data.readInt32(false), false);
                             if (message != null) {
                                 MessageObject.setUnreadFlags(message, cursor.intValue(5));
                                 message.id = cursor.intValue(6);
@@ -5356,14 +6363,13 @@ public class MessagesStorage {
                                 try {
                                     if (message.reply_to_msg_id != 0 && message.action instanceof TLRPC.TL_messageActionPinMessage) {
                                         if (!cursor.isNull(15)) {
-                                            NativeByteBuffer data2 = new NativeByteBuffer(cursor.byteArrayLength(15));
-                                            if (cursor.byteBufferValue(15, data2) != 0) {
+                                            NativeByteBuffer data2 = cursor.rowBufferValue(15);
+                                            if (data2 != null) {
                                                 message.replyMessage = TLRPC.Message.TLdeserialize(data2, data2.readInt32(false), false);
                                                 if (message.replyMessage != null) {
                                                     addUsersAndChatsFromMessage(message.replyMessage, usersToLoad, chatsToLoad);
                                                 }
                                             }
-                                            data2.reuse();
                                         }
                                         if (message.replyMessage == null) {
                                             long messageId = message.reply_to_msg_id;
@@ -5381,7 +6387,6 @@ public class MessagesStorage {
                                 }
                             }
                         }
-                        data.reuse();
 
                         int lower_id = (int)dialog.id;
                         int high_id = (int)(dialog.id >> 32);
@@ -5410,10 +6415,10 @@ public class MessagesStorage {
                     cursor.dispose();
 
                     if (!replyMessages.isEmpty()) {
-                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, mid, date, uid FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
+                        cursor = db.queryFinalized(String.format(Locale.US, "SELECT data, mid, date, uid FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
                         while (cursor.next()) {
-                            NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                            if (data != null && cursor.byteBufferValue(0, data) != 0) {
+                            NativeByteBuffer data = cursor.rowBufferValue(0);
+                            if (data != null) {
                                 TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
                                 message.id = cursor.intValue(1);
                                 message.date = cursor.intValue(2);
@@ -5427,7 +6432,6 @@ public class MessagesStorage {
                                     message.dialog_id = owner.dialog_id;
                                 }
                             }
-                            data.reuse();
                         }
                         cursor.dispose();
                     }
@@ -5545,7 +6549,10 @@ public class MessagesStorage {
 
     private void putDialogsInternal(final TLRPC.messages_Dialogs dialogs) {
         try {
-            database.beginTransaction();
+            boolean withTransaction = !database.isInTransaction();
+            if (withTransaction) {
+                database.beginTransaction();
+            }
             final HashMap<Long, ArrayList<TLRPC.Message>> new_dialogMessage = new HashMap<>();
             for (int a = 0; a < dialogs.messages.size(); a++) {
                 TLRPC.Message message = dialogs.messages.get(a);
@@ -5558,7 +6565,7 @@ public class MessagesStorage {
             }
 
             if (!dialogs.dialogs.isEmpty()) {
-                SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL, ?)");
+                SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_meta VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)");
                 SQLitePreparedStatement state2 = database.executeFast("REPLACE INTO dialogs VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
                 SQLitePreparedStatement state3 = database.executeFast("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
                 SQLitePreparedStatement state4 = database.executeFast("REPLACE INTO dialog_settings VALUES(?, ?)");
@@ -5594,7 +6601,7 @@ public class MessagesStorage {
                             }
                             isMegagroup = MessageObject.isMegagroup(message);
 
-                            if (message.reply_markup != null && (!message.reply_markup.selective || message.mentioned)) {
+                            if (message.getReplyMarkup() != null && (!message.getReplyMarkup().selective || message.mentioned)) {
                                 BotQuery.putBotKeyboard(dialog.id, message);
                             }
 
@@ -5613,16 +6620,17 @@ public class MessagesStorage {
                             state.bindInteger(3, MessageObject.getUnreadFlags(message));
                             state.bindInteger(4, message.send_state);
                             state.bindInteger(5, message.date);
-                            state.bindByteBuffer(6, data);
-                            state.bindInteger(7, (MessageObject.isOut(message) ? 1 : 0));
-                            state.bindInteger(8, 0);
+                            state.bindInteger(6, (MessageObject.isOut(message) ? 1 : 0));
+                            state.bindInteger(7, 0);
                             if ((message.flags & TLRPC.MESSAGE_FLAG_HAS_VIEWS) != 0) {
-                                state.bindInteger(9, message.views);
+                                state.bindInteger(8, message.views);
                             } else {
-                                state.bindInteger(9, 0);
+                                state.bindInteger(8, 0);
                             }
-                            state.bindInteger(10, MessageObject.isImportant(message) ? 1 : 0);
+                            state.bindInteger(9, MessageObject.isImportant(message) ? 1 : 0);
                             state.step();
+                            putMessagePayload(messageId, data);
+                            putMessageSearchText(messageId, message);
 
                             if (SharedMediaQuery.canAddMessageToMedia(message)) {
                                 state3.requery();
@@ -5630,7 +6638,7 @@ public class MessagesStorage {
                                 state3.bindLong(2, dialog.id);
                                 state3.bindInteger(3, message.date);
                                 state3.bindInteger(4, SharedMediaQuery.getMediaType(message));
-                                state3.bindByteBuffer(5, data);
+                                state3.bindCompressedByteBuffer(5, data);
                                 state3.step();
                             }
                             data.reuse();
@@ -5683,7 +6691,9 @@ public class MessagesStorage {
             putUsersInternal(dialogs.users);
             putChatsInternal(dialogs.chats);
 
-            database.commitTransaction();
+            if (withTransaction) {
+                database.commitTransaction();
+            }
         } catch (Exception e) {
             FileLog.e("tmessages", e);
         }
@@ -0,0 +1,114 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+public class PriorityDispatchQueue extends DispatchQueue {
+
+    public final static int PRIORITY_INTERACTIVE = PriorityLanes.PRIORITY_INTERACTIVE;
+    public final static int PRIORITY_NORMAL = PriorityLanes.PRIORITY_NORMAL;
+    public final static int PRIORITY_BACKGROUND = PriorityLanes.PRIORITY_BACKGROUND;
+    public final static int PRIORITIES_COUNT = PriorityLanes.PRIORITIES_COUNT;
+
+    private final Object sync = new Object();
+    private final PriorityLanes lanes = new PriorityLanes();
+    private boolean drainScheduled;
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task;
+            synchronized (sync) {
+                task = lanes.poll();
+            }
+            try {
+                if (task != null) {
+                    task.run();
+                }
+            } finally {
+                synchronized (sync) {
+                    drainScheduled = false;
+                    scheduleDrain();
+                }
+            }
+        }
+    };
+
+    public PriorityDispatchQueue(final String threadName) {
+        super(threadName);
+    }
+
+    @Override
+    public void postRunnable(Runnable runnable, long delay) {
+        if (delay <= 0) {
+            postRunnableWithPriority(runnable, PRIORITY_NORMAL);
+        } else {
+            super.postRunnable(runnable, delay);
+        }
+    }
+
+    public void postRunnableWithPriority(Runnable runnable, int priority) {
+        postRunnableWithPriority(runnable, priority, false);
+    }
+
+    public void postRunnableWithPriority(Runnable runnable, int priority, boolean ordered) {
+        synchronized (sync) {
+            lanes.add(runnable, priority, ordered);
+            scheduleDrain();
+        }
+    }
+
+    @Override
+    public void cancelRunnable(Runnable runnable) {
+        synchronized (sync) {
+            lanes.remove(runnable);
+        }
+        super.cancelRunnable(runnable);
+    }
+
+    @Override
+    public void cleanupQueue() {
+        synchronized (sync) {
+            lanes.clear();
+            drainScheduled = false;
+        }
+        super.cleanupQueue();
+    }
+
+    public int getQueueDepth(int priority) {
+        synchronized (sync) {
+            return lanes.getQueueDepth(priority);
+        }
+    }
+
+    public int getPeakQueueDepth(int priority) {
+        synchronized (sync) {
+            return lanes.getPeakQueueDepth(priority);
+        }
+    }
+
+    public long getExecutedCount(int priority) {
+        synchronized (sync) {
+            return lanes.getExecutedCount(priority);
+        }
+    }
+
+    public void resetStatistics() {
+        synchronized (sync) {
+            lanes.resetStatistics();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled || lanes.isEmpty()) {
+            return;
+        }
+        drainScheduled = true;
+        super.postRunnable(drainRunnable, 0);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+class PriorityLanes {
+
+    public final static int PRIORITY_INTERACTIVE = 0;
+    public final static int PRIORITY_NORMAL = 1;
+    public final static int PRIORITY_BACKGROUND = 2;
+    public final static int PRIORITIES_COUNT = 3;
+
+    private final static int STARVATION_LIMIT = 16;
+
+    private static class OrderedRunnable implements Runnable {
+
+        private final Runnable task;
+
+        public OrderedRunnable(Runnable runnable) {
+            task = runnable;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private final ArrayList<ArrayDeque<Runnable>> lanes = new ArrayList<>(PRIORITIES_COUNT);
+    private final int[] peakDepth = new int[PRIORITIES_COUNT];
+    private final long[] executedCount = new long[PRIORITIES_COUNT];
+    private int servedSinceLowest;
+    private int orderedCount;
+    private int orderedLane;
+
+    public PriorityLanes() {
+        for (int a = 0; a < PRIORITIES_COUNT; a++) {
+            lanes.add(new ArrayDeque<Runnable>());
+        }
+    }
+
+    //ordered tasks never overtake each other: while one is queued, later ones join its lane
+    public void add(Runnable runnable, int priority, boolean ordered) {
+        if (priority < PRIORITY_INTERACTIVE || priority >= PRIORITIES_COUNT) {
+            priority = PRIORITY_NORMAL;
+        }
+        if (ordered) {
+            if (orderedCount == 0) {
+                orderedLane = priority;
+            } else {
+                priority = orderedLane;
+            }
+            orderedCount++;
+            runnable = new OrderedRunnable(runnable);
+        }
+        ArrayDeque<Runnable> lane = lanes.get(priority);
+        lane.add(runnable);
+        if (lane.size() > peakDepth[priority]) {
+            peakDepth[priority] = lane.size();
+        }
+    }
+
+    public void remove(Runnable runnable) {
+        for (int a = 0; a < PRIORITIES_COUNT; a++) {
+            Iterator<Runnable> iterator = lanes.get(a).iterator();
+            while (iterator.hasNext()) {
+                Runnable task = iterator.next();
+                if (task == runnable) {
+                    iterator.remove();
+                    return;
+                } else if (task instanceof OrderedRunnable && ((OrderedRunnable) task).task == runnable) {
+                    iterator.remove();
+                    orderedCount--;
+                    return;
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (int a = 0; a < PRIORITIES_COUNT; a++) {
+            lanes.get(a).clear();
+        }
+        orderedCount = 0;
+    }
+
+    public boolean isEmpty() {
+        for (int a = 0; a < PRIORITIES_COUNT; a++) {
+            if (!lanes.get(a).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Runnable poll() {
+        int lowest = -1;
+        for (int a = PRIORITIES_COUNT - 1; a >= 0; a--) {
+            if (!lanes.get(a).isEmpty()) {
+                lowest = a;
+                break;
+            }
+        }
+        if (lowest == -1) {
+            return null;
+        }
+        int priority = lowest;
+        if (servedSinceLowest < STARVATION_LIMIT) {
+            for (int a = 0; a < lowest; a++) {
+                if (!lanes.get(a).isEmpty()) {
+                    priority = a;
+                    break;
+                }
+            }
+        }
+        if (priority == lowest) {
+            servedSinceLowest = 0;
+        } else {
+            servedSinceLowest++;
+        }
+        executedCount[priority]++;
+        Runnable task = lanes.get(priority).poll();
+        if (task instanceof OrderedRunnable) {
+            orderedCount--;
+            task = ((OrderedRunnable) task).task;
+        }
+        return task;
+    }
+
+    public int getQueueDepth(int priority) {
+        return lanes.get(priority).size();
+    }
+
+    public int getPeakQueueDepth(int priority) {
+        return peakDepth[priority];
+    }
+
+    public long getExecutedCount(int priority) {
+        return executedCount[priority];
+    }
+
+    public void resetStatistics() {
+        for (int a = 0; a < PRIORITIES_COUNT; a++) {
+            peakDepth[a] = lanes.get(a).size();
+            executedCount[a] = 0;
+        }
+    }
+}
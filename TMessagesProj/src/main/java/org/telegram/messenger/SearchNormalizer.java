@@ -0,0 +1,129 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import java.util.ArrayList;
+
+public class SearchNormalizer {
+
+    //the same folding must be applied to indexed text and to queries, unicode61 only folds latin case and diacritics
+    public static String normalize(String text) {
+        if (text == null) {
+            return null;
+        }
+        int length = text.length();
+        StringBuilder builder = null;
+        for (int a = 0; a < length; a++) {
+            char c = text.charAt(a);
+            char n = normalizeChar(c);
+            if (n != c && builder == null) {
+                builder = new StringBuilder(length);
+                builder.append(text, 0, a);
+            }
+            if (builder != null && n != 0) {
+                builder.append(n);
+            }
+        }
+        return builder != null ? builder.toString() : text;
+    }
+
+    private static char normalizeChar(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        switch (c) {
+            case '\u064A': //arabic yeh
+            case '\u0649': //alef maksura
+                return '\u06CC';
+            case '\u0643': //arabic kaf
+                return '\u06A9';
+            case '\u0629': //teh marbuta
+                return '\u0647';
+            case '\u0623':
+            case '\u0625':
+            case '\u0622':
+                return '\u0627';
+            case '\u200C': //zwnj
+            case '\u200D': //zwj
+            case '\u0640': //tatweel
+                return 0;
+        }
+        if (c >= '\u064B' && c <= '\u065F' || c == '\u0670') {
+            return 0;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    public static String buildMatchQuery(String query) {
+        String normalized = normalize(query);
+        if (normalized == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(normalized.length() + 8);
+        int length = normalized.length();
+        int tokenStart = -1;
+        for (int a = 0; a <= length; a++) {
+            boolean isTokenChar = a < length && Character.isLetterOrDigit(normalized.charAt(a));
+            if (isTokenChar) {
+                if (tokenStart == -1) {
+                    tokenStart = a;
+                }
+            } else if (tokenStart != -1) {
+                if (builder.length() != 0) {
+                    builder.append(' ');
+                }
+                builder.append(normalized, tokenStart, a).append('*');
+                tokenStart = -1;
+            }
+        }
+        return builder.length() == 0 ? null : builder.toString();
+    }
+
+    public static void splitTokens(String text, ArrayList<String> result) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int tokenStart = -1;
+        for (int a = 0; a <= length; a++) {
+            if (a < length && !Character.isWhitespace(text.charAt(a))) {
+                if (tokenStart == -1) {
+                    tokenStart = a;
+                }
+            } else if (tokenStart != -1) {
+                String token = text.substring(tokenStart, a);
+                if (!result.contains(token)) {
+                    result.add(token);
+                }
+                tokenStart = -1;
+            }
+        }
+    }
+
+    public static void addNameTokens(String name, ArrayList<String> result) {
+        String normalized = normalize(name);
+        if (normalized == null || normalized.length() == 0) {
+            return;
+        }
+        splitTokens(normalized, result);
+        String translit = LocaleController.getInstance().getTranslitString(normalized);
+        if (translit != null && !translit.equals(normalized)) {
+            splitTokens(translit, result);
+        }
+    }
+
+    public static String getPrefixUpperBound(String prefix) {
+        int last = prefix.length() - 1;
+        char c = prefix.charAt(last);
+        if (c == Character.MAX_VALUE) {
+            return prefix + Character.MAX_VALUE;
+        }
+        return prefix.substring(0, last) + (char) (c + 1);
+    }
+}
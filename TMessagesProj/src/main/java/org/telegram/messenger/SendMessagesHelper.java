@@ -477,7 +477,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
             if (messageObject.messageOwner.media instanceof TLRPC.TL_messageMediaWebPage) {
                 webPage = messageObject.messageOwner.media.webpage;
             }
-            sendMessage(messageObject.messageOwner.message, did, messageObject.replyMessageObject, webPage, true, asAdmin, messageObject.messageOwner.entities, null);
+            sendMessage(messageObject.messageOwner.message, did, messageObject.replyMessageObject, webPage, true, asAdmin, messageObject.messageOwner.getEntities(), null);
         } else {
             ArrayList<MessageObject> arrayList = new ArrayList<>();
             arrayList.add(messageObject);
@@ -585,6 +585,8 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
         ArrayList<Integer> ids = new ArrayList<>();
         HashMap<Long, TLRPC.Message> messagesByRandomIds = new HashMap<>();
         TLRPC.InputPeer inputPeer = MessagesController.getInputPeer(lower_id);
+        ArrayList<TLObject> requests = new ArrayList<>();
+        ArrayList<RequestDelegate> delegates = new ArrayList<>();
         long lastDialogId = 0;
         for (int a = 0; a < messages.size(); a++) {
             MessageObject msgObj = messages.get(a);
@@ -629,7 +631,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
             newMsg.message = msgObj.messageOwner.message;
             newMsg.fwd_msg_id = msgObj.getId();
             newMsg.attachPath = msgObj.messageOwner.attachPath;
-            newMsg.entities = msgObj.messageOwner.entities;
+            newMsg.entities = msgObj.messageOwner.getEntities();
             if (!newMsg.entities.isEmpty()) {
                 newMsg.flags |= TLRPC.MESSAGE_FLAG_HAS_ENTITIES;
             }
@@ -704,7 +706,8 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                 final ArrayList<TLRPC.Message> newMsgObjArr = arr;
                 final HashMap<Long, TLRPC.Message> messagesByRandomIdsFinal = messagesByRandomIds;
                 final boolean isMegagroupFinal = isMegagroup;
-                ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+                requests.add(req);
+                delegates.add(new RequestDelegate() {
                     @Override
                     public void run(TLObject response, final TLRPC.TL_error error) {
                         if (error == null) {
@@ -793,7 +796,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                             });
                         }
                     }
-                }, ConnectionsManager.RequestFlagCanCompress | ConnectionsManager.RequestFlagInvokeAfter);
+                });
 
                 if (a != messages.size() - 1) {
                     objArr = new ArrayList<>();
@@ -804,6 +807,10 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                 }
             }
         }
+        //forwarding more than 100 messages or from several chats takes one request per chunk, they go out in one container
+        if (!requests.isEmpty()) {
+            ConnectionsManager.getInstance().sendRequests(requests, delegates, ConnectionsManager.RequestFlagCanCompress | ConnectionsManager.RequestFlagInvokeAfter);
+        }
     }
 
     public void editMessage(MessageObject messageObject, String message, boolean searchLinks, final BaseFragment fragment) {
@@ -2069,7 +2076,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                     }
                 });
             }
-        }, ConnectionsManager.RequestFlagCanCompress | ConnectionsManager.RequestFlagInvokeAfter | (req instanceof TLRPC.TL_messages_sendMessage ? ConnectionsManager.RequestFlagNeedQuickAck : 0));
+        }, ConnectionsManager.RequestFlagCanCompress | ConnectionsManager.RequestFlagInvokeAfter | ConnectionsManager.RequestFlagPriorityInteractive | (req instanceof TLRPC.TL_messages_sendMessage ? ConnectionsManager.RequestFlagNeedQuickAck : 0));
     }
 
     private void processSentMessage(TLRPC.Message newMsg, TLRPC.Message sentMessage, String originalPath, boolean post) {
@@ -25,7 +25,7 @@ public class Utilities {
     public static Pattern pattern = Pattern.compile("[0-9]+");
     public static SecureRandom random = new SecureRandom();
 
-    public static volatile DispatchQueue stageQueue = new DispatchQueue("stageQueue");
+    public static volatile PriorityDispatchQueue stageQueue = new PriorityDispatchQueue("stageQueue");
     public static volatile DispatchQueue globalQueue = new DispatchQueue("globalQueue");
     public static volatile DispatchQueue searchQueue = new DispatchQueue("searchQueue");
     public static volatile DispatchQueue phoneBookQueue = new DispatchQueue("photoBookQueue");
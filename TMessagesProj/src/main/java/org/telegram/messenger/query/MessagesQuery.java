@@ -91,7 +91,7 @@ public class MessagesQuery {
                 final TLRPC.TL_channels_getMessages req = new TLRPC.TL_channels_getMessages();
                 req.channel = MessagesController.getInputChannel(channelId);
                 req.id.add(mid);
-                ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+                ConnectionsManager.getInstance().sendRequestCoalesced(req, new RequestDelegate() {
                     @Override
                     public void run(TLObject response, TLRPC.TL_error error) {
                         boolean ok = false;
@@ -369,7 +369,7 @@ public class MessagesQuery {
             public void run() {
                 try {
                     MessagesStorage.getInstance().getDatabase().beginTransaction();
-                    SQLitePreparedStatement state = MessagesStorage.getInstance().getDatabase().executeFast("UPDATE messages SET replydata = ? WHERE mid = ?");
+                    SQLitePreparedStatement state = MessagesStorage.getInstance().getDatabase().executeFast("UPDATE messages_payload SET replydata = ? WHERE mid = ?");
                     for (int a = 0; a < result.size(); a++) {
                         TLRPC.Message message = result.get(a);
                         ArrayList<MessageObject> messageObjects = replyMessageOwners.get(message.id);
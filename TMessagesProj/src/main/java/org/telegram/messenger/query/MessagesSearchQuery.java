@@ -9,6 +9,7 @@
 package org.telegram.messenger.query;
 
 import org.telegram.messenger.AndroidUtilities;
+import org.telegram.messenger.FileLog;
 import org.telegram.messenger.MessageObject;
 import org.telegram.messenger.MessagesController;
 import org.telegram.messenger.MessagesStorage;
@@ -107,7 +108,54 @@ public class MessagesSearchQuery {
         req.filter = new TLRPC.TL_inputMessagesFilterEmpty();
         final int currentReqId = ++lastReqId;
         lastSearchQuery = query;
-        final long queryWithDialogFinal = queryWithDialog;
+        if (max_id == 0 && queryWithDialog == dialog_id && MessagesStorage.getInstance().isSearchIndexReady()) {
+            final String queryFinal = query;
+            MessagesStorage.getInstance().postSearchRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    TLRPC.TL_messages_messages localRes = null;
+                    boolean hasHole = true;
+                    try {
+                        localRes = MessagesStorage.getInstance().searchMessagesInternal(dialog_id, queryFinal, 20);
+                        if (!localRes.messages.isEmpty()) {
+                            hasHole = MessagesStorage.getInstance().hasMessagesHoleAbove(dialog_id, localRes.messages.get(localRes.messages.size() - 1).id);
+                        }
+                    } catch (Exception e) {
+                        FileLog.e("tmessages", e);
+                    }
+                    final TLRPC.TL_messages_messages res = localRes;
+                    final boolean hasHoleFinal = hasHole;
+                    AndroidUtilities.runOnUIThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (currentReqId != lastReqId) {
+                                return;
+                            }
+                            if (res != null && !res.messages.isEmpty()) {
+                                MessagesController.getInstance().putUsers(res.users, true);
+                                MessagesController.getInstance().putChats(res.chats, true);
+                                lastReturnedNum = 0;
+                                searchResultMessages.clear();
+                                for (int a = 0; a < res.messages.size(); a++) {
+                                    searchResultMessages.add(new MessageObject(res.messages.get(a), null, false));
+                                }
+                                MessageObject messageObject = searchResultMessages.get(0);
+                                NotificationCenter.getInstance().postNotificationName(NotificationCenter.chatSearchResultsAvailable, guid, messageObject.getId(), getMask(), messageObject.getDialogId());
+                                if (!hasHoleFinal) {
+                                    req.max_id = res.messages.get(res.messages.size() - 1).id;
+                                }
+                            }
+                            sendSearchRequest(req, currentReqId, dialog_id, mergeDialogId, dialog_id, guid);
+                        }
+                    });
+                }
+            });
+        } else {
+            sendSearchRequest(req, currentReqId, dialog_id, mergeDialogId, queryWithDialog, guid);
+        }
+    }
+
+    private static void sendSearchRequest(final TLRPC.TL_messages_search req, final int currentReqId, final long dialog_id, final long mergeDialogId, final long queryWithDialogFinal, final int guid) {
         reqId = ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
             @Override
             public void run(final TLObject response, final TLRPC.TL_error error) {
@@ -156,9 +156,9 @@ public class SharedMediaQuery {
             } else {
                 return MEDIA_FILE;
             }
-        } else if (!message.entities.isEmpty()) {
-            for (int a = 0; a < message.entities.size(); a++) {
-                TLRPC.MessageEntity entity = message.entities.get(a);
+        } else if (!message.getEntities().isEmpty()) {
+            for (int a = 0; a < message.getEntities().size(); a++) {
+                TLRPC.MessageEntity entity = message.getEntities().get(a);
                 if (entity instanceof TLRPC.TL_messageEntityUrl || entity instanceof TLRPC.TL_messageEntityTextUrl || entity instanceof TLRPC.TL_messageEntityEmail) {
                     return MEDIA_URL;
                 }
@@ -173,9 +173,9 @@ public class SharedMediaQuery {
         } else if (message.media instanceof TLRPC.TL_messageMediaPhoto ||
                 message.media instanceof TLRPC.TL_messageMediaDocument && !MessageObject.isGifDocument(message.media.document)) {
             return true;
-        } else if (!message.entities.isEmpty()) {
-            for (int a = 0; a < message.entities.size(); a++) {
-                TLRPC.MessageEntity entity = message.entities.get(a);
+        } else if (!message.getEntities().isEmpty()) {
+            for (int a = 0; a < message.getEntities().size(); a++) {
+                TLRPC.MessageEntity entity = message.getEntities().get(a);
                 if (entity instanceof TLRPC.TL_messageEntityUrl || entity instanceof TLRPC.TL_messageEntityTextUrl || entity instanceof TLRPC.TL_messageEntityEmail) {
                     return true;
                 }
@@ -448,7 +448,7 @@ public class SharedMediaQuery {
                             state2.bindLong(2, uid);
                             state2.bindInteger(3, message.date);
                             state2.bindInteger(4, type);
-                            state2.bindByteBuffer(5, data);
+                            state2.bindCompressedByteBuffer(5, data);
                             state2.step();
                             data.reuse();
                         }
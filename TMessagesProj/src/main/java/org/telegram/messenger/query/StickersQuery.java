@@ -203,7 +203,7 @@ public class StickersQuery {
         } else {
             final TLRPC.TL_messages_getAllStickers req = new TLRPC.TL_messages_getAllStickers();
             req.hash = force ? 0 : loadHash;
-            ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+            ConnectionsManager.getInstance().sendRequestCoalesced(req, new RequestDelegate() {
                 @Override
                 public void run(final TLObject response, final TLRPC.TL_error error) {
                     AndroidUtilities.runOnUIThread(new Runnable() {
@@ -454,7 +454,7 @@ public class StickersQuery {
         TLRPC.TL_messages_getStickerSet req = new TLRPC.TL_messages_getStickerSet();
         req.stickerset = stickerSet;
 
-        final int reqId = ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
+        final int reqId = ConnectionsManager.getInstance().sendRequestCoalesced(req, new RequestDelegate() {
             @Override
             public void run(final TLObject response, final TLRPC.TL_error error) {
                 AndroidUtilities.runOnUIThread(new Runnable() {
@@ -9,6 +9,7 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Build;
 import android.os.PowerManager;
+import android.util.SparseArray;
 
 import org.telegram.messenger.AndroidUtilities;
 import org.telegram.messenger.BuildVars;
@@ -17,6 +18,7 @@ import org.telegram.messenger.ApplicationLoader;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.MessagesController;
 import org.telegram.messenger.NotificationCenter;
+import org.telegram.messenger.PriorityDispatchQueue;
 import org.telegram.messenger.UserConfig;
 import org.telegram.messenger.Utilities;
 
@@ -25,7 +27,9 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,6 +49,10 @@ public class ConnectionsManager {
     public final static int RequestFlagForceDownload = 32;
     public final static int RequestFlagInvokeAfter = 64;
     public final static int RequestFlagNeedQuickAck = 128;
+    public final static int RequestFlagPriorityInteractive = 1 << 16;
+    public final static int RequestFlagPriorityBackground = 1 << 17;
+
+    private final static int RequestFlagsStagePriority = RequestFlagPriorityInteractive | RequestFlagPriorityBackground;
 
     public final static int ConnectionStateConnecting = 1;
     public final static int ConnectionStateWaitingForNetwork = 2;
@@ -61,6 +69,50 @@ public class ConnectionsManager {
     private AtomicInteger lastRequestToken = new AtomicInteger(1);
     private PowerManager.WakeLock wakeLock = null;
 
+    private static class CoalescedRequestKey {
+        private final int constructor;
+        private final long id;
+        private final String extra;
+
+        public CoalescedRequestKey(int constructor, long id, String extra) {
+            this.constructor = constructor;
+            this.id = id;
+            this.extra = extra;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = constructor;
+            result = 31 * result + (int) (id ^ (id >>> 32));
+            return 31 * result + (extra != null ? extra.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CoalescedRequestKey)) {
+                return false;
+            }
+            CoalescedRequestKey key = (CoalescedRequestKey) o;
+            return constructor == key.constructor && id == key.id && (extra == null ? key.extra == null : extra.equals(key.extra));
+        }
+    }
+
+    private static class CoalescedSubscriber {
+        public int requestToken;
+        public int guid;
+        public RequestDelegate delegate;
+    }
+
+    private static class CoalescedRequest {
+        public CoalescedRequestKey key;
+        public int requestToken;
+        public ArrayList<CoalescedSubscriber> subscribers = new ArrayList<>();
+    }
+
+    private final Object coalescedSync = new Object();
+    private HashMap<CoalescedRequestKey, CoalescedRequest> coalescedRequests = new HashMap<>();
+    private SparseArray<CoalescedRequest> coalescedRequestsByToken = new SparseArray<>();
+
     private static volatile ConnectionsManager Instance = null;
 
     public static ConnectionsManager getInstance() {
@@ -114,58 +166,322 @@ public class ConnectionsManager {
         return sendRequest(object, completionBlock, quickAckBlock, flags, DEFAULT_DATACENTER_ID, ConnectionTypeGeneric, true);
     }
 
-    public int sendRequest(final TLObject object, final RequestDelegate onComplete, final QuickAckDelegate onQuickAck, final int flags, final int datacenterId, final int connetionType, final boolean immediate) {
+    //the lane only orders the serialization and send, completion callbacks always run in the normal lane
+    private static int getStagePriority(int flags) {
+        if ((flags & RequestFlagPriorityInteractive) != 0) {
+            return PriorityDispatchQueue.PRIORITY_INTERACTIVE;
+        } else if ((flags & RequestFlagPriorityBackground) != 0) {
+            return PriorityDispatchQueue.PRIORITY_BACKGROUND;
+        }
+        return PriorityDispatchQueue.PRIORITY_NORMAL;
+    }
+
+    public int sendRequest(final TLObject object, final RequestDelegate onComplete, final QuickAckDelegate onQuickAck, int flags, final int datacenterId, final int connetionType, final boolean immediate) {
         final int requestToken = lastRequestToken.getAndIncrement();
-        Utilities.stageQueue.postRunnable(new Runnable() {
+        final long enqueueTime = RpcStatistics.isEnabled() ? System.nanoTime() : 0;
+        final int priority = getStagePriority(flags);
+        final int nativeFlags = flags & ~RequestFlagsStagePriority;
+        final boolean ordered = (flags & RequestFlagInvokeAfter) != 0;
+        Utilities.stageQueue.postRunnableWithPriority(new Runnable() {
             @Override
             public void run() {
-                FileLog.d("tmessages", "send request " + object + " with token = " + requestToken);
+                if (BuildVars.DEBUG_VERSION) {
+                    FileLog.d("tmessages", "send request " + object + " with token = " + requestToken);
+                }
                 try {
-                    NativeByteBuffer buffer = new NativeByteBuffer(object.getObjectSize());
-                    object.serializeToStream(buffer);
+                    RpcStatistics.MethodStats stats = RpcStatistics.getMethodStats(object);
+                    NativeByteBuffer buffer = NativeByteBuffer.serialize(object);
                     object.freeResources();
+                    long sendTime = 0;
+                    if (stats != null) {
+                        sendTime = System.nanoTime();
+                        if (enqueueTime != 0) {
+                            stats.queueWaitMicros.record((sendTime - enqueueTime) / 1000);
+                        }
+                        stats.requestBytes.record(buffer.limit());
+                    }
 
-                    native_sendRequest(buffer.address, new RequestDelegateInternal() {
-                        @Override
-                        public void run(int response, int errorCode, String errorText) {
-                            try {
-                                TLObject resp = null;
-                                TLRPC.TL_error error = null;
-                                if (response != 0) {
-                                    NativeByteBuffer buff = NativeByteBuffer.wrap(response);
-                                    resp = object.deserializeResponse(buff, buff.readInt32(true), true);
-                                } else if (errorText != null) {
-                                    error = new TLRPC.TL_error();
-                                    error.code = errorCode;
-                                    error.text = errorText;
-                                    FileLog.e("tmessages", object + " got error " + error.code + " " + error.text);
-                                }
-                                FileLog.d("tmessages", "java received " + resp + " error = " + error);
-                                final TLObject finalResponse = resp;
-                                final TLRPC.TL_error finalError = error;
-                                Utilities.stageQueue.postRunnable(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        onComplete.run(finalResponse, finalError);
-                                        if (finalResponse != null) {
-                                            finalResponse.freeResources();
-                                        }
-                                    }
-                                });
-                            } catch (Exception e) {
-                                FileLog.e("tmessages", e);
+                    native_sendRequest(buffer.address, createInternalDelegate(object, onComplete, stats, sendTime), onQuickAck, nativeFlags, datacenterId, connetionType, immediate, requestToken);
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                    failRequest(onComplete);
+                }
+            }
+        }, priority, ordered);
+        return requestToken;
+    }
+
+    public int sendRequestCoalesced(TLObject object, RequestDelegate completionBlock) {
+        return sendRequestCoalesced(object, completionBlock, 0);
+    }
+
+    //only the request types listed here are coalesced, the key is their constructor and the fields that select the result
+    private static CoalescedRequestKey getCoalescedRequestKey(TLObject object) {
+        if (object instanceof TLRPC.TL_channels_getFullChannel) {
+            TLRPC.InputChannel channel = ((TLRPC.TL_channels_getFullChannel) object).channel;
+            return channel != null ? new CoalescedRequestKey(TLRPC.TL_channels_getFullChannel.constructor, channel.channel_id, null) : null;
+        } else if (object instanceof TLRPC.TL_messages_getFullChat) {
+            return new CoalescedRequestKey(TLRPC.TL_messages_getFullChat.constructor, ((TLRPC.TL_messages_getFullChat) object).chat_id, null);
+        } else if (object instanceof TLRPC.TL_users_getFullUser) {
+            TLRPC.InputUser user = ((TLRPC.TL_users_getFullUser) object).id;
+            return user != null ? new CoalescedRequestKey(TLRPC.TL_users_getFullUser.constructor, user.user_id, user.getClass().getName()) : null;
+        } else if (object instanceof TLRPC.TL_messages_getPeerSettings) {
+            TLRPC.InputPeer peer = ((TLRPC.TL_messages_getPeerSettings) object).peer;
+            if (peer == null) {
+                return null;
+            }
+            int id = peer.user_id != 0 ? peer.user_id : peer.chat_id != 0 ? peer.chat_id : peer.channel_id;
+            return new CoalescedRequestKey(TLRPC.TL_messages_getPeerSettings.constructor, id, peer.getClass().getName());
+        } else if (object instanceof TLRPC.TL_channels_getMessages) {
+            TLRPC.TL_channels_getMessages req = (TLRPC.TL_channels_getMessages) object;
+            return req.channel != null ? new CoalescedRequestKey(TLRPC.TL_channels_getMessages.constructor, req.channel.channel_id, req.id.toString()) : null;
+        } else if (object instanceof TLRPC.TL_messages_getAllStickers) {
+            return new CoalescedRequestKey(TLRPC.TL_messages_getAllStickers.constructor, ((TLRPC.TL_messages_getAllStickers) object).hash, null);
+        } else if (object instanceof TLRPC.TL_messages_getStickerSet) {
+            TLRPC.InputStickerSet stickerSet = ((TLRPC.TL_messages_getStickerSet) object).stickerset;
+            return stickerSet != null ? new CoalescedRequestKey(TLRPC.TL_messages_getStickerSet.constructor, stickerSet.id, stickerSet.short_name) : null;
+        }
+        return null;
+    }
+
+    //delegates often change the response they get, so every subscriber after the first one gets its own copy
+    private static TLObject copyResponse(TLObject request, TLObject response) {
+        try {
+            SerializedData data = new SerializedData(response.getObjectSize());
+            response.serializeToStream(data);
+            SerializedData copyData = new SerializedData(data.toByteArray());
+            data.cleanup();
+            TLObject copy = request.deserializeResponse(copyData, copyData.readInt32(false), false);
+            copyData.cleanup();
+            if (copy != null) {
+                return copy;
+            }
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+        return response;
+    }
+
+    public int sendRequestCoalesced(final TLObject object, RequestDelegate completionBlock, final int flags) {
+        final CoalescedRequestKey key = getCoalescedRequestKey(object);
+        if (key == null) {
+            return sendRequest(object, completionBlock, flags);
+        }
+        CoalescedSubscriber subscriber = new CoalescedSubscriber();
+        subscriber.requestToken = lastRequestToken.getAndIncrement();
+        subscriber.delegate = completionBlock;
+        synchronized (coalescedSync) {
+            CoalescedRequest request = coalescedRequests.get(key);
+            if (request == null) {
+                final CoalescedRequest newRequest = new CoalescedRequest();
+                newRequest.key = key;
+                newRequest.requestToken = sendRequest(object, new RequestDelegate() {
+                    @Override
+                    public void run(TLObject response, TLRPC.TL_error error) {
+                        ArrayList<CoalescedSubscriber> subscribers;
+                        synchronized (coalescedSync) {
+                            if (coalescedRequests.get(key) == newRequest) {
+                                coalescedRequests.remove(key);
+                            }
+                            subscribers = newRequest.subscribers;
+                            newRequest.subscribers = new ArrayList<>();
+                            for (int a = 0; a < subscribers.size(); a++) {
+                                coalescedRequestsByToken.remove(subscribers.get(a).requestToken);
+                            }
+                        }
+                        TLObject[] responses = new TLObject[subscribers.size()];
+                        for (int a = 0; a < subscribers.size(); a++) {
+                            responses[a] = a == 0 || response == null ? response : copyResponse(object, response);
+                        }
+                        for (int a = 0; a < subscribers.size(); a++) {
+                            subscribers.get(a).delegate.run(responses[a], error);
+                        }
+                    }
+                }, flags);
+                coalescedRequests.put(key, newRequest);
+                request = newRequest;
+            } else if (BuildVars.DEBUG_VERSION) {
+                FileLog.d("tmessages", "coalesce request " + object + " with token = " + request.requestToken);
+            }
+            request.subscribers.add(subscriber);
+            coalescedRequestsByToken.put(subscriber.requestToken, request);
+        }
+        return subscriber.requestToken;
+    }
+
+    private boolean cancelCoalescedRequest(int token, boolean notifyServer) {
+        synchronized (coalescedSync) {
+            CoalescedRequest request = coalescedRequestsByToken.get(token);
+            if (request == null) {
+                return false;
+            }
+            coalescedRequestsByToken.remove(token);
+            for (int a = 0; a < request.subscribers.size(); a++) {
+                if (request.subscribers.get(a).requestToken == token) {
+                    request.subscribers.remove(a);
+                    break;
+                }
+            }
+            if (request.subscribers.isEmpty()) {
+                if (coalescedRequests.get(request.key) == request) {
+                    coalescedRequests.remove(request.key);
+                }
+                native_cancelRequest(request.requestToken, notifyServer);
+            }
+            return true;
+        }
+    }
+
+    public int[] sendRequests(List<TLObject> objects, List<RequestDelegate> completionBlocks, int flags) {
+        return sendRequests(objects, completionBlocks, flags, DEFAULT_DATACENTER_ID, ConnectionTypeGeneric);
+    }
+
+    public int[] sendRequests(final List<TLObject> objects, final List<RequestDelegate> completionBlocks, int flags, final int datacenterId, final int connetionType) {
+        final int count = objects.size();
+        final int[] requestTokens = new int[count];
+        for (int a = 0; a < count; a++) {
+            requestTokens[a] = lastRequestToken.getAndIncrement();
+        }
+        if (count == 0) {
+            return requestTokens;
+        }
+        final long enqueueTime = RpcStatistics.isEnabled() ? System.nanoTime() : 0;
+        final int priority = getStagePriority(flags);
+        final int nativeFlags = flags & ~RequestFlagsStagePriority;
+        final boolean ordered = (flags & RequestFlagInvokeAfter) != 0;
+        Utilities.stageQueue.postRunnableWithPriority(new Runnable() {
+            @Override
+            public void run() {
+                int[] addresses = new int[count];
+                int[] tokens = new int[count];
+                int[] indices = new int[count];
+                RequestDelegateInternal[] delegates = new RequestDelegateInternal[count];
+                int serialized = 0;
+                for (int a = 0; a < count; a++) {
+                    TLObject object = objects.get(a);
+                    if (BuildVars.DEBUG_VERSION) {
+                        FileLog.d("tmessages", "send request " + object + " with token = " + requestTokens[a] + " in batch");
+                    }
+                    try {
+                        RpcStatistics.MethodStats stats = RpcStatistics.getMethodStats(object);
+                        NativeByteBuffer buffer = NativeByteBuffer.serialize(object);
+                        object.freeResources();
+                        long sendTime = 0;
+                        if (stats != null) {
+                            sendTime = System.nanoTime();
+                            if (enqueueTime != 0) {
+                                stats.queueWaitMicros.record((sendTime - enqueueTime) / 1000);
                             }
+                            stats.requestBytes.record(buffer.limit());
                         }
-                    }, onQuickAck, flags, datacenterId, connetionType, immediate, requestToken);
+                        addresses[serialized] = buffer.address;
+                        tokens[serialized] = requestTokens[a];
+                        indices[serialized] = a;
+                        delegates[serialized] = createInternalDelegate(object, completionBlocks.get(a), stats, sendTime);
+                        serialized++;
+                    } catch (Exception e) {
+                        FileLog.e("tmessages", e);
+                        failRequest(completionBlocks.get(a));
+                    }
+                }
+                if (serialized == 0) {
+                    return;
+                }
+                if (serialized != count) {
+                    int[] addressesCopy = new int[serialized];
+                    int[] tokensCopy = new int[serialized];
+                    RequestDelegateInternal[] delegatesCopy = new RequestDelegateInternal[serialized];
+                    System.arraycopy(addresses, 0, addressesCopy, 0, serialized);
+                    System.arraycopy(tokens, 0, tokensCopy, 0, serialized);
+                    System.arraycopy(delegates, 0, delegatesCopy, 0, serialized);
+                    addresses = addressesCopy;
+                    tokens = tokensCopy;
+                    delegates = delegatesCopy;
+                }
+                try {
+                    native_sendRequests(addresses, delegates, nativeFlags, datacenterId, connetionType, tokens);
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
+                    for (int a = 0; a < serialized; a++) {
+                        failRequest(completionBlocks.get(indices[a]));
+                    }
                 }
             }
+        }, priority, ordered);
+        return requestTokens;
+    }
+
+    //a request that never reached native code still completes, with the same -1000 code native uses for local failures
+    private void failRequest(final RequestDelegate onComplete) {
+        if (onComplete == null) {
+            return;
+        }
+        final TLRPC.TL_error error = new TLRPC.TL_error();
+        error.code = -1000;
+        error.text = "";
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                onComplete.run(null, error);
+            }
         });
-        return requestToken;
+    }
+
+    private RequestDelegateInternal createInternalDelegate(final TLObject object, final RequestDelegate onComplete, final RpcStatistics.MethodStats stats, final long sendTime) {
+        return new RequestDelegateInternal() {
+            @Override
+            public void run(int response, int errorCode, String errorText) {
+                try {
+                    TLObject resp = null;
+                    TLRPC.TL_error error = null;
+                    if (stats != null) {
+                        stats.roundTripMicros.record((System.nanoTime() - sendTime) / 1000);
+                    }
+                    if (response != 0) {
+                        NativeByteBuffer buff = NativeByteBuffer.wrap(response);
+                        if (stats != null) {
+                            long deserializeStart = System.nanoTime();
+                            stats.responseBytes.record(buff.limit());
+                            resp = object.deserializeResponse(buff, buff.readInt32(true), true);
+                            stats.deserializeMicros.record((System.nanoTime() - deserializeStart) / 1000);
+                        } else {
+                            resp = object.deserializeResponse(buff, buff.readInt32(true), true);
+                        }
+                    } else if (errorText != null) {
+                        error = new TLRPC.TL_error();
+                        error.code = errorCode;
+                        error.text = errorText;
+                        if (stats != null) {
+                            stats.errors.incrementAndGet();
+                        }
+                        FileLog.e("tmessages", object + " got error " + error.code + " " + error.text);
+                    }
+                    if (BuildVars.DEBUG_VERSION) {
+                        FileLog.d("tmessages", "java received " + resp + " error = " + error);
+                    }
+                    final TLObject finalResponse = resp;
+                    final TLRPC.TL_error finalError = error;
+                    //responses share the normal lane with update handling, so they keep the single fifo order of the stage queue
+                    Utilities.stageQueue.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            onComplete.run(finalResponse, finalError);
+                            if (finalResponse != null) {
+                                finalResponse.freeResources();
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        };
     }
 
     public void cancelRequest(int token, boolean notifyServer) {
+        if (cancelCoalescedRequest(token, notifyServer)) {
+            return;
+        }
         native_cancelRequest(token, notifyServer);
     }
 
@@ -174,10 +490,45 @@ public class ConnectionsManager {
     }
 
     public void cancelRequestsForGuid(int guid) {
+        synchronized (coalescedSync) {
+            ArrayList<Integer> tokens = null;
+            for (int a = 0; a < coalescedRequestsByToken.size(); a++) {
+                int token = coalescedRequestsByToken.keyAt(a);
+                ArrayList<CoalescedSubscriber> subscribers = coalescedRequestsByToken.valueAt(a).subscribers;
+                for (int b = 0; b < subscribers.size(); b++) {
+                    CoalescedSubscriber subscriber = subscribers.get(b);
+                    if (subscriber.requestToken == token && subscriber.guid == guid) {
+                        if (tokens == null) {
+                            tokens = new ArrayList<>();
+                        }
+                        tokens.add(token);
+                        break;
+                    }
+                }
+            }
+            if (tokens != null) {
+                for (int a = 0; a < tokens.size(); a++) {
+                    cancelCoalescedRequest(tokens.get(a), true);
+                }
+            }
+        }
         native_cancelRequestsForGuid(guid);
     }
 
     public void bindRequestToGuid(int requestToken, int guid) {
+        synchronized (coalescedSync) {
+            CoalescedRequest request = coalescedRequestsByToken.get(requestToken);
+            if (request != null) {
+                for (int a = 0; a < request.subscribers.size(); a++) {
+                    CoalescedSubscriber subscriber = request.subscribers.get(a);
+                    if (subscriber.requestToken == requestToken) {
+                        subscriber.guid = guid;
+                        break;
+                    }
+                }
+                return;
+            }
+        }
         native_bindRequestToGuid(requestToken, guid);
     }
 
@@ -361,6 +712,7 @@ public class ConnectionsManager {
     public static native int native_getCurrentTime();
     public static native int native_getTimeDifference();
     public static native void native_sendRequest(int object, RequestDelegateInternal onComplete, QuickAckDelegate onQuickAck, int flags, int datacenterId, int connetionType, boolean immediate, int requestToken);
+    public static native void native_sendRequests(int[] objects, RequestDelegateInternal[] onComplete, int flags, int datacenterId, int connetionType, int[] requestTokens);
     public static native void native_cancelRequest(int token, boolean notifyServer);
     public static native void native_cleanUp();
     public static native void native_cancelRequestsForGuid(int guid);
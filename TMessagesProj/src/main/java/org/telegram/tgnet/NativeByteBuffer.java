@@ -10,8 +10,12 @@ public class NativeByteBuffer extends AbstractSerializedData {
     protected int address;
     public ByteBuffer buffer;
     private boolean justCalc = false;
+    private boolean growable = false;
     private int len = 0;
 
+    private static final int SERIALIZE_BUFFER_SIZE = 1024 + 200;
+    private static final int SERIALIZE_BUFFER_MAX_KEEP_SIZE = 160000;
+
     private static final ThreadLocal<NativeByteBuffer> addressWrapper = new ThreadLocal<NativeByteBuffer>() {
         @Override
         protected NativeByteBuffer initialValue() {
@@ -19,6 +23,76 @@ public class NativeByteBuffer extends AbstractSerializedData {
         }
     };
 
+    private static final ThreadLocal<NativeByteBuffer> serializeBuffer = new ThreadLocal<NativeByteBuffer>() {
+        @Override
+        protected NativeByteBuffer initialValue() {
+            return createGrowable(SERIALIZE_BUFFER_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<NativeByteBuffer> rowBuffer = new ThreadLocal<NativeByteBuffer>() {
+        @Override
+        protected NativeByteBuffer initialValue() {
+            return createGrowable(SERIALIZE_BUFFER_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<NativeByteBuffer> requestWrapper = new ThreadLocal<NativeByteBuffer>() {
+        @Override
+        protected NativeByteBuffer initialValue() {
+            return new NativeByteBuffer(0, true);
+        }
+    };
+
+    /**
+     * Serializes object in a single pass into a reusable per-thread buffer that grows on demand
+     * and copies the result into a pooled native buffer of the exact size. The returned wrapper
+     * belongs to the calling thread and is reused by the next call, so only its address should
+     * be handed over to the native layer, which returns the buffer to its pool when done.
+     */
+    public static NativeByteBuffer serialize(TLObject object) throws Exception {
+        NativeByteBuffer serializer = serializeBuffer.get();
+        serializer.buffer.clear();
+        object.serializeToStream(serializer);
+        int size = serializer.buffer.position();
+
+        NativeByteBuffer result = requestWrapper.get();
+        result.address = native_getFreeBuffer(size);
+        if (result.address == 0) {
+            throw new Exception("can't allocate NativeByteBuffer of size " + size);
+        }
+        result.buffer = native_getJavaByteBuffer(result.address);
+        result.buffer.position(0);
+        result.buffer.limit(size);
+        result.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        serializer.buffer.flip();
+        result.buffer.put(serializer.buffer);
+
+        if (serializer.buffer.capacity() > SERIALIZE_BUFFER_MAX_KEEP_SIZE) {
+            serializeBuffer.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the calling thread's row decode buffer with at least capacity bytes available.
+     * The contents are only valid until the next call on the same thread, so decoded rows
+     * must be fully deserialized before another row is read. reuse() is a no-op for it.
+     */
+    public static NativeByteBuffer getRowBuffer(int capacity) {
+        NativeByteBuffer result = rowBuffer.get();
+        if (result.buffer.capacity() < capacity) {
+            if (capacity > SERIALIZE_BUFFER_MAX_KEEP_SIZE) {
+                result = createGrowable(capacity);
+            } else {
+                result.buffer = ByteBuffer.allocateDirect(Math.min(SERIALIZE_BUFFER_MAX_KEEP_SIZE, Math.max(capacity, result.buffer.capacity() * 2)));
+                result.buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        result.buffer.clear();
+        return result;
+    }
+
     public static NativeByteBuffer wrap(int address) {
         NativeByteBuffer result = addressWrapper.get();
         if (address != 0) {
@@ -40,6 +114,26 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     }
 
+    private static NativeByteBuffer createGrowable(int capacity) {
+        NativeByteBuffer result = new NativeByteBuffer(0, true);
+        result.growable = true;
+        result.buffer = ByteBuffer.allocateDirect(capacity);
+        result.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
+    }
+
+    private void ensureCapacity(int count) {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + count);
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
     public NativeByteBuffer(int size) throws Exception {
         if (size >= 0) {
             address = native_getFreeBuffer(size);
@@ -101,6 +195,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeInt32(int x) {
         try {
             if (!justCalc) {
+                if (growable) {
+                    ensureCapacity(4);
+                }
                 buffer.putInt(x);
             } else {
                 len += 4;
@@ -113,6 +210,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeInt64(long x) {
         try {
             if (!justCalc) {
+                if (growable) {
+                    ensureCapacity(8);
+                }
                 buffer.putLong(x);
             } else {
                 len += 8;
@@ -137,6 +237,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeBytes(byte[] b) {
         try {
             if (!justCalc) {
+                if (growable) {
+                    ensureCapacity(b.length);
+                }
                 buffer.put(b);
             } else {
                 len += b.length;
@@ -149,6 +252,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeBytes(byte[] b, int offset, int count) {
         try {
             if (!justCalc) {
+                if (growable) {
+                    ensureCapacity(count);
+                }
                 buffer.put(b, offset, count);
             } else {
                 len += count;
@@ -165,6 +271,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeByte(byte b) {
         try {
             if (!justCalc) {
+                if (growable) {
+                    ensureCapacity(1);
+                }
                 buffer.put(b);
             } else {
                 len += 1;
@@ -184,6 +293,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByteArray(byte[] b, int offset, int count) {
         try {
+            if (growable) {
+                ensureCapacity(count + 8);
+            }
             if(count <= 253) {
                 if (!justCalc) {
                     buffer.put((byte)count);
@@ -221,6 +333,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByteArray(byte[] b) {
         try {
+            if (growable) {
+                ensureCapacity(b.length + 8);
+            }
             if (b.length <= 253) {
                 if (!justCalc) {
                     buffer.put((byte) b.length);
@@ -267,6 +382,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeByteBuffer(NativeByteBuffer b) {
         try {
             int l = b.limit();
+            if (growable) {
+                ensureCapacity(l + 8);
+            }
             if (l <= 253) {
                 if (!justCalc) {
                     buffer.put((byte) l);
@@ -307,6 +425,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
         if (justCalc) {
             len += b.limit();
         } else {
+            if (growable) {
+                ensureCapacity(b.limit());
+            }
             b.rewind();
             buffer.put(b.buffer);
         }
@@ -328,6 +449,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
             return;
         }
         if (!justCalc) {
+            if (growable) {
+                ensureCapacity(count);
+            }
             buffer.position(buffer.position() + count);
         } else {
             len += count;
@@ -405,14 +529,13 @@ public class NativeByteBuffer extends AbstractSerializedData {
                 l = getIntFromByte(buffer.get()) | (getIntFromByte(buffer.get()) << 8) | (getIntFromByte(buffer.get()) << 16);
                 sl = 4;
             }
-            byte[] b = new byte[l];
-            buffer.get(b);
+            String result = StringDecoder.decode(buffer, l);
             int i = sl;
             while((l + i) % 4 != 0) {
                 buffer.get();
                 i++;
             }
-            return new String(b, "UTF-8");
+            return result;
         } catch (Exception e) {
             if (exception) {
                 throw new RuntimeException("read string error", e);
@@ -0,0 +1,207 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.tgnet;
+
+import org.telegram.messenger.FileLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RpcStatistics {
+
+    public static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+        private static final int MAX_EXPONENT = 47;
+        private static final int BUCKETS_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private static int bucketIndex(long value) {
+            if (value < LINEAR_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+            int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+            return Math.min(LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket, BUCKETS_COUNT - 1);
+        }
+
+        private static long bucketValue(int index) {
+            if (index < LINEAR_BUCKETS) {
+                return index;
+            }
+            int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+            int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(bucketIndex(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long currentMax;
+            while (value > (currentMax = max.get())) {
+                if (max.compareAndSet(currentMax, value)) {
+                    break;
+                }
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getMean() {
+            long c = count.get();
+            return c == 0 ? 0 : sum.get() / c;
+        }
+
+        public long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int a = 0; a < BUCKETS_COUNT; a++) {
+                seen += counts.get(a);
+                if (seen >= target) {
+                    return Math.min(bucketValue(a), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        public void reset() {
+            for (int a = 0; a < BUCKETS_COUNT; a++) {
+                counts.set(a, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+    }
+
+    public static class MethodStats {
+        public final int constructor;
+        public final String name;
+        public final Histogram requestBytes = new Histogram();
+        public final Histogram responseBytes = new Histogram();
+        public final Histogram queueWaitMicros = new Histogram();
+        public final Histogram roundTripMicros = new Histogram();
+        public final Histogram deserializeMicros = new Histogram();
+        public final AtomicLong errors = new AtomicLong();
+
+        private MethodStats(int constructor, String name) {
+            this.constructor = constructor;
+            this.name = name;
+        }
+    }
+
+    private static volatile boolean enabled = true;
+    private static final ConcurrentHashMap<Class, MethodStats> methods = new ConcurrentHashMap<>();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    public static MethodStats getMethodStats(TLObject request) {
+        if (!enabled || request == null) {
+            return null;
+        }
+        Class requestClass = request.getClass();
+        MethodStats stats = methods.get(requestClass);
+        if (stats == null) {
+            stats = new MethodStats(getConstructor(request), requestClass.getSimpleName());
+            MethodStats old = methods.putIfAbsent(requestClass, stats);
+            if (old != null) {
+                stats = old;
+            }
+        }
+        return stats;
+    }
+
+    private static int getConstructor(TLObject object) {
+        try {
+            return object.getClass().getField("constructor").getInt(null);
+        } catch (Exception e) {
+            return object.getClass().getName().hashCode();
+        }
+    }
+
+    public static ArrayList<MethodStats> snapshot() {
+        ArrayList<MethodStats> result = new ArrayList<>(methods.values());
+        Collections.sort(result, new Comparator<MethodStats>() {
+            @Override
+            public int compare(MethodStats lhs, MethodStats rhs) {
+                long l = lhs.roundTripMicros.getSum();
+                long r = rhs.roundTripMicros.getSum();
+                if (l == r) {
+                    return 0;
+                }
+                return l > r ? -1 : 1;
+            }
+        });
+        return result;
+    }
+
+    public static void reset() {
+        methods.clear();
+    }
+
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("method count errors | req_bytes p50/p99/max | resp_bytes p50/p99/max | queue_us p50/p99/max | rtt_us p50/p99/max | deser_us p50/p99/max\n");
+        ArrayList<MethodStats> stats = snapshot();
+        for (int a = 0; a < stats.size(); a++) {
+            MethodStats method = stats.get(a);
+            builder.append(String.format(Locale.US, "%s(%x) %d %d", method.name, method.constructor, method.roundTripMicros.getCount(), method.errors.get()));
+            appendHistogram(builder, method.requestBytes);
+            appendHistogram(builder, method.responseBytes);
+            appendHistogram(builder, method.queueWaitMicros);
+            appendHistogram(builder, method.roundTripMicros);
+            appendHistogram(builder, method.deserializeMicros);
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static void appendHistogram(StringBuilder builder, Histogram histogram) {
+        builder.append(" | ").append(histogram.getPercentile(50)).append('/').append(histogram.getPercentile(99)).append('/').append(histogram.getMax());
+    }
+
+    public static void dumpToLog() {
+        FileLog.e("tmessages", "rpc statistics\n" + dump());
+    }
+}
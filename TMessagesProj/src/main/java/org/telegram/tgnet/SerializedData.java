@@ -10,158 +10,126 @@ package org.telegram.tgnet;
 
 import org.telegram.messenger.FileLog;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class SerializedData extends AbstractSerializedData {
+
+    private static final int DEFAULT_CAPACITY = 32;
+
     protected boolean isOut = true;
-    private ByteArrayOutputStream outbuf;
-    private DataOutputStream out;
-    private ByteArrayInputStream inbuf;
-    private DataInputStream in;
+    private ByteBuffer buffer;
+    private boolean arrayShared;
     private boolean justCalc = false;
     private int len;
 
     public SerializedData() {
-        outbuf = new ByteArrayOutputStream();
-        out = new DataOutputStream(outbuf);
+        this(DEFAULT_CAPACITY);
     }
 
     public SerializedData(boolean calculate) {
         if (!calculate) {
-            outbuf = new ByteArrayOutputStream();
-            out = new DataOutputStream(outbuf);
+            buffer = allocate(DEFAULT_CAPACITY);
         }
         justCalc = calculate;
         len = 0;
     }
 
     public SerializedData(int size) {
-        outbuf = new ByteArrayOutputStream(size);
-        out = new DataOutputStream(outbuf);
+        buffer = allocate(size > 0 ? size : DEFAULT_CAPACITY);
     }
 
     public SerializedData(byte[] data) {
-        isOut = false;
-        inbuf = new ByteArrayInputStream(data);
-        in = new DataInputStream(inbuf);
-        len = 0;
-    }
-
-    public void cleanup() {
-        try {
-            if (inbuf != null) {
-                inbuf.close();
-                inbuf = null;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", e);
-        }
-        try {
-            if (in != null) {
-                in.close();
-                in = null;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", e);
-        }
-        try {
-            if (outbuf != null) {
-                outbuf.close();
-                outbuf = null;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", e);
-        }
-        try {
-            if (out != null) {
-                out.close();
-                out = null;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", e);
-        }
+        set(data);
     }
 
     public SerializedData(File file) throws Exception {
         FileInputStream is = new FileInputStream(file);
-        byte[] data = new byte[(int)file.length()];
+        byte[] data = new byte[(int) file.length()];
         new DataInputStream(is).readFully(data);
         is.close();
+        set(data);
+    }
 
-        isOut = false;
-        inbuf = new ByteArrayInputStream(data);
-        in = new DataInputStream(inbuf);
+    private static ByteBuffer allocate(int capacity) {
+        ByteBuffer result = ByteBuffer.allocate(capacity);
+        result.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
     }
 
-    public void writeInt32(int x) {
-        if (!justCalc) {
-            writeInt32(x, out);
-        } else {
-            len += 4;
+    private void ensureCapacity(int count) {
+        if (buffer.remaining() >= count) {
+            return;
         }
+        int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + count);
+        ByteBuffer newBuffer = allocate(newCapacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+        arrayShared = false;
     }
 
-    private void writeInt32(int x, DataOutputStream out) {
-        try {
-            for(int i = 0; i < 4; i++) {
-                out.write(x >> (i * 8));
-            }
-        } catch(Exception e) {
-            FileLog.e("tmessages", "write int32 error");
+    public void cleanup() {
+        buffer = null;
+    }
+
+    public void reset() {
+        if (justCalc) {
+            len = 0;
+            return;
+        }
+        isOut = true;
+        if (buffer == null || arrayShared || buffer.isReadOnly()) {
+            buffer = allocate(DEFAULT_CAPACITY);
+            arrayShared = false;
+        } else {
+            buffer.clear();
         }
     }
 
-    public void writeInt64(long i) {
+    public void writeInt32(int x) {
         if (!justCalc) {
-            writeInt64(i, out);
+            ensureCapacity(4);
+            buffer.putInt(x);
         } else {
-            len += 8;
+            len += 4;
         }
     }
 
-    private void writeInt64(long x, DataOutputStream out) {
-        try {
-            for(int i = 0; i < 8; i++) {
-                out.write((int)(x >> (i * 8)));
-            }
-        } catch(Exception e) {
-            FileLog.e("tmessages", "write int64 error");
+    public void writeInt64(long x) {
+        if (!justCalc) {
+            ensureCapacity(8);
+            buffer.putLong(x);
+        } else {
+            len += 8;
         }
     }
 
     public void writeBool(boolean value) {
-        if (!justCalc) {
-            if (value) {
-                writeInt32(0x997275b5);
-            } else {
-                writeInt32(0xbc799737);
-            }
+        if (value) {
+            writeInt32(0x997275b5);
         } else {
-            len += 4;
+            writeInt32(0xbc799737);
         }
     }
 
     public void writeBytes(byte[] b) {
-        try {
-            if (!justCalc) {
-                out.write(b);
-            } else {
-                len += b.length;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", "write raw error");
+        if (!justCalc) {
+            ensureCapacity(b.length);
+            buffer.put(b);
+        } else {
+            len += b.length;
         }
     }
 
     public void writeBytes(byte[] b, int offset, int count) {
         try {
             if (!justCalc) {
-                out.write(b, offset, count);
+                ensureCapacity(count);
+                buffer.put(b, offset, count);
             } else {
                 len += count;
             }
@@ -171,105 +139,50 @@ public class SerializedData extends AbstractSerializedData {
     }
 
     public void writeByte(int i) {
-        try {
-            if (!justCalc) {
-                out.writeByte((byte) i);
-            } else {
-                len += 1;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", "write byte error");
-        }
+        writeByte((byte) i);
     }
 
     public void writeByte(byte b) {
-        try {
-            if (!justCalc) {
-                out.writeByte(b);
-            } else {
-                len += 1;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", "write byte error");
+        if (!justCalc) {
+            ensureCapacity(1);
+            buffer.put(b);
+        } else {
+            len += 1;
         }
     }
 
     public void writeByteArray(byte[] b) {
-        try {
-            if (b.length <= 253) {
-                if (!justCalc) {
-                    out.write(b.length);
-                } else {
-                    len += 1;
-                }
-            } else {
-                if (!justCalc) {
-                    out.write(254);
-                    out.write(b.length);
-                    out.write(b.length >> 8);
-                    out.write(b.length >> 16);
-                } else {
-                    len += 4;
-                }
-            }
-            if (!justCalc) {
-                out.write(b);
-            } else {
-                len += b.length;
-            }
-            int i = b.length <= 253 ? 1 : 4;
-            while((b.length + i) % 4 != 0) {
-                if (!justCalc) {
-                    out.write(0);
-                } else {
-                    len += 1;
-                }
-                i++;
-            }
-        } catch (Exception e) {
-            FileLog.e("tmessages", "write byte array error");
-        }
+        writeByteArray(b, 0, b.length);
     }
 
     public void writeString(String s) {
         try {
             writeByteArray(s.getBytes("UTF-8"));
-        } catch(Exception e) {
+        } catch (Exception e) {
             FileLog.e("tmessages", "write string error");
         }
     }
 
     public void writeByteArray(byte[] b, int offset, int count) {
         try {
-            if(count <= 253) {
-                if (!justCalc) {
-                    out.write(count);
-                } else {
-                    len += 1;
-                }
-            } else {
-                if (!justCalc) {
-                    out.write(254);
-                    out.write(count);
-                    out.write(count >> 8);
-                    out.write(count >> 16);
-                } else {
-                    len += 4;
-                }
+            int sl = count <= 253 ? 1 : 4;
+            int padding = (4 - (count + sl) % 4) % 4;
+            if (justCalc) {
+                len += sl + count + padding;
+                return;
             }
-            if (!justCalc) {
-                out.write(b, offset, count);
+            ensureCapacity(sl + count + padding);
+            if (sl == 1) {
+                buffer.put((byte) count);
             } else {
-                len += count;
+                buffer.put((byte) 254);
+                buffer.put((byte) count);
+                buffer.put((byte) (count >> 8));
+                buffer.put((byte) (count >> 16));
             }
-            int i = count <= 253 ? 1 : 4;
-            while ((count + i) % 4 != 0) {
-                if (!justCalc) {
-                    out.write(0);
-                } else {
-                    len += 1;
-                }
-                i++;
+            buffer.put(b, offset, count);
+            for (int a = 0; a < padding; a++) {
+                buffer.put((byte) 0);
             }
         } catch (Exception e) {
             FileLog.e("tmessages", "write byte array error");
@@ -277,28 +190,37 @@ public class SerializedData extends AbstractSerializedData {
     }
 
     public void writeDouble(double d) {
-        try {
-            writeInt64(Double.doubleToRawLongBits(d));
-        } catch(Exception e) {
-            FileLog.e("tmessages", "write double error");
-        }
+        writeInt64(Double.doubleToRawLongBits(d));
     }
 
     public int length() {
         if (!justCalc) {
-            return isOut ? outbuf.size() : inbuf.available();
+            return isOut ? buffer.position() : buffer.remaining();
         }
         return len;
     }
 
     protected void set(byte[] newData) {
         isOut = false;
-        inbuf = new ByteArrayInputStream(newData);
-        in = new DataInputStream(inbuf);
+        arrayShared = true;
+        buffer = ByteBuffer.wrap(newData);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
+    /**
+     * Returns the written bytes. When the backing array is exactly full it is handed out
+     * without a copy; the writer then switches to a fresh array on the next write or reset.
+     */
     public byte[] toByteArray() {
-        return outbuf.toByteArray();
+        int size = buffer.position();
+        byte[] array = buffer.array();
+        if (buffer.arrayOffset() == 0 && array.length == size) {
+            arrayShared = true;
+            return array;
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(array, buffer.arrayOffset(), result, 0, size);
+        return result;
     }
 
     public void skip(int count) {
@@ -306,12 +228,8 @@ public class SerializedData extends AbstractSerializedData {
             return;
         }
         if (!justCalc) {
-            if (in != null) {
-                try {
-                    in.skipBytes(count);
-                } catch (Exception e) {
-                    FileLog.e("tmessages", e);
-                }
+            if (!isOut) {
+                buffer.position(Math.min(buffer.limit(), buffer.position() + count));
             }
         } else {
             len += count;
@@ -319,6 +237,9 @@ public class SerializedData extends AbstractSerializedData {
     }
 
     public int getPosition() {
+        if (!justCalc) {
+            return buffer.position();
+        }
         return len;
     }
 
@@ -337,10 +258,14 @@ public class SerializedData extends AbstractSerializedData {
         return false;
     }
 
+    //reads past the end behave like the old stream reader: missing bytes read as -1, arrays stay partly filled
+    private int readByteOrEof() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
     public void readBytes(byte[] b, boolean exception) {
         try {
-            in.read(b);
-            len += b.length;
+            buffer.get(b, 0, Math.min(b.length, buffer.remaining()));
         } catch (Exception e) {
             if (exception) {
                 throw new RuntimeException("read bytes error", e);
@@ -356,26 +281,33 @@ public class SerializedData extends AbstractSerializedData {
         return arr;
     }
 
+    private int readLength() {
+        int l = readByteOrEof();
+        if (l >= 254) {
+            l = readByteOrEof() | (readByteOrEof() << 8) | (readByteOrEof() << 16);
+        }
+        return l;
+    }
+
+    private void skipPadding(int l) {
+        int sl = l <= 253 ? 1 : 4;
+        int padding = (4 - (l + sl) % 4) % 4;
+        buffer.position(Math.min(buffer.limit(), buffer.position() + padding));
+    }
+
     public String readString(boolean exception) {
         try {
-            int sl = 1;
-            int l = in.read();
-            len++;
-            if(l >= 254) {
-                l = in.read() | (in.read() << 8) | (in.read() << 16);
-                len += 3;
-                sl = 4;
-            }
-            byte[] b = new byte[l];
-            in.read(b);
-            len++;
-            int i=sl;
-            while((l + i) % 4 != 0) {
-                in.read();
-                len++;
-                i++;
+            int l = readLength();
+            String result;
+            if (l > buffer.remaining()) {
+                byte[] b = new byte[l];
+                buffer.get(b, 0, buffer.remaining());
+                result = new String(b, "UTF-8");
+            } else {
+                result = StringDecoder.decode(buffer, l);
             }
-            return new String(b, "UTF-8");
+            skipPadding(l);
+            return result;
         } catch (Exception e) {
             if (exception) {
                 throw new RuntimeException("read string error", e);
@@ -388,23 +320,10 @@ public class SerializedData extends AbstractSerializedData {
 
     public byte[] readByteArray(boolean exception) {
         try {
-            int sl = 1;
-            int l = in.read();
-            len++;
-            if (l >= 254) {
-                l = in.read() | (in.read() << 8) | (in.read() << 16);
-                len += 3;
-                sl = 4;
-            }
+            int l = readLength();
             byte[] b = new byte[l];
-            in.read(b);
-            len++;
-            int i = sl;
-            while((l + i) % 4 != 0) {
-                in.read();
-                len++;
-                i++;
-            }
+            buffer.get(b, 0, Math.min(l, buffer.remaining()));
+            skipPadding(l);
             return b;
         } catch (Exception e) {
             if (exception) {
@@ -417,27 +336,20 @@ public class SerializedData extends AbstractSerializedData {
     }
 
     public double readDouble(boolean exception) {
-        try {
-            return Double.longBitsToDouble(readInt64(exception));
-        } catch(Exception e) {
-            if (exception) {
-                throw new RuntimeException("read double error", e);
-            } else {
-                FileLog.e("tmessages", "read double error");
-            }
-        }
-        return 0;
+        return Double.longBitsToDouble(readInt64(exception));
     }
 
     public int readInt32(boolean exception) {
         try {
+            if (buffer.remaining() >= 4) {
+                return buffer.getInt();
+            }
             int i = 0;
-            for(int j = 0; j < 4; j++) {
-                i |= (in.read() << (j * 8));
-                len++;
+            for (int j = 0; j < 4; j++) {
+                i |= readByteOrEof() << (j * 8);
             }
             return i;
-        } catch(Exception e) {
+        } catch (Exception e) {
             if (exception) {
                 throw new RuntimeException("read int32 error", e);
             } else {
@@ -449,10 +361,12 @@ public class SerializedData extends AbstractSerializedData {
 
     public long readInt64(boolean exception) {
         try {
+            if (buffer.remaining() >= 8) {
+                return buffer.getLong();
+            }
             long i = 0;
-            for(int j = 0; j < 8; j++) {
-                i |= ((long)in.read() << (j * 8));
-                len++;
+            for (int j = 0; j < 8; j++) {
+                i |= (long) readByteOrEof() << (j * 8);
             }
             return i;
         } catch (Exception e) {
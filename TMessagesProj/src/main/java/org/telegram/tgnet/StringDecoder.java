@@ -0,0 +1,160 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.tgnet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+public class StringDecoder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int CACHE_SIZE = 1024;
+    private static final int CACHE_MAX_LENGTH = 24;
+    private static final int SCRATCH_MAX_KEEP_SIZE = 4096;
+
+    private static class CacheEntry {
+        final int hash;
+        final byte[] bytes;
+        final String value;
+
+        CacheEntry(int hash, byte[] bytes, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+    }
+
+    private static volatile boolean cacheEnabled = true;
+    private static final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+
+    private static final ThreadLocal<char[]> charScratch = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[256];
+        }
+    };
+    private static final ThreadLocal<byte[]> byteScratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+
+    public static void setCacheEnabled(boolean value) {
+        cacheEnabled = value;
+        if (!value) {
+            clearCache();
+        }
+    }
+
+    public static void clearCache() {
+        for (int a = 0; a < CACHE_SIZE; a++) {
+            cache[a] = null;
+        }
+    }
+
+    public static String decode(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IndexOutOfBoundsException();
+        }
+        int position = buffer.position();
+        String result;
+        if (length == 0) {
+            result = "";
+        } else if (cacheEnabled && length <= CACHE_MAX_LENGTH) {
+            result = decodeCached(buffer, position, length);
+        } else {
+            result = decodeRange(buffer, position, length);
+        }
+        buffer.position(position + length);
+        return result;
+    }
+
+    private static String decodeCached(ByteBuffer buffer, int position, int length) {
+        int hash = length;
+        for (int a = 0; a < length; a++) {
+            hash = 31 * hash + buffer.get(position + a);
+        }
+        int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        CacheEntry entry = cache[index];
+        if (entry != null && entry.hash == hash && entry.bytes.length == length) {
+            byte[] bytes = entry.bytes;
+            int a = 0;
+            while (a < length && bytes[a] == buffer.get(position + a)) {
+                a++;
+            }
+            if (a == length) {
+                return entry.value;
+            }
+        }
+        String value = decodeRange(buffer, position, length);
+        byte[] bytes = new byte[length];
+        for (int a = 0; a < length; a++) {
+            bytes[a] = buffer.get(position + a);
+        }
+        cache[index] = new CacheEntry(hash, bytes, value);
+        return value;
+    }
+
+    private static String decodeRange(ByteBuffer buffer, int position, int length) {
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + position;
+            int end = offset + length;
+            for (int a = offset; a < end; a++) {
+                if (array[a] < 0) {
+                    return new String(array, offset, length, UTF8);
+                }
+            }
+            char[] chars = getCharScratch(length);
+            for (int a = 0; a < length; a++) {
+                chars[a] = (char) array[offset + a];
+            }
+            return new String(chars, 0, length);
+        }
+
+        char[] chars = getCharScratch(length);
+        for (int a = 0; a < length; a++) {
+            byte b = buffer.get(position + a);
+            if (b < 0) {
+                byte[] bytes = getByteScratch(length);
+                buffer.get(bytes, 0, length);
+                buffer.position(position);
+                return new String(bytes, 0, length, UTF8);
+            }
+            chars[a] = (char) b;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static char[] getCharScratch(int length) {
+        if (length > SCRATCH_MAX_KEEP_SIZE) {
+            return new char[length];
+        }
+        char[] chars = charScratch.get();
+        if (chars.length < length) {
+            chars = new char[Math.min(SCRATCH_MAX_KEEP_SIZE, Math.max(length, chars.length * 2))];
+            charScratch.set(chars);
+        }
+        return chars;
+    }
+
+    private static byte[] getByteScratch(int length) {
+        if (length > SCRATCH_MAX_KEEP_SIZE) {
+            return new byte[length];
+        }
+        byte[] bytes = byteScratch.get();
+        if (bytes.length < length) {
+            bytes = new byte[Math.min(SCRATCH_MAX_KEEP_SIZE, Math.max(length, bytes.length * 2))];
+            byteScratch.set(bytes);
+        }
+        return bytes;
+    }
+}
@@ -8,36 +8,38 @@
 
 package org.telegram.tgnet;
 
-import org.telegram.messenger.FileLog;
-
-import java.util.HashMap;
+import android.util.SparseIntArray;
 
 public class TLClassStore {
-    private HashMap<Integer, Class> classStore;
+    private SparseIntArray classStore;
 
     public TLClassStore() {
-        classStore = new HashMap<>();
+        classStore = new SparseIntArray();
+
+        put(TLRPC.TL_error.constructor);
+        put(TLRPC.TL_decryptedMessageService.constructor);
+        put(TLRPC.TL_decryptedMessage.constructor);
+        put(TLRPC.TL_config.constructor);
+        put(TLRPC.TL_decryptedMessageLayer.constructor);
+        classStore.put(TLRPC.TL_decryptedMessage_layer17.constructor, TLRPC.TL_decryptedMessage.constructor);
+        put(TLRPC.TL_decryptedMessageService_layer8.constructor);
+        put(TLRPC.TL_decryptedMessage_layer8.constructor);
+        put(TLRPC.TL_message_secret.constructor);
+        put(TLRPC.TL_message_secret_old.constructor);
+        put(TLRPC.TL_messageEncryptedAction.constructor);
+        put(TLRPC.TL_null.constructor);
 
-        classStore.put(TLRPC.TL_error.constructor, TLRPC.TL_error.class);
-        classStore.put(TLRPC.TL_decryptedMessageService.constructor, TLRPC.TL_decryptedMessageService.class);
-        classStore.put(TLRPC.TL_decryptedMessage.constructor, TLRPC.TL_decryptedMessage.class);
-        classStore.put(TLRPC.TL_config.constructor, TLRPC.TL_config.class);
-        classStore.put(TLRPC.TL_decryptedMessageLayer.constructor, TLRPC.TL_decryptedMessageLayer.class);
-        classStore.put(TLRPC.TL_decryptedMessage_layer17.constructor, TLRPC.TL_decryptedMessage.class);
-        classStore.put(TLRPC.TL_decryptedMessageService_layer8.constructor, TLRPC.TL_decryptedMessageService_layer8.class);
-        classStore.put(TLRPC.TL_decryptedMessage_layer8.constructor, TLRPC.TL_decryptedMessage_layer8.class);
-        classStore.put(TLRPC.TL_message_secret.constructor, TLRPC.TL_message_secret.class);
-        classStore.put(TLRPC.TL_message_secret_old.constructor, TLRPC.TL_message_secret_old.class);
-        classStore.put(TLRPC.TL_messageEncryptedAction.constructor, TLRPC.TL_messageEncryptedAction.class);
-        classStore.put(TLRPC.TL_null.constructor, TLRPC.TL_null.class);
+        put(TLRPC.TL_updateShortChatMessage.constructor);
+        put(TLRPC.TL_updates.constructor);
+        put(TLRPC.TL_updateShortMessage.constructor);
+        put(TLRPC.TL_updateShort.constructor);
+        put(TLRPC.TL_updatesCombined.constructor);
+        put(TLRPC.TL_updateShortSentMessage.constructor);
+        put(TLRPC.TL_updatesTooLong.constructor);
+    }
 
-        classStore.put(TLRPC.TL_updateShortChatMessage.constructor, TLRPC.TL_updateShortChatMessage.class);
-        classStore.put(TLRPC.TL_updates.constructor, TLRPC.TL_updates.class);
-        classStore.put(TLRPC.TL_updateShortMessage.constructor, TLRPC.TL_updateShortMessage.class);
-        classStore.put(TLRPC.TL_updateShort.constructor, TLRPC.TL_updateShort.class);
-        classStore.put(TLRPC.TL_updatesCombined.constructor, TLRPC.TL_updatesCombined.class);
-        classStore.put(TLRPC.TL_updateShortSentMessage.constructor, TLRPC.TL_updateShortSentMessage.class);
-        classStore.put(TLRPC.TL_updatesTooLong.constructor, TLRPC.TL_updatesTooLong.class);
+    private void put(int constructor) {
+        classStore.put(constructor, constructor);
     }
 
     static TLClassStore store = null;
@@ -50,18 +52,14 @@ public class TLClassStore {
     }
 
     public TLObject TLdeserialize(NativeByteBuffer stream, int constructor, boolean exception) {
-        Class objClass = classStore.get(constructor);
-        if (objClass != null) {
-            TLObject response;
-            try {
-                response = (TLObject) objClass.newInstance();
-            } catch (Throwable e) {
-                FileLog.e("tmessages", e);
-                return null;
-            }
+        int index = classStore.indexOfKey(constructor);
+        if (index < 0) {
+            return null;
+        }
+        TLObject response = TLRPCFactory.newInstance(classStore.valueAt(index));
+        if (response != null) {
             response.readParams(stream, exception);
-            return response;
         }
-        return null;
+        return response;
     }
 }
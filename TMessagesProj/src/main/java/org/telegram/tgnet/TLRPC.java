@@ -18836,6 +18836,62 @@ public class TLRPC {
         public int seq_in; //custom
         public int seq_out; //custom
         public TLRPC.Message replyMessage; //custom
+        public byte[] lazyData; //custom
+
+        public static Message TLdeserializeLazy(NativeByteBuffer stream, int constructor, boolean exception) {
+            if (constructor != TL_message.constructor) {
+                return TLdeserialize(stream, constructor, exception);
+            }
+            TL_message result = new TL_message();
+            result.readParamsLazy(stream, exception);
+            return result;
+        }
+
+        public synchronized void ensureParsed() {
+            if (lazyData == null) {
+                return;
+            }
+            SerializedData data = new SerializedData(lazyData);
+            lazyData = null;
+            readTailParams(data, false);
+            data.cleanup();
+        }
+
+        //reply_markup and entities may still be in lazyData, code outside tgnet reads them through these getters
+        public ReplyMarkup getReplyMarkup() {
+            ensureParsed();
+            return reply_markup;
+        }
+
+        public ArrayList<MessageEntity> getEntities() {
+            ensureParsed();
+            return entities;
+        }
+
+        //deferred fields must be parsed before they are replaced, otherwise the late parse overwrites them
+        public void setReplyMarkup(ReplyMarkup value) {
+            ensureParsed();
+            reply_markup = value;
+        }
+
+        public void setEntities(ArrayList<MessageEntity> value) {
+            ensureParsed();
+            entities = value;
+        }
+
+        public void setViews(int value) {
+            ensureParsed();
+            views = value;
+        }
+
+        public void setEditDate(int value) {
+            ensureParsed();
+            edit_date = value;
+        }
+
+        protected void readTailParams(AbstractSerializedData stream, boolean exception) {
+
+        }
 
         public static Message TLdeserialize(AbstractSerializedData stream, int constructor, boolean exception) {
             Message result = null;
@@ -18957,6 +19013,22 @@ public class TLRPC {
 		public static int constructor = 0xc09be45f;
 
 		public void readParams(AbstractSerializedData stream, boolean exception) {
+			readHeaderParams(stream, exception);
+			readTailParams(stream, exception);
+		}
+
+		public void readParamsLazy(NativeByteBuffer stream, boolean exception) {
+			readHeaderParams(stream, exception);
+			boolean hasLocalParams = id < 0 || (media != null && !(media instanceof TL_messageMediaEmpty) && !(media instanceof TL_messageMediaWebPage) && message != null && message.length() != 0 && message.startsWith("-1"));
+			//only reply markup and entities are worth deferring, views and edit date are read in place
+			if (hasLocalParams || (flags & (64 | 128)) == 0) {
+				readTailParams(stream, exception);
+			} else {
+				lazyData = stream.readData(stream.limit() - stream.position(), exception);
+			}
+		}
+
+		private void readHeaderParams(AbstractSerializedData stream, boolean exception) {
 			flags = stream.readInt32(exception);
 			unread = (flags & 1) != 0;
 			out = (flags & 2) != 0;
@@ -18990,6 +19062,9 @@ public class TLRPC {
 			if ((flags & 512) != 0) {
 				media = MessageMedia.TLdeserialize(stream, stream.readInt32(exception), exception);
 			}
+		}
+
+		protected void readTailParams(AbstractSerializedData stream, boolean exception) {
 			if ((flags & 64) != 0) {
 				reply_markup = ReplyMarkup.TLdeserialize(stream, stream.readInt32(exception), exception);
 			}
@@ -19002,6 +19077,7 @@ public class TLRPC {
 					return;
 				}
 				int count = stream.readInt32(exception);
+				entities.clear();
 				for (int a = 0; a < count; a++) {
 					MessageEntity object = MessageEntity.TLdeserialize(stream, stream.readInt32(exception), exception);
 					if (object == null) {
@@ -19038,6 +19114,7 @@ public class TLRPC {
 		}
 
 		public void serializeToStream(AbstractSerializedData stream) {
+			ensureParsed();
 			stream.writeInt32(constructor);
 			flags = unread ? (flags | 1) : (flags &~ 1);
 			flags = out ? (flags | 2) : (flags &~ 2);
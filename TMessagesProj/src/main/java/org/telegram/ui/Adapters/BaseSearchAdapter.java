@@ -185,9 +185,13 @@ public class BaseSearchAdapter extends BaseFragmentAdapter {
                     MessagesStorage.getInstance().getDatabase().commitTransaction();
                     if (arrayList.size() >= 100) {
                         MessagesStorage.getInstance().getDatabase().beginTransaction();
+                        state = MessagesStorage.getInstance().getDatabase().executeFast("DELETE FROM hashtag_recent_v2 WHERE id = ?");
                         for (int a = 100; a < arrayList.size(); a++) {
-                            MessagesStorage.getInstance().getDatabase().executeFast("DELETE FROM hashtag_recent_v2 WHERE id = '" + arrayList.get(a).hashtag + "'").stepThis().dispose();
+                            state.requery();
+                            state.bindString(1, arrayList.get(a).hashtag);
+                            state.step();
                         }
+                        state.dispose();
                         MessagesStorage.getInstance().getDatabase().commitTransaction();
                     }
                 } catch (Exception e) {
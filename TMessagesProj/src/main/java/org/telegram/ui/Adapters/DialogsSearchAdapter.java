@@ -26,7 +26,6 @@ import org.telegram.messenger.support.widget.RecyclerView;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.R;
 import org.telegram.tgnet.ConnectionsManager;
-import org.telegram.tgnet.NativeByteBuffer;
 import org.telegram.tgnet.RequestDelegate;
 import org.telegram.tgnet.TLObject;
 import org.telegram.tgnet.TLRPC;
@@ -186,6 +185,35 @@ public class DialogsSearchAdapter extends BaseSearchAdapterRecycler {
                 });
             }
         }, ConnectionsManager.RequestFlagFailOnServerErrors);
+        if (req.offset_id == 0 && MessagesStorage.getInstance().isSearchIndexReady()) {
+            MessagesStorage.getInstance().postSearchRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    TLRPC.TL_messages_messages localRes = null;
+                    try {
+                        localRes = MessagesStorage.getInstance().searchMessagesInternal(0, query, 20);
+                    } catch (Exception e) {
+                        FileLog.e("tmessages", e);
+                    }
+                    final TLRPC.TL_messages_messages res = localRes;
+                    AndroidUtilities.runOnUIThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (currentReqId != lastReqId || reqId == 0 || res == null || res.messages.isEmpty()) {
+                                return;
+                            }
+                            MessagesController.getInstance().putUsers(res.users, true);
+                            MessagesController.getInstance().putChats(res.chats, true);
+                            searchResultMessages.clear();
+                            for (int a = 0; a < res.messages.size(); a++) {
+                                searchResultMessages.add(new MessageObject(res.messages.get(a), null, false));
+                            }
+                            notifyDataSetChanged();
+                        }
+                    });
+                }
+            });
+        }
     }
 
     public boolean hasRecentRearch() {
@@ -197,11 +225,11 @@ public class DialogsSearchAdapter extends BaseSearchAdapterRecycler {
     }
 
     public void loadRecentSearch() {
-        MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+        MessagesStorage.getInstance().postSearchRunnable(new Runnable() {
             @Override
             public void run() {
                 try {
-                    SQLiteCursor cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT did, date FROM search_recent WHERE 1");
+                    SQLiteCursor cursor = MessagesStorage.getInstance().getReadDatabase().queryFinalized("SELECT did, date FROM search_recent WHERE 1");
 
                     ArrayList<Integer> usersToLoad = new ArrayList<>();
                     ArrayList<Integer> chatsToLoad = new ArrayList<>();
@@ -386,7 +414,7 @@ public class DialogsSearchAdapter extends BaseSearchAdapterRecycler {
         if (needMessagesSearch == 2) {
             return;
         }
-        MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+        MessagesStorage.getInstance().postSearchRunnable(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -406,189 +434,199 @@ public class DialogsSearchAdapter extends BaseSearchAdapterRecycler {
                         search[1] = search2;
                     }
 
+                    HashMap<Long, Integer> foundKinds = new HashMap<>();
+                    HashMap<Long, String> foundQueries = new HashMap<>();
+                    for (String q : search) {
+                        HashMap<Long, Integer> found = MessagesStorage.getInstance().searchNamesInternal(q);
+                        for (HashMap.Entry<Long, Integer> entry : found.entrySet()) {
+                            if (!foundKinds.containsKey(entry.getKey())) {
+                                foundKinds.put(entry.getKey(), entry.getValue());
+                                foundQueries.put(entry.getKey(), q);
+                            }
+                        }
+                    }
+                    if (foundKinds.isEmpty()) {
+                        updateSearchResults(new ArrayList<TLObject>(), new ArrayList<CharSequence>(), new ArrayList<TLRPC.User>(), searchId);
+                        return;
+                    }
+
+                    StringBuilder foundIds = new StringBuilder();
+                    StringBuilder foundUserIds = new StringBuilder();
+                    for (Long did : foundKinds.keySet()) {
+                        if (foundIds.length() != 0) {
+                            foundIds.append(",");
+                        }
+                        foundIds.append(did);
+                        if (did > 0) {
+                            if (foundUserIds.length() != 0) {
+                                foundUserIds.append(",");
+                            }
+                            foundUserIds.append(did);
+                        }
+                    }
+
                     ArrayList<Integer> usersToLoad = new ArrayList<>();
                     ArrayList<Integer> chatsToLoad = new ArrayList<>();
                     ArrayList<Integer> encryptedToLoad = new ArrayList<>();
                     ArrayList<TLRPC.User> encUsers = new ArrayList<>();
-                    int resultCount = 0;
 
                     HashMap<Long, DialogSearchResult> dialogsResult = new HashMap<>();
-                    SQLiteCursor cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT did, date FROM dialogs ORDER BY date DESC LIMIT 400");
+                    HashMap<Long, Long> encryptedDialogs = new HashMap<>();
+                    SQLiteCursor cursor = MessagesStorage.getInstance().getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT did, date FROM dialogs WHERE did IN(%s)", foundIds));
                     while (cursor.next()) {
                         long id = cursor.longValue(0);
-                        DialogSearchResult dialogSearchResult = new DialogSearchResult();
-                        dialogSearchResult.date = cursor.intValue(1);
-                        dialogsResult.put(id, dialogSearchResult);
-
                         int lower_id = (int) id;
                         int high_id = (int) (id >> 32);
-                        if (lower_id != 0) {
-                            if (high_id == 1) {
-                                if (dialogsType == 0 && !chatsToLoad.contains(lower_id)) {
-                                    chatsToLoad.add(lower_id);
-                                }
-                            } else {
-                                if (lower_id > 0) {
-                                    if (dialogsType != 2 && !usersToLoad.contains(lower_id)) {
-                                        usersToLoad.add(lower_id);
-                                    }
-                                } else {
-                                    if (!chatsToLoad.contains(-lower_id)) {
-                                        chatsToLoad.add(-lower_id);
-                                    }
-                                }
+                        if (high_id == 1) {
+                            if (dialogsType != 0) {
+                                continue;
                             }
-                        } else if (dialogsType == 0) {
-                            if (!encryptedToLoad.contains(high_id)) {
-                                encryptedToLoad.add(high_id);
+                            chatsToLoad.add(lower_id);
+                        } else if (lower_id > 0) {
+                            if (dialogsType == 2) {
+                                continue;
                             }
+                            usersToLoad.add(lower_id);
+                        } else {
+                            chatsToLoad.add(-lower_id);
                         }
+                        DialogSearchResult dialogSearchResult = new DialogSearchResult();
+                        dialogSearchResult.date = cursor.intValue(1);
+                        dialogsResult.put(id, dialogSearchResult);
                     }
                     cursor.dispose();
 
-                    if (!usersToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status, name FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
+                    if (dialogsType == 0 && foundUserIds.length() != 0) {
+                        cursor = MessagesStorage.getInstance().getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT q.uid, q.user, d.date FROM enc_chats as q INNER JOIN dialogs as d ON d.did = (q.uid << 32) WHERE q.user IN(%s)", foundUserIds));
                         while (cursor.next()) {
-                            String name = cursor.stringValue(2);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 3);
-                            }
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
-                                }
-                                if (found != 0) {
-                                    NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                                    if (data != null && cursor.byteBufferValue(0, data) != 0) {
-                                        TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                        DialogSearchResult dialogSearchResult = dialogsResult.get((long) user.id);
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(1);
-                                        }
-                                        if (found == 1) {
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName(user.first_name, user.last_name, q);
-                                        } else {
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q);
-                                        }
-                                        dialogSearchResult.object = user;
-                                        resultCount++;
-                                    }
-                                    data.reuse();
-                                    break;
-                                }
-                            }
+                            int encryptedId = cursor.intValue(0);
+                            long did = ((long) encryptedId) << 32;
+                            DialogSearchResult dialogSearchResult = new DialogSearchResult();
+                            dialogSearchResult.date = cursor.intValue(2);
+                            dialogsResult.put(did, dialogSearchResult);
+                            encryptedDialogs.put(did, (long) cursor.intValue(1));
+                            encryptedToLoad.add(encryptedId);
                         }
                         cursor.dispose();
                     }
 
-                    if (!chatsToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, name FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
+                    ArrayList<Integer> contactsToLoad = new ArrayList<>();
+                    if (dialogsType != 2 && foundUserIds.length() != 0) {
+                        cursor = MessagesStorage.getInstance().getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT uid FROM contacts WHERE uid IN(%s)", foundUserIds));
                         while (cursor.next()) {
-                            String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                                    if (data != null && cursor.byteBufferValue(0, data) != 0) {
-                                        TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
-                                        if (!(chat == null || chat.deactivated || ChatObject.isChannel(chat) && ChatObject.isNotInChat(chat))) {
-                                            long dialog_id;
-                                            if (chat.id > 0) {
-                                                dialog_id = -chat.id;
-                                            } else {
-                                                dialog_id = AndroidUtilities.makeBroadcastId(chat.id);
-                                            }
-                                            DialogSearchResult dialogSearchResult = dialogsResult.get(dialog_id);
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName(chat.title, null, q);
-                                            dialogSearchResult.object = chat;
-                                            resultCount++;
-                                        }
-                                    }
-                                    data.reuse();
-                                    break;
-                                }
+                            int uid = cursor.intValue(0);
+                            if (!dialogsResult.containsKey((long) uid)) {
+                                contactsToLoad.add(uid);
                             }
                         }
                         cursor.dispose();
                     }
 
-                    if (!encryptedToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT q.data, u.name, q.user, q.g, q.authkey, q.ttl, u.data, u.status, q.layer, q.seq_in, q.seq_out, q.use_count, q.exchange_id, q.key_date, q.fprint, q.fauthkey, q.khash FROM enc_chats as q INNER JOIN users as u ON q.user = u.uid WHERE q.uid IN(%s)", TextUtils.join(",", encryptedToLoad)));
-                        while (cursor.next()) {
-                            String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
+                    HashMap<Integer, TLRPC.User> users = new HashMap<>();
+                    ArrayList<Integer> missingUsers = new ArrayList<>();
+                    ArrayList<Integer> userIds = new ArrayList<>(usersToLoad);
+                    userIds.addAll(contactsToLoad);
+                    for (Long uid : encryptedDialogs.values()) {
+                        userIds.add((int) (long) uid);
+                    }
+                    for (int a = 0; a < userIds.size(); a++) {
+                        Integer uid = userIds.get(a);
+                        TLRPC.User user = MessagesController.getInstance().getUser(uid);
+                        if (user != null) {
+                            users.put(uid, user);
+                        } else if (!missingUsers.contains(uid)) {
+                            missingUsers.add(uid);
+                        }
+                    }
+                    if (!missingUsers.isEmpty()) {
+                        ArrayList<TLRPC.User> loadedUsers = new ArrayList<>();
+                        MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", missingUsers), loadedUsers);
+                        for (int a = 0; a < loadedUsers.size(); a++) {
+                            TLRPC.User user = loadedUsers.get(a);
+                            users.put(user.id, user);
+                        }
+                    }
 
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 2);
-                            }
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
-                                }
+                    HashMap<Integer, TLRPC.Chat> chats = new HashMap<>();
+                    ArrayList<Integer> missingChats = new ArrayList<>();
+                    for (int a = 0; a < chatsToLoad.size(); a++) {
+                        Integer chatId = chatsToLoad.get(a);
+                        TLRPC.Chat chat = MessagesController.getInstance().getChat(chatId);
+                        if (chat != null) {
+                            chats.put(chatId, chat);
+                        } else {
+                            missingChats.add(chatId);
+                        }
+                    }
+                    if (!missingChats.isEmpty()) {
+                        ArrayList<TLRPC.Chat> loadedChats = new ArrayList<>();
+                        MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", missingChats), loadedChats);
+                        for (int a = 0; a < loadedChats.size(); a++) {
+                            TLRPC.Chat chat = loadedChats.get(a);
+                            chats.put(chat.id, chat);
+                        }
+                    }
 
-                                if (found != 0) {
-                                    NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                                    NativeByteBuffer data2 = new NativeByteBuffer(cursor.byteArrayLength(6));
-                                    if (data != null && cursor.byteBufferValue(0, data) != 0 && cursor.byteBufferValue(6, data2) != 0) {
-                                        TLRPC.EncryptedChat chat = TLRPC.EncryptedChat.TLdeserialize(data, data.readInt32(false), false);
-                                        DialogSearchResult dialogSearchResult = dialogsResult.get((long) chat.id << 32);
-
-                                        chat.user_id = cursor.intValue(2);
-                                        chat.a_or_b = cursor.byteArrayValue(3);
-                                        chat.auth_key = cursor.byteArrayValue(4);
-                                        chat.ttl = cursor.intValue(5);
-                                        chat.layer = cursor.intValue(8);
-                                        chat.seq_in = cursor.intValue(9);
-                                        chat.seq_out = cursor.intValue(10);
-                                        int use_count = cursor.intValue(11);
-                                        chat.key_use_count_in = (short) (use_count >> 16);
-                                        chat.key_use_count_out = (short) (use_count);
-                                        chat.exchange_id = cursor.longValue(12);
-                                        chat.key_create_date = cursor.intValue(13);
-                                        chat.future_key_fingerprint = cursor.longValue(14);
-                                        chat.future_auth_key = cursor.byteArrayValue(15);
-                                        chat.key_hash = cursor.byteArrayValue(16);
-
-                                        TLRPC.User user = TLRPC.User.TLdeserialize(data2, data2.readInt32(false), false);
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(7);
-                                        }
-                                        if (found == 1) {
-                                            dialogSearchResult.name = AndroidUtilities.replaceTags("<c#ff00a60e>" + ContactsController.formatName(user.first_name, user.last_name) + "</c>");
-                                        } else {
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q);
-                                        }
-                                        dialogSearchResult.object = chat;
-                                        encUsers.add(user);
-                                        resultCount++;
-                                    }
-                                    data.reuse();
-                                    data2.reuse();
-                                    break;
-                                }
+                    HashMap<Integer, TLRPC.EncryptedChat> encryptedChats = new HashMap<>();
+                    ArrayList<Integer> missingEncryptedChats = new ArrayList<>();
+                    for (int a = 0; a < encryptedToLoad.size(); a++) {
+                        Integer chatId = encryptedToLoad.get(a);
+                        TLRPC.EncryptedChat chat = MessagesController.getInstance().getEncryptedChat(chatId);
+                        if (chat != null) {
+                            encryptedChats.put(chatId, chat);
+                        } else {
+                            missingEncryptedChats.add(chatId);
+                        }
+                    }
+                    if (!missingEncryptedChats.isEmpty()) {
+                        ArrayList<TLRPC.EncryptedChat> loadedChats = new ArrayList<>();
+                        MessagesStorage.getInstance().getEncryptedChatsInternal(TextUtils.join(",", missingEncryptedChats), loadedChats, null);
+                        for (int a = 0; a < loadedChats.size(); a++) {
+                            TLRPC.EncryptedChat chat = loadedChats.get(a);
+                            encryptedChats.put(chat.id, chat);
+                        }
+                    }
+
+                    int resultCount = 0;
+                    for (HashMap.Entry<Long, DialogSearchResult> entry : dialogsResult.entrySet()) {
+                        long did = entry.getKey();
+                        DialogSearchResult dialogSearchResult = entry.getValue();
+                        int lower_id = (int) did;
+                        int high_id = (int) (did >> 32);
+                        if (lower_id == 0) {
+                            long userId = encryptedDialogs.get(did);
+                            TLRPC.EncryptedChat chat = encryptedChats.get(high_id);
+                            TLRPC.User user = users.get((int) userId);
+                            if (chat == null || user == null) {
+                                continue;
+                            }
+                            if (foundKinds.get(userId) == MessagesStorage.SEARCH_NAME_KIND_NAME) {
+                                dialogSearchResult.name = AndroidUtilities.replaceTags("<c#ff00a60e>" + ContactsController.formatName(user.first_name, user.last_name) + "</c>");
+                            } else {
+                                dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + foundQueries.get(userId));
+                            }
+                            dialogSearchResult.object = chat;
+                            encUsers.add(user);
+                        } else if (high_id == 1 || lower_id < 0) {
+                            TLRPC.Chat chat = chats.get(high_id == 1 ? lower_id : -lower_id);
+                            if (chat == null || chat.deactivated || ChatObject.isChannel(chat) && ChatObject.isNotInChat(chat)) {
+                                continue;
+                            }
+                            dialogSearchResult.name = AndroidUtilities.generateSearchName(chat.title, null, foundQueries.get(did));
+                            dialogSearchResult.object = chat;
+                        } else {
+                            TLRPC.User user = users.get(lower_id);
+                            if (user == null) {
+                                continue;
                             }
+                            if (foundKinds.get(did) == MessagesStorage.SEARCH_NAME_KIND_NAME) {
+                                dialogSearchResult.name = AndroidUtilities.generateSearchName(user.first_name, user.last_name, foundQueries.get(did));
+                            } else {
+                                dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + foundQueries.get(did));
+                            }
+                            dialogSearchResult.object = user;
                         }
-                        cursor.dispose();
+                        resultCount++;
                     }
 
                     ArrayList<DialogSearchResult> searchResults = new ArrayList<>(resultCount);
@@ -619,50 +657,18 @@ public class DialogsSearchAdapter extends BaseSearchAdapterRecycler {
                         resultArrayNames.add(dialogSearchResult.name);
                     }
 
-                    if (dialogsType != 2) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT u.data, u.status, u.name, u.uid FROM users as u INNER JOIN contacts as c ON u.uid = c.uid");
-                        while (cursor.next()) {
-                            int uid = cursor.intValue(3);
-                            if (dialogsResult.containsKey((long) uid)) {
-                                continue;
-                            }
-                            String name = cursor.stringValue(2);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 3);
-                            }
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
-                                }
-                                if (found != 0) {
-                                    NativeByteBuffer data = new NativeByteBuffer(cursor.byteArrayLength(0));
-                                    if (data != null && cursor.byteBufferValue(0, data) != 0) {
-                                        TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(1);
-                                        }
-                                        if (found == 1) {
-                                            resultArrayNames.add(AndroidUtilities.generateSearchName(user.first_name, user.last_name, q));
-                                        } else {
-                                            resultArrayNames.add(AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q));
-                                        }
-                                        resultArray.add(user);
-                                    }
-                                    data.reuse();
-                                    break;
-                                }
-                            }
+                    for (int a = 0; a < contactsToLoad.size(); a++) {
+                        long uid = contactsToLoad.get(a);
+                        TLRPC.User user = users.get((int) uid);
+                        if (user == null) {
+                            continue;
                         }
-                        cursor.dispose();
+                        if (foundKinds.get(uid) == MessagesStorage.SEARCH_NAME_KIND_NAME) {
+                            resultArrayNames.add(AndroidUtilities.generateSearchName(user.first_name, user.last_name, foundQueries.get(uid)));
+                        } else {
+                            resultArrayNames.add(AndroidUtilities.generateSearchName("@" + user.username, null, "@" + foundQueries.get(uid)));
+                        }
+                        resultArray.add(user);
                     }
 
                     updateSearchResults(resultArray, resultArrayNames, encUsers, searchId);
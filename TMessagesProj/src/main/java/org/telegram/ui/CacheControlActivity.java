@@ -35,6 +35,7 @@ import org.telegram.messenger.FileLog;
 import org.telegram.messenger.ImageLoader;
 import org.telegram.messenger.LocaleController;
 import org.telegram.messenger.MessagesStorage;
+import org.telegram.messenger.NotificationCenter;
 import org.telegram.messenger.R;
 import org.telegram.messenger.Utilities;
 import org.telegram.messenger.query.BotQuery;
@@ -52,7 +53,7 @@ import org.telegram.ui.Components.LayoutHelper;
 import java.io.File;
 import java.util.ArrayList;
 
-public class CacheControlActivity extends BaseFragment {
+public class CacheControlActivity extends BaseFragment implements NotificationCenter.NotificationCenterDelegate {
 
     private ListAdapter listAdapter;
 
@@ -93,6 +94,8 @@ public class CacheControlActivity extends BaseFragment {
         File file = new File(ApplicationLoader.getFilesDirFixed(), "cache4.db");
         databaseSize = file.length();
 
+        NotificationCenter.getInstance().addObserver(this, NotificationCenter.databaseCompacted);
+
         Utilities.globalQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
@@ -137,6 +140,18 @@ public class CacheControlActivity extends BaseFragment {
     public void onFragmentDestroy() {
         super.onFragmentDestroy();
         canceled = true;
+        NotificationCenter.getInstance().removeObserver(this, NotificationCenter.databaseCompacted);
+    }
+
+    @Override
+    public void didReceivedNotification(int id, Object... args) {
+        if (id == NotificationCenter.databaseCompacted) {
+            File file = new File(ApplicationLoader.getFilesDirFixed(), "cache4.db");
+            databaseSize = file.length();
+            if (listAdapter != null) {
+                listAdapter.notifyDataSetChanged();
+            }
+        }
     }
 
     /*private long getDirectorySize2(File dir) {
@@ -389,11 +404,12 @@ public class CacheControlActivity extends BaseFragment {
                                         SQLitePreparedStatement state7 = database.executeFast("REPLACE INTO messages_imp_holes VALUES(?, ?, ?)");
                                         SQLitePreparedStatement state8 = database.executeFast("REPLACE INTO channel_group VALUES(?, ?, ?, ?)");
 
+                                        String[] cleanupTables = new String[] {"channel_group", "messages_holes", "messages_imp_holes", "bot_keyboard", "media_counts_v2", "media_v2", "media_holes_v2"};
                                         database.beginTransaction();
                                         for (int a = 0; a < dialogsToCleanup.size(); a++) {
                                             Long did = dialogsToCleanup.get(a);
                                             int messagesCount = 0;
-                                            cursor = database.queryFinalized("SELECT COUNT(mid) FROM messages WHERE uid = " + did);
+                                            cursor = database.queryFinalized("SELECT COUNT(mid) FROM messages_meta WHERE uid = ?", did);
                                             if (cursor.next()) {
                                                 messagesCount = cursor.intValue(0);
                                             }
@@ -402,12 +418,12 @@ public class CacheControlActivity extends BaseFragment {
                                                 continue;
                                             }
 
-                                            cursor = database.queryFinalized("SELECT last_mid_i, last_mid FROM dialogs WHERE did = " + did);
+                                            cursor = database.queryFinalized("SELECT last_mid_i, last_mid FROM dialogs WHERE did = ?", did);
                                             ArrayList<TLRPC.Message> arrayList = new ArrayList<>();
                                             if (cursor.next()) {
                                                 long last_mid_i = cursor.longValue(0);
                                                 long last_mid = cursor.longValue(1);
-                                                SQLiteCursor cursor2 = database.queryFinalized("SELECT data FROM messages WHERE uid = " + did + " AND mid IN (" + last_mid_i + "," + last_mid + ")");
+                                                SQLiteCursor cursor2 = database.queryFinalized("SELECT data FROM messages WHERE uid = ? AND mid IN (?,?)", did, last_mid_i, last_mid);
                                                 try {
                                                     while (cursor2.next()) {
                                                         NativeByteBuffer data = new NativeByteBuffer(cursor2.byteArrayLength(0));
@@ -424,14 +440,18 @@ public class CacheControlActivity extends BaseFragment {
                                                 }
                                                 cursor2.dispose();
 
-                                                database.executeFast("DELETE FROM messages WHERE uid = " + did + " AND mid != " + last_mid_i + " AND mid != " + last_mid).stepThis().dispose();
-                                                database.executeFast("DELETE FROM channel_group WHERE uid = " + did).stepThis().dispose();
-                                                database.executeFast("DELETE FROM messages_holes WHERE uid = " + did).stepThis().dispose();
-                                                database.executeFast("DELETE FROM messages_imp_holes WHERE uid = " + did).stepThis().dispose();
-                                                database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
-                                                database.executeFast("DELETE FROM media_counts_v2 WHERE uid = " + did).stepThis().dispose();
-                                                database.executeFast("DELETE FROM media_v2 WHERE uid = " + did).stepThis().dispose();
-                                                database.executeFast("DELETE FROM media_holes_v2 WHERE uid = " + did).stepThis().dispose();
+                                                SQLitePreparedStatement state = database.executeFast("DELETE FROM messages_meta WHERE uid = ? AND mid != ? AND mid != ?");
+                                                state.bindLong(1, did);
+                                                state.bindLong(2, last_mid_i);
+                                                state.bindLong(3, last_mid);
+                                                state.step();
+                                                state.dispose();
+                                                for (int b = 0; b < cleanupTables.length; b++) {
+                                                    state = database.executeFast("DELETE FROM " + cleanupTables[b] + " WHERE uid = ?");
+                                                    state.bindLong(1, did);
+                                                    state.step();
+                                                    state.dispose();
+                                                }
                                                 BotQuery.clearBotKeyboard(did, null);
                                                 MessagesStorage.createFirstHoles(did, state5, state6, state7, state8, arrayList);
                                             }
@@ -442,7 +462,7 @@ public class CacheControlActivity extends BaseFragment {
                                         state7.dispose();
                                         state8.dispose();
                                         database.commitTransaction();
-                                        database.executeFast("VACUUM").stepThis().dispose();
+                                        MessagesStorage.getInstance().scheduleIncrementalVacuum(true);
                                     } catch (Exception e) {
                                         FileLog.e("tmessages", e);
                                     } finally {
@@ -144,16 +144,16 @@ public class SharedLinkCell extends FrameLayout {
             description = webPage.description;
             webPageLink = webPage.url;
         }
-        if (message != null && !message.messageOwner.entities.isEmpty()) {
-            for (int a = 0; a < message.messageOwner.entities.size(); a++) {
-                TLRPC.MessageEntity entity = message.messageOwner.entities.get(a);
+        if (message != null && !message.messageOwner.getEntities().isEmpty()) {
+            for (int a = 0; a < message.messageOwner.getEntities().size(); a++) {
+                TLRPC.MessageEntity entity = message.messageOwner.getEntities().get(a);
                 if (entity.length <= 0 || entity.offset < 0 || entity.offset >= message.messageOwner.message.length()) {
                     continue;
                 } else if (entity.offset + entity.length > message.messageOwner.message.length()) {
                     entity.length = message.messageOwner.message.length() - entity.offset;
                 }
                 if (a == 0 && webPageLink != null && !(entity.offset == 0 && entity.length == message.messageOwner.message.length())) {
-                    if (message.messageOwner.entities.size() == 1) {
+                    if (message.messageOwner.getEntities().size() == 1) {
                         if (description == null) {
                             description2 = message.messageOwner.message;
                         }
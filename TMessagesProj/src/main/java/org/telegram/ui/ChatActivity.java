@@ -56,6 +56,7 @@ import org.telegram.messenger.AndroidUtilities;
 import org.telegram.PhoneFormat.PhoneFormat;
 import org.telegram.messenger.ChatObject;
 import org.telegram.messenger.Emoji;
+import org.telegram.messenger.IntHashMap;
 import org.telegram.messenger.LocaleController;
 import org.telegram.messenger.MediaController;
 import org.telegram.messenger.MessagesStorage;
@@ -260,7 +261,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     private int cantDeleteMessagesCount;
     private ArrayList<Integer> waitingForLoad = new ArrayList<>();
 
-    private HashMap<Integer, MessageObject>[] messagesDict = new HashMap[]{new HashMap<>(), new HashMap<>()};
+    private IntHashMap<MessageObject>[] messagesDict = new IntHashMap[]{new IntHashMap<>(), new IntHashMap<>()};
     private HashMap<String, ArrayList<MessageObject>> messagesByDays = new HashMap<>();
     protected ArrayList<MessageObject> messages = new ArrayList<>();
     private int maxMessageId[] = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE};
@@ -3209,7 +3210,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
             if (replyingMessageObject == null && forwardingMessages == null && foundWebPage == null) {
                 return;
             }
-            if (replyingMessageObject != null && replyingMessageObject.messageOwner.reply_markup instanceof TLRPC.TL_replyKeyboardForceReply) {
+            if (replyingMessageObject != null && replyingMessageObject.messageOwner.getReplyMarkup() instanceof TLRPC.TL_replyKeyboardForceReply) {
                 SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE);
                 preferences.edit().putInt("answered_" + dialog_id, replyingMessageObject.getId()).commit();
             }
@@ -5502,7 +5503,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                     startLoadFromMessageId = 0;
                     needSelectFromMessageId = false;
                     waitingForLoad.add(lastLoadIndex);
-                    MessagesController.getInstance().loadMessages(dialog_id, AndroidUtilities.isTablet() ? 30 : 20, 0, true, 0, classGuid, 2, 0, channelMessagesImportant, lastLoadIndex++);
+                    MessagesController.getInstance().reloadMessagesFromCache(dialog_id, AndroidUtilities.isTablet() ? 30 : 20, classGuid, 2, channelMessagesImportant, lastLoadIndex++);
                 } else {
                     if (progressView != null) {
                         progressView.setVisibility(View.INVISIBLE);
@@ -5710,7 +5711,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                 if (message != null && !userBlocked) {
                     botButtons = new MessageObject(message, null, false);
                     if (chatActivityEnterView != null) {
-                        if (botButtons.messageOwner.reply_markup instanceof TLRPC.TL_replyKeyboardForceReply) {
+                        if (botButtons.messageOwner.getReplyMarkup() instanceof TLRPC.TL_replyKeyboardForceReply) {
                             SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE);
                             if (preferences.getInt("answered_" + dialog_id, 0) != botButtons.getId() && (replyingMessageObject == null || chatActivityEnterView.getFieldText() == null)) {
                                 botReplyButtons = botButtons;
@@ -5756,7 +5757,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                     if (messageObject != null) {
                         int newValue = array.get(messageId);
                         if (newValue > messageObject.messageOwner.views) {
-                            messageObject.messageOwner.views = newValue;
+                            messageObject.messageOwner.setViews(newValue);
                             updated = true;
                         }
                     }
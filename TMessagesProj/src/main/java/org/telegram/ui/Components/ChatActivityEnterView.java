@@ -1857,7 +1857,7 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
                     if (replyingMessageObject != null) {
                         openKeyboardInternal();
                         setButtons(botMessageObject, false);
-                    } else if (botButtonsMessageObject.messageOwner.reply_markup.single_use) {
+                    } else if (botButtonsMessageObject.messageOwner.getReplyMarkup().single_use) {
                         openKeyboardInternal();
                         SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE);
                         preferences.edit().putInt("answered_" + dialog_id, botButtonsMessageObject.getId()).commit();
@@ -1870,7 +1870,7 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
             sizeNotifierLayout.addView(botKeyboardView);
         }
         botButtonsMessageObject = messageObject;
-        botReplyMarkup = messageObject != null && messageObject.messageOwner.reply_markup instanceof TLRPC.TL_replyKeyboardMarkup ? (TLRPC.TL_replyKeyboardMarkup) messageObject.messageOwner.reply_markup : null;
+        botReplyMarkup = messageObject != null && messageObject.messageOwner.getReplyMarkup() instanceof TLRPC.TL_replyKeyboardMarkup ? (TLRPC.TL_replyKeyboardMarkup) messageObject.messageOwner.getReplyMarkup() : null;
 
         botKeyboardView.setPanelHeight(AndroidUtilities.displaySize.x > AndroidUtilities.displaySize.y ? keyboardHeightLand : keyboardHeight);
         botKeyboardView.setButtons(botReplyMarkup != null ? botReplyMarkup : null);
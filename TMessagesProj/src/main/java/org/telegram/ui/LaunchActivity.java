@@ -1631,6 +1631,7 @@ public class LaunchActivity extends Activity implements ActionBarLayout.ActionBa
         }
         ConnectionsManager.getInstance().setAppPaused(true, false);
         AndroidUtilities.unregisterUpdates();
+        MessagesStorage.getInstance().checkpoint();
     }
 
     @Override
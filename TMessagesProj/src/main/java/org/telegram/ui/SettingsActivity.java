@@ -50,6 +50,7 @@ import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import org.telegram.SQLite.SQLiteStatistics;
 import org.telegram.messenger.AndroidUtilities;
 import org.telegram.messenger.AnimationCompat.AnimatorListenerAdapterProxy;
 import org.telegram.messenger.AnimationCompat.AnimatorSetProxy;
@@ -63,6 +64,7 @@ import org.telegram.messenger.LocaleController;
 import org.telegram.messenger.FileLoader;
 import org.telegram.tgnet.ConnectionsManager;
 import org.telegram.tgnet.RequestDelegate;
+import org.telegram.tgnet.RpcStatistics;
 import org.telegram.tgnet.SerializedData;
 import org.telegram.tgnet.TLObject;
 import org.telegram.tgnet.TLRPC;
@@ -1109,6 +1111,10 @@ public class SettingsActivity extends BaseFragment implements NotificationCenter
     }
 
     private void sendLogs() {
+        RpcStatistics.dumpToLog();
+        SQLiteStatistics.dumpToLog();
+        MessagesController.getInstance().dumpUpdatesCoalescingToLog();
+        MessagesController.getInstance().dumpChannelDifferencesToLog();
         try {
             ArrayList<Uri> uris = new ArrayList<>();
             File sdCard = ApplicationLoader.applicationContext.getExternalFilesDir(null);
@@ -0,0 +1,75 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.tgnet.NativeByteBuffer;
+import org.telegram.tgnet.TLObject;
+import org.telegram.tgnet.TLRPC;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeserializeBenchmark {
+
+    @Param({Fixtures.MESSAGE, Fixtures.MESSAGE_MEDIA, Fixtures.USER, Fixtures.CHAT, Fixtures.UPDATES, Fixtures.DIALOGS})
+    public String fixture;
+
+    private byte[] bytes;
+    private NativeByteBuffer nativeBuffer;
+
+    @Setup
+    public void setup() throws Exception {
+        bytes = Fixtures.load(fixture);
+        nativeBuffer = Fixtures.wrapNative(bytes);
+    }
+
+    @Benchmark
+    public TLObject nativeByteBuffer() {
+        nativeBuffer.position(0);
+        return Fixtures.deserialize(fixture, nativeBuffer);
+    }
+
+    @Benchmark
+    public TLObject serializedData() {
+        return Fixtures.deserialize(fixture, bytes);
+    }
+
+    @Benchmark
+    public TLObject legacySerializedData() {
+        LegacySerializedData data = new LegacySerializedData(bytes);
+        TLObject result = Fixtures.deserialize(fixture, data);
+        data.cleanup();
+        return result;
+    }
+
+    @Benchmark
+    public TLObject nativeByteBufferLazyMessage() {
+        nativeBuffer.position(0);
+        if (Fixtures.MESSAGE.equals(fixture) || Fixtures.MESSAGE_MEDIA.equals(fixture)) {
+            return TLRPC.Message.TLdeserializeLazy(nativeBuffer, nativeBuffer.readInt32(true), true);
+        }
+        return Fixtures.deserialize(fixture, nativeBuffer);
+    }
+}
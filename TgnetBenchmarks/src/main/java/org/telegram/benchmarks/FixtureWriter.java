@@ -0,0 +1,35 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+// Writes the byte fixtures used by the benchmarks. Captured production payloads can be dropped into
+// the same directory under the same names to benchmark against real traffic instead.
+public class FixtureWriter {
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : "fixtures");
+        dir.mkdirs();
+        write(dir, Fixtures.MESSAGE, Fixtures.write(Fixtures.createMessage(1, false)));
+        write(dir, Fixtures.MESSAGE_MEDIA, Fixtures.write(Fixtures.createMessage(2, true)));
+        write(dir, Fixtures.USER, Fixtures.write(Fixtures.createUser(100001)));
+        write(dir, Fixtures.CHAT, Fixtures.write(Fixtures.createChat(1000042)));
+        write(dir, Fixtures.UPDATES, Fixtures.writeUpdates(40));
+        write(dir, Fixtures.DIALOGS, Fixtures.writeDialogs(100));
+    }
+
+    private static void write(File dir, String name, byte[] bytes) throws Exception {
+        FileOutputStream stream = new FileOutputStream(new File(dir, name + ".bin"));
+        stream.write(bytes);
+        stream.close();
+        System.out.println(name + ": " + bytes.length + " bytes");
+    }
+}
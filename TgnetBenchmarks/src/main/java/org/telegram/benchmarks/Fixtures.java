@@ -0,0 +1,258 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.benchmarks;
+
+import org.telegram.tgnet.AbstractSerializedData;
+import org.telegram.tgnet.NativeByteBuffer;
+import org.telegram.tgnet.SerializedData;
+import org.telegram.tgnet.TLObject;
+import org.telegram.tgnet.TLRPC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class Fixtures {
+
+    public static final String MESSAGE = "message";
+    public static final String MESSAGE_MEDIA = "message_media";
+    public static final String USER = "user";
+    public static final String CHAT = "chat";
+    public static final String UPDATES = "updates";
+    public static final String DIALOGS = "dialogs";
+
+    public static final String[] ALL = {MESSAGE, MESSAGE_MEDIA, USER, CHAT, UPDATES, DIALOGS};
+
+    public static byte[] load(String name) throws Exception {
+        InputStream stream = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".bin");
+        if (stream == null) {
+            throw new IllegalArgumentException("no fixture " + name + ", run the writeFixtures task");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        stream.close();
+        return out.toByteArray();
+    }
+
+    public static NativeByteBuffer wrapNative(byte[] bytes) {
+        NativeByteBuffer result = new NativeByteBuffer(false);
+        result.buffer = ByteBuffer.allocateDirect(bytes.length);
+        result.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        result.buffer.put(bytes);
+        result.buffer.position(0);
+        return result;
+    }
+
+    public static NativeByteBuffer allocateNative(int size) {
+        NativeByteBuffer result = new NativeByteBuffer(false);
+        result.buffer = ByteBuffer.allocateDirect(size);
+        result.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
+    }
+
+    public static TLObject deserialize(String name, AbstractSerializedData stream) {
+        int constructor = stream.readInt32(true);
+        switch (name) {
+            case MESSAGE:
+            case MESSAGE_MEDIA:
+                return TLRPC.Message.TLdeserialize(stream, constructor, true);
+            case USER:
+                return TLRPC.User.TLdeserialize(stream, constructor, true);
+            case CHAT:
+                return TLRPC.Chat.TLdeserialize(stream, constructor, true);
+            case UPDATES:
+                return TLRPC.Updates.TLdeserialize(stream, constructor, true);
+            case DIALOGS:
+                return TLRPC.messages_Dialogs.TLdeserialize(stream, constructor, true);
+        }
+        throw new IllegalArgumentException("unknown fixture " + name);
+    }
+
+    public static TLObject deserialize(String name, byte[] bytes) {
+        SerializedData data = new SerializedData(bytes);
+        TLObject result = deserialize(name, data);
+        data.cleanup();
+        return result;
+    }
+
+    static TLRPC.Message createMessage(int id, boolean withMedia) {
+        TLRPC.TL_message message = new TLRPC.TL_message();
+        message.id = id;
+        message.flags = TLRPC.MESSAGE_FLAG_HAS_FROM_ID | TLRPC.MESSAGE_FLAG_HAS_ENTITIES | TLRPC.MESSAGE_FLAG_HAS_VIEWS;
+        message.from_id = 100000 + id % 50;
+        message.to_id = new TLRPC.TL_peerChannel();
+        message.to_id.channel_id = 1000042;
+        message.date = 1460000000 + id;
+        message.views = 1200 + id;
+        message.message = "Message " + id + " with a link https://telegram.org and some text, سلام دنیا";
+        TLRPC.TL_messageEntityUrl url = new TLRPC.TL_messageEntityUrl();
+        url.offset = 20;
+        url.length = 20;
+        message.entities.add(url);
+        TLRPC.TL_messageEntityBold bold = new TLRPC.TL_messageEntityBold();
+        bold.offset = 0;
+        bold.length = 7;
+        message.entities.add(bold);
+        if (withMedia) {
+            message.flags |= TLRPC.MESSAGE_FLAG_HAS_MEDIA;
+            TLRPC.TL_messageMediaPhoto media = new TLRPC.TL_messageMediaPhoto();
+            media.caption = "";
+            TLRPC.TL_photo photo = new TLRPC.TL_photo();
+            photo.id = 5000000000L + id;
+            photo.access_hash = 0x1234567890L;
+            photo.date = message.date;
+            String[] types = {"s", "m", "x", "y"};
+            for (int a = 0; a < types.length; a++) {
+                TLRPC.TL_photoSize size = new TLRPC.TL_photoSize();
+                size.type = types[a];
+                size.location = createFileLocation(id * 10 + a);
+                size.w = 90 << a;
+                size.h = 60 << a;
+                size.size = 1500 << (a * 2);
+                photo.sizes.add(size);
+            }
+            media.photo = photo;
+            message.media = media;
+        } else {
+            message.media = new TLRPC.TL_messageMediaEmpty();
+        }
+        return message;
+    }
+
+    static TLRPC.User createUser(int id) {
+        TLRPC.TL_user user = new TLRPC.TL_user();
+        user.id = id;
+        user.flags = 1 | 2 | 4 | 8 | 16 | 32 | 64;
+        user.access_hash = 0x0102030405060708L * id;
+        user.first_name = "First" + id;
+        user.last_name = "نام خانوادگی";
+        user.username = "user_" + id;
+        user.phone = "98912" + (1000000 + id);
+        TLRPC.TL_userProfilePhoto photo = new TLRPC.TL_userProfilePhoto();
+        photo.photo_id = 7000000000L + id;
+        photo.photo_small = createFileLocation(id * 2);
+        photo.photo_big = createFileLocation(id * 2 + 1);
+        user.photo = photo;
+        TLRPC.TL_userStatusOffline status = new TLRPC.TL_userStatusOffline();
+        status.expires = 1460000000 + id;
+        user.status = status;
+        return user;
+    }
+
+    static TLRPC.Chat createChat(int id) {
+        TLRPC.TL_channel chat = new TLRPC.TL_channel();
+        chat.id = id;
+        chat.flags = 8192 | 64;
+        chat.megagroup = true;
+        chat.access_hash = 0x1122334455667788L * id;
+        chat.title = "Channel " + id;
+        chat.username = "channel_" + id;
+        TLRPC.TL_chatPhoto photo = new TLRPC.TL_chatPhoto();
+        photo.photo_small = createFileLocation(id * 2);
+        photo.photo_big = createFileLocation(id * 2 + 1);
+        chat.photo = photo;
+        chat.date = 1450000000;
+        chat.version = 3;
+        return chat;
+    }
+
+    static TLRPC.FileLocation createFileLocation(int id) {
+        TLRPC.TL_fileLocation location = new TLRPC.TL_fileLocation();
+        location.dc_id = 2 + id % 3;
+        location.volume_id = 800000000L + id;
+        location.local_id = 10000 + id;
+        location.secret = 0x7777777777L * id;
+        return location;
+    }
+
+    static byte[] writeUpdates(int count) {
+        SerializedData data = new SerializedData();
+        data.writeInt32(TLRPC.TL_updates.constructor);
+        data.writeInt32(0x1cb5c415);
+        data.writeInt32(count);
+        for (int a = 0; a < count; a++) {
+            if (a % 2 == 0) {
+                data.writeInt32(TLRPC.TL_updateNewChannelMessage.constructor);
+                writeNetworkMessage(createMessage(a + 1, a % 4 == 0), data);
+                data.writeInt32(1000 + a);
+                data.writeInt32(1);
+            } else {
+                TLRPC.TL_updateUserStatus update = new TLRPC.TL_updateUserStatus();
+                update.user_id = 100000 + a;
+                TLRPC.TL_userStatusOnline status = new TLRPC.TL_userStatusOnline();
+                status.expires = 1460000300;
+                update.status = status;
+                update.serializeToStream(data);
+            }
+        }
+        data.writeInt32(0x1cb5c415);
+        data.writeInt32(count / 2);
+        for (int a = 0; a < count / 2; a++) {
+            createUser(100000 + a).serializeToStream(data);
+        }
+        data.writeInt32(0x1cb5c415);
+        data.writeInt32(1);
+        createChat(1000042).serializeToStream(data);
+        data.writeInt32(1460000000);
+        data.writeInt32(0);
+        return data.toByteArray();
+    }
+
+    // Messages are stored locally with a trailing attachPath string that the server never sends,
+    // for server messages it is always empty and takes exactly 4 bytes.
+    static void writeNetworkMessage(TLRPC.Message message, SerializedData data) {
+        byte[] bytes = write(message);
+        data.writeBytes(bytes, 0, bytes.length - 4);
+    }
+
+    static byte[] writeDialogs(int count) {
+        SerializedData data = new SerializedData();
+        data.writeInt32(TLRPC.TL_messages_dialogs.constructor);
+        data.writeInt32(0x1cb5c415);
+        data.writeInt32(count);
+        for (int a = 0; a < count; a++) {
+            TLRPC.TL_dialog dialog = new TLRPC.TL_dialog();
+            dialog.peer = new TLRPC.TL_peerUser();
+            dialog.peer.user_id = 100000 + a;
+            dialog.top_message = 5000 + a;
+            dialog.read_inbox_max_id = 4990 + a;
+            dialog.unread_count = a % 7;
+            TLRPC.TL_peerNotifySettings settings = new TLRPC.TL_peerNotifySettings();
+            settings.sound = "default";
+            settings.show_previews = true;
+            dialog.notify_settings = settings;
+            dialog.serializeToStream(data);
+        }
+        data.writeInt32(0x1cb5c415);
+        data.writeInt32(count);
+        for (int a = 0; a < count; a++) {
+            writeNetworkMessage(createMessage(5000 + a, a % 3 == 0), data);
+        }
+        data.writeInt32(0x1cb5c415);
+        data.writeInt32(1);
+        createChat(1000042).serializeToStream(data);
+        data.writeInt32(0x1cb5c415);
+        data.writeInt32(count);
+        for (int a = 0; a < count; a++) {
+            createUser(100000 + a).serializeToStream(data);
+        }
+        return data.toByteArray();
+    }
+
+    static byte[] write(TLObject object) {
+        SerializedData data = new SerializedData();
+        object.serializeToStream(data);
+        return data.toByteArray();
+    }
+}
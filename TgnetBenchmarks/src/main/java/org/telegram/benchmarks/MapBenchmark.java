@@ -0,0 +1,241 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.messenger.ConcurrentIntHashMap;
+import org.telegram.messenger.ConcurrentLongHashMap;
+import org.telegram.messenger.IntHashMap;
+import org.telegram.messenger.LongHashMap;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+//the primitive-keyed caches against the boxed maps they replaced, run with -prof gc to compare the allocation rate
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"500", "20000"})
+    public int size;
+
+    private int[] userIds;
+    private long[] dialogIds;
+    private int[] lookupUserIds;
+    private long[] lookupDialogIds;
+
+    private IntHashMap<Object> intHashMap;
+    private HashMap<Integer, Object> intBoxedMap;
+    private LongHashMap<Object> longHashMap;
+    private HashMap<Long, Object> longBoxedMap;
+    private ConcurrentIntHashMap<Object> concurrentIntHashMap;
+    private ConcurrentHashMap<Integer, Object> concurrentIntBoxedMap;
+    private ConcurrentLongHashMap<Object> concurrentLongHashMap;
+    private ConcurrentHashMap<Long, Object> concurrentLongBoxedMap;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        userIds = new int[size];
+        dialogIds = new long[size];
+        for (int a = 0; a < size; a++) {
+            userIds[a] = 100000 + random.nextInt(200000000);
+            switch (a % 3) {
+                case 0:
+                    dialogIds[a] = userIds[a];
+                    break;
+                case 1:
+                    dialogIds[a] = -(1000000000 + random.nextInt(100000000));
+                    break;
+                default:
+                    dialogIds[a] = ((long) 1 << 32) | random.nextInt(1000000);
+                    break;
+            }
+        }
+        lookupUserIds = new int[LOOKUPS];
+        lookupDialogIds = new long[LOOKUPS];
+        for (int a = 0; a < LOOKUPS; a++) {
+            //one lookup in eight misses, like a peer that is not cached yet
+            if (a % 8 == 0) {
+                lookupUserIds[a] = -1 - a;
+                lookupDialogIds[a] = Long.MIN_VALUE + a;
+            } else {
+                int index = random.nextInt(size);
+                lookupUserIds[a] = userIds[index];
+                lookupDialogIds[a] = dialogIds[index];
+            }
+        }
+
+        Object value = new Object();
+        intHashMap = new IntHashMap<>();
+        intBoxedMap = new HashMap<>();
+        longHashMap = new LongHashMap<>();
+        longBoxedMap = new HashMap<>();
+        concurrentIntHashMap = new ConcurrentIntHashMap<>(100);
+        concurrentIntBoxedMap = new ConcurrentHashMap<>(100, 1.0f, 2);
+        concurrentLongHashMap = new ConcurrentLongHashMap<>(100);
+        concurrentLongBoxedMap = new ConcurrentHashMap<>(100, 1.0f, 2);
+        for (int a = 0; a < size; a++) {
+            intHashMap.put(userIds[a], value);
+            intBoxedMap.put(userIds[a], value);
+            longHashMap.put(dialogIds[a], value);
+            longBoxedMap.put(dialogIds[a], value);
+            concurrentIntHashMap.put(userIds[a], value);
+            concurrentIntBoxedMap.put(userIds[a], value);
+            concurrentLongHashMap.put(dialogIds[a], value);
+            concurrentLongBoxedMap.put(dialogIds[a], value);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int intHashMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (intHashMap.get(lookupUserIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int intBoxedMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (intBoxedMap.get(lookupUserIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int longHashMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (longHashMap.get(lookupDialogIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int longBoxedMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (longBoxedMap.get(lookupDialogIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int concurrentIntHashMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (concurrentIntHashMap.get(lookupUserIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int concurrentIntBoxedMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (concurrentIntBoxedMap.get(lookupUserIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int concurrentLongHashMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (concurrentLongHashMap.get(lookupDialogIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int concurrentLongBoxedMapGet() {
+        int found = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            if (concurrentLongBoxedMap.get(lookupDialogIds[a]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    //replaces and removes the looked up entries and puts them back, the way dialog updates churn dialogs_dict
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int longHashMapPutRemove() {
+        int total = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            long key = lookupDialogIds[a];
+            Object value = longHashMap.remove(key);
+            if (value != null) {
+                longHashMap.put(key, value);
+            }
+            total += longHashMap.size();
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int longBoxedMapPutRemove() {
+        int total = 0;
+        for (int a = 0; a < LOOKUPS; a++) {
+            long key = lookupDialogIds[a];
+            Object value = longBoxedMap.remove(key);
+            if (value != null) {
+                longBoxedMap.put(key, value);
+            }
+            total += longBoxedMap.size();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.tgnet.NativeByteBuffer;
+import org.telegram.tgnet.SerializedData;
+import org.telegram.tgnet.TLObject;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark {
+
+    @Param({Fixtures.MESSAGE, Fixtures.MESSAGE_MEDIA, Fixtures.USER, Fixtures.CHAT, Fixtures.DIALOGS})
+    public String fixture;
+
+    private TLObject object;
+    private NativeByteBuffer nativeBuffer;
+    private SerializedData reusableData;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] bytes = Fixtures.load(fixture);
+        object = Fixtures.deserialize(fixture, bytes);
+        nativeBuffer = Fixtures.allocateNative(bytes.length * 2);
+        reusableData = new SerializedData();
+    }
+
+    @Benchmark
+    public int objectSize() {
+        return object.getObjectSize();
+    }
+
+    @Benchmark
+    public int nativeByteBufferWrite() {
+        nativeBuffer.rewind();
+        object.serializeToStream(nativeBuffer);
+        return nativeBuffer.position();
+    }
+
+    @Benchmark
+    public int nativeByteBufferSizeAndWrite() {
+        int size = object.getObjectSize();
+        nativeBuffer.rewind();
+        object.serializeToStream(nativeBuffer);
+        return size + nativeBuffer.position();
+    }
+
+    @Benchmark
+    public byte[] serializedData() {
+        SerializedData data = new SerializedData();
+        object.serializeToStream(data);
+        return data.toByteArray();
+    }
+
+    @Benchmark
+    public int serializedDataReused() {
+        reusableData.reset();
+        object.serializeToStream(reusableData);
+        return reusableData.length();
+    }
+
+    @Benchmark
+    public byte[] legacySerializedData() {
+        LegacySerializedData data = new LegacySerializedData();
+        object.serializeToStream(data);
+        byte[] result = data.toByteArray();
+        data.cleanup();
+        return result;
+    }
+}
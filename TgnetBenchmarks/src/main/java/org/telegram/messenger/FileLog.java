@@ -0,0 +1,33 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+// Plain JVM stand-in for the Android FileLog so tgnet classes can be benchmarked off-device.
+public class FileLog {
+
+    public static void e(final String tag, final String message, final Throwable exception) {
+
+    }
+
+    public static void e(final String tag, final String message) {
+
+    }
+
+    public static void e(final String tag, final Throwable e) {
+
+    }
+
+    public static void d(final String tag, final String message) {
+
+    }
+
+    public static void w(final String tag, final String message) {
+
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import org.junit.Test;
+import org.telegram.tgnet.TLRPC;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DialogsIndexTest {
+
+    private static final Comparator<TLRPC.Dialog> fullSort = new Comparator<TLRPC.Dialog>() {
+        @Override
+        public int compare(TLRPC.Dialog dialog, TLRPC.Dialog dialog2) {
+            if (dialog.last_message_date != dialog2.last_message_date) {
+                return dialog.last_message_date < dialog2.last_message_date ? 1 : -1;
+            }
+            if (dialog.id != dialog2.id) {
+                return dialog.id < dialog2.id ? 1 : -1;
+            }
+            return 0;
+        }
+    };
+
+    private final ArrayList<TLRPC.Dialog> all = new ArrayList<>();
+    private final ArrayList<TLRPC.Dialog> serverOnly = new ArrayList<>();
+    private final ArrayList<TLRPC.Dialog> groupsOnly = new ArrayList<>();
+    private final HashMap<Integer, TLRPC.Chat> chats = new HashMap<>();
+    private final HashMap<Long, TLRPC.Dialog> current = new HashMap<>();
+    private final DialogsIndex index = new DialogsIndex(all, serverOnly, groupsOnly, new DialogsIndex.ChatProvider() {
+        @Override
+        public TLRPC.Chat getChat(int id) {
+            return chats.get(id);
+        }
+    });
+
+    private static TLRPC.Dialog createDialog(long id, int date) {
+        TLRPC.Dialog dialog = new TLRPC.TL_dialog();
+        dialog.id = id;
+        dialog.last_message_date = date;
+        return dialog;
+    }
+
+    private TLRPC.Dialog createChannel(int chatId, int date, boolean megagroup) {
+        TLRPC.Chat chat = new TLRPC.TL_channel();
+        chat.id = chatId;
+        chat.megagroup = megagroup;
+        chat.editor = megagroup;
+        chats.put(chatId, chat);
+        TLRPC.Dialog dialog = new TLRPC.TL_dialogChannel();
+        dialog.id = -chatId;
+        dialog.last_message_date = date;
+        return dialog;
+    }
+
+    private void update(TLRPC.Dialog dialog) {
+        current.put(dialog.id, dialog);
+        index.update(dialog);
+    }
+
+    private boolean remove(TLRPC.Dialog dialog) {
+        current.remove(dialog.id);
+        return index.remove(dialog);
+    }
+
+    //rebuilds all three lists from scratch with a full sort and compares them with the index
+    private void assertMatchesFullSort() {
+        ArrayList<TLRPC.Dialog> expectedAll = new ArrayList<>(current.values());
+        Collections.sort(expectedAll, fullSort);
+        ArrayList<TLRPC.Dialog> expectedServerOnly = new ArrayList<>();
+        ArrayList<TLRPC.Dialog> expectedGroupsOnly = new ArrayList<>();
+        for (int a = 0; a < expectedAll.size(); a++) {
+            TLRPC.Dialog dialog = expectedAll.get(a);
+            int lower_id = (int) dialog.id;
+            int high_id = (int) (dialog.id >> 32);
+            if (lower_id == 0 || high_id == 1) {
+                continue;
+            }
+            expectedServerOnly.add(dialog);
+            if (dialog instanceof TLRPC.TL_dialogChannel) {
+                TLRPC.Chat chat = chats.get(-lower_id);
+                if (chat != null && (chat.megagroup && chat.editor || chat.creator)) {
+                    expectedGroupsOnly.add(dialog);
+                }
+            } else if (dialog.id < 0) {
+                expectedGroupsOnly.add(dialog);
+            }
+        }
+        assertEquals(ids(expectedAll), ids(all));
+        assertEquals(ids(expectedServerOnly), ids(serverOnly));
+        assertEquals(ids(expectedGroupsOnly), ids(groupsOnly));
+        for (int a = 0; a < all.size(); a++) {
+            assertTrue(current.get(all.get(a).id) == all.get(a));
+        }
+    }
+
+    private static String ids(ArrayList<TLRPC.Dialog> dialogs) {
+        StringBuilder builder = new StringBuilder();
+        for (int a = 0; a < dialogs.size(); a++) {
+            TLRPC.Dialog dialog = dialogs.get(a);
+            builder.append(dialog.id).append('@').append(dialog.last_message_date).append(' ');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void insertKeepsAllListsSorted() {
+        update(createDialog(10, 300));
+        update(createDialog(-20, 100));
+        update(createDialog(((long) 5) << 32, 200));
+        update(createDialog(((long) 1 << 32) | 7, 400));
+        update(createChannel(30, 250, true));
+        update(createChannel(31, 350, false));
+        update(createDialog(11, 50));
+        assertMatchesFullSort();
+    }
+
+    @Test
+    public void rebuildMatchesFullSort() {
+        Random random = new Random(1);
+        for (int a = 0; a < 50; a++) {
+            TLRPC.Dialog dialog = createDialog(random.nextInt(200) - 100, random.nextInt(5));
+            current.put(dialog.id, dialog);
+        }
+        index.rebuild(current.values());
+        assertMatchesFullSort();
+    }
+
+    @Test
+    public void dateTiesAreOrderedById() {
+        update(createDialog(3, 100));
+        update(createDialog(-3, 100));
+        update(createDialog(7, 100));
+        update(createDialog(5, 100));
+        update(createChannel(2, 100, true));
+        assertMatchesFullSort();
+
+        TLRPC.Dialog dialog = createDialog(4, 50);
+        update(dialog);
+        dialog.last_message_date = 100;
+        update(dialog);
+        assertMatchesFullSort();
+    }
+
+    @Test
+    public void dateUpdatesMoveDialogBothWays() {
+        TLRPC.Dialog moving = createDialog(-40, 200);
+        update(createDialog(1, 100));
+        update(createDialog(2, 300));
+        update(createDialog(-3, 400));
+        update(moving);
+        assertMatchesFullSort();
+
+        moving.last_message_date = 500;
+        update(moving);
+        assertMatchesFullSort();
+        assertEquals(-40, all.get(0).id);
+
+        moving.last_message_date = 10;
+        update(moving);
+        assertMatchesFullSort();
+        assertEquals(-40, all.get(all.size() - 1).id);
+
+        //a new object for the same id replaces the previous one
+        update(createDialog(-40, 350));
+        assertMatchesFullSort();
+        assertEquals(4, all.size());
+    }
+
+    @Test
+    public void removeDropsDialogFromEveryList() {
+        TLRPC.Dialog group = createDialog(-1, 100);
+        TLRPC.Dialog secret = createDialog(((long) 9) << 32, 150);
+        TLRPC.Dialog channel = createChannel(12, 120, true);
+        update(group);
+        update(secret);
+        update(channel);
+        update(createDialog(2, 100));
+
+        assertTrue(remove(group));
+        assertMatchesFullSort();
+        assertFalse(remove(secret));
+        assertMatchesFullSort();
+        assertTrue(remove(channel));
+        assertMatchesFullSort();
+        assertFalse(remove(createDialog(77, 1)));
+        assertEquals(1, all.size());
+    }
+
+    @Test
+    public void channelBecomingGroupIsFiltered() {
+        TLRPC.Dialog channel = createChannel(15, 100, false);
+        update(channel);
+        assertMatchesFullSort();
+        chats.get(15).creator = true;
+        update(channel);
+        assertMatchesFullSort();
+        assertEquals(1, groupsOnly.size());
+    }
+
+    @Test
+    public void randomOperationsMatchFullSort() {
+        Random random = new Random(42);
+        ArrayList<TLRPC.Dialog> known = new ArrayList<>();
+        for (int step = 0; step < 2000; step++) {
+            int operation = random.nextInt(4);
+            if (operation == 0 || known.isEmpty()) {
+                long id = random.nextInt(60) - 30;
+                if (random.nextInt(5) == 0) {
+                    id = ((long) (random.nextInt(3) + 1)) << 32;
+                }
+                TLRPC.Dialog dialog = createDialog(id, random.nextInt(20));
+                known.add(dialog);
+                update(dialog);
+            } else if (operation == 3) {
+                remove(known.remove(random.nextInt(known.size())));
+            } else {
+                TLRPC.Dialog dialog = known.get(random.nextInt(known.size()));
+                if (current.get(dialog.id) != dialog) {
+                    continue;
+                }
+                dialog.last_message_date = random.nextInt(20);
+                update(dialog);
+            }
+            assertMatchesFullSort();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.messenger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PriorityLanesTest {
+
+    private static class Task implements Runnable {
+
+        private final String name;
+        private final ArrayList<String> log;
+
+        public Task(String name, ArrayList<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            log.add(name);
+        }
+    }
+
+    private static void run(PriorityLanes lanes) {
+        Runnable task;
+        while ((task = lanes.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void interactiveTaskOvertakesNormalOne() {
+        ArrayList<String> log = new ArrayList<>();
+        PriorityLanes lanes = new PriorityLanes();
+        lanes.add(new Task("normal", log), PriorityLanes.PRIORITY_NORMAL, false);
+        lanes.add(new Task("interactive", log), PriorityLanes.PRIORITY_INTERACTIVE, false);
+        run(lanes);
+        assertEquals("[interactive, normal]", log.toString());
+    }
+
+    @Test
+    public void invokeAfterRequestsStayFifoAcrossLanes() {
+        ArrayList<String> log = new ArrayList<>();
+        PriorityLanes lanes = new PriorityLanes();
+        lanes.add(new Task("normal", log), PriorityLanes.PRIORITY_NORMAL, true);
+        lanes.add(new Task("interactive", log), PriorityLanes.PRIORITY_INTERACTIVE, true);
+        lanes.add(new Task("unordered", log), PriorityLanes.PRIORITY_INTERACTIVE, false);
+        run(lanes);
+        assertEquals("[unordered, normal, interactive]", log.toString());
+    }
+
+    @Test
+    public void orderedTaskPicksItsOwnLaneOnceEarlierOnesRan() {
+        ArrayList<String> log = new ArrayList<>();
+        PriorityLanes lanes = new PriorityLanes();
+        lanes.add(new Task("first", log), PriorityLanes.PRIORITY_BACKGROUND, true);
+        run(lanes);
+        lanes.add(new Task("normal", log), PriorityLanes.PRIORITY_NORMAL, false);
+        lanes.add(new Task("interactive", log), PriorityLanes.PRIORITY_INTERACTIVE, true);
+        run(lanes);
+        assertEquals("[first, interactive, normal]", log.toString());
+    }
+
+    @Test
+    public void cancelledOrderedTaskReleasesItsLane() {
+        ArrayList<String> log = new ArrayList<>();
+        PriorityLanes lanes = new PriorityLanes();
+        Task background = new Task("background", log);
+        lanes.add(background, PriorityLanes.PRIORITY_BACKGROUND, true);
+        lanes.remove(background);
+        lanes.add(new Task("normal", log), PriorityLanes.PRIORITY_NORMAL, false);
+        lanes.add(new Task("interactive", log), PriorityLanes.PRIORITY_INTERACTIVE, true);
+        run(lanes);
+        assertEquals("[interactive, normal]", log.toString());
+        assertNull(lanes.poll());
+    }
+}
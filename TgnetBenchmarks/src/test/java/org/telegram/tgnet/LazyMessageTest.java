@@ -0,0 +1,142 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.tgnet;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyMessageTest {
+
+    private static TLRPC.TL_message createMessage(boolean withTail) {
+        TLRPC.TL_message message = new TLRPC.TL_message();
+        message.id = 42;
+        message.flags = TLRPC.MESSAGE_FLAG_HAS_FROM_ID | TLRPC.MESSAGE_FLAG_HAS_MEDIA | TLRPC.MESSAGE_FLAG_HAS_VIEWS | 32768;
+        message.from_id = 1001;
+        message.to_id = new TLRPC.TL_peerChannel();
+        message.to_id.channel_id = 1000042;
+        message.date = 1460000000;
+        message.edit_date = 1460000100;
+        message.views = 1234;
+        message.message = "https://telegram.org";
+        TLRPC.TL_messageMediaWebPage media = new TLRPC.TL_messageMediaWebPage();
+        TLRPC.TL_webPage webPage = new TLRPC.TL_webPage();
+        webPage.flags = 1 | 2 | 4 | 8;
+        webPage.id = 5000000000L;
+        webPage.url = message.message;
+        webPage.display_url = "telegram.org";
+        webPage.type = "article";
+        webPage.site_name = "Telegram";
+        webPage.title = "Telegram Messenger";
+        webPage.description = "A new era of messaging";
+        media.webpage = webPage;
+        message.media = media;
+        if (withTail) {
+            message.flags |= TLRPC.MESSAGE_FLAG_HAS_ENTITIES | TLRPC.MESSAGE_FLAG_HAS_MARKUP;
+            TLRPC.TL_messageEntityUrl url = new TLRPC.TL_messageEntityUrl();
+            url.offset = 0;
+            url.length = message.message.length();
+            message.entities.add(url);
+            TLRPC.TL_replyKeyboardMarkup markup = new TLRPC.TL_replyKeyboardMarkup();
+            TLRPC.TL_keyboardButtonRow row = new TLRPC.TL_keyboardButtonRow();
+            TLRPC.TL_keyboardButton button = new TLRPC.TL_keyboardButton();
+            button.text = "Open";
+            row.buttons.add(button);
+            markup.rows.add(row);
+            message.reply_markup = markup;
+        }
+        return message;
+    }
+
+    private static byte[] serialize(TLObject object) {
+        SerializedData data = new SerializedData(object.getObjectSize());
+        object.serializeToStream(data);
+        byte[] result = data.toByteArray();
+        data.cleanup();
+        return result;
+    }
+
+    private static TLRPC.Message deserializeLazy(byte[] bytes) {
+        NativeByteBuffer buffer = new NativeByteBuffer(false);
+        buffer.buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.buffer.put(bytes);
+        buffer.buffer.position(0);
+        return TLRPC.Message.TLdeserializeLazy(buffer, buffer.readInt32(true), true);
+    }
+
+    @Test
+    public void lazyRoundTripKeepsEveryField() {
+        byte[] bytes = serialize(createMessage(true));
+        TLRPC.Message message = deserializeLazy(bytes);
+        assertNotNull(message.lazyData);
+        assertTrue(message.media instanceof TLRPC.TL_messageMediaWebPage);
+        assertEquals("Telegram Messenger", message.media.webpage.title);
+
+        message.ensureParsed();
+        message.ensureParsed();
+        assertNull(message.lazyData);
+        assertEquals(1, message.entities.size());
+        assertTrue(message.reply_markup instanceof TLRPC.TL_replyKeyboardMarkup);
+        assertEquals(1234, message.views);
+        assertEquals(1460000100, message.edit_date);
+        assertArrayEquals(bytes, serialize(message));
+    }
+
+    @Test
+    public void reserializingUnparsedMessageKeepsBytes() {
+        byte[] bytes = serialize(createMessage(true));
+        assertArrayEquals(bytes, serialize(deserializeLazy(bytes)));
+    }
+
+    @Test
+    public void viewsAloneAreReadInPlace() {
+        byte[] bytes = serialize(createMessage(false));
+        TLRPC.Message message = deserializeLazy(bytes);
+        assertNull(message.lazyData);
+        assertEquals(1234, message.views);
+        assertEquals(1460000100, message.edit_date);
+        assertArrayEquals(bytes, serialize(message));
+    }
+
+    @Test
+    public void gettersParseDeferredFields() {
+        TLRPC.Message message = deserializeLazy(serialize(createMessage(true)));
+        assertNull(message.reply_markup);
+        assertTrue(message.getReplyMarkup() instanceof TLRPC.TL_replyKeyboardMarkup);
+        assertNull(message.lazyData);
+
+        message = deserializeLazy(serialize(createMessage(true)));
+        assertEquals(1, message.getEntities().size());
+        assertTrue(message.getEntities().get(0) instanceof TLRPC.TL_messageEntityUrl);
+        assertNull(message.lazyData);
+    }
+
+    @Test
+    public void settersAreNotOverwrittenByDeferredParse() {
+        TLRPC.Message message = deserializeLazy(serialize(createMessage(true)));
+        message.setViews(2000);
+        ArrayList<TLRPC.MessageEntity> entities = new ArrayList<>();
+        entities.add(new TLRPC.TL_messageEntityBold());
+        message.setEntities(entities);
+        message.ensureParsed();
+        assertEquals(2000, message.views);
+        assertEquals(1, message.entities.size());
+        assertTrue(message.entities.get(0) instanceof TLRPC.TL_messageEntityBold);
+        assertTrue(message.reply_markup instanceof TLRPC.TL_replyKeyboardMarkup);
+    }
+}
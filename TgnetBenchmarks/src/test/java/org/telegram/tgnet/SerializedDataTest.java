@@ -0,0 +1,87 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.tgnet;
+
+import org.junit.Test;
+import org.telegram.benchmarks.LegacySerializedData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class SerializedDataTest {
+
+    private static byte[] createPayload() {
+        SerializedData data = new SerializedData();
+        data.writeInt32(0x12345678);
+        data.writeInt64(0x0102030405060708L);
+        data.writeBool(true);
+        data.writeString("telegram ✓");
+        data.writeByteArray(new byte[300]);
+        data.writeBytes(new byte[] {1, 2, 3, 4, 5, 6});
+        data.writeDouble(2.5);
+        data.writeString("");
+        return data.toByteArray();
+    }
+
+    //reads every kind of field the payload has, then keeps reading past its end
+    private static ArrayList<String> readAll(AbstractSerializedData data, boolean exception) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int round = 0; round < 2; round++) {
+            try {
+                result.add("int32 " + data.readInt32(exception));
+                result.add("int64 " + data.readInt64(exception));
+                result.add("bool " + data.readBool(exception));
+                result.add("string " + data.readString(exception));
+                byte[] array = data.readByteArray(exception);
+                result.add("array " + (array != null ? Arrays.toString(array) : null));
+                byte[] bytes = new byte[6];
+                data.readBytes(bytes, exception);
+                result.add("bytes " + Arrays.toString(bytes));
+                result.add("double " + data.readDouble(exception));
+                result.add("string " + data.readString(exception));
+            } catch (RuntimeException e) {
+                result.add("error");
+            }
+        }
+        return result;
+    }
+
+    private static void assertSameAsLegacy(byte[] bytes, boolean exception) {
+        ArrayList<String> expected = readAll(new LegacySerializedData(bytes), exception);
+        ArrayList<String> actual = readAll(new SerializedData(bytes), exception);
+        assertEquals("length " + bytes.length + " exception " + exception, expected, actual);
+    }
+
+    @Test
+    public void fullPayloadReadsLikeLegacy() {
+        byte[] payload = createPayload();
+        assertSameAsLegacy(payload, false);
+        assertSameAsLegacy(payload, true);
+    }
+
+    @Test
+    public void truncatedPayloadReadsLikeLegacy() {
+        byte[] payload = createPayload();
+        for (int length = 0; length < payload.length; length++) {
+            byte[] truncated = Arrays.copyOf(payload, length);
+            assertSameAsLegacy(truncated, false);
+            assertSameAsLegacy(truncated, true);
+        }
+    }
+
+    @Test
+    public void readingPastTheEndReturnsMinusOne() {
+        SerializedData data = new SerializedData(new byte[] {1, 0, 0, 0});
+        assertEquals(1, data.readInt32(false));
+        assertEquals(-1, data.readInt32(true));
+        assertEquals(-1L, data.readInt64(true));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.tgnet;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StringDecoderTest {
+
+    private static final int[] LENGTHS = {1, 2, 23, 24, 25, 100, 300, 5000};
+
+    @After
+    public void restoreCache() {
+        StringDecoder.setCacheEnabled(true);
+    }
+
+    private static ByteBuffer heapBuffer(byte[] bytes) {
+        return ByteBuffer.wrap(bytes);
+    }
+
+    //array backed buffer whose content starts at a non zero array offset
+    private static ByteBuffer slicedBuffer(byte[] bytes) {
+        byte[] array = new byte[bytes.length + 7];
+        Arrays.fill(array, (byte) 0xff);
+        System.arraycopy(bytes, 0, array, 5, bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        buffer.position(5);
+        ByteBuffer slice = buffer.slice();
+        slice.limit(bytes.length);
+        return slice;
+    }
+
+    private static ByteBuffer directBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    //decodes the bytes through every buffer kind with the cache on and off, twice so cached entries are hit too
+    private static void assertDecodesLikeString(byte[] bytes) throws UnsupportedEncodingException {
+        String expected = new String(bytes, "UTF-8");
+        for (int cache = 0; cache < 2; cache++) {
+            StringDecoder.setCacheEnabled(cache == 0);
+            for (int round = 0; round < 2; round++) {
+                ByteBuffer[] buffers = {heapBuffer(bytes), slicedBuffer(bytes), directBuffer(bytes)};
+                for (int a = 0; a < buffers.length; a++) {
+                    ByteBuffer buffer = buffers[a];
+                    String message = "buffer " + a + " cache " + (cache == 0) + " bytes " + Arrays.toString(bytes);
+                    assertEquals(message, expected, StringDecoder.decode(buffer, bytes.length));
+                    assertEquals(message, bytes.length, buffer.position());
+                }
+            }
+        }
+    }
+
+    private static byte[] repeat(String value, int length) throws UnsupportedEncodingException {
+        byte[] unit = value.getBytes("UTF-8");
+        byte[] bytes = new byte[length];
+        for (int a = 0; a < length; a++) {
+            bytes[a] = unit[a % unit.length];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void emptyString() throws Exception {
+        assertDecodesLikeString(new byte[0]);
+    }
+
+    @Test
+    public void asciiStrings() throws Exception {
+        for (int a = 0; a < LENGTHS.length; a++) {
+            assertDecodesLikeString(repeat("telegram ", LENGTHS[a]));
+        }
+        byte[] all = new byte[128];
+        for (int a = 0; a < all.length; a++) {
+            all[a] = (byte) a;
+        }
+        assertDecodesLikeString(all);
+    }
+
+    @Test
+    public void multiByteStrings() throws Exception {
+        String[] samples = {"привет", "✓", "日本語テキスト", "emoji 😀 end", "ä"};
+        for (int a = 0; a < samples.length; a++) {
+            assertDecodesLikeString(samples[a].getBytes("UTF-8"));
+            assertDecodesLikeString(("ascii prefix " + samples[a]).getBytes("UTF-8"));
+        }
+        for (int a = 0; a < LENGTHS.length; a++) {
+            assertDecodesLikeString(repeat("a✓б😀", LENGTHS[a]));
+        }
+    }
+
+    @Test
+    public void invalidSequences() throws Exception {
+        byte[][] samples = {
+                {(byte) 0x80},
+                {(byte) 0xff, (byte) 0xfe},
+                {'a', (byte) 0xc3},
+                {(byte) 0xe2, (byte) 0x9c},
+                {(byte) 0xc0, (byte) 0xaf},
+                {(byte) 0xed, (byte) 0xa0, (byte) 0x80},
+                {(byte) 0xf0, (byte) 0x9f, (byte) 0x98, 'x'},
+                {'o', 'k', (byte) 0xf8, (byte) 0x88, (byte) 0x80, (byte) 0x80, (byte) 0x80},
+        };
+        for (int a = 0; a < samples.length; a++) {
+            assertDecodesLikeString(samples[a]);
+        }
+        Random random = new Random(9);
+        for (int a = 0; a < 200; a++) {
+            byte[] bytes = new byte[LENGTHS[a % LENGTHS.length]];
+            random.nextBytes(bytes);
+            assertDecodesLikeString(bytes);
+        }
+    }
+
+    @Test
+    public void decodesOnlyTheRequestedRange() throws Exception {
+        byte[] bytes = "head✓tail".getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertEquals("head", StringDecoder.decode(buffer, 4));
+        assertEquals("✓", StringDecoder.decode(buffer, 3));
+        assertEquals("tail", StringDecoder.decode(buffer, 4));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void lengthPastTheEndThrows() {
+        StringDecoder.decode(ByteBuffer.wrap(new byte[3]), 4);
+    }
+}
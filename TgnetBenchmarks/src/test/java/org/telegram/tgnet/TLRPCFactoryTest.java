@@ -0,0 +1,196 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2016.
+ */
+
+package org.telegram.tgnet;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TLRPCFactoryTest {
+
+    private static Integer getConstructor(Class<?> clazz) throws Exception {
+        Field field;
+        try {
+            field = clazz.getDeclaredField("constructor");
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+        if (!Modifier.isStatic(field.getModifiers()) || field.getType() != int.class) {
+            return null;
+        }
+        return field.getInt(null);
+    }
+
+    private static String hex(int constructor) {
+        return String.format("0x%08x", constructor);
+    }
+
+    @Test
+    public void generatedEntriesInstantiateTheirOwnClass() throws Exception {
+        HashSet<Integer> seen = new HashSet<>();
+        for (int a = 0; a < TLRPCFactory.CONSTRUCTORS.length; a++) {
+            int constructor = TLRPCFactory.CONSTRUCTORS[a];
+            assertTrue("duplicate " + hex(constructor), seen.add(constructor));
+            TLObject object = TLRPCFactory.newInstance(constructor);
+            assertNotNull(hex(constructor), object);
+            assertEquals(hex(constructor), Integer.valueOf(constructor), getConstructor(object.getClass()));
+        }
+    }
+
+    @Test
+    public void everyDeclaredConstructorIsGenerated() throws Exception {
+        Class<?>[] classes = TLRPC.class.getDeclaredClasses();
+        int count = 0;
+        for (int a = 0; a < classes.length; a++) {
+            Integer constructor = getConstructor(classes[a]);
+            if (constructor == null) {
+                continue;
+            }
+            TLObject object = TLRPCFactory.newInstance(constructor);
+            assertNotNull(classes[a].getSimpleName(), object);
+            assertEquals(classes[a].getSimpleName(), constructor, getConstructor(object.getClass()));
+            count++;
+        }
+        assertEquals(count - TLRPCFactory.CONSTRUCTORS.length, countSharedConstructors(classes));
+    }
+
+    //stops readParams at its first read, so the class picked by a switch shows up as the frame called from TLdeserialize
+    private static class StopRead extends RuntimeException {
+
+    }
+
+    private static class StoppingSerializedData extends SerializedData {
+
+        public StoppingSerializedData() {
+            super(new byte[0]);
+        }
+
+        @Override
+        public int readInt32(boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public boolean readBool(boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public long readInt64(boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public void readBytes(byte[] b, boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public byte[] readData(int count, boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public String readString(boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public byte[] readByteArray(boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public NativeByteBuffer readByteBuffer(boolean exception) {
+            throw new StopRead();
+        }
+
+        @Override
+        public double readDouble(boolean exception) {
+            throw new StopRead();
+        }
+    }
+
+    //the hand-written TLdeserialize switches must pick the same class the factory does
+    @Test
+    public void matchesHandWrittenSwitches() throws Exception {
+        Class<?>[] classes = TLRPC.class.getDeclaredClasses();
+        int checked = 0;
+        for (int a = 0; a < classes.length; a++) {
+            Integer constructor = getConstructor(classes[a]);
+            if (constructor == null) {
+                continue;
+            }
+            Method deserialize = findDeserialize(classes[a]);
+            if (deserialize == null) {
+                continue;
+            }
+            Class<?> expected = TLRPCFactory.newInstance(constructor).getClass();
+            try {
+                Object result = deserialize.invoke(null, new StoppingSerializedData(), constructor, false);
+                if (result == null) {
+                    continue;
+                }
+                assertSame(classes[a].getSimpleName(), expected, result.getClass());
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof StopRead)) {
+                    throw e;
+                }
+                String reader = getReaderClass(e.getCause().getStackTrace());
+                String expectedReader = expected.getMethod("readParams", AbstractSerializedData.class, boolean.class).getDeclaringClass().getName();
+                assertEquals(classes[a].getSimpleName(), expectedReader, reader);
+            }
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    private static String getReaderClass(StackTraceElement[] trace) {
+        for (int a = 1; a < trace.length; a++) {
+            if (trace[a].getMethodName().equals("TLdeserialize")) {
+                return trace[a - 1].getClassName();
+            }
+        }
+        return null;
+    }
+
+    private static Method findDeserialize(Class<?> clazz) {
+        Class<?> owner = clazz.getSuperclass() != TLObject.class ? clazz.getSuperclass() : clazz;
+        if (owner.getDeclaringClass() != TLRPC.class) {
+            return null;
+        }
+        try {
+            Method method = owner.getDeclaredMethod("TLdeserialize", AbstractSerializedData.class, int.class, boolean.class);
+            return Modifier.isStatic(method.getModifiers()) ? method : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static int countSharedConstructors(Class<?>[] classes) throws Exception {
+        HashSet<Integer> constructors = new HashSet<>();
+        int shared = 0;
+        for (int a = 0; a < classes.length; a++) {
+            Integer constructor = getConstructor(classes[a]);
+            if (constructor != null && !constructors.add(constructor)) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+}